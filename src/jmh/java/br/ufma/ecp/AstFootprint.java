@@ -0,0 +1,27 @@
+package br.ufma.ecp;
+
+import br.ufma.ecp.ast.Ast;
+
+// Prints, for every corpus file, the memory held by the Ast arena and by the
+// XML text per source byte.
+//
+//   java -cp target/benchmarks.jar br.ufma.ecp.AstFootprint
+public class AstFootprint {
+
+    public static void main(String[] args) {
+        System.out.printf("%-8s %12s %10s %12s %12s %10s %10s%n",
+                "corpus", "source", "nodes", "ast bytes", "xml bytes", "ast/src", "xml/src");
+        for (String corpus : CorpusGenerator.CORPUS) {
+            byte[] input = Corpus.load(corpus);
+            Parser parser = new Parser(input);
+            parser.parse();
+            Ast ast = parser.ast();
+
+            // the StringBuilder keeps Latin-1 text in one byte per char
+            long xml = parser.XMLOutput().length();
+            System.out.printf("%-8s %12d %10d %12d %12d %10.2f %10.2f%n",
+                    corpus, input.length, ast.size(), ast.memoryBytes(), xml,
+                    (double) ast.memoryBytes() / input.length, (double) xml / input.length);
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package br.ufma.ecp;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Compares two JMH CSV result files (-rf csv) and reports the relative change
+// of every score. Exits with status 1 when a throughput score dropped, or a
+// normalized allocation grew, by more than the threshold (default 10%).
+//
+//   java -cp target/benchmarks.jar br.ufma.ecp.BenchmarkReport src/jmh/baseline.csv current.csv [threshold%]
+public class BenchmarkReport {
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("usage: BenchmarkReport <baseline.csv> <current.csv> [threshold%]");
+            System.exit(2);
+        }
+        double threshold = args.length > 2 ? Double.parseDouble(args[2]) / 100.0 : 0.10;
+
+        Map<String, Result> baseline = read(args[0]);
+        Map<String, Result> current = read(args[1]);
+
+        int regressions = 0;
+        System.out.printf("%-70s %16s %16s %9s%n", "Benchmark", "Baseline", "Current", "Change");
+        for (Result cur : current.values()) {
+            Result base = baseline.get(cur.key);
+            if (base == null || !cur.isTracked())
+                continue;
+
+            double change = (cur.score - base.score) / base.score;
+            boolean regression = cur.higherIsBetter() ? change < -threshold : change > threshold;
+            if (regression)
+                regressions++;
+
+            System.out.printf("%-70s %16.3f %16.3f %+8.1f%%%s%n",
+                    cur.key, base.score, cur.score, change * 100, regression ? "  REGRESSION" : "");
+        }
+        System.out.printf("%d regression(s) over a %.0f%% threshold%n", regressions, threshold * 100);
+        if (regressions > 0)
+            System.exit(1);
+    }
+
+    private static Map<String, Result> read(String path) throws IOException {
+        Map<String, Result> results = new LinkedHashMap<>();
+        List<String> lines = Files.readAllLines(Paths.get(path));
+        for (String line : lines.subList(1, lines.size())) {
+            List<String> cols = split(line);
+            String benchmark = cols.get(0).replace("br.ufma.ecp.", "");
+            StringBuilder key = new StringBuilder(benchmark);
+            for (String param : cols.subList(7, cols.size()))
+                key.append(" [").append(param).append(']');
+            Result r = new Result(key.toString(), Double.parseDouble(cols.get(4)), cols.get(6));
+            results.put(r.key, r);
+        }
+        return results;
+    }
+
+    private static List<String> split(String line) {
+        List<String> cols = new ArrayList<>();
+        StringBuilder col = new StringBuilder();
+        boolean quoted = false;
+        for (char ch : line.toCharArray()) {
+            if (ch == '"') {
+                quoted = !quoted;
+            } else if (ch == ',' && !quoted) {
+                cols.add(col.toString());
+                col.setLength(0);
+            } else {
+                col.append(ch);
+            }
+        }
+        cols.add(col.toString());
+        return cols;
+    }
+
+    private static class Result {
+        final String key;
+        final double score;
+        final String unit;
+
+        Result(String key, double score, String unit) {
+            this.key = key;
+            this.score = score;
+            this.unit = unit;
+        }
+
+        // gc.count, gc.time and alloc.rate depend on the machine load, only
+        // the throughput and the bytes allocated per operation are compared
+        boolean isTracked() {
+            return unit.equals("ops/s") || unit.equals("B/op");
+        }
+
+        boolean higherIsBetter() {
+            return unit.equals("ops/s");
+        }
+    }
+}
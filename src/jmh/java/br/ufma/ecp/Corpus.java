@@ -0,0 +1,23 @@
+package br.ufma.ecp;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+
+// Loads the checked-in benchmark sources from the classpath.
+final class Corpus {
+
+    private Corpus() {
+    }
+
+    static byte[] load(String name) {
+        String resource = "/corpus/" + name + ".jack";
+        try (InputStream in = Corpus.class.getResourceAsStream(resource)) {
+            if (in == null)
+                throw new IllegalArgumentException("corpus not found: " + resource);
+            return in.readAllBytes();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
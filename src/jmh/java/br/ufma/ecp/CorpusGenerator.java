@@ -0,0 +1,92 @@
+package br.ufma.ecp;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+
+// Generates the benchmark corpus in src/jmh/resources/corpus.
+// The output is deterministic (fixed seed), so regenerating it never changes
+// the checked-in files unless this generator changes.
+//
+//   java -cp target/benchmarks.jar br.ufma.ecp.CorpusGenerator src/jmh/resources/corpus
+public class CorpusGenerator {
+
+    static final String[] CORPUS = { "small", "medium", "large" };
+    static final int[] METHODS = { 4, 100, 1600 };
+
+    public static void main(String[] args) throws IOException {
+        Path dir = Paths.get(args.length > 0 ? args[0] : "src/jmh/resources/corpus");
+        Files.createDirectories(dir);
+        for (int i = 0; i < CORPUS.length; i++) {
+            String source = generate(capitalize(CORPUS[i]), METHODS[i], 42 + i);
+            Files.write(dir.resolve(CORPUS[i] + ".jack"), source.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    static String generate(String className, int methods, long seed) {
+        Random random = new Random(seed);
+        StringBuilder out = new StringBuilder();
+
+        out.append("// Generated by br.ufma.ecp.CorpusGenerator, do not edit.\n\n");
+        out.append("/** Benchmark class with ").append(methods).append(" methods. */\n");
+        out.append("class ").append(className).append(" {\n\n");
+        out.append("   field int x, y, size; // position and size\n");
+        out.append("   field Array data;\n");
+        out.append("   static int count;\n\n");
+
+        out.append("   /** Constructs a new instance. */\n");
+        out.append("   constructor ").append(className).append(" new(int Ax, int Ay, int Asize) {\n");
+        out.append("      let x = Ax;\n");
+        out.append("      let y = Ay;\n");
+        out.append("      let size = Asize;\n");
+        out.append("      let data = Array.new(Asize);\n");
+        out.append("      let count = count + 1;\n");
+        out.append("      do draw();\n");
+        out.append("      return this;\n");
+        out.append("   }\n\n");
+
+        for (int m = 0; m < methods; m++) {
+            int limit = 2 + random.nextInt(200);
+            int threshold = random.nextInt(1000);
+            out.append("   /** Computes value number ").append(m).append(". */\n");
+            out.append("   method int compute").append(m).append("(int a, int b) {\n");
+            out.append("      var int i, sum;\n");
+            out.append("      var boolean done;\n");
+            out.append("      let i = 0;\n");
+            out.append("      let sum = 0;\n");
+            out.append("      let done = false;\n");
+            out.append("      // iterate over the data buffer\n");
+            out.append("      while ((i < ").append(limit).append(") & (~done)) {\n");
+            out.append("         let sum = sum + (a * i) - b;\n");
+            out.append("         if ((sum > ").append(threshold).append(") | (i = b)) {\n");
+            out.append("            let sum = sum / 2;\n");
+            out.append("            let done = true;\n");
+            out.append("         } else {\n");
+            out.append("            let data[i] = -sum;\n");
+            out.append("         }\n");
+            out.append("         /* advance */\n");
+            out.append("         let i = i + 1;\n");
+            out.append("      }\n");
+            out.append("      do Output.printString(\"compute ").append(m).append("\");\n");
+            out.append("      do draw();\n");
+            out.append("      return Math.max(sum, data[x + y]);\n");
+            out.append("   }\n\n");
+        }
+
+        out.append("   /** Draws the instance on the screen. */\n");
+        out.append("   method void draw() {\n");
+        out.append("      do Screen.setColor(true);\n");
+        out.append("      do Screen.drawRectangle(x, y, x + size, y + size);\n");
+        out.append("      return;\n");
+        out.append("   }\n");
+        out.append("}\n");
+        return out.toString();
+    }
+
+    private static String capitalize(String name) {
+        return Character.toUpperCase(name.charAt(0)) + name.substring(1);
+    }
+}
@@ -0,0 +1,77 @@
+package br.ufma.ecp;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+// Prints, for every program directory, the ROM size and the cycles to
+// Sys.halt on the HackEmulator of the program plus the OS compiled three
+// ways: Jack -> VM -> VMTranslator, the same with -O and every Peephole
+// rule, and AsmGenerator straight to assembly. Run from the project root:
+//
+//   java -cp target/benchmarks.jar br.ufma.ecp.HackFootprint [os dir] [program dir]...
+public class HackFootprint {
+
+    public static void main(String[] args) throws IOException {
+        Path os = Paths.get(args.length > 0 ? args[0] : "src/test/resources/OS");
+        List<Path> programs = new ArrayList<>();
+        for (int k = 1; k < args.length; k++)
+            programs.add(Paths.get(args[k]));
+        if (programs.isEmpty()) {
+            try (Stream<Path> dirs = Files.list(Paths.get("src/test/resources/Programs"))) {
+                programs = dirs.sorted().collect(Collectors.toList());
+            }
+        }
+        Optimizations none = Optimizations.none();
+        Optimizations all = new Optimizations(Optimizations.FOLD | Optimizations.PEEPHOLE);
+
+        System.out.printf("%-12s %10s %10s %10s %12s %12s %12s%n",
+                "program", "vm rom", "vm -O rom", "asm rom", "vm cycles", "vm -O cyc", "asm cycles");
+        for (Path program : programs) {
+            List<Parser> parsed = new ArrayList<>();
+            List<String> names = new ArrayList<>();
+            for (Path dir : List.of(program, os)) {
+                try (Stream<Path> files = Files.list(dir)) {
+                    for (Path source : files.filter(f -> f.toString().endsWith(".jack")).sorted()
+                            .collect(Collectors.toList())) {
+                        Parser parser = new Parser(Files.readAllBytes(source));
+                        parser.parse();
+                        parsed.add(parser);
+                        String name = source.getFileName().toString();
+                        names.add(name.substring(0, name.length() - ".jack".length()));
+                    }
+                }
+            }
+            HackAssembler vm = new HackAssembler(translate(parsed, names, none));
+            HackAssembler optimized = new HackAssembler(translate(parsed, names, all));
+            List<AsmGenerator> classes = new ArrayList<>();
+            for (Parser parser : parsed) {
+                AsmGenerator generator = new AsmGenerator(parser.ast());
+                generator.compileClass();
+                classes.add(generator);
+            }
+            HackAssembler asm = new HackAssembler(AsmGenerator.link(classes));
+            System.out.printf("%-12s %10d %10d %10d %12d %12d %12d%n", program.getFileName(),
+                    vm.size(), optimized.size(), asm.size(), cycles(vm), cycles(optimized), cycles(asm));
+        }
+    }
+
+    private static String translate(List<Parser> parsed, List<String> names, Optimizations optimizations) {
+        VMTranslator translator = new VMTranslator();
+        for (int k = 0; k < parsed.size(); k++) {
+            VMWriter vm = new VMWriter();
+            new CodeGenerator(parsed.get(k).ast(), vm, optimizations).compileClass();
+            translator.translate(names.get(k), vm.toString());
+        }
+        return translator.toString();
+    }
+
+    private static long cycles(HackAssembler program) {
+        return new HackEmulator(program).run(program.label("Sys.halt"), Long.MAX_VALUE);
+    }
+}
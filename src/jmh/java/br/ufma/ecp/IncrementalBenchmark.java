@@ -0,0 +1,64 @@
+package br.ufma.ecp;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Keystroke latency in the middle of a corpus class: an edit that keeps the
+// token types, and a statement typed in and removed again, against
+// ParserBenchmark.parseAst on the same corpus. Each op is one edit.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class IncrementalBenchmark {
+
+    private static final byte[] STATEMENT = "let sum = sum + 1; ".getBytes(StandardCharsets.UTF_8);
+
+    @Param({ "medium", "large" })
+    public String corpus;
+
+    private IncrementalParser parser;
+    private int offset;
+    private boolean inserted;
+    private byte digit;
+
+    @Setup
+    public void setup() {
+        byte[] input = Corpus.load(corpus);
+        parser = new IncrementalParser(input);
+        String source = new String(input, StandardCharsets.UTF_8);
+        offset = source.indexOf("let sum", source.length() / 2);
+    }
+
+    // flips one byte of the identifier "sum" between two letters
+    @Benchmark
+    public IncrementalParser renameIdentifier() {
+        digit = (byte) (digit == 'a' ? 'b' : 'a');
+        parser.edit(offset + "let s".length(), 1, new byte[] { digit });
+        return parser;
+    }
+
+    @Benchmark
+    public IncrementalParser typeStatement() {
+        if (inserted)
+            parser.edit(offset, STATEMENT.length, new byte[0]);
+        else
+            parser.edit(offset, 0, STATEMENT);
+        inserted = !inserted;
+        return parser;
+    }
+}
@@ -0,0 +1,112 @@
+package br.ufma.ecp;
+
+import java.io.Writer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import br.ufma.ecp.ast.Ast;
+
+// Parsing throughput: every corpus file holds one class, so the score is
+// classes/sec for parse() + XMLOutput().
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ParserBenchmark {
+
+    @Param({ "small", "medium", "large" })
+    public String corpus;
+
+    private byte[] input;
+    private final VMWriter vm = new VMWriter();
+    private final Optimizations folding = new Optimizations(Optimizations.FOLD);
+
+    @Setup
+    public void setup() {
+        input = Corpus.load(corpus);
+    }
+
+    @Benchmark
+    public String parseClass() {
+        Parser parser = new Parser(input);
+        parser.parse();
+        return parser.XMLOutput();
+    }
+
+    // Same parse streamed to a Writer, the XML is never held in memory.
+    @Benchmark
+    public void parseClassStreaming() {
+        new Parser(input, Writer.nullWriter()).parse();
+    }
+
+    // Parse tree only: the allocation is the TokenStream plus the Ast arena.
+    @Benchmark
+    public Ast parseAst() {
+        Parser parser = new Parser(input);
+        parser.parse();
+        return parser.ast();
+    }
+
+    // Parse plus VM code generation into a VMWriter reused from op to op,
+    // to set against parseClass.
+    @Benchmark
+    public VMWriter compileVm() {
+        Parser parser = new Parser(input);
+        parser.parse();
+        vm.reset();
+        new CodeGenerator(parser.ast(), vm).compileClass();
+        return vm;
+    }
+
+    // compileVm with -O, the Optimizations counters are part of the cost
+    @Benchmark
+    public VMWriter compileVmFolded() {
+        Parser parser = new Parser(input);
+        parser.parse();
+        vm.reset();
+        new CodeGenerator(parser.ast(), vm, folding).compileClass();
+        return vm;
+    }
+
+    // Parse plus a class file, to set against compileVm.
+    @Benchmark
+    public byte[] compileJvm() {
+        Parser parser = new Parser(input);
+        parser.parse();
+        return new ClassGenerator(parser.ast()).compileClass();
+    }
+
+    // Parse plus Hack assembly straight from the Ast, to set against
+    // compileVmTranslated.
+    @Benchmark
+    public String compileAsm() {
+        Parser parser = new Parser(input);
+        parser.parse();
+        return new AsmGenerator(parser.ast()).compileClass();
+    }
+
+    // The two-stage path: VM text, read back by VMTranslator.
+    @Benchmark
+    public String compileVmTranslated() {
+        Parser parser = new Parser(input);
+        parser.parse();
+        vm.reset();
+        new CodeGenerator(parser.ast(), vm).compileClass();
+        VMTranslator translator = new VMTranslator();
+        translator.translate(corpus, vm.toString());
+        return translator.toString();
+    }
+}
@@ -0,0 +1,59 @@
+package br.ufma.ecp;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import br.ufma.ecp.ast.Ast;
+
+// Parse latency of one file, lexed first and then parsed on one thread,
+// against Parser.pipelined() lexing on a second thread while the first
+// parses. The pipeline can at best hide the scan behind the parse, and only
+// with a core free for it; with a single core it is slower on every file.
+// It has only been run on one core, so -pipeline is not gated on a file
+// size; compare the two on a machine with cores to spare:
+//
+//   java -jar target/benchmarks.jar PipelineBenchmark
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PipelineBenchmark {
+
+    @Param({ "small", "medium", "large" })
+    public String corpus;
+
+    private ByteBuffer input;
+
+    @Setup
+    public void setup() {
+        input = ByteBuffer.wrap(Corpus.load(corpus));
+    }
+
+    @Benchmark
+    public Ast sequential() {
+        Parser parser = new Parser(input.duplicate());
+        parser.parse();
+        return parser.ast();
+    }
+
+    @Benchmark
+    public Ast pipelined() {
+        Parser parser = Parser.pipelined(input.duplicate());
+        parser.parse();
+        return parser.ast();
+    }
+}
@@ -0,0 +1,95 @@
+package br.ufma.ecp;
+
+import static br.ufma.ecp.token.TokenType.EOF;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import br.ufma.ecp.token.Token;
+import br.ufma.ecp.token.TokenStream;
+
+// Lexing throughput: the primary score is files/sec, the "tokens" secondary
+// score is tokens/sec. nextToken() materializes a Token per lexeme, tokenize()
+// fills a TokenStream, tokenizeMapped() does it from a mapped file.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ScannerBenchmark {
+
+    @Param({ "small", "medium", "large" })
+    public String corpus;
+
+    private byte[] input;
+    private Path file;
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class TokenCounter {
+        public long tokens;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            tokens = 0;
+        }
+    }
+
+    @Setup
+    public void setup() throws IOException {
+        input = Corpus.load(corpus);
+        file = Files.createTempFile(corpus, ".jack");
+        Files.write(file, input);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public void nextToken(TokenCounter counter, Blackhole bh) {
+        Scanner scan = new Scanner(input);
+        long n = 0;
+        for (Token tk = scan.nextToken(); tk.type != EOF; tk = scan.nextToken()) {
+            bh.consume(tk);
+            n++;
+        }
+        counter.tokens += n;
+    }
+
+    // Same input through the struct-of-arrays path, no Token per lexeme.
+    @Benchmark
+    public TokenStream tokenize(TokenCounter counter) {
+        TokenStream tokens = new Scanner(input).tokenize();
+        counter.tokens += tokens.size() - 1;
+        return tokens;
+    }
+
+    // tokenize() over a memory-mapped copy of the corpus.
+    @Benchmark
+    public TokenStream tokenizeMapped(TokenCounter counter) throws IOException {
+        TokenStream tokens = new Scanner(file).tokenize();
+        counter.tokens += tokens.size() - 1;
+        return tokens;
+    }
+}
@@ -1,36 +1,614 @@
 package br.ufma.ecp;
-import static br.ufma.ecp.token.TokenType.*;
-import br.ufma.ecp.token.Token; 
 
-public class App 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import br.ufma.ecp.metrics.Events;
+import br.ufma.ecp.metrics.Metrics;
+
+// Compiler driver: finds every .jack file under the given files and
+// directories and compiles them in parallel on a work-stealing pool, writing
+// each class's output next to its source: Foo.jack -> Foo.xml, Foo.vm with
+// -target vm, or Foo.class with -target jvm (see Target, ClassGenerator).
+// -target asm compiles the files, which must include the OS, as one program
+// straight to Hack assembly in Main.asm (see AsmGenerator); -profile adds
+// counters for every subroutine, -profile-loops for every while as well,
+// and names them in Main.profile (see HackEmulator, ProfileReport).
+// -O folds constants and reduces multiplications in the VM code,
+// -pool-strings builds each string literal once per class, -peephole
+// all|rule,... rewrites the VM code of each class with the Peephole rules,
+// and all of them report what they saved (see Optimizations). -shake
+// compiles the files as one program and writes only the subroutines
+// reachable from Main.main (see TreeShaker); -inline size also compiles
+// them as one program, replacing calls to subroutines of at most size
+// commands by their bodies (see Inliner). With -cache, sources whose bytes
+// are already in the BuildCache are not parsed again. -daemon keeps a warm
+// compiler running (see Daemon), -client sends the files to it and
+// compiles in-process if none is listening, -stop ends it. -pipeline lexes
+// each file on a thread of its own while it is parsed (see
+// Parser.pipelined()) when there is more than one core, which has not been
+// measured to pay off yet (see PipelineBenchmark); not for -target asm,
+// -shake or -inline. -metrics writes the sizes, token counts and phase
+// latencies of the run as JSON to a file, or to stdout for -, see Metrics;
+// for a daemon, record its JFR events instead (see Events).
+//
+//   java -cp target/jackcompiler-1.0-SNAPSHOT.jar br.ufma.ecp.App [-j threads] [-target xml|vm|jvm|asm]
+//        [-profile | -profile-loops] [-O] [-pool-strings] [-peephole all|rule,...] [-shake] [-inline size]
+//        [-cache dir [-cache-size MB]] [-client | -daemon | -stop] [-socket path] [-pipeline] [-metrics file|-] <file|dir>...
+public class App
 {
+    // Part of every cache key: a hash of the compiler's own class files,
+    // so a rebuilt compiler never restores the output of an older one.
+    static final String VERSION = buildId();
+
+    private static final String USAGE = "usage: App [-j threads] [-target xml|vm|jvm|asm]"
+            + " [-profile | -profile-loops] [-O] [-pool-strings] [-peephole all|rule,...] [-shake] [-inline size] [-cache dir [-cache-size MB]]"
+            + " [-client | -daemon | -stop] [-socket path] [-pipeline] [-metrics file|-] <file|dir>...";
+
+    // the VM code of a class is built in memory, in a buffer each thread reuses
+    private static final ThreadLocal<VMWriter> VM_WRITERS = ThreadLocal.withInitial(VMWriter::new);
+
     public static void main( String[] args )
     {
-        String input = "45  + if - \"ola\" laranja 876";
-        Scanner scan = new Scanner (input.getBytes());
-        for (Token tk = scan.nextToken(); tk.type != EOF; tk = scan.nextToken()) {
-            System.out.println(tk);
-        }
-
-        /*
-        Parser p = new Parser (input.getBytes());
-        p.parse();
-        */
-
-
-        //Parser p = new Parser (fromFile().getBytes());
-        //p.parse();
-
-        /*
-        String input = "489-85+69";
-        Scanner scan = new Scanner (input.getBytes());
-        System.out.println(scan.nextToken());
-        System.out.println(scan.nextToken());
-        System.out.println(scan.nextToken());
-        System.out.println(scan.nextToken());
-        System.out.println(scan.nextToken());
-        Token tk = new Token(NUMBER, "42");
-        System.out.println(tk);
-        */
+        int status = run(args);
+        if (status != 0)
+            System.exit(status);
+    }
+
+    // Returns the process exit status: 0 on success, 1 if any file failed, 2 on bad usage.
+    static int run(String[] args) {
+        int parallelism = Runtime.getRuntime().availableProcessors();
+        Target target = Target.XML;
+        int optimize = 0;
+        int peepholeRules = 0;
+        int profile = 0;
+        boolean shake = false;
+        int inlineSize = -1;
+        String cacheDir = null;
+        long cacheSize = 256;
+        String mode = null;
+        Path socket = Daemon.defaultSocket();
+        String metrics = null;
+        boolean pipeline = false;
+        List<String> paths = new ArrayList<>();
+        try {
+            for (int i = 0; i < args.length; i++) {
+                if (args[i].equals("-j") && i + 1 < args.length) {
+                    parallelism = Integer.parseInt(args[++i]);
+                } else if (args[i].equals("-target") && i + 1 < args.length) {
+                    target = Target.valueOf(args[++i].toUpperCase());
+                } else if (args[i].equals("-O")) {
+                    optimize |= Optimizations.FOLD;
+                } else if (args[i].equals("-pool-strings")) {
+                    optimize |= Optimizations.POOL_STRINGS;
+                } else if (args[i].equals("-peephole") && i + 1 < args.length) {
+                    peepholeRules = Peephole.parseRules(args[++i]);
+                } else if (args[i].equals("-profile")) {
+                    profile = AsmGenerator.PROFILE;
+                } else if (args[i].equals("-profile-loops")) {
+                    profile = AsmGenerator.PROFILE | AsmGenerator.PROFILE_LOOPS;
+                } else if (args[i].equals("-shake")) {
+                    shake = true;
+                } else if (args[i].equals("-inline") && i + 1 < args.length) {
+                    inlineSize = Integer.parseInt(args[++i]);
+                    if (inlineSize < 0)
+                        throw new IllegalArgumentException("negative inline size");
+                } else if (args[i].equals("-cache") && i + 1 < args.length) {
+                    cacheDir = args[++i];
+                } else if (args[i].equals("-cache-size") && i + 1 < args.length) {
+                    cacheSize = Long.parseLong(args[++i]);
+                } else if (args[i].equals("-pipeline")) {
+                    pipeline = true;
+                } else if (args[i].equals("-metrics") && i + 1 < args.length) {
+                    metrics = args[++i];
+                } else if (args[i].equals("-socket") && i + 1 < args.length) {
+                    socket = Paths.get(args[++i]);
+                } else if (args[i].equals("-client") || args[i].equals("-daemon") || args[i].equals("-stop")) {
+                    mode = args[i];
+                } else {
+                    paths.add(args[i]);
+                }
+            }
+        } catch (IllegalArgumentException e) { // a bad number or target
+            parallelism = 0;
+        }
+        boolean needsPaths = mode == null || mode.equals("-client");
+        // a whole program is one unit: no per-file cache, no daemon
+        boolean program = shake || inlineSize >= 0;
+        boolean badProgram = program && (target != Target.VM || mode != null || cacheDir != null)
+                || target == Target.ASM && (mode != null || cacheDir != null)
+                || profile != 0 && target != Target.ASM
+                || (metrics != null || pipeline) && mode != null
+                || pipeline && (program || target == Target.ASM);
+        if (paths.isEmpty() == needsPaths || parallelism < 1 || cacheSize < 1 || badProgram) {
+            System.err.println(USAGE);
+            return 2;
+        }
+
+        List<Path> sources;
+        BuildCache cache = null;
+        try {
+            if (mode != null && mode.equals("-stop")) {
+                boolean stopped = Daemon.stop(socket);
+                System.out.println(stopped ? "daemon stopped" : "no daemon listening on " + socket);
+                return stopped ? 0 : 1;
+            }
+            sources = findSources(paths);
+            if (cacheDir != null)
+                cache = new BuildCache(Paths.get(cacheDir), cacheSize << 20, VERSION);
+            if (mode != null && mode.equals("-daemon")) {
+                System.out.println("daemon listening on " + socket);
+                new Daemon(socket, parallelism, cache).serve();
+                return 0;
+            }
+        } catch (IOException | UncheckedIOException e) {
+            System.err.println("error: " + e.getMessage());
+            return 2;
+        }
+
+        Optimizations optimizations = new Optimizations(optimize, peepholeRules);
+        String report = optimizations.toString();
+        TreeShaker shaker = shake ? new TreeShaker() : null;
+        Inliner inliner = inlineSize >= 0 ? new Inliner(inlineSize) : null;
+        if (metrics != null)
+            Metrics.enable();
+        long begin = System.nanoTime();
+        int failures = -1;
+        if (mode != null) { // -client
+            Daemon.Reply reply = forward(socket, sources, target, optimizations);
+            if (reply != null) {
+                failures = reply.failures;
+                report = reply.report;
+            }
+        }
+        if (failures < 0) {
+            ForkJoinPool pool = new ForkJoinPool(parallelism);
+            try {
+                if (target == Target.ASM)
+                    failures = compileAsm(sources, profile, pool, System.err);
+                else if (program)
+                    failures = compileProgram(sources, optimizations, inliner, shaker, pool, System.err);
+                else
+                    failures = compileAll(sources, target, optimizations, pipeline, pool, cache, System.err);
+                report = optimizations.toString();
+            } finally {
+                pool.shutdown();
+            }
+        }
+        double seconds = (System.nanoTime() - begin) / 1e9;
+
+        System.out.printf("%d file(s) in %.0f ms, %.1f files/s, %d failure(s)%n",
+                sources.size(), seconds * 1000, sources.size() / seconds, failures);
+        if (optimizations.any())
+            System.out.println(report);
+        if (inliner != null && failures == 0)
+            System.out.println(inliner);
+        if (shaker != null && failures == 0)
+            System.out.println(shaker);
+        if (cache != null)
+            System.out.println(cache);
+        if (metrics != null && !writeMetrics(metrics))
+            return 1;
+        return failures == 0 ? 0 : 1;
+    }
+
+    // Writes the metrics of this run as JSON to file, or to stdout for "-".
+    private static boolean writeMetrics(String file) {
+        String json = Metrics.current().toJson();
+        Metrics.disable();
+        if (file.equals("-")) {
+            System.out.print(json);
+            return true;
+        }
+        try {
+            Files.writeString(Paths.get(file), json, StandardCharsets.UTF_8);
+            return true;
+        } catch (IOException e) {
+            System.err.println("error: " + e.getMessage());
+            return false;
+        }
+    }
+
+    // The hash of the jar or classes directory App was loaded from.
+    private static String buildId() {
+        try {
+            return buildId(Paths.get(App.class.getProtectionDomain().getCodeSource().getLocation().toURI()));
+        } catch (IOException | URISyntaxException | RuntimeException e) {
+            // an unknown build shares no cache entries with any other
+            return "unknown-" + UUID.randomUUID();
+        }
+    }
+
+    // xxHash64 of a jar, or of the names and bytes of the class files under
+    // a directory, in hex.
+    static String buildId(Path codeSource) throws IOException {
+        if (!Files.isDirectory(codeSource))
+            return Long.toHexString(BuildCache.hash(ByteBuffer.wrap(Files.readAllBytes(codeSource)), 0));
+        List<Path> classes;
+        try (Stream<Path> files = Files.walk(codeSource)) {
+            classes = files.filter(f -> f.toString().endsWith(".class")).sorted().collect(Collectors.toList());
+        }
+        long hash = 0;
+        for (Path file : classes) {
+            byte[] name = codeSource.relativize(file).toString().getBytes(StandardCharsets.UTF_8);
+            hash = BuildCache.hash(ByteBuffer.wrap(name), hash);
+            hash = BuildCache.hash(ByteBuffer.wrap(Files.readAllBytes(file)), hash);
+        }
+        return Long.toHexString(hash);
+    }
+
+    // Compiles the sources in the daemon. Returns null when no daemon
+    // answered, or one of another build, and the caller has to compile
+    // in-process.
+    private static Daemon.Reply forward(Path socket, List<Path> sources, Target target, Optimizations optimizations) {
+        try {
+            Daemon.Reply reply = Daemon.compile(socket, sources, target, optimizations);
+            if (reply != null)
+                System.err.print(reply.diagnostics);
+            return reply != null && reply.failures != Daemon.OTHER_BUILD ? reply : null;
+        } catch (IOException e) {
+            System.err.println("daemon: " + e.getMessage());
+        }
+        return null;
+    }
+
+    static List<Path> findSources(List<String> paths) throws IOException {
+        List<Path> sources = new ArrayList<>();
+        for (String name : paths) {
+            Path path = Paths.get(name);
+            if (Files.isDirectory(path)) {
+                try (Stream<Path> files = Files.walk(path)) {
+                    sources.addAll(files
+                            .filter(f -> f.toString().endsWith(".jack") && Files.isRegularFile(f))
+                            .sorted()
+                            .collect(Collectors.toList()));
+                }
+            } else if (Files.isRegularFile(path) && name.endsWith(".jack")) {
+                sources.add(path);
+            } else {
+                throw new IOException("not a .jack file or directory: " + name);
+            }
+        }
+        return sources;
+    }
+
+    // Compiles every source on the pool, reporting errors to err, and returns
+    // how many failed. cache may be null.
+    static int compileAll(List<Path> sources, Target target, Optimizations optimizations, ForkJoinPool pool,
+            BuildCache cache, PrintStream err) {
+        return compileAll(sources, target, optimizations, false, pool, cache, err);
+    }
+
+    // With pipeline, files are lexed on a thread of their own while they are
+    // parsed, see Parser.pipelined(); on a single core they are parsed as
+    // without it.
+    static int compileAll(List<Path> sources, Target target, Optimizations optimizations, boolean pipeline,
+            ForkJoinPool pool, BuildCache cache, PrintStream err) {
+        List<ForkJoinTask<Boolean>> tasks = new ArrayList<>();
+        for (Path source : sources)
+            tasks.add(pool.submit(() -> compile(source, target, optimizations, pipeline, cache, err)));
+
+        int failures = 0;
+        for (ForkJoinTask<Boolean> task : tasks) {
+            if (!task.join())
+                failures++;
+        }
+        return failures;
+    }
+
+    // Compiles the sources to VM code as one program, inlines small
+    // subroutines and then writes the ones reachable from Main.main, as far
+    // as inliner and shaker are given (either may be null). Nothing is
+    // written unless every file compiles; a missing Main.main counts as one
+    // failure.
+    static int compileProgram(List<Path> sources, Optimizations optimizations, Inliner inliner, TreeShaker shaker,
+            ForkJoinPool pool, PrintStream err) {
+        List<ForkJoinTask<VMWriter>> tasks = new ArrayList<>();
+        for (Path source : sources)
+            tasks.add(pool.submit(() -> compileUnit(source, optimizations, err)));
+
+        int failures = 0;
+        List<VMWriter> units = new ArrayList<>(sources.size());
+        for (ForkJoinTask<VMWriter> task : tasks) {
+            VMWriter vm = task.join();
+            if (vm == null)
+                failures++;
+            units.add(vm);
+        }
+        if (failures > 0)
+            return failures;
+        if (inliner != null)
+            units = inliner.inline(units);
+
+        try {
+            if (shaker == null) {
+                for (int i = 0; i < sources.size(); i++) {
+                    try (OutputStream out = Files.newOutputStream(outputFile(sources.get(i), Target.VM))) {
+                        long begin = Metrics.start();
+                        units.get(i).writeTo(out);
+                        Metrics.written(begin, units.get(i).size());
+                    }
+                }
+                return 0;
+            }
+            for (int i = 0; i < sources.size(); i++)
+                shaker.add(outputFile(sources.get(i), Target.VM), units.get(i));
+            if (!shaker.shake()) {
+                err.println("no " + TreeShaker.MAIN + " in the program");
+                return 1;
+            }
+            shaker.write();
+        } catch (IOException e) {
+            err.println("error: " + e.getMessage());
+            return 1;
+        }
+        return 0;
+    }
+
+    // Compiles the sources to Hack assembly as one program, written next to
+    // the Main class as Main.asm, with the profile map in Main.profile when
+    // profile is not 0. Nothing is written unless every file compiles; a
+    // program without Main or Sys counts as one failure.
+    static int compileAsm(List<Path> sources, int profile, ForkJoinPool pool, PrintStream err) {
+        List<ForkJoinTask<AsmGenerator>> tasks = new ArrayList<>();
+        for (Path source : sources)
+            tasks.add(pool.submit(() -> compileAsmUnit(source, profile, err)));
+
+        int failures = 0;
+        List<AsmGenerator> units = new ArrayList<>(sources.size());
+        Path main = null;
+        boolean sys = false;
+        for (int i = 0; i < sources.size(); i++) {
+            AsmGenerator unit = tasks.get(i).join();
+            if (unit == null) {
+                failures++;
+                continue;
+            }
+            units.add(unit);
+            if (unit.className().equals("Main"))
+                main = sources.get(i);
+            sys |= unit.className().equals("Sys");
+        }
+        if (failures > 0)
+            return failures;
+        if (main == null || !sys) {
+            err.println("no " + (main == null ? "Main" : "Sys") + " class in the program");
+            return 1;
+        }
+        try {
+            String code = AsmGenerator.link(units);
+            long begin = Metrics.start();
+            Files.writeString(outputFile(main, Target.ASM), code, StandardCharsets.ISO_8859_1);
+            Metrics.written(begin, code.length());
+            if (profile != 0)
+                Files.writeString(main.resolveSibling("Main.profile"), AsmGenerator.profileMap(units),
+                        StandardCharsets.UTF_8);
+        } catch (IOException | IllegalStateException e) {
+            err.println("error: " + e.getMessage());
+            return 1;
+        }
+        return 0;
+    }
+
+    private static AsmGenerator compileAsmUnit(Path source, int profile, PrintStream err) {
+        Metrics.setFile(source.toString());
+        try {
+            Parser parser = new Parser(Scanner.map(source));
+            parser.parse();
+            List<Diagnostic> errors = parser.diagnostics();
+            AsmGenerator generator = null;
+            if (errors.isEmpty()) {
+                Events.Emit emit = new Events.Emit();
+                emit.begin();
+                long begin = Metrics.start();
+                generator = new AsmGenerator(parser.ast(), profile);
+                String code = generator.compileClass();
+                emitted(emit, begin, Target.ASM, code.length());
+                errors = generator.diagnostics();
+            }
+            for (Diagnostic error : errors)
+                err.println(source + ": " + error);
+            return errors.isEmpty() ? generator : null;
+        } catch (IOException | RuntimeException e) {
+            err.println(source + ": " + (e.getMessage() != null ? e.getMessage() : e.toString()));
+            return null;
+        } finally {
+            Metrics.setFile(null);
+        }
+    }
+
+    // The VM code of one class of a program, in a VMWriter of its own that
+    // records the links, or null on errors.
+    private static VMWriter compileUnit(Path source, Optimizations optimizations, PrintStream err) {
+        Metrics.setFile(source.toString());
+        try {
+            Parser parser = new Parser(Scanner.map(source));
+            parser.parse();
+            List<Diagnostic> errors = parser.diagnostics();
+            VMWriter vm = new VMWriter();
+            if (errors.isEmpty()) {
+                Events.Emit emit = new Events.Emit();
+                emit.begin();
+                long begin = Metrics.start();
+                vm.recordLinks(true);
+                CodeGenerator generator = new CodeGenerator(parser.ast(), vm, optimizations);
+                generator.compileClass();
+                emitted(emit, begin, Target.VM, vm.size());
+                errors = generator.diagnostics();
+            }
+            for (Diagnostic error : errors)
+                err.println(source + ": " + error);
+            return errors.isEmpty() ? vm : null;
+        } catch (IOException | RuntimeException e) {
+            err.println(source + ": " + (e.getMessage() != null ? e.getMessage() : e.toString()));
+            return null;
+        } finally {
+            Metrics.setFile(null);
+        }
+    }
+
+    // a cache that cannot be written only costs the next build some time
+    private static void store(BuildCache cache, long key, Path output, PrintStream err) {
+        try {
+            cache.store(key, output);
+        } catch (IOException e) {
+            err.println("cache: " + e.getMessage());
+        }
+    }
+
+    static Path outputFile(Path source, Target target) {
+        String name = source.getFileName().toString();
+        return source.resolveSibling(name.substring(0, name.length() - ".jack".length()) + target.extension);
+    }
+
+    // Each file gets its own Scanner and Parser, so the output is the same
+    // as a single-threaded run whatever the parallelism. A file restored from
+    // the cache adds nothing to the optimizations report.
+    static boolean compile(Path source, Target target, Optimizations optimizations, boolean pipeline,
+            BuildCache cache, PrintStream err) {
+        Path output = outputFile(source, target);
+        Metrics.setFile(source.toString());
+        try {
+            ByteBuffer input = Scanner.map(source);
+            long key = 0;
+            if (cache != null) {
+                key = cache.key(input, target.name() + (optimizations.any()
+                        ? "-O" + optimizations.flags() + "-" + optimizations.peepholeRules() : ""));
+                if (cache.restore(key, output))
+                    return true;
+            }
+
+            List<Diagnostic> errors;
+            try (OutputStream out = Files.newOutputStream(output)) {
+                errors = compile(input, target, optimizations, pipeline, out);
+            }
+            if (!errors.isEmpty()) {
+                for (Diagnostic error : errors)
+                    err.println(source + ": " + error);
+                deleteOutput(output);
+                return false;
+            }
+            if (cache != null)
+                store(cache, key, output, err);
+            return true;
+        } catch (IOException | RuntimeException e) {
+            err.println(source + ": " + (e.getMessage() != null ? e.getMessage() : e.toString()));
+            deleteOutput(output);
+            return false;
+        } finally {
+            Metrics.setFile(null);
+        }
+    }
+
+    // Compiles input for target into out and returns the errors; out is only
+    // complete when there are none. XML is streamed while parsing, VM code
+    // and class files need the whole Ast first. Optimizations only apply to
+    // VM code; the JIT does its own on class files. For ASM this is the code
+    // of the class alone, which AsmGenerator.link() makes a program of.
+    static List<Diagnostic> compile(ByteBuffer input, Target target, Optimizations optimizations, OutputStream out)
+            throws IOException {
+        return compile(input, target, optimizations, false, out);
+    }
+
+    static List<Diagnostic> compile(ByteBuffer input, Target target, Optimizations optimizations, boolean pipeline,
+            OutputStream out) throws IOException {
+        // on one core the scanner thread only takes turns with the parser
+        pipeline &= Runtime.getRuntime().availableProcessors() > 1;
+        if (target == Target.XML) {
+            Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+            Parser parser = pipeline ? Parser.pipelined(input, writer) : new Parser(input, writer);
+            parser.parse();
+            return parser.diagnostics();
+        }
+
+        Parser parser = pipeline ? Parser.pipelined(input) : new Parser(input);
+        parser.parse();
+        if (!parser.diagnostics().isEmpty())
+            return parser.diagnostics();
+        Events.Emit emit = new Events.Emit();
+        emit.begin();
+        long begin = Metrics.start();
+        Events.Write write = new Events.Write();
+        if (target == Target.JVM) {
+            ClassGenerator generator = new ClassGenerator(parser.ast());
+            byte[] classFile = generator.compileClass();
+            emitted(emit, begin, target, classFile.length);
+            if (generator.diagnostics().isEmpty()) {
+                write.begin();
+                begin = Metrics.start();
+                out.write(classFile);
+                written(write, begin, classFile.length);
+            }
+            return generator.diagnostics();
+        }
+        if (target == Target.ASM) {
+            AsmGenerator generator = new AsmGenerator(parser.ast());
+            byte[] code = generator.compileClass().getBytes(StandardCharsets.ISO_8859_1);
+            emitted(emit, begin, target, code.length);
+            if (generator.diagnostics().isEmpty()) {
+                write.begin();
+                begin = Metrics.start();
+                out.write(code);
+                written(write, begin, code.length);
+            }
+            return generator.diagnostics();
+        }
+        VMWriter vm = VM_WRITERS.get();
+        vm.reset();
+        CodeGenerator generator = new CodeGenerator(parser.ast(), vm, optimizations);
+        generator.compileClass();
+        emitted(emit, begin, target, vm.size());
+        if (generator.diagnostics().isEmpty()) {
+            write.begin();
+            begin = Metrics.start();
+            vm.writeTo(out);
+            written(write, begin, vm.size());
+        }
+        return generator.diagnostics();
+    }
+
+    // the end of building the output of a class, bytes long
+    private static void emitted(Events.Emit event, long begin, Target target, long bytes) {
+        Metrics.record(Metrics.Phase.EMIT, begin);
+        if (event.shouldCommit()) {
+            event.file = Metrics.file();
+            event.target = target.name().toLowerCase();
+            event.bytes = bytes;
+            event.commit();
+        }
+    }
+
+    // the end of writing the output of a class, bytes long
+    private static void written(Events.Write event, long begin, long bytes) {
+        Metrics.written(begin, bytes);
+        if (event.shouldCommit()) {
+            event.file = Metrics.file();
+            event.bytes = bytes;
+            event.commit();
+        }
+    }
+
+    private static void deleteOutput(Path output) {
+        try {
+            Files.deleteIfExists(output);
+        } catch (IOException ignored) {
+        }
     }
 }
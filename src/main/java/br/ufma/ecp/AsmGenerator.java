@@ -0,0 +1,809 @@
+package br.ufma.ecp;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+import br.ufma.ecp.SymbolTable.Kind;
+import br.ufma.ecp.ast.Ast;
+import br.ufma.ecp.ast.NodeKind;
+import br.ufma.ecp.token.TokenStream;
+import br.ufma.ecp.token.TokenType;
+
+// Jack straight to Hack assembly, walking the Ast of a class that parsed
+// without errors, without VM code in between. The memory layout is the
+// VM's (stack from 256, LCL, ARG and THIS, statics as Class.k), but the
+// code knows what a VM translator, seeing one command at a time, cannot:
+//
+// - the top of the stack is cached in D: an expression leaves its value
+//   there, and only the left operand of an operator whose right operand is
+//   not a constant or a nearby variable is ever pushed;
+// - an array element is read and written through A, so THAT is never used
+//   and the frame is four words: return address, LCL, ARG and THIS;
+// - calls go through a shared $CALLn routine per argument count, seven
+//   instructions at the call site, and every function returns through one
+//   $RETURN routine, leaving the result in D instead of on the stack;
+// - a comparison in an if or while is a subtraction and a jump, without
+//   making -1 or 0 first; a < or > decides by the signs when the operands'
+//   differ, so the difference never wraps around: against a constant with
+//   one more jump, otherwise in the shared $COMPARE routine;
+// - locals, arguments and fields near their base are reached with A=A+1
+//   steps, without D.
+//
+// The classes are joined by
+// link(), which adds the bootstrap and the routines.
+//
+// With PROFILE every subroutine is a profile region of the HackEmulator:
+// its entry adds 1 to the region's 32-bit entry count and selects it, and
+// the code after each call selects the caller's region again, so the
+// emulator counts each cycle in the subroutine running it (the cycles of
+// $CALLn go to the caller, those of $RETURN to the callee). PROFILE_LOOPS
+// makes the body of every while a region too, entered once per iteration.
+// It costs 6 cycles per entry and 2 per call. link() gives the regions
+// their addresses and profileMap() names them, for ProfileReport.
+public class AsmGenerator {
+
+    public static final int PROFILE = 1;
+    public static final int PROFILE_LOOPS = 2;
+
+    // a variable at most this far from its segment base is reached in steps
+    private static final int MAX_STEPS = 7;
+    // return address, LCL, ARG, THIS
+    private static final int FRAME = 4;
+
+    private final Ast ast;
+    private final TokenStream tokens;
+    private final Declarations declarations;
+    private final SymbolTable symbols;
+    private final StringBuilder out = new StringBuilder();
+    // the argument counts of the calls, one $CALLn for each
+    private final BitSet arities = new BitSet();
+    // whether any < or > goes through $COMPARE
+    private boolean compares;
+
+    private final int profile;
+    // the names of this class's profile regions, numbered from 0 here and
+    // placed by link()
+    private final List<String> regions = new ArrayList<>();
+    // where the code has a region word address to fill in, and which word
+    private int[] holes = new int[16];
+    private int holeCount;
+    // the region the code being compiled runs in, -1 without profiling
+    private int region = -1;
+
+    private String className;
+    private String function;
+    private int labels;
+
+    public AsmGenerator(Ast ast) {
+        this(ast, 0);
+    }
+
+    // profile is 0, PROFILE or PROFILE | PROFILE_LOOPS
+    public AsmGenerator(Ast ast, int profile) {
+        this.ast = ast;
+        this.tokens = ast.tokens();
+        this.declarations = new Declarations(ast);
+        this.symbols = declarations.symbols();
+        this.profile = profile;
+    }
+
+    public List<Diagnostic> diagnostics() {
+        return declarations.diagnostics();
+    }
+
+    public String className() {
+        return className;
+    }
+
+    // Compiles the class at the root of the Ast and returns its code, which
+    // only runs once link() has joined it with the rest of the program.
+    public String compileClass() {
+        symbols.startClass();
+        int node = ast.firstChild(0); // 'class'
+        node = ast.nextSibling(0, node);
+        className = tokens.text(ast.token(node));
+        for (node = ast.nextSibling(0, node); node >= 0; node = ast.nextSibling(0, node)) {
+            if (ast.kind(node) == NodeKind.CLASS_VAR_DEC)
+                declarations.defineClassVars(node);
+            else if (ast.kind(node) == NodeKind.SUBROUTINE_DEC)
+                compileSubroutine(node);
+        }
+        return out.toString();
+    }
+
+    // The whole program: the bootstrap, which sets SP and calls Sys.init,
+    // the routines the classes call through and then the compiled classes,
+    // their profile regions one after the other from HackEmulator.PROFILE.
+    public static String link(List<AsmGenerator> classes) {
+        StringBuilder program = new StringBuilder();
+        BitSet arities = new BitSet();
+        arities.set(0);
+        boolean compares = false;
+        for (AsmGenerator generator : classes) {
+            arities.or(generator.arities);
+            compares |= generator.compares;
+        }
+
+        program.append("@256\nD=A\n@SP\nM=D\n");
+        program.append("@Sys.init\nD=A\n@R13\nM=D\n@$HALT\nD=A\n@$CALL0\n0;JMP\n($HALT)\n@$HALT\n0;JMP\n");
+        // D = return address, R13 = function
+        for (int n = arities.nextSetBit(0); n >= 0; n = arities.nextSetBit(n + 1)) {
+            program.append("($CALL").append(n).append(")\n@SP\nA=M\nM=D\n");
+            for (String pointer : new String[] { "LCL", "ARG", "THIS" })
+                program.append('@').append(pointer).append("\nD=M\n@SP\nAM=M+1\nM=D\n");
+            program.append("@SP\nMD=M+1\n@LCL\nM=D\n@").append(n + FRAME).append("\nD=D-A\n@ARG\nM=D\n");
+            program.append("@R13\nA=M\n0;JMP\n");
+        }
+        // D = result, left there for the caller; SP = ARG drops the arguments
+        program.append("($RETURN)\n@R15\nM=D\n@ARG\nD=M\n@SP\nM=D\n");
+        program.append("@LCL\nD=M\n@").append(FRAME).append("\nA=D-A\nD=M\n@R13\nM=D\n");
+        program.append("@LCL\nAM=M-1\nD=M\n@THIS\nM=D\n@LCL\nAM=M-1\nD=M\n@ARG\nM=D\n");
+        program.append("@LCL\nA=M-1\nD=M\n@LCL\nM=D\n@R15\nD=M\n@R13\nA=M\n0;JMP\n");
+        // D = return address, R14 = right, left on the stack, popped; D = left
+        // - right, or for operands of different signs -1 or 1 as left's
+        if (compares) {
+            program.append("($COMPARE)\n@R15\nM=D\n@SP\nAM=M-1\nD=M\n@$COMPARE.NEG\nD;JLT\n");
+            program.append("@R14\nD=M\n@$COMPARE.SAME\nD;JGE\nD=1\n@$COMPARE.END\n0;JMP\n");
+            program.append("($COMPARE.NEG)\n@R14\nD=M\n@$COMPARE.SAME\nD;JLT\nD=-1\n@$COMPARE.END\n0;JMP\n");
+            program.append("($COMPARE.SAME)\n@SP\nA=M\nD=M\n@R14\nD=D-M\n($COMPARE.END)\n@R15\nA=M\n0;JMP\n");
+        }
+        int base = HackEmulator.PROFILE;
+        for (AsmGenerator generator : classes) {
+            generator.appendTo(program, base);
+            base += generator.regions.size() * HackEmulator.REGION_SIZE;
+        }
+        if (base > 32768)
+            throw new IllegalStateException("too many profile regions for the RAM: "
+                    + (base - HackEmulator.PROFILE) / HackEmulator.REGION_SIZE);
+        return program.toString();
+    }
+
+    // Each profile region's address and name, one per line, in the order
+    // link() places them.
+    public static String profileMap(List<AsmGenerator> classes) {
+        StringBuilder map = new StringBuilder();
+        int address = HackEmulator.PROFILE;
+        for (AsmGenerator generator : classes) {
+            for (String name : generator.regions) {
+                map.append(address).append(' ').append(name).append('\n');
+                address += HackEmulator.REGION_SIZE;
+            }
+        }
+        return map.toString();
+    }
+
+    // the code with the addresses of the regions, which start at base
+    private void appendTo(StringBuilder program, int base) {
+        int from = 0;
+        for (int k = 0; k < holeCount; k += 2) {
+            program.append(out, from, holes[k]).append(base + holes[k + 1]);
+            from = holes[k];
+        }
+        program.append(out, from, out.length());
+    }
+
+    // ('constructor' | 'function' | 'method') type name '(' parameterList ')' subroutineBody
+    private void compileSubroutine(int dec) {
+        int node = ast.firstChild(dec);
+        TokenType subroutineType = ast.type(node);
+        node = ast.nextSibling(dec, ast.nextSibling(dec, node)); // past the return type
+        function = className + "." + tokens.text(ast.token(node));
+        int statements = declarations.defineSubroutine(dec);
+
+        label(function);
+        if ((profile & PROFILE) != 0) {
+            region = regions.size();
+            regions.add(function);
+            enter(region);
+        }
+        int variables = symbols.varCount(Kind.VAR);
+        if (variables <= 2) {
+            for (int k = 0; k < variables; k++)
+                emit("@SP", "AM=M+1", "A=A-1", "M=0");
+        } else { // zeroed in one sweep, SP set once
+            emit("@SP", "A=M");
+            for (int k = 0; k < variables; k++)
+                emit("M=0", "A=A+1");
+            emit("D=A", "@SP", "M=D");
+        }
+        if (subroutineType == TokenType.METHOD) {
+            emit("@ARG", "A=M", "D=M", "@THIS", "M=D");
+        } else if (subroutineType == TokenType.CONSTRUCTOR) {
+            loadConstant(symbols.varCount(Kind.FIELD));
+            push();
+            call("Memory.alloc", 1);
+            emit("@THIS", "M=D");
+        }
+        compileStatements(statements);
+    }
+
+    // // Statements
+
+    private void compileStatements(int statements) {
+        for (int node = ast.firstChild(statements); node >= 0; node = ast.nextSibling(statements, node)) {
+            switch (ast.kind(node)) {
+                case LET_STATEMENT:
+                    compileLet(node);
+                    break;
+                case IF_STATEMENT:
+                    compileIf(node);
+                    break;
+                case WHILE_STATEMENT:
+                    compileWhile(node);
+                    break;
+                case DO_STATEMENT:
+                    compileCall(node, ast.nextSibling(node, ast.firstChild(node)));
+                    break;
+                case RETURN_STATEMENT:
+                    compileReturn(node);
+                    break;
+                default:
+                    throw new IllegalStateException("not a statement: " + ast.kind(node));
+            }
+        }
+    }
+
+    // 'let' varName ('[' expression ']')? '=' expression ';'
+    private void compileLet(int let) {
+        int name = ast.nextSibling(let, ast.firstChild(let));
+        int node = ast.nextSibling(let, name);
+        int token = ast.token(name);
+        int symbol = declarations.resolve(token);
+
+        if (ast.type(node) != TokenType.LBRACKET) {
+            compileExpression(ast.nextSibling(let, node));
+            store(symbol);
+            return;
+        }
+        // the element's address, then the value, as the VM does
+        int index = ast.nextSibling(let, node);
+        compileExpression(index);
+        addVariable(symbol);
+        // past ']' and '='
+        int value = ast.nextSibling(let, ast.nextSibling(let, ast.nextSibling(let, index)));
+        if (callFree(value)) { // nothing in the value touches R13
+            emit("@R13", "M=D");
+            compileExpression(value);
+            emit("@R13", "A=M", "M=D");
+        } else {
+            push();
+            compileExpression(value);
+            emit("@SP", "AM=M-1", "A=M", "M=D");
+        }
+    }
+
+    // 'if' '(' expression ')' '{' statements '}' ('else' '{' statements '}')?
+    private void compileIf(int statement) {
+        String otherwise = newLabel();
+        int node = ast.nextSibling(statement, ast.nextSibling(statement, ast.firstChild(statement)));
+        compileCondition(node, otherwise);
+
+        node = ast.nextSibling(statement, ast.nextSibling(statement, node)); // '{'
+        node = ast.nextSibling(statement, node);
+        compileStatements(node);
+
+        node = ast.nextSibling(statement, ast.nextSibling(statement, node)); // 'else' or nothing
+        if (node >= 0) {
+            String end = newLabel();
+            jump(end);
+            label(otherwise);
+            compileStatements(ast.nextSibling(statement, ast.nextSibling(statement, node)));
+            label(end);
+        } else {
+            label(otherwise);
+        }
+    }
+
+    // 'while' '(' expression ')' '{' statements '}'
+    private void compileWhile(int statement) {
+        String top = newLabel();
+        String end = newLabel();
+        label(top);
+        int node = ast.nextSibling(statement, ast.nextSibling(statement, ast.firstChild(statement)));
+        compileCondition(node, end);
+        node = ast.nextSibling(statement, ast.nextSibling(statement, ast.nextSibling(statement, node)));
+        if ((profile & PROFILE_LOOPS) == 0) {
+            compileStatements(node);
+            jump(top);
+            label(end);
+            return;
+        }
+        int enclosing = region;
+        region = regions.size();
+        regions.add(function + ":while@" + tokens.line(ast.token(ast.firstChild(statement))));
+        enter(region);
+        compileStatements(node);
+        jump(top);
+        label(end);
+        region = enclosing;
+        select(region);
+    }
+
+    // Jumps to whenFalse if the expression is false (0). A comparison, or
+    // the ~ of one in parentheses, jumps on the difference of its operands.
+    private void compileCondition(int expression, String whenFalse) {
+        int op = comparison(expression);
+        if (op >= 0) {
+            compileDifference(expression, op);
+            emit("@" + whenFalse, "D;" + jump(ast.type(op), false));
+            return;
+        }
+        int term = ast.firstChild(expression);
+        int inner = ast.firstChild(term);
+        if (ast.nextSibling(expression, term) < 0 && ast.type(inner) == TokenType.NOT) {
+            int negated = ast.nextSibling(term, inner);
+            int paren = ast.firstChild(negated);
+            if (ast.type(paren) == TokenType.LPAREN) {
+                int nested = ast.nextSibling(negated, paren);
+                op = comparison(nested);
+                if (op >= 0) {
+                    compileDifference(nested, op);
+                    emit("@" + whenFalse, "D;" + jump(ast.type(op), true));
+                    return;
+                }
+            }
+        }
+        compileExpression(expression);
+        emit("@" + whenFalse, "D;JEQ");
+    }
+
+    // The operator node of an expression that is just left < > = right, or -1.
+    private int comparison(int expression) {
+        int op = ast.nextSibling(expression, ast.firstChild(expression));
+        if (op < 0 || ast.nextSibling(expression, ast.nextSibling(expression, op)) >= 0)
+            return -1;
+        TokenType type = ast.type(op);
+        return type == TokenType.LT || type == TokenType.GT || type == TokenType.EQ ? op : -1;
+    }
+
+    // left - right in D, through $COMPARE for a < or > with anything but 0
+    private void compileDifference(int expression, int op) {
+        int right = ast.nextSibling(expression, op);
+        compileTerm(ast.firstChild(expression));
+        if (ast.type(op) == TokenType.EQ || zero(right))
+            compileOperand(TokenType.MINUS, right);
+        else
+            compare(right);
+    }
+
+    // D = D - term, or for operands of different signs -1 or 1 as D's
+    private void compare(int term) {
+        int node = ast.firstChild(term);
+        if (ast.type(node) == TokenType.NUMBER) { // above 0: the signs differ just when D < 0, D's own answer
+            String decided = newLabel();
+            emit("@" + decided, "D;JLT", "@" + tokens.intValue(ast.token(node)), "D=D-A");
+            label(decided);
+            return;
+        }
+        push();
+        compileTerm(term);
+        String back = newLabel();
+        emit("@R14", "M=D", "@" + back, "D=A", "@$COMPARE", "0;JMP");
+        label(back);
+        compares = true;
+    }
+
+    // whether the term is the constant 0, which a subtraction cannot wrap
+    private boolean zero(int term) {
+        int node = ast.firstChild(term);
+        switch (ast.type(node)) {
+            case FALSE:
+            case NULL:
+                return true;
+            case NUMBER:
+                return tokens.intValue(ast.token(node)) == 0;
+            default:
+                return false;
+        }
+    }
+
+    // the jump taken when the comparison whose difference is in D holds, or fails
+    private static String jump(TokenType op, boolean holds) {
+        switch (op) {
+            case LT:
+                return holds ? "JLT" : "JGE";
+            case GT:
+                return holds ? "JGT" : "JLE";
+            default:
+                return holds ? "JEQ" : "JNE";
+        }
+    }
+
+    // 'return' expression? ';'
+    private void compileReturn(int statement) {
+        int node = ast.nextSibling(statement, ast.firstChild(statement));
+        if (ast.kind(node) == NodeKind.EXPRESSION)
+            compileExpression(node);
+        else
+            emit("D=0");
+        emit("@$RETURN", "0;JMP");
+    }
+
+    // // Expressions
+
+    // term (op term)*, left to right, the value in D
+    private void compileExpression(int expression) {
+        int node = ast.firstChild(expression);
+        compileTerm(node);
+        for (node = ast.nextSibling(expression, node); node >= 0; node = ast.nextSibling(expression, node)) {
+            TokenType op = ast.type(node);
+            node = ast.nextSibling(expression, node);
+            compileOperand(op, node);
+        }
+    }
+
+    // D = D op term
+    private void compileOperand(TokenType op, int term) {
+        if (op == TokenType.ASTERISK || op == TokenType.SLASH) {
+            push();
+            compileTerm(term);
+            push();
+            call(op == TokenType.ASTERISK ? "Math.multiply" : "Math.divide", 2);
+            return;
+        }
+        if ((op == TokenType.LT || op == TokenType.GT) && !zero(term)) {
+            compare(term);
+            toBoolean(op);
+            return;
+        }
+        int symbol = -1;
+        int node = ast.firstChild(term);
+        switch (ast.type(node)) {
+            case NUMBER:
+                constantOperand(op, (short) tokens.intValue(ast.token(node)));
+                return;
+            case TRUE:
+                constantOperand(op, -1);
+                return;
+            case FALSE:
+            case NULL:
+                constantOperand(op, 0);
+                return;
+            case THIS:
+                emit("@THIS");
+                operate(op, "M", false);
+                return;
+            case IDENT:
+                if (ast.nextSibling(term, node) < 0) {
+                    symbol = symbols.resolve(ast.token(node));
+                    if (symbol < 0) {
+                        declarations.resolve(ast.token(node));
+                        constantOperand(op, 0);
+                        return;
+                    }
+                }
+                break;
+            default:
+                break;
+        }
+        if (symbol >= 0 && near(symbol)) {
+            address(symbol);
+            operate(op, "M", false);
+            return;
+        }
+        push();
+        compileTerm(term);
+        emit("@SP", "AM=M-1");
+        operate(op, "M", true);
+    }
+
+    // D = D op x, with x in A or M; reversed, D = x op D
+    private void operate(TokenType op, String x, boolean reversed) {
+        switch (op) {
+            case PLUS:
+                emit("D=D+" + x);
+                break;
+            case MINUS:
+                emit(reversed ? "D=" + x + "-D" : "D=D-" + x);
+                break;
+            case AND:
+                emit("D=D&" + x);
+                break;
+            case OR:
+                emit("D=D|" + x);
+                break;
+            default: // a comparison
+                emit(reversed ? "D=" + x + "-D" : "D=D-" + x);
+                toBoolean(op);
+                break;
+        }
+    }
+
+    private void constantOperand(TokenType op, int c) {
+        if (c == 0 && (op == TokenType.PLUS || op == TokenType.MINUS || op == TokenType.OR))
+            return;
+        if (c == 0 && op == TokenType.AND) {
+            emit("D=0");
+        } else if (c == 1 && (op == TokenType.PLUS || op == TokenType.MINUS)) {
+            emit(op == TokenType.PLUS ? "D=D+1" : "D=D-1");
+        } else if (c == -1 && op == TokenType.AND) {
+            return;
+        } else if (c == -1 && op == TokenType.OR) {
+            emit("D=-1");
+        } else if (c == -1) { // x + true is x - 1, x - true is x + 1
+            emit(op == TokenType.PLUS ? "D=D-1" : "D=D+1");
+            if (op != TokenType.PLUS && op != TokenType.MINUS)
+                toBoolean(op);
+        } else if (c == 0) { // a comparison with 0 is a test of D
+            toBoolean(op);
+        } else {
+            emit("@" + c);
+            operate(op, "A", false);
+        }
+    }
+
+    // D = -1 if the comparison whose difference is in D holds, else 0
+    private void toBoolean(TokenType op) {
+        String holds = newLabel();
+        String end = newLabel();
+        emit("@" + holds, "D;" + jump(op, true), "D=0", "@" + end, "0;JMP");
+        label(holds);
+        emit("D=-1");
+        label(end);
+    }
+
+    private void compileTerm(int term) {
+        int node = ast.firstChild(term);
+        int token = ast.token(node);
+        switch (ast.type(node)) {
+            case NUMBER:
+                loadConstant((short) tokens.intValue(token));
+                break;
+            case STRING:
+                compileString(token);
+                break;
+            case TRUE:
+                emit("D=-1");
+                break;
+            case FALSE:
+            case NULL:
+                emit("D=0");
+                break;
+            case THIS:
+                emit("@THIS", "D=M");
+                break;
+            case LPAREN:
+                compileExpression(ast.nextSibling(term, node));
+                break;
+            case MINUS:
+                compileTerm(ast.nextSibling(term, node));
+                emit("D=-D");
+                break;
+            case NOT:
+                compileTerm(ast.nextSibling(term, node));
+                emit("D=!D");
+                break;
+            case IDENT: {
+                int after = ast.nextSibling(term, node);
+                TokenType afterType = after >= 0 ? ast.type(after) : null;
+                if (afterType == TokenType.LPAREN || afterType == TokenType.DOT) {
+                    compileCall(term, node);
+                } else if (afterType == TokenType.LBRACKET) {
+                    int symbol = declarations.resolve(token);
+                    compileExpression(ast.nextSibling(term, after));
+                    addVariable(symbol);
+                    emit("A=D", "D=M");
+                } else {
+                    load(declarations.resolve(token));
+                }
+                break;
+            }
+            default:
+                throw new IllegalStateException("not a term: " + ast.type(node));
+        }
+    }
+
+    // String.new(length), then appendChar for each character
+    private void compileString(int token) {
+        int length = tokens.length(token);
+        int start = tokens.start(token);
+        loadConstant(length);
+        push();
+        call("String.new", 1);
+        for (int k = 0; k < length; k++) {
+            push();
+            loadConstant(tokens.source().get(start + k) & 0xFF);
+            push();
+            call("String.appendChar", 2);
+        }
+    }
+
+    // subroutineName '(' expressionList ')'
+    // | (className | varName) '.' subroutineName '(' expressionList ')'
+    // starting at the leaf node, a child of parent; the result in D
+    private void compileCall(int parent, int node) {
+        int first = ast.token(node);
+        node = ast.nextSibling(parent, node);
+        if (ast.type(node) == TokenType.LPAREN) { // a method of this object
+            emit("@THIS", "D=M");
+            push();
+            int nArgs = compileExpressionList(ast.nextSibling(parent, node)) + 1;
+            call(className + "." + tokens.text(first), nArgs);
+            return;
+        }
+
+        node = ast.nextSibling(parent, node); // past '.'
+        String name = tokens.text(ast.token(node));
+        int list = ast.nextSibling(parent, ast.nextSibling(parent, node));
+        int symbol = symbols.resolve(first);
+        if (symbol >= 0) { // a method of the object in a variable
+            load(symbol);
+            push();
+            int nArgs = compileExpressionList(list) + 1;
+            call(tokens.text(symbols.type(symbol)) + "." + name, nArgs);
+        } else { // a function or constructor of a class
+            int nArgs = compileExpressionList(list);
+            call(tokens.text(first) + "." + name, nArgs);
+        }
+    }
+
+    private int compileExpressionList(int list) {
+        int nArgs = 0;
+        for (int node = ast.firstChild(list); node >= 0; node = ast.nextSibling(list, node)) {
+            if (ast.kind(node) == NodeKind.EXPRESSION) {
+                compileExpression(node);
+                push();
+                nArgs++;
+            }
+        }
+        return nArgs;
+    }
+
+    // The arguments are on the stack; $CALLn pushes the frame and jumps.
+    private void call(String name, int nArgs) {
+        String returnAddress = newLabel();
+        emit("@" + name, "D=A", "@R13", "M=D", "@" + returnAddress, "D=A", "@$CALL" + nArgs, "0;JMP");
+        label(returnAddress);
+        arities.set(nArgs);
+        if (region >= 0)
+            select(region);
+    }
+
+    // // Profiling
+
+    // entries + 1, carrying into the high word, then select the region
+    private void enter(int region) {
+        String counted = newLabel();
+        regionWord(region, HackEmulator.ENTRIES);
+        emit("MD=M+1", "@" + counted, "D;JNE");
+        regionWord(region, HackEmulator.ENTRIES + 1);
+        emit("M=M+1");
+        label(counted);
+        select(region);
+    }
+
+    // a write to the cycles word, D untouched
+    private void select(int region) {
+        regionWord(region, HackEmulator.CYCLES);
+        emit("M=0");
+    }
+
+    // @ a word of a region, its address left for link() to fill in
+    private void regionWord(int region, int word) {
+        out.append('@');
+        if (holeCount == holes.length)
+            holes = Arrays.copyOf(holes, holeCount * 2);
+        holes[holeCount++] = out.length();
+        holes[holeCount++] = region * HackEmulator.REGION_SIZE + word;
+        out.append('\n');
+    }
+
+    // Whether an expression makes no calls, which would change R13: no
+    // calls, string literals, * or /.
+    private boolean callFree(int expression) {
+        for (int node = expression; node < ast.end(expression); node++) {
+            if (!ast.isToken(node))
+                continue;
+            TokenType type = tokens.type(ast.token(node));
+            if (type == TokenType.LPAREN && ast.token(node) > 0
+                    && tokens.type(ast.token(node) - 1) == TokenType.IDENT)
+                return false;
+            if (type == TokenType.DOT || type == TokenType.STRING || type == TokenType.ASTERISK
+                    || type == TokenType.SLASH)
+                return false;
+        }
+        return true;
+    }
+
+    // // Utility Functions
+
+    private void loadConstant(int c) {
+        if (c == 0 || c == 1 || c == -1)
+            emit("D=" + c);
+        else if (c < 0)
+            emit("@" + -c, "D=-A");
+        else
+            emit("@" + c, "D=A");
+    }
+
+    // D = the variable, 0 if undefined
+    private void load(int symbol) {
+        if (symbol < 0) {
+            emit("D=0");
+        } else if (symbols.kind(symbol) == Kind.STATIC || symbols.index(symbol) <= 2) {
+            address(symbol);
+            emit("D=M");
+        } else {
+            emit("@" + symbols.index(symbol), "D=A", "@" + base(symbol), "A=D+M", "D=M");
+        }
+    }
+
+    // the variable = D
+    private void store(int symbol) {
+        if (symbol < 0)
+            return;
+        if (near(symbol)) {
+            address(symbol);
+            emit("M=D");
+        } else {
+            emit("@R13", "M=D", "@" + symbols.index(symbol), "D=A", "@" + base(symbol), "D=D+M", "@R14", "M=D");
+            emit("@R13", "D=M", "@R14", "A=M", "M=D");
+        }
+    }
+
+    // D = D + the variable, for an array element
+    private void addVariable(int symbol) {
+        if (symbol < 0)
+            return;
+        if (near(symbol)) {
+            address(symbol);
+            emit("D=D+M");
+        } else {
+            push();
+            load(symbol);
+            emit("@SP", "AM=M-1", "D=D+M");
+        }
+    }
+
+    // Whether address() reaches the variable.
+    private boolean near(int symbol) {
+        return symbols.kind(symbol) == Kind.STATIC || symbols.index(symbol) <= MAX_STEPS;
+    }
+
+    // A = the variable's address, D untouched
+    private void address(int symbol) {
+        if (symbols.kind(symbol) == Kind.STATIC) {
+            emit("@" + className + "." + symbols.index(symbol));
+            return;
+        }
+        int index = symbols.index(symbol);
+        emit("@" + base(symbol), index == 0 ? "A=M" : "A=M+1");
+        for (int k = 1; k < index; k++)
+            emit("A=A+1");
+    }
+
+    private String base(int symbol) {
+        switch (symbols.kind(symbol)) {
+            case ARG:
+                return "ARG";
+            case FIELD:
+                return "THIS";
+            default:
+                return "LCL";
+        }
+    }
+
+    // *SP++ = D
+    private void push() {
+        emit("@SP", "AM=M+1", "A=A-1", "M=D");
+    }
+
+    private void jump(String label) {
+        emit("@" + label, "0;JMP");
+    }
+
+    private String newLabel() {
+        return function + "$" + labels++;
+    }
+
+    private void label(String name) {
+        out.append('(').append(name).append(")\n");
+    }
+
+    private void emit(String... instructions) {
+        for (String instruction : instructions)
+            out.append(instruction).append('\n');
+    }
+}
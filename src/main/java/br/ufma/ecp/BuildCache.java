@@ -0,0 +1,264 @@
+package br.ufma.ecp;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32C;
+
+// Persistent compiler output cache. An entry is keyed by an xxHash64 of the
+// source bytes seeded with the compiler build, so unchanged sources skip
+// the Scanner and the Parser. Entries are written to a temp file and
+// atomically renamed, so several compiler processes can share a directory.
+// Each entry carries its key and a CRC32C of the output; a bad entry is
+// deleted and counted as a miss. When the directory grows over maxBytes the
+// least recently used entries (by modification time, touched on every hit)
+// are evicted.
+//
+// Entry layout: magic, key, output length, output CRC32C, output bytes.
+public class BuildCache {
+
+    private static final int MAGIC = 0x4a4b4331; // "JKC1"
+    private static final int HEADER = 4 + 8 + 4 + 4;
+    private static final String SUFFIX = ".out";
+
+    private final Path dir;
+    private final long maxBytes;
+    private final long seed;
+    private final AtomicLong size = new AtomicLong();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong corrupted = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public BuildCache(Path dir, long maxBytes, String version) throws IOException {
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+        this.seed = hash(ByteBuffer.wrap(version.getBytes(StandardCharsets.UTF_8)), 0);
+        Files.createDirectories(dir);
+        for (Entry e : entries())
+            size.addAndGet(e.size);
+    }
+
+    public long key(ByteBuffer source) {
+        return hash(source, seed);
+    }
+
+    // Key of source compiled into one of several outputs, such as a Target,
+    // so that they can share the directory.
+    public long key(ByteBuffer source, String variant) {
+        return hash(source, seed ^ hash(ByteBuffer.wrap(variant.getBytes(StandardCharsets.UTF_8)), 0));
+    }
+
+    // Writes the cached output for key to output. Returns false on a miss.
+    public boolean restore(long key, Path output) throws IOException {
+        Path entry = entry(key);
+        byte[] data;
+        try {
+            data = Files.readAllBytes(entry);
+        } catch (NoSuchFileException e) {
+            misses.incrementAndGet();
+            return false;
+        }
+
+        ByteBuffer in = ByteBuffer.wrap(data);
+        if (data.length < HEADER || in.getInt() != MAGIC || in.getLong() != key
+                || in.getInt() != data.length - HEADER || in.getInt() != crc(data, HEADER)) {
+            corrupted.incrementAndGet();
+            misses.incrementAndGet();
+            if (Files.deleteIfExists(entry))
+                size.addAndGet(-data.length);
+            return false;
+        }
+
+        try (OutputStream out = Files.newOutputStream(output)) {
+            out.write(data, HEADER, data.length - HEADER);
+        }
+        try {
+            Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (NoSuchFileException e) {
+            // evicted by another process meanwhile
+        }
+        hits.incrementAndGet();
+        return true;
+    }
+
+    // Stores the contents of output under key.
+    public void store(long key, Path output) throws IOException {
+        byte[] data = Files.readAllBytes(output);
+        ByteBuffer out = ByteBuffer.allocate(HEADER + data.length);
+        out.putInt(MAGIC).putLong(key).putInt(data.length).putInt(crc(data, 0)).put(data);
+
+        Path tmp = Files.createTempFile(dir, "entry", ".tmp");
+        try {
+            Files.write(tmp, out.array());
+            Files.move(tmp, entry(key), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+
+        if (size.addAndGet(out.capacity()) > maxBytes)
+            evict();
+    }
+
+    private synchronized void evict() throws IOException {
+        List<Entry> entries = entries();
+        long total = 0;
+        for (Entry e : entries)
+            total += e.size;
+
+        // leave some room so that every store does not trigger an eviction
+        long target = maxBytes - maxBytes / 10;
+        entries.sort(Comparator.comparing((Entry e) -> e.lastUsed));
+        for (Entry e : entries) {
+            if (total <= target)
+                break;
+            if (Files.deleteIfExists(e.path))
+                evictions.incrementAndGet();
+            total -= e.size;
+        }
+        size.set(total);
+    }
+
+    private List<Entry> entries() throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "*" + SUFFIX)) {
+            for (Path path : files) {
+                try {
+                    BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+                    entries.add(new Entry(path, attrs.size(), attrs.lastModifiedTime()));
+                } catch (NoSuchFileException e) {
+                    // evicted by another process meanwhile
+                }
+            }
+        }
+        return entries;
+    }
+
+    private Path entry(long key) {
+        return dir.resolve(String.format("%016x", key) + SUFFIX);
+    }
+
+    public long hits() {
+        return hits.get();
+    }
+
+    public long misses() {
+        return misses.get();
+    }
+
+    public long corrupted() {
+        return corrupted.get();
+    }
+
+    public long evictions() {
+        return evictions.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("cache: %d hit(s), %d miss(es), %d corrupted, %d evicted",
+                hits(), misses(), corrupted(), evictions());
+    }
+
+    private static int crc(byte[] data, int from) {
+        CRC32C crc = new CRC32C();
+        crc.update(data, from, data.length - from);
+        return (int) crc.getValue();
+    }
+
+    private static class Entry {
+        final Path path;
+        final long size;
+        final FileTime lastUsed;
+
+        Entry(Path path, long size, FileTime lastUsed) {
+            this.path = path;
+            this.size = size;
+            this.lastUsed = lastUsed;
+        }
+    }
+
+    // xxHash64 (https://github.com/Cyan4973/xxHash) over the whole buffer.
+
+    private static final long P1 = 0x9E3779B185EBCA87L;
+    private static final long P2 = 0xC2B2AE3D27D4EB4FL;
+    private static final long P3 = 0x165667B19E3779F9L;
+    private static final long P4 = 0x85EBCA77C2B2AE63L;
+    private static final long P5 = 0x27D4EB2F165667C5L;
+
+    static long hash(ByteBuffer buffer, long seed) {
+        ByteBuffer in = buffer.slice().order(ByteOrder.LITTLE_ENDIAN);
+        int length = in.limit();
+        int i = 0;
+        long h;
+
+        if (length >= 32) {
+            long v1 = seed + P1 + P2;
+            long v2 = seed + P2;
+            long v3 = seed;
+            long v4 = seed - P1;
+            do {
+                v1 = round(v1, in.getLong(i));
+                v2 = round(v2, in.getLong(i + 8));
+                v3 = round(v3, in.getLong(i + 16));
+                v4 = round(v4, in.getLong(i + 24));
+                i += 32;
+            } while (i <= length - 32);
+
+            h = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+            h = merge(h, v1);
+            h = merge(h, v2);
+            h = merge(h, v3);
+            h = merge(h, v4);
+        } else {
+            h = seed + P5;
+        }
+
+        h += length;
+        for (; i + 8 <= length; i += 8) {
+            h ^= round(0, in.getLong(i));
+            h = Long.rotateLeft(h, 27) * P1 + P4;
+        }
+        if (i + 4 <= length) {
+            h ^= (in.getInt(i) & 0xFFFFFFFFL) * P1;
+            h = Long.rotateLeft(h, 23) * P2 + P3;
+            i += 4;
+        }
+        for (; i < length; i++) {
+            h ^= (in.get(i) & 0xFF) * P5;
+            h = Long.rotateLeft(h, 11) * P1;
+        }
+
+        h ^= h >>> 33;
+        h *= P2;
+        h ^= h >>> 29;
+        h *= P3;
+        h ^= h >>> 32;
+        return h;
+    }
+
+    private static long round(long acc, long input) {
+        acc += input * P2;
+        acc = Long.rotateLeft(acc, 31);
+        return acc * P1;
+    }
+
+    private static long merge(long acc, long v) {
+        acc ^= round(0, v);
+        return acc * P1 + P4;
+    }
+}
@@ -0,0 +1,509 @@
+package br.ufma.ecp;
+
+import java.util.List;
+import java.util.Set;
+
+import br.ufma.ecp.ClassWriter.Method;
+import br.ufma.ecp.SymbolTable.Kind;
+import br.ufma.ecp.ast.Ast;
+import br.ufma.ecp.ast.NodeKind;
+import br.ufma.ecp.token.TokenStream;
+import br.ufma.ecp.token.TokenType;
+
+// Jack to JVM translation, walking the Ast of a class that parsed without
+// errors, as CodeGenerator does for the VM. Each Jack class becomes a
+// public JVM class of the same name, in no package, and each subroutine a
+// static method taking and returning ints; a method gets its object as
+// the first argument, like the VM's argument 0. Statics are static fields,
+// arguments and local variables are JVM locals. Objects and arrays live in
+// the RAM of br.ufma.ecp.runtime.JackMemory, so fields are RAM words after
+// the object's address, as in the VM.
+//
+// Calls to the OS classes go to the runtime (Math to JackMath...), with
+// String.new and Array.new as create(). Values are 16-bit: + - * and unary
+// - are truncated with i2s. A class with a function main() also gets the
+// JVM main(String[]), so `java -cp <runtime>:<dir> Main` runs the program.
+public class ClassGenerator {
+
+    static final String RUNTIME = "br/ufma/ecp/runtime/Jack";
+    static final Set<String> OS = Set.of("Math", "String", "Array", "Memory", "Output", "Screen", "Keyboard", "Sys");
+
+    private static final String MEMORY = RUNTIME + "Memory";
+
+    private final Ast ast;
+    private final TokenStream tokens;
+    private final Declarations declarations;
+    private final SymbolTable symbols;
+
+    private String className;
+    private ClassWriter writer;
+    private Method code;
+    // JVM locals: the arguments first, then the local variables; this is
+    // local 0 in a method, after the variables in a constructor and -1 in
+    // a function
+    private int arguments;
+    private int thisLocal;
+
+    public ClassGenerator(Ast ast) {
+        this.ast = ast;
+        this.tokens = ast.tokens();
+        this.declarations = new Declarations(ast);
+        this.symbols = declarations.symbols();
+    }
+
+    public List<Diagnostic> diagnostics() {
+        return declarations.diagnostics();
+    }
+
+    // the Jack name, which is also the JVM name
+    public String className() {
+        return className;
+    }
+
+    // Compiles the class at the root of the Ast and returns its class file.
+    public byte[] compileClass() {
+        symbols.startClass();
+        int node = ast.firstChild(0); // 'class'
+        node = ast.nextSibling(0, node);
+        className = tokens.text(ast.token(node));
+        writer = new ClassWriter(className, className + ".jack");
+        boolean main = false;
+        for (node = ast.nextSibling(0, node); node >= 0; node = ast.nextSibling(0, node)) {
+            if (ast.kind(node) == NodeKind.CLASS_VAR_DEC)
+                compileClassVarDec(node);
+            else if (ast.kind(node) == NodeKind.SUBROUTINE_DEC)
+                main |= compileSubroutine(node);
+        }
+        if (main)
+            compileJvmMain();
+        return writer.toByteArray();
+    }
+
+    // ('static' | 'field') type varName (',' varName)* ';', with a static
+    // int field for each static
+    private void compileClassVarDec(int dec) {
+        boolean statics = ast.type(ast.firstChild(dec)) == TokenType.STATIC;
+        declarations.defineClassVars(dec, name -> {
+            if (statics)
+                writer.staticIntField(tokens.text(name));
+        });
+    }
+
+    // ('constructor' | 'function' | 'method') type name '(' parameterList ')' subroutineBody
+    // Returns whether it is the function main().
+    private boolean compileSubroutine(int dec) {
+        int node = ast.firstChild(dec);
+        TokenType subroutineType = ast.type(node);
+        node = ast.nextSibling(dec, ast.nextSibling(dec, node)); // past the return type
+        String name = tokens.text(ast.token(node));
+        int statements = declarations.defineSubroutine(dec);
+        arguments = symbols.varCount(Kind.ARG);
+        int variables = symbols.varCount(Kind.VAR);
+
+        code = writer.method(name, descriptor(arguments));
+        code.locals(arguments + variables);
+        code.line(tokens.line(ast.token(ast.firstChild(dec))));
+        // the VM zeroes the local segment, the JVM wants them assigned
+        for (int k = 0; k < variables; k++) {
+            code.iconst(0);
+            code.istore(arguments + k);
+        }
+        if (subroutineType == TokenType.CONSTRUCTOR) {
+            thisLocal = arguments + variables;
+            code.iconst(symbols.varCount(Kind.FIELD));
+            code.invokestatic(MEMORY, "alloc", descriptor(1), 1, true);
+            code.istore(thisLocal);
+        } else {
+            thisLocal = subroutineType == TokenType.METHOD ? 0 : -1;
+        }
+        compileStatements(statements);
+        if (code.reachable()) { // the VM would run into the next function
+            code.iconst(0);
+            code.op(ClassWriter.IRETURN);
+        }
+        return subroutineType == TokenType.FUNCTION && name.equals("main") && arguments == 0;
+    }
+
+    // public static void main(String[] args) { JackSys.run(<this class>); }
+    private void compileJvmMain() {
+        Method main = writer.method("main", "([Ljava/lang/String;)V");
+        main.locals(1);
+        main.ldcClass(className);
+        main.invokestatic(RUNTIME + "Sys", "run", "(Ljava/lang/Class;)I", 1, true);
+        main.op(ClassWriter.POP);
+        main.op(ClassWriter.RETURN);
+    }
+
+    // // Statements
+
+    private void compileStatements(int statements) {
+        for (int node = ast.firstChild(statements); node >= 0; node = ast.nextSibling(statements, node)) {
+            code.line(tokens.line(ast.token(ast.firstChild(node))));
+            switch (ast.kind(node)) {
+                case LET_STATEMENT:
+                    compileLet(node);
+                    break;
+                case IF_STATEMENT:
+                    compileIf(node);
+                    break;
+                case WHILE_STATEMENT:
+                    compileWhile(node);
+                    break;
+                case DO_STATEMENT:
+                    compileCall(node, ast.nextSibling(node, ast.firstChild(node)));
+                    code.op(ClassWriter.POP);
+                    break;
+                case RETURN_STATEMENT:
+                    compileReturn(node);
+                    break;
+                default:
+                    throw new IllegalStateException("not a statement: " + ast.kind(node));
+            }
+        }
+    }
+
+    // 'let' varName ('[' expression ']')? '=' expression ';'
+    // The address of an array element or field is computed before the
+    // value, which is the VM's order for arrays and makes no difference for
+    // fields.
+    private void compileLet(int let) {
+        int name = ast.nextSibling(let, ast.firstChild(let));
+        int node = ast.nextSibling(let, name);
+        int token = ast.token(name);
+        int symbol = declarations.resolve(token);
+
+        if (ast.type(node) == TokenType.LBRACKET) {
+            int index = ast.nextSibling(let, node);
+            code.field(ClassWriter.GETSTATIC, MEMORY, "RAM", "[I");
+            pushVariable(symbol, token);
+            compileExpression(index);
+            code.op(ClassWriter.IADD);
+            mask();
+            // past ']' and '='
+            compileExpression(ast.nextSibling(let, ast.nextSibling(let, ast.nextSibling(let, index))));
+            code.op(ClassWriter.IASTORE);
+            return;
+        }
+
+        int value = ast.nextSibling(let, node);
+        if (symbol < 0) {
+            compileExpression(value);
+            code.op(ClassWriter.POP);
+            return;
+        }
+        switch (symbols.kind(symbol)) {
+            case STATIC:
+                compileExpression(value);
+                code.field(ClassWriter.PUTSTATIC, className, tokens.text(token), "I");
+                break;
+            case FIELD:
+                pushFieldAddress(symbols.index(symbol));
+                compileExpression(value);
+                code.op(ClassWriter.IASTORE);
+                break;
+            default:
+                compileExpression(value);
+                code.istore(local(symbol));
+                break;
+        }
+    }
+
+    // 'if' '(' expression ')' '{' statements '}' ('else' '{' statements '}')?
+    private void compileIf(int statement) {
+        int otherwise = code.newLabel();
+        int node = ast.nextSibling(statement, ast.nextSibling(statement, ast.firstChild(statement)));
+        compileCondition(node, otherwise);
+
+        node = ast.nextSibling(statement, ast.nextSibling(statement, node)); // '{'
+        node = ast.nextSibling(statement, node);
+        compileStatements(node);
+
+        node = ast.nextSibling(statement, ast.nextSibling(statement, node)); // 'else' or nothing
+        if (node >= 0) {
+            int end = code.newLabel();
+            code.jump(ClassWriter.GOTO, end);
+            code.bind(otherwise);
+            compileStatements(ast.nextSibling(statement, ast.nextSibling(statement, node)));
+            code.bind(end);
+        } else {
+            code.bind(otherwise);
+        }
+    }
+
+    // 'while' '(' expression ')' '{' statements '}'
+    private void compileWhile(int statement) {
+        int top = code.newLabel();
+        int end = code.newLabel();
+        code.bind(top);
+        int node = ast.nextSibling(statement, ast.nextSibling(statement, ast.firstChild(statement)));
+        compileCondition(node, end);
+        node = ast.nextSibling(statement, ast.nextSibling(statement, ast.nextSibling(statement, node)));
+        compileStatements(node);
+        code.jump(ClassWriter.GOTO, top);
+        code.bind(end);
+    }
+
+    // Jumps to whenFalse if the expression is false (0). A single
+    // comparison jumps on the operands, without making -1 or 0 first.
+    private void compileCondition(int expression, int whenFalse) {
+        int left = ast.firstChild(expression);
+        int op = ast.nextSibling(expression, left);
+        int right = op >= 0 ? ast.nextSibling(expression, op) : -1;
+        if (right >= 0 && ast.nextSibling(expression, right) < 0) {
+            int jump = -1;
+            if (ast.type(op) == TokenType.LT)
+                jump = ClassWriter.IF_ICMPGE;
+            else if (ast.type(op) == TokenType.GT)
+                jump = ClassWriter.IF_ICMPLE;
+            else if (ast.type(op) == TokenType.EQ)
+                jump = ClassWriter.IF_ICMPNE;
+            if (jump >= 0) {
+                compileTerm(left);
+                compileTerm(right);
+                code.jump(jump, whenFalse);
+                return;
+            }
+        }
+        compileExpression(expression);
+        code.jump(ClassWriter.IFEQ, whenFalse);
+    }
+
+    // 'return' expression? ';'
+    private void compileReturn(int statement) {
+        int node = ast.nextSibling(statement, ast.firstChild(statement));
+        if (ast.kind(node) == NodeKind.EXPRESSION)
+            compileExpression(node);
+        else
+            code.iconst(0);
+        code.op(ClassWriter.IRETURN);
+    }
+
+    // // Expressions
+
+    // term (op term)*, left to right
+    private void compileExpression(int expression) {
+        int node = ast.firstChild(expression);
+        compileTerm(node);
+        for (node = ast.nextSibling(expression, node); node >= 0; node = ast.nextSibling(expression, node)) {
+            TokenType op = ast.type(node);
+            node = ast.nextSibling(expression, node);
+            compileTerm(node);
+            compileOperator(op);
+        }
+    }
+
+    private void compileOperator(TokenType op) {
+        switch (op) {
+            case PLUS:
+                code.op(ClassWriter.IADD);
+                code.op(ClassWriter.I2S);
+                break;
+            case MINUS:
+                code.op(ClassWriter.ISUB);
+                code.op(ClassWriter.I2S);
+                break;
+            case ASTERISK:
+                code.op(ClassWriter.IMUL);
+                code.op(ClassWriter.I2S);
+                break;
+            case SLASH: // Math.divide, for the error on 0
+                code.invokestatic(RUNTIME + "Math", "divide", descriptor(2), 2, true);
+                break;
+            case AND:
+                code.op(ClassWriter.IAND);
+                break;
+            case OR:
+                code.op(ClassWriter.IOR);
+                break;
+            case LT:
+                compileComparison(ClassWriter.IF_ICMPLT);
+                break;
+            case GT:
+                compileComparison(ClassWriter.IF_ICMPGT);
+                break;
+            case EQ:
+                compileComparison(ClassWriter.IF_ICMPEQ);
+                break;
+            default:
+                throw new IllegalStateException("not an operator: " + op);
+        }
+    }
+
+    // -1 if the comparison holds, 0 if not
+    private void compileComparison(int jump) {
+        int holds = code.newLabel();
+        int end = code.newLabel();
+        code.jump(jump, holds);
+        code.iconst(0);
+        code.jump(ClassWriter.GOTO, end);
+        code.bind(holds);
+        code.iconst(-1);
+        code.bind(end);
+    }
+
+    private void compileTerm(int term) {
+        int node = ast.firstChild(term);
+        int token = ast.token(node);
+        switch (ast.type(node)) {
+            case NUMBER:
+                code.iconst((short) tokens.intValue(token));
+                break;
+            case STRING:
+                code.ldcString(text(token));
+                code.invokestatic(RUNTIME + "String", "literal", "(Ljava/lang/String;)I", 1, true);
+                break;
+            case TRUE:
+                code.iconst(-1);
+                break;
+            case FALSE:
+            case NULL:
+                code.iconst(0);
+                break;
+            case THIS:
+                pushThis();
+                break;
+            case LPAREN:
+                compileExpression(ast.nextSibling(term, node));
+                break;
+            case MINUS:
+                compileTerm(ast.nextSibling(term, node));
+                code.op(ClassWriter.INEG);
+                code.op(ClassWriter.I2S);
+                break;
+            case NOT:
+                compileTerm(ast.nextSibling(term, node));
+                code.iconst(-1);
+                code.op(ClassWriter.IXOR);
+                break;
+            case IDENT: {
+                int after = ast.nextSibling(term, node);
+                TokenType afterType = after >= 0 ? ast.type(after) : null;
+                if (afterType == TokenType.LPAREN || afterType == TokenType.DOT) {
+                    compileCall(term, node);
+                } else if (afterType == TokenType.LBRACKET) {
+                    code.field(ClassWriter.GETSTATIC, MEMORY, "RAM", "[I");
+                    pushVariable(declarations.resolve(token), token);
+                    compileExpression(ast.nextSibling(term, after));
+                    code.op(ClassWriter.IADD);
+                    mask();
+                    code.op(ClassWriter.IALOAD);
+                } else {
+                    pushVariable(declarations.resolve(token), token);
+                }
+                break;
+            }
+            default:
+                throw new IllegalStateException("not a term: " + ast.type(node));
+        }
+    }
+
+    // subroutineName '(' expressionList ')'
+    // | (className | varName) '.' subroutineName '(' expressionList ')'
+    // starting at the leaf node, a child of parent
+    private void compileCall(int parent, int node) {
+        int first = ast.token(node);
+        node = ast.nextSibling(parent, node);
+        if (ast.type(node) == TokenType.LPAREN) { // a method of this object
+            pushThis();
+            int nArgs = compileExpressionList(ast.nextSibling(parent, node)) + 1;
+            invoke(className, tokens.text(first), nArgs);
+            return;
+        }
+
+        node = ast.nextSibling(parent, node); // past '.'
+        String name = tokens.text(ast.token(node));
+        int list = ast.nextSibling(parent, ast.nextSibling(parent, node));
+        int symbol = symbols.resolve(first);
+        if (symbol >= 0) { // a method of the object in a variable
+            pushVariable(symbol, first);
+            int nArgs = compileExpressionList(list) + 1;
+            invoke(tokens.text(symbols.type(symbol)), name, nArgs);
+        } else { // a function or constructor of a class
+            int nArgs = compileExpressionList(list);
+            invoke(tokens.text(first), name, nArgs);
+        }
+    }
+
+    private void invoke(String jackClass, String name, int nArgs) {
+        if (OS.contains(jackClass))
+            code.invokestatic(RUNTIME + jackClass, name.equals("new") ? "create" : name, descriptor(nArgs), nArgs,
+                    true);
+        else
+            code.invokestatic(jackClass, name, descriptor(nArgs), nArgs, true);
+    }
+
+    private int compileExpressionList(int list) {
+        int nArgs = 0;
+        for (int node = ast.firstChild(list); node >= 0; node = ast.nextSibling(list, node)) {
+            if (ast.kind(node) == NodeKind.EXPRESSION) {
+                compileExpression(node);
+                nArgs++;
+            }
+        }
+        return nArgs;
+    }
+
+    // // Utility Functions
+
+    private void pushVariable(int symbol, int token) {
+        if (symbol < 0) {
+            code.iconst(0);
+            return;
+        }
+        switch (symbols.kind(symbol)) {
+            case STATIC:
+                code.field(ClassWriter.GETSTATIC, className, tokens.text(token), "I");
+                break;
+            case FIELD:
+                pushFieldAddress(symbols.index(symbol));
+                code.op(ClassWriter.IALOAD);
+                break;
+            default:
+                code.iload(local(symbol));
+                break;
+        }
+    }
+
+    // RAM and the address of field k of this
+    private void pushFieldAddress(int k) {
+        code.field(ClassWriter.GETSTATIC, MEMORY, "RAM", "[I");
+        pushThis();
+        if (k > 0) {
+            code.iconst(k);
+            code.op(ClassWriter.IADD);
+        }
+        mask();
+    }
+
+    private void pushThis() {
+        if (thisLocal >= 0)
+            code.iload(thisLocal);
+        else // a function has no object, the VM would push whatever pointer 0 holds
+            code.iconst(0);
+    }
+
+    // The Hack RAM has 15-bit addresses.
+    private void mask() {
+        code.iconst(0x7FFF);
+        code.op(ClassWriter.IAND);
+    }
+
+    private int local(int symbol) {
+        int index = symbols.index(symbol);
+        return symbols.kind(symbol) == Kind.ARG ? index : arguments + index;
+    }
+
+    private static String descriptor(int nArgs) {
+        return "(" + "I".repeat(nArgs) + ")I";
+    }
+
+    // The characters of a string literal, one per source byte as the VM
+    // code appends them.
+    private String text(int token) {
+        char[] chars = new char[tokens.length(token)];
+        int start = tokens.start(token);
+        for (int k = 0; k < chars.length; k++)
+            chars[k] = (char) (tokens.source().get(start + k) & 0xFF);
+        return new String(chars);
+    }
+}
@@ -0,0 +1,447 @@
+package br.ufma.ecp;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Writes a JVM class file: a constant pool, static int fields and static
+// methods whose code is built one instruction at a time, with labels for
+// the jumps. Only what ClassGenerator needs is here.
+//
+// The class files are version 49 (Java 5), which the JVM checks with the
+// type-inferencing verifier, so no StackMapTable has to be computed. The
+// operand stack depth is tracked per instruction for max_stack; at a label
+// it is the depth of the jumps to it.
+public class ClassWriter {
+
+    public static final int ICONST_0 = 0x03, BIPUSH = 0x10, SIPUSH = 0x11, LDC = 0x12, LDC_W = 0x13;
+    public static final int ILOAD = 0x15, ISTORE = 0x36, IALOAD = 0x2e, IASTORE = 0x4f;
+    public static final int POP = 0x57, DUP = 0x59;
+    public static final int IADD = 0x60, ISUB = 0x64, IMUL = 0x68, IDIV = 0x6c, INEG = 0x74;
+    public static final int IAND = 0x7e, IOR = 0x80, IXOR = 0x82, I2S = 0x93;
+    public static final int IFEQ = 0x99, IFNE = 0x9a;
+    public static final int IF_ICMPEQ = 0x9f, IF_ICMPNE = 0xa0, IF_ICMPLT = 0xa1, IF_ICMPGE = 0xa2,
+            IF_ICMPGT = 0xa3, IF_ICMPLE = 0xa4;
+    public static final int GOTO = 0xa7, IRETURN = 0xac, RETURN = 0xb1;
+    public static final int GETSTATIC = 0xb2, PUTSTATIC = 0xb3, INVOKESTATIC = 0xb8;
+
+    private static final int ACC_PUBLIC = 0x0001, ACC_PRIVATE = 0x0002, ACC_STATIC = 0x0008, ACC_SUPER = 0x0020;
+    private static final int MAJOR_VERSION = 49;
+
+    private static final int UTF8 = 1, INTEGER = 3, CLASS = 7, STRING = 8, FIELDREF = 9, METHODREF = 10,
+            NAME_AND_TYPE = 12;
+
+    private final ByteArrayOutputStream poolBytes = new ByteArrayOutputStream();
+    private final DataOutputStream pool = new DataOutputStream(poolBytes);
+    private final Map<String, Integer> constants = new HashMap<>();
+    private int poolCount = 1;
+
+    private final int thisClass;
+    private final int superClass;
+    // SourceFile attribute name and value, 0 without one
+    private final int sourceFile;
+    private final int sourceFileName;
+    private final List<byte[]> fields = new ArrayList<>();
+    private final List<Method> methods = new ArrayList<>();
+
+    // name is the internal name, with '/' between packages
+    public ClassWriter(String name, String sourceFile) {
+        thisClass = classConstant(name);
+        superClass = classConstant("java/lang/Object");
+        this.sourceFile = sourceFile != null ? utf8("SourceFile") : 0;
+        this.sourceFileName = sourceFile != null ? utf8(sourceFile) : 0;
+    }
+
+    public void staticIntField(String name) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeShort(ACC_PRIVATE | ACC_STATIC);
+            out.writeShort(utf8(name));
+            out.writeShort(utf8("I"));
+            out.writeShort(0);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        fields.add(bytes.toByteArray());
+    }
+
+    // A public static method; parameters are the first locals.
+    public Method method(String name, String descriptor) {
+        Method method = new Method(utf8(name), utf8(descriptor));
+        methods.add(method);
+        return method;
+    }
+
+    public byte[] toByteArray() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            int code = utf8("Code");
+            int lines = utf8("LineNumberTable");
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(MAJOR_VERSION);
+            out.writeShort(poolCount);
+            poolBytes.writeTo(out);
+            out.writeShort(ACC_PUBLIC | ACC_SUPER);
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(0); // interfaces
+            out.writeShort(fields.size());
+            for (byte[] field : fields)
+                out.write(field);
+            out.writeShort(methods.size());
+            for (Method method : methods)
+                method.write(out, code, lines);
+            if (sourceFile != 0) {
+                out.writeShort(1);
+                out.writeShort(sourceFile);
+                out.writeInt(2);
+                out.writeShort(sourceFileName);
+            } else {
+                out.writeShort(0);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    // // Constant Pool
+
+    private int constant(String key, int tag, int a, int b, byte[] utf8, boolean twoIndexes) {
+        Integer index = constants.get(key);
+        if (index != null)
+            return index;
+        try {
+            pool.writeByte(tag);
+            if (utf8 != null) {
+                pool.writeShort(utf8.length);
+                pool.write(utf8);
+            } else if (tag == INTEGER) {
+                pool.writeInt(a);
+            } else {
+                pool.writeShort(a);
+                if (twoIndexes)
+                    pool.writeShort(b);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (poolCount == 0xFFFF)
+            throw new IllegalStateException("constant pool too large");
+        constants.put(key, poolCount);
+        return poolCount++;
+    }
+
+    int utf8(String s) {
+        return constant("U" + s, UTF8, 0, 0, modifiedUtf8(s), false);
+    }
+
+    int classConstant(String name) {
+        return constant("C" + name, CLASS, utf8(name), 0, null, false);
+    }
+
+    private int stringConstant(String s) {
+        return constant("S" + s, STRING, utf8(s), 0, null, false);
+    }
+
+    private int intConstant(int value) {
+        return constant("I" + value, INTEGER, value, 0, null, false);
+    }
+
+    private int nameAndType(String name, String descriptor) {
+        return constant("N" + name + " " + descriptor, NAME_AND_TYPE, utf8(name), utf8(descriptor), null, true);
+    }
+
+    private int member(int tag, String owner, String name, String descriptor) {
+        return constant(tag + owner + "." + name + " " + descriptor, tag, classConstant(owner),
+                nameAndType(name, descriptor), null, true);
+    }
+
+    // The class file form of UTF-8: char 0 and supplementary characters
+    // take more bytes than in standard UTF-8.
+    static byte[] modifiedUtf8(String s) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(s.length());
+        for (int k = 0; k < s.length(); k++) {
+            char c = s.charAt(k);
+            if (c >= 1 && c < 0x80) {
+                out.write(c);
+            } else if (c < 0x800) {
+                out.write(0xC0 | c >> 6);
+                out.write(0x80 | c & 0x3F);
+            } else {
+                out.write(0xE0 | c >> 12);
+                out.write(0x80 | c >> 6 & 0x3F);
+                out.write(0x80 | c & 0x3F);
+            }
+        }
+        if (out.size() > 0xFFFF)
+            throw new IllegalStateException("string constant too long");
+        return out.toByteArray();
+    }
+
+    // The code of one method.
+    public class Method {
+
+        private final int name;
+        private final int descriptor;
+        private byte[] code = new byte[256];
+        private int size;
+        private int depth;
+        private int maxDepth;
+        private int maxLocals;
+        // false after a goto or return, until a label
+        private boolean reachable = true;
+
+        // label id -> code offset (-1 while unbound) and stack depth at it
+        private int[] labels = new int[16];
+        private int[] labelDepths = new int[16];
+        private int labelCount;
+        // jumps to patch: offset of the opcode and label id
+        private int[] jumps = new int[16];
+        private int[] jumpLabels = new int[16];
+        private int jumpCount;
+
+        // pairs of code offset and source line
+        private int[] lines = new int[32];
+        private int lineCount;
+
+        private Method(int name, int descriptor) {
+            this.name = name;
+            this.descriptor = descriptor;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public boolean reachable() {
+            return reachable;
+        }
+
+        // Locals used, parameters included.
+        public void locals(int count) {
+            maxLocals = Math.max(maxLocals, count);
+        }
+
+        // Instructions from here on come from source line line.
+        public void line(int line) {
+            if (lineCount > 0 && lines[lineCount * 2 - 2] == size) {
+                lines[lineCount * 2 - 1] = line;
+                return;
+            }
+            if (lineCount > 0 && lines[lineCount * 2 - 1] == line)
+                return;
+            if (lineCount * 2 == lines.length)
+                lines = Arrays.copyOf(lines, lines.length * 2);
+            lines[lineCount * 2] = size;
+            lines[lineCount * 2 + 1] = line;
+            lineCount++;
+        }
+
+        // An instruction without operands: arithmetic, array, stack and
+        // return instructions.
+        public void op(int opcode) {
+            emit(opcode);
+            switch (opcode) {
+                case IALOAD:
+                case IADD:
+                case ISUB:
+                case IMUL:
+                case IDIV:
+                case IAND:
+                case IOR:
+                case IXOR:
+                case POP:
+                    stack(-1);
+                    break;
+                case IASTORE:
+                    stack(-3);
+                    break;
+                case DUP:
+                    stack(1);
+                    break;
+                case IRETURN:
+                    stack(-1);
+                    reachable = false;
+                    break;
+                case RETURN:
+                    reachable = false;
+                    break;
+                case INEG:
+                case I2S:
+                    break;
+                default:
+                    throw new IllegalArgumentException("opcode " + opcode);
+            }
+        }
+
+        // Pushes an int constant with the shortest instruction.
+        public void iconst(int value) {
+            if (value >= -1 && value <= 5) {
+                emit(ICONST_0 + value);
+            } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+                emit(BIPUSH);
+                emit(value & 0xFF);
+            } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+                emit(SIPUSH);
+                emit16(value);
+            } else {
+                ldc(intConstant(value));
+                return;
+            }
+            stack(1);
+        }
+
+        public void ldcString(String s) {
+            ldc(stringConstant(s));
+        }
+
+        public void ldcClass(String name) {
+            ldc(classConstant(name));
+        }
+
+        private void ldc(int index) {
+            if (index < 256) {
+                emit(LDC);
+                emit(index);
+            } else {
+                emit(LDC_W);
+                emit16(index);
+            }
+            stack(1);
+        }
+
+        public void iload(int local) {
+            local(ILOAD, local);
+            stack(1);
+        }
+
+        public void istore(int local) {
+            local(ISTORE, local);
+            stack(-1);
+        }
+
+        private void local(int opcode, int local) {
+            if (local > 0xFF)
+                throw new IllegalStateException("more than 256 locals");
+            emit(opcode);
+            emit(local);
+            locals(local + 1);
+        }
+
+        // GETSTATIC or PUTSTATIC of an int field; descriptor is "I" or an
+        // array of it
+        public void field(int opcode, String owner, String name, String descriptor) {
+            emit(opcode);
+            emit16(member(FIELDREF, owner, name, descriptor));
+            stack(opcode == GETSTATIC ? 1 : -1);
+        }
+
+        // An invokestatic of a method taking arguments stack slots and
+        // returning one unless returnsValue is false.
+        public void invokestatic(String owner, String name, String descriptor, int arguments, boolean returnsValue) {
+            emit(INVOKESTATIC);
+            emit16(member(METHODREF, owner, name, descriptor));
+            stack(-arguments + (returnsValue ? 1 : 0));
+        }
+
+        public int newLabel() {
+            if (labelCount == labels.length) {
+                labels = Arrays.copyOf(labels, labelCount * 2);
+                labelDepths = Arrays.copyOf(labelDepths, labelCount * 2);
+            }
+            labels[labelCount] = -1;
+            labelDepths[labelCount] = -1;
+            return labelCount++;
+        }
+
+        // GOTO or a conditional jump to label.
+        public void jump(int opcode, int label) {
+            if (jumpCount == jumps.length) {
+                jumps = Arrays.copyOf(jumps, jumpCount * 2);
+                jumpLabels = Arrays.copyOf(jumpLabels, jumpCount * 2);
+            }
+            jumps[jumpCount] = size;
+            jumpLabels[jumpCount++] = label;
+            emit(opcode);
+            emit16(0);
+            if (opcode == IFEQ || opcode == IFNE)
+                stack(-1);
+            else if (opcode != GOTO)
+                stack(-2);
+            labelDepths[label] = depth;
+            if (opcode == GOTO)
+                reachable = false;
+        }
+
+        public void bind(int label) {
+            labels[label] = size;
+            if (!reachable && labelDepths[label] >= 0)
+                depth = labelDepths[label];
+            reachable = true;
+        }
+
+        private void stack(int change) {
+            depth += change;
+            maxDepth = Math.max(maxDepth, depth);
+        }
+
+        private void emit(int b) {
+            if (size == code.length)
+                code = Arrays.copyOf(code, size * 2);
+            code[size++] = (byte) b;
+        }
+
+        private void emit16(int value) {
+            emit(value >> 8);
+            emit(value);
+        }
+
+        private void write(DataOutputStream out, int codeName, int linesName) throws IOException {
+            for (int j = 0; j < jumpCount; j++) {
+                int target = labels[jumpLabels[j]];
+                if (target < 0)
+                    throw new IllegalStateException("unbound label");
+                int offset = target - jumps[j];
+                if (offset != (short) offset)
+                    throw new IllegalStateException("subroutine too large for the JVM");
+                code[jumps[j] + 1] = (byte) (offset >> 8);
+                code[jumps[j] + 2] = (byte) offset;
+            }
+            if (size > 0xFFFF)
+                throw new IllegalStateException("subroutine too large for the JVM");
+
+            int linesLength = lineCount > 0 ? 2 + 4 * lineCount : 0;
+            out.writeShort(ACC_PUBLIC | ACC_STATIC);
+            out.writeShort(name);
+            out.writeShort(descriptor);
+            out.writeShort(1);
+            out.writeShort(codeName);
+            out.writeInt(12 + size + (linesLength > 0 ? 6 + linesLength : 0));
+            out.writeShort(maxDepth);
+            out.writeShort(maxLocals);
+            out.writeInt(size);
+            out.write(code, 0, size);
+            out.writeShort(0); // exception table
+            if (linesLength > 0) {
+                out.writeShort(1);
+                out.writeShort(linesName);
+                out.writeInt(linesLength);
+                out.writeShort(lineCount);
+                for (int k = 0; k < lineCount * 2; k++)
+                    out.writeShort(lines[k]);
+            } else {
+                out.writeShort(0);
+            }
+        }
+    }
+}
@@ -0,0 +1,662 @@
+package br.ufma.ecp;
+
+import java.util.Arrays;
+import java.util.List;
+
+import br.ufma.ecp.SymbolTable.Kind;
+import br.ufma.ecp.VMWriter.Command;
+import br.ufma.ecp.VMWriter.Segment;
+import br.ufma.ecp.ast.Ast;
+import br.ufma.ecp.ast.NodeKind;
+import br.ufma.ecp.token.TokenStream;
+import br.ufma.ecp.token.TokenType;
+
+// Jack to VM translation, walking the Ast of a class that parsed without
+// errors. The output follows the nand2tetris JackCompiler: the same
+// commands, calling conventions and label names (IF_TRUE0, WHILE_EXP0...,
+// numbered per subroutine), so it runs on the stock VM emulator and OS.
+//
+// With Optimizations.fold, constant expressions and the constant prefix of
+// an expression are computed here in 16-bit arithmetic, as the Hack
+// platform does, and pushed as one constant. A multiplication by a power
+// of two becomes repeated doubling (x + x through temp 1), and a
+// multiplication or division by 1 or -1 needs no call at all. The VM has no
+// shift, so other divisions still call Math.divide.
+//
+// With Optimizations.poolStrings, each distinct string literal of the class
+// is built once, by a generated function C.$stringK, and kept in a static
+// after the class's own; every later evaluation is a push of that static.
+// The String object is shared by every use, so code that changes or
+// disposes of a literal must not be compiled this way.
+//
+// With Optimizations.peephole, the code of the whole class goes through the
+// Peephole rules once it is written.
+public class CodeGenerator {
+
+    // constantValue() of an expression that is not constant; 16-bit values
+    // never reach it
+    private static final int NOT_CONSTANT = Integer.MIN_VALUE;
+
+    private static final byte[] IF_TRUE = VMWriter.bytes("IF_TRUE");
+    private static final byte[] IF_FALSE = VMWriter.bytes("IF_FALSE");
+    private static final byte[] IF_END = VMWriter.bytes("IF_END");
+    private static final byte[] WHILE_EXP = VMWriter.bytes("WHILE_EXP");
+    private static final byte[] WHILE_END = VMWriter.bytes("WHILE_END");
+    private static final byte[] STRING_READY = VMWriter.bytes("STRING_READY");
+    // '$' is not in Jack identifiers, so no subroutine can have this name
+    private static final byte[] STRING_FUNCTION = VMWriter.bytes("$string");
+
+    private static final byte[] MULTIPLY = VMWriter.bytes("Math.multiply");
+    private static final byte[] DIVIDE = VMWriter.bytes("Math.divide");
+    private static final byte[] ALLOC = VMWriter.bytes("Memory.alloc");
+    private static final byte[] STRING_NEW = VMWriter.bytes("String.new");
+    private static final byte[] APPEND_CHAR = VMWriter.bytes("String.appendChar");
+
+    private final Ast ast;
+    private final TokenStream tokens;
+    private final VMWriter vm;
+    private final Declarations declarations;
+    private final SymbolTable symbols;
+    private final Optimizations optimizations;
+
+    private int className = -1;
+    private int ifLabel;
+    private int whileLabel;
+    private int stringLabel;
+
+    // string pool: the token of each distinct literal and its uses, and the
+    // bytes of VM code written at the uses
+    private int[] pooled = new int[8];
+    private int[] pooledUses = new int[8];
+    private int poolSize;
+    private int poolSiteBytes;
+
+    public CodeGenerator(Ast ast, VMWriter vm) {
+        this(ast, vm, Optimizations.none());
+    }
+
+    public CodeGenerator(Ast ast, VMWriter vm, Optimizations optimizations) {
+        this.ast = ast;
+        this.tokens = ast.tokens();
+        this.vm = vm;
+        this.declarations = new Declarations(ast);
+        this.symbols = declarations.symbols();
+        this.optimizations = optimizations;
+    }
+
+    public List<Diagnostic> diagnostics() {
+        return declarations.diagnostics();
+    }
+
+    // Compiles the class at the root of the Ast.
+    public void compileClass() {
+        symbols.startClass();
+        int node = ast.firstChild(0); // 'class'
+        node = ast.nextSibling(0, node);
+        className = ast.token(node);
+        poolSize = 0;
+        poolSiteBytes = 0;
+        for (node = ast.nextSibling(0, node); node >= 0; node = ast.nextSibling(0, node)) {
+            if (ast.kind(node) == NodeKind.CLASS_VAR_DEC)
+                declarations.defineClassVars(node);
+            else if (ast.kind(node) == NodeKind.SUBROUTINE_DEC)
+                compileSubroutine(node);
+        }
+        if (poolSize > 0)
+            compileStringPool();
+        // the writer holds this class only
+        if (optimizations.peephole != null)
+            optimizations.peepholeDone(tokens.text(className), optimizations.peephole.optimize(vm));
+    }
+
+    // ('constructor' | 'function' | 'method') type name '(' parameterList ')' subroutineBody
+    private void compileSubroutine(int dec) {
+        int node = ast.firstChild(dec);
+        TokenType subroutineType = ast.type(node);
+        node = ast.nextSibling(dec, ast.nextSibling(dec, node)); // past the return type
+        int name = ast.token(node);
+        int statements = declarations.defineSubroutine(dec);
+        ifLabel = 0;
+        whileLabel = 0;
+        stringLabel = 0;
+
+        vm.writeFunction(tokens, className, name, symbols.varCount(Kind.VAR));
+        if (subroutineType == TokenType.CONSTRUCTOR) {
+            vm.writePush(Segment.CONST, symbols.varCount(Kind.FIELD));
+            vm.writeCall(ALLOC, 1);
+            vm.writePop(Segment.POINTER, 0);
+        } else if (subroutineType == TokenType.METHOD) {
+            vm.writePush(Segment.ARG, 0);
+            vm.writePop(Segment.POINTER, 0);
+        }
+        compileStatements(statements);
+    }
+
+    // // Statements
+
+    void compileStatements(int statements) {
+        for (int node = ast.firstChild(statements); node >= 0; node = ast.nextSibling(statements, node)) {
+            switch (ast.kind(node)) {
+                case LET_STATEMENT:
+                    compileLet(node);
+                    break;
+                case IF_STATEMENT:
+                    compileIf(node);
+                    break;
+                case WHILE_STATEMENT:
+                    compileWhile(node);
+                    break;
+                case DO_STATEMENT:
+                    compileDo(node);
+                    break;
+                case RETURN_STATEMENT:
+                    compileReturn(node);
+                    break;
+                default:
+                    throw new IllegalStateException("not a statement: " + ast.kind(node));
+            }
+        }
+    }
+
+    // 'let' varName ('[' expression ']')? '=' expression ';'
+    private void compileLet(int let) {
+        int name = ast.nextSibling(let, ast.firstChild(let));
+        int node = ast.nextSibling(let, name);
+        int symbol = declarations.resolve(ast.token(name));
+
+        if (ast.type(node) == TokenType.LBRACKET) {
+            int index = ast.nextSibling(let, node);
+            pushVariable(symbol);
+            compileExpression(index);
+            vm.writeArithmetic(Command.ADD);
+
+            // past ']' and '='
+            node = ast.nextSibling(let, ast.nextSibling(let, ast.nextSibling(let, index)));
+            compileExpression(node);
+            vm.writePop(Segment.TEMP, 0);
+            vm.writePop(Segment.POINTER, 1);
+            vm.writePush(Segment.TEMP, 0);
+            vm.writePop(Segment.THAT, 0);
+        } else {
+            compileExpression(ast.nextSibling(let, node));
+            if (symbol >= 0)
+                vm.writePop(symbols.kind(symbol).segment, symbols.index(symbol));
+            else
+                vm.writePop(Segment.TEMP, 0);
+        }
+    }
+
+    // 'if' '(' expression ')' '{' statements '}' ('else' '{' statements '}')?
+    private void compileIf(int statement) {
+        int label = ifLabel++;
+        int node = ast.nextSibling(statement, ast.nextSibling(statement, ast.firstChild(statement)));
+        compileExpression(node);
+        vm.writeIf(IF_TRUE, label);
+        vm.writeGoto(IF_FALSE, label);
+        vm.writeLabel(IF_TRUE, label);
+
+        node = ast.nextSibling(statement, ast.nextSibling(statement, node)); // '{'
+        node = ast.nextSibling(statement, node);
+        compileStatements(node);
+
+        node = ast.nextSibling(statement, ast.nextSibling(statement, node)); // 'else' or nothing
+        if (node >= 0) {
+            vm.writeGoto(IF_END, label);
+            vm.writeLabel(IF_FALSE, label);
+            compileStatements(ast.nextSibling(statement, ast.nextSibling(statement, node)));
+            vm.writeLabel(IF_END, label);
+        } else {
+            vm.writeLabel(IF_FALSE, label);
+        }
+    }
+
+    // 'while' '(' expression ')' '{' statements '}'
+    private void compileWhile(int statement) {
+        int label = whileLabel++;
+        vm.writeLabel(WHILE_EXP, label);
+        int node = ast.nextSibling(statement, ast.nextSibling(statement, ast.firstChild(statement)));
+        compileExpression(node);
+        vm.writeArithmetic(Command.NOT);
+        vm.writeIf(WHILE_END, label);
+
+        node = ast.nextSibling(statement, ast.nextSibling(statement, ast.nextSibling(statement, node)));
+        compileStatements(node);
+        vm.writeGoto(WHILE_EXP, label);
+        vm.writeLabel(WHILE_END, label);
+    }
+
+    // 'do' subroutineCall ';'
+    private void compileDo(int statement) {
+        compileCall(statement, ast.nextSibling(statement, ast.firstChild(statement)));
+        vm.writePop(Segment.TEMP, 0);
+    }
+
+    // 'return' expression? ';'
+    private void compileReturn(int statement) {
+        int node = ast.nextSibling(statement, ast.firstChild(statement));
+        if (ast.kind(node) == NodeKind.EXPRESSION)
+            compileExpression(node);
+        else
+            vm.writePush(Segment.CONST, 0);
+        vm.writeReturn();
+    }
+
+    // // Expressions
+
+    // term (op term)*, evaluated left to right as the nand2tetris compiler does
+    void compileExpression(int expression) {
+        if (optimizations.fold) {
+            compileFolded(expression);
+            return;
+        }
+        int node = ast.firstChild(expression);
+        compileTerm(node);
+        for (node = ast.nextSibling(expression, node); node >= 0; node = ast.nextSibling(expression, node)) {
+            TokenType op = ast.type(node);
+            node = ast.nextSibling(expression, node);
+            compileTerm(node);
+            compileOperator(op);
+        }
+    }
+
+    private void compileOperator(TokenType op) {
+        switch (op) {
+            case PLUS:
+                vm.writeArithmetic(Command.ADD);
+                break;
+            case MINUS:
+                vm.writeArithmetic(Command.SUB);
+                break;
+            case ASTERISK:
+                vm.writeCall(MULTIPLY, 2);
+                break;
+            case SLASH:
+                vm.writeCall(DIVIDE, 2);
+                break;
+            case AND:
+                vm.writeArithmetic(Command.AND);
+                break;
+            case OR:
+                vm.writeArithmetic(Command.OR);
+                break;
+            case LT:
+                vm.writeArithmetic(Command.LT);
+                break;
+            case GT:
+                vm.writeArithmetic(Command.GT);
+                break;
+            case EQ:
+                vm.writeArithmetic(Command.EQ);
+                break;
+            default:
+                throw new IllegalStateException("not an operator: " + op);
+        }
+    }
+
+    private void compileTerm(int term) {
+        if (optimizations.fold) {
+            int value = constantValue(term);
+            if (value != NOT_CONSTANT) {
+                pushFolded(term, ast.end(term), value);
+                return;
+            }
+        }
+        int node = ast.firstChild(term);
+        int token = ast.token(node);
+        switch (ast.type(node)) {
+            case NUMBER:
+                vm.writePush(Segment.CONST, tokens.intValue(token));
+                break;
+            case STRING:
+                if (optimizations.poolStrings)
+                    compilePooledString(token);
+                else
+                    compileString(token);
+                break;
+            case TRUE:
+                vm.writePush(Segment.CONST, 0);
+                vm.writeArithmetic(Command.NOT);
+                break;
+            case FALSE:
+            case NULL:
+                vm.writePush(Segment.CONST, 0);
+                break;
+            case THIS:
+                vm.writePush(Segment.POINTER, 0);
+                break;
+            case LPAREN:
+                compileExpression(ast.nextSibling(term, node));
+                break;
+            case MINUS:
+                compileTerm(ast.nextSibling(term, node));
+                vm.writeArithmetic(Command.NEG);
+                break;
+            case NOT:
+                compileTerm(ast.nextSibling(term, node));
+                vm.writeArithmetic(Command.NOT);
+                break;
+            case IDENT: {
+                int after = ast.nextSibling(term, node);
+                TokenType afterType = after >= 0 ? ast.type(after) : null;
+                if (afterType == TokenType.LPAREN || afterType == TokenType.DOT) {
+                    compileCall(term, node);
+                } else if (afterType == TokenType.LBRACKET) {
+                    pushVariable(declarations.resolve(token));
+                    compileExpression(ast.nextSibling(term, after));
+                    vm.writeArithmetic(Command.ADD);
+                    vm.writePop(Segment.POINTER, 1);
+                    vm.writePush(Segment.THAT, 0);
+                } else {
+                    pushVariable(declarations.resolve(token));
+                }
+                break;
+            }
+            default:
+                throw new IllegalStateException("not a term: " + ast.type(node));
+        }
+    }
+
+    // // Constant Folding
+
+    private void compileFolded(int expression) {
+        int first = ast.firstChild(expression);
+        int value = constantValue(first);
+        int op = ast.nextSibling(expression, first);
+        if (value == NOT_CONSTANT) {
+            compileTerm(first);
+        } else {
+            // the longest constant prefix becomes one push, unless it
+            // multiplies what follows and can be applied by reduce()
+            int end = ast.end(first);
+            while (op >= 0) {
+                int right = ast.nextSibling(expression, op);
+                int folded = fold(ast.type(op), value, constantValue(right));
+                if (folded == NOT_CONSTANT)
+                    break;
+                value = folded;
+                end = ast.end(right);
+                op = ast.nextSibling(expression, right);
+            }
+            if (op >= 0 && ast.type(op) == TokenType.ASTERISK && reducible(TokenType.ASTERISK, value)) {
+                // c * x is x * c, c has no side effects
+                countFolded(first, end);
+                int right = ast.nextSibling(expression, op);
+                compileTerm(right);
+                reduce(TokenType.ASTERISK, value);
+                op = ast.nextSibling(expression, right);
+            } else {
+                pushFolded(first, end, value);
+            }
+        }
+
+        for (; op >= 0; op = ast.nextSibling(expression, op)) {
+            TokenType operator = ast.type(op);
+            op = ast.nextSibling(expression, op);
+            int constant = constantValue(op);
+            if (constant != NOT_CONSTANT && reducible(operator, constant)) {
+                countFolded(op, ast.end(op));
+                reduce(operator, constant);
+            } else {
+                compileTerm(op);
+                compileOperator(operator);
+            }
+        }
+    }
+
+    // Whether x op c can be computed without Math.multiply or Math.divide.
+    private static boolean reducible(TokenType op, int c) {
+        if (op == TokenType.ASTERISK) {
+            int magnitude = Math.abs(c);
+            return (magnitude & (magnitude - 1)) == 0; // 0 and powers of two
+        }
+        return op == TokenType.SLASH && (c == 1 || c == -1);
+    }
+
+    // Applies op c to the value on the stack.
+    private void reduce(TokenType op, int c) {
+        if (op == TokenType.SLASH) {
+            optimizations.dividesReduced.increment();
+        } else {
+            optimizations.multipliesReduced.increment();
+        }
+        optimizations.callsRemoved.increment();
+
+        if (c == 0) { // x was still computed for its side effects
+            vm.writePop(Segment.TEMP, 1);
+            vm.writePush(Segment.CONST, 0);
+            return;
+        }
+        int magnitude = Math.abs(c);
+        for (int bit = magnitude; bit > 1; bit >>= 1) {
+            vm.writePop(Segment.TEMP, 1);
+            vm.writePush(Segment.TEMP, 1);
+            vm.writePush(Segment.TEMP, 1);
+            vm.writeArithmetic(Command.ADD);
+        }
+        if (c < 0 && c != Short.MIN_VALUE) // x * -32768 == x * 32768 in 16 bits
+            vm.writeArithmetic(Command.NEG);
+    }
+
+    // Value of a constant expression or term in 16-bit arithmetic, or
+    // NOT_CONSTANT.
+    private int constantValue(int node) {
+        if (ast.kind(node) == NodeKind.EXPRESSION) {
+            int term = ast.firstChild(node);
+            int value = constantValue(term);
+            for (int op = ast.nextSibling(node, term); op >= 0 && value != NOT_CONSTANT;
+                    op = ast.nextSibling(node, term)) {
+                term = ast.nextSibling(node, op);
+                value = fold(ast.type(op), value, constantValue(term));
+            }
+            return value;
+        }
+
+        int first = ast.firstChild(node);
+        if (!ast.isToken(first))
+            return NOT_CONSTANT;
+        switch (ast.type(first)) {
+            case NUMBER: {
+                int value = tokens.intValue(ast.token(first));
+                return value <= Short.MAX_VALUE ? value : NOT_CONSTANT;
+            }
+            case TRUE:
+                return -1;
+            case FALSE:
+            case NULL:
+                return 0;
+            case LPAREN:
+                return constantValue(ast.nextSibling(node, first));
+            case MINUS: {
+                int value = constantValue(ast.nextSibling(node, first));
+                return value == NOT_CONSTANT ? value : (short) -value;
+            }
+            case NOT: {
+                int value = constantValue(ast.nextSibling(node, first));
+                return value == NOT_CONSTANT ? value : (short) ~value;
+            }
+            default:
+                return NOT_CONSTANT;
+        }
+    }
+
+    // a op b as the VM computes it, or NOT_CONSTANT when it is left to run
+    // time: a division by zero, or one Math.divide does not agree with Java on
+    private static int fold(TokenType op, int a, int b) {
+        if (a == NOT_CONSTANT || b == NOT_CONSTANT)
+            return NOT_CONSTANT;
+        switch (op) {
+            case PLUS:
+                return (short) (a + b);
+            case MINUS:
+                return (short) (a - b);
+            case ASTERISK:
+                return (short) (a * b);
+            case SLASH:
+                return b == 0 || a == Short.MIN_VALUE ? NOT_CONSTANT : (short) (a / b);
+            case AND:
+                return (short) (a & b);
+            case OR:
+                return (short) (a | b);
+            case LT:
+                return a < b ? -1 : 0;
+            case GT:
+                return a > b ? -1 : 0;
+            case EQ:
+                return a == b ? -1 : 0;
+            default:
+                throw new IllegalStateException("not an operator: " + op);
+        }
+    }
+
+    // Pushes value, the result of nodes [from, to).
+    private void pushFolded(int from, int to, int value) {
+        countFolded(from, to);
+        if (value >= 0) {
+            vm.writePush(Segment.CONST, value);
+        } else { // -32768 has no positive counterpart, ~value always has
+            vm.writePush(Segment.CONST, ~value);
+            vm.writeArithmetic(Command.NOT);
+        }
+    }
+
+    // Counts the operations computed at compile time in nodes [from, to).
+    private void countFolded(int from, int to) {
+        for (int node = from; node < to; node++) {
+            if (!ast.isToken(node))
+                continue;
+            switch (ast.type(node)) {
+                case ASTERISK:
+                case SLASH:
+                    optimizations.callsRemoved.increment();
+                    // fall through
+                case PLUS:
+                case MINUS:
+                case AND:
+                case OR:
+                case LT:
+                case GT:
+                case EQ:
+                case NOT:
+                    optimizations.operationsFolded.increment();
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    // // String Pool
+
+    // The static of a pooled literal is 0 until its first use builds it:
+    //   push static K; if-goto STRING_READYn; call C.$stringK 0; pop static K
+    //   label STRING_READYn; push static K
+    private void compilePooledString(int token) {
+        int start = vm.size();
+        int slot = poolSlot(token);
+        // every static is declared before the first subroutine
+        int index = symbols.varCount(Kind.STATIC) + slot;
+        int label = stringLabel++;
+        vm.writePush(Segment.STATIC, index);
+        vm.writeIf(STRING_READY, label);
+        vm.writeCall(tokens, className, STRING_FUNCTION, slot, 0);
+        vm.writePop(Segment.STATIC, index);
+        vm.writeLabel(STRING_READY, label);
+        vm.writePush(Segment.STATIC, index);
+        poolSiteBytes += vm.size() - start;
+    }
+
+    // Literals are few per class, a linear search is enough.
+    private int poolSlot(int token) {
+        for (int slot = 0; slot < poolSize; slot++) {
+            if (tokens.sameText(pooled[slot], token)) {
+                pooledUses[slot]++;
+                return slot;
+            }
+        }
+        if (poolSize == pooled.length) {
+            pooled = Arrays.copyOf(pooled, poolSize * 2);
+            pooledUses = Arrays.copyOf(pooledUses, poolSize * 2);
+        }
+        pooled[poolSize] = token;
+        pooledUses[poolSize] = 1;
+        return poolSize++;
+    }
+
+    // One function per literal, returning a new String of it. The report
+    // counts the bytes of VM code this saved over building the string at
+    // every use, which is negative for a short literal used once.
+    private void compileStringPool() {
+        long unpooled = 0;
+        long pooledBytes = poolSiteBytes;
+        for (int slot = 0; slot < poolSize; slot++) {
+            int start = vm.size();
+            vm.writeFunction(tokens, className, STRING_FUNCTION, slot, 0);
+            int build = vm.size();
+            compileString(pooled[slot]);
+            unpooled += (long) (vm.size() - build) * pooledUses[slot];
+            vm.writeReturn();
+            pooledBytes += vm.size() - start;
+            optimizations.stringUses.add(pooledUses[slot]);
+        }
+        optimizations.stringsPooled.add(poolSize);
+        optimizations.stringBytesSaved.add(unpooled - pooledBytes);
+    }
+
+    private void compileString(int token) {
+        int length = tokens.length(token);
+        vm.writePush(Segment.CONST, length);
+        vm.writeCall(STRING_NEW, 1);
+        int start = tokens.start(token);
+        for (int k = 0; k < length; k++) {
+            vm.writePush(Segment.CONST, tokens.source().get(start + k) & 0xFF);
+            vm.writeCall(APPEND_CHAR, 2);
+        }
+    }
+
+    // subroutineName '(' expressionList ')'
+    // | (className | varName) '.' subroutineName '(' expressionList ')'
+    // starting at the leaf node, a child of parent
+    private void compileCall(int parent, int node) {
+        int first = ast.token(node);
+        node = ast.nextSibling(parent, node);
+        if (ast.type(node) == TokenType.LPAREN) { // a method of this object
+            vm.writePush(Segment.POINTER, 0);
+            int nArgs = compileExpressionList(ast.nextSibling(parent, node));
+            vm.writeCall(tokens, className, first, nArgs + 1);
+            return;
+        }
+
+        node = ast.nextSibling(parent, node); // past '.'
+        int name = ast.token(node);
+        int list = ast.nextSibling(parent, ast.nextSibling(parent, node));
+        int symbol = symbols.resolve(first);
+        if (symbol >= 0) { // a method of the object in a variable
+            vm.writePush(symbols.kind(symbol).segment, symbols.index(symbol));
+            int nArgs = compileExpressionList(list);
+            vm.writeCall(tokens, symbols.type(symbol), name, nArgs + 1);
+        } else { // a function or constructor of a class
+            int nArgs = compileExpressionList(list);
+            vm.writeCall(tokens, first, name, nArgs);
+        }
+    }
+
+    private int compileExpressionList(int list) {
+        int nArgs = 0;
+        for (int node = ast.firstChild(list); node >= 0; node = ast.nextSibling(list, node)) {
+            if (ast.kind(node) == NodeKind.EXPRESSION) {
+                compileExpression(node);
+                nArgs++;
+            }
+        }
+        return nArgs;
+    }
+
+    // // Utility Functions
+
+    private void pushVariable(int symbol) {
+        if (symbol >= 0)
+            vm.writePush(symbols.kind(symbol).segment, symbols.index(symbol));
+        else
+            vm.writePush(Segment.CONST, 0);
+    }
+}
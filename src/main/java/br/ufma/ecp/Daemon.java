@@ -0,0 +1,429 @@
+package br.ufma.ecp;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.ProtocolException;
+import java.net.StandardProtocolFamily;
+import java.nio.ByteBuffer;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+
+// Long-running compiler that keeps the Scanner and the Parser JIT-compiled
+// across builds. It serves compile requests over a Unix-domain socket, each
+// connection on its own thread, and runs the files on one shared
+// work-stealing pool. App -client forwards to it and compiles in-process
+// when no daemon is listening.
+//
+// Protocol, one request per connection, all through DataOutput:
+//   FILES  build, target, flags, rules, count, absolute paths -> failures, diagnostics, report
+//   SOURCE build, target, flags, rules, source bytes          -> failures (0 or 1), output bytes, diagnostics, report
+//   STOP   build                                              -> failures (0)
+// The build is the client's App.VERSION. A daemon of another build replies
+// to FILES and SOURCE with OTHER_BUILD failures and compiles nothing, as
+// its code generation and the meaning of flags and rules may differ; the
+// client then compiles in-process. STOP is obeyed from any build, so a
+// rebuilt client can end an old daemon.
+// The target is a byte, the Target ordinal, flags the byte of
+// Optimizations.flags() and rules the int of peepholeRules(). The report
+// is Optimizations.toString() for the request. Paths, byte arrays,
+// diagnostics and reports are written as a length and the bytes. A
+// request the daemon cannot compile, such as an unknown target or a length
+// over its limit, still gets its reply: failures, with the reason in the
+// diagnostics. Lengths and counts are checked before anything is allocated
+// for them, so a malformed request cannot exhaust the heap the daemon
+// shares between its clients. As from the command line, only absolute
+// paths of regular .jack files are compiled, each other path is a failure,
+// and -target asm, a whole program, is not served.
+public class Daemon {
+
+    static final byte FILES = 1;
+    static final byte SOURCE = 2;
+    static final byte STOP = 3;
+
+    // the failures of a reply from a daemon of another build
+    public static final int OTHER_BUILD = -1;
+
+    private static final int WARMUP_ROUNDS = 2000;
+
+    // limits of a request, far above any real build
+    static final int MAX_FILES = 1 << 16;
+    static final int MAX_PATH = 4096;
+    static final int MAX_SOURCE = 16 << 20;
+    static final int MAX_BUILD = 64;
+
+    private final Path socket;
+    private final ForkJoinPool pool;
+    private final BuildCache cache;
+    private final String build;
+    private final ExecutorService connections = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "jack-daemon-connection");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private ServerSocketChannel server;
+
+    // cache may be null
+    public Daemon(Path socket, int parallelism, BuildCache cache) {
+        this(socket, parallelism, cache, App.VERSION);
+    }
+
+    // a daemon that takes itself for build, for tests
+    Daemon(Path socket, int parallelism, BuildCache cache, String build) {
+        this.socket = socket;
+        this.pool = new ForkJoinPool(parallelism);
+        this.cache = cache;
+        this.build = build;
+    }
+
+    static Path defaultSocket() {
+        return Paths.get(System.getProperty("java.io.tmpdir"),
+                "jackcompiler-" + System.getProperty("user.name") + ".sock");
+    }
+
+    // Accepts requests until a STOP request arrives.
+    public void serve() throws IOException {
+        try (SocketChannel live = connect(socket)) {
+            if (live != null)
+                throw new IOException("a daemon is already listening on " + socket);
+        }
+        Files.deleteIfExists(socket); // left by a daemon that died
+
+        server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        try {
+            server.bind(UnixDomainSocketAddress.of(socket));
+            pool.execute(Daemon::warmUp);
+            for (;;) {
+                SocketChannel channel = server.accept();
+                connections.execute(() -> handle(channel));
+            }
+        } catch (AsynchronousCloseException e) {
+            // closed by a STOP request
+        } finally {
+            server.close();
+            connections.shutdown();
+            pool.shutdown();
+            Files.deleteIfExists(socket);
+        }
+    }
+
+    private void handle(SocketChannel channel) {
+        try (channel;
+                DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)))) {
+            byte op = in.readByte();
+            String client;
+            try {
+                client = new String(readBytes(in, MAX_BUILD), StandardCharsets.UTF_8);
+            } catch (ProtocolException e) {
+                client = "unknown";
+            }
+            ByteArrayOutputStream diagnostics = new ByteArrayOutputStream();
+            PrintStream err = new PrintStream(diagnostics, true, StandardCharsets.UTF_8);
+            if ((op == FILES || op == SOURCE) && !client.equals(build)) {
+                err.println("daemon: build " + build + ", not the client's " + client);
+                out.writeInt(OTHER_BUILD);
+                if (op == SOURCE)
+                    writeBytes(out, new byte[0]);
+                writeBytes(out, diagnostics.toByteArray());
+                writeBytes(out, new byte[0]);
+                return;
+            }
+
+            switch (op) {
+                case FILES: {
+                    List<Path> sources = new ArrayList<>();
+                    int rejected = 0;
+                    int failures;
+                    String report = "";
+                    try {
+                        byte ordinal = in.readByte();
+                        byte flags = in.readByte();
+                        int rules = in.readInt();
+                        int count = readLength(in, MAX_FILES);
+                        for (int i = 0; i < count; i++) {
+                            Path source = Paths.get(new String(readBytes(in, MAX_PATH), StandardCharsets.UTF_8));
+                            if (isSource(source)) {
+                                sources.add(source);
+                            } else {
+                                err.println("daemon: not a .jack file: " + source);
+                                rejected++;
+                            }
+                        }
+                        Optimizations optimizations = new Optimizations(flags, rules);
+                        Target target = target(ordinal);
+                        failures = rejected + App.compileAll(sources, target, optimizations, pool, cache, err);
+                        report = optimizations.toString();
+                    } catch (ProtocolException | RuntimeException e) {
+                        failed(e, err);
+                        failures = Math.max(1, sources.size() + rejected);
+                    }
+                    out.writeInt(failures);
+                    writeBytes(out, diagnostics.toByteArray());
+                    writeBytes(out, report.getBytes(StandardCharsets.UTF_8));
+                    break;
+                }
+                case SOURCE: {
+                    ByteArrayOutputStream output = new ByteArrayOutputStream();
+                    int failures = 1;
+                    String report = "";
+                    try {
+                        byte ordinal = in.readByte();
+                        byte flags = in.readByte();
+                        int rules = in.readInt();
+                        byte[] source = readBytes(in, MAX_SOURCE);
+                        Optimizations optimizations = new Optimizations(flags, rules);
+                        List<Diagnostic> errors = App.compile(ByteBuffer.wrap(source), target(ordinal), optimizations,
+                                output);
+                        for (Diagnostic error : errors)
+                            err.println(error);
+                        failures = errors.isEmpty() ? 0 : 1;
+                        report = optimizations.toString();
+                    } catch (ProtocolException | RuntimeException e) {
+                        failed(e, err);
+                    }
+                    out.writeInt(failures);
+                    writeBytes(out, failures == 0 ? output.toByteArray() : new byte[0]);
+                    writeBytes(out, diagnostics.toByteArray());
+                    writeBytes(out, report.getBytes(StandardCharsets.UTF_8));
+                    break;
+                }
+                case STOP:
+                    out.writeInt(0);
+                    out.flush();
+                    server.close();
+                    break;
+                default:
+                    throw new IOException("unknown request " + op);
+            }
+        } catch (EOFException e) {
+            // a client checking whether the daemon is up
+        } catch (IOException | RuntimeException e) { // a malformed request
+            System.err.println("daemon: " + (e.getMessage() != null ? e.getMessage() : e.toString()));
+        }
+    }
+
+    private static Target target(byte ordinal) {
+        Target[] targets = Target.values();
+        if (ordinal < 0 || ordinal >= targets.length)
+            throw new IllegalArgumentException("unknown target " + ordinal);
+        if (targets[ordinal] == Target.ASM)
+            throw new IllegalArgumentException("target asm compiles a whole program, not through the daemon");
+        return targets[ordinal];
+    }
+
+    // Only what App.findSources() passes on: App.outputFile() cuts the
+    // ".jack" off the name, and App.compile() truncates that file before
+    // parsing and deletes it on errors.
+    private static boolean isSource(Path path) {
+        Path name = path.getFileName();
+        return path.isAbsolute() && name != null && name.toString().endsWith(".jack") && Files.isRegularFile(path);
+    }
+
+    // A request that could not be compiled fails as a whole, with the reason
+    // among its diagnostics.
+    private static void failed(Exception e, PrintStream err) {
+        err.println("daemon: " + (e.getMessage() != null ? e.getMessage() : e.toString()));
+    }
+
+    // Runs the hot paths until the JIT has compiled them, so the first
+    // requests are already fast.
+    private static void warmUp() {
+        byte[] source = WARMUP_SOURCE.getBytes(StandardCharsets.UTF_8);
+        Optimizations[] settings = { Optimizations.none(),
+                new Optimizations(Optimizations.FOLD | Optimizations.POOL_STRINGS | Optimizations.PEEPHOLE) };
+        try {
+            for (int i = 0; i < WARMUP_ROUNDS; i++) {
+                for (Target target : Target.values())
+                    App.compile(ByteBuffer.wrap(source), target, settings[i & 1], OutputStream.nullOutputStream());
+            }
+        } catch (IOException e) {
+            // nothing is written
+        }
+    }
+
+    // Reply of a daemon request.
+    public static class Reply {
+        // OTHER_BUILD when the daemon compiled nothing
+        public final int failures;
+        public final byte[] output;
+        public final String diagnostics;
+        // what the optimizations saved, see Optimizations.toString()
+        public final String report;
+
+        Reply(int failures, byte[] output, String diagnostics, String report) {
+            this.failures = failures;
+            this.output = output;
+            this.diagnostics = diagnostics;
+            this.report = report;
+        }
+    }
+
+    // Compiles the files to XML in the daemon, writing each output next to
+    // its source. Returns null when no daemon is listening on socket; a
+    // daemon of another build replies OTHER_BUILD failures.
+    public static Reply compile(Path socket, List<Path> sources) throws IOException {
+        return compile(socket, sources, Target.XML);
+    }
+
+    public static Reply compile(Path socket, List<Path> sources, Target target) throws IOException {
+        return compile(socket, sources, target, Optimizations.none());
+    }
+
+    // The counters of optimizations are not updated, the daemon's report is
+    // in the Reply.
+    public static Reply compile(Path socket, List<Path> sources, Target target, Optimizations optimizations)
+            throws IOException {
+        try (SocketChannel channel = connect(socket)) {
+            if (channel == null)
+                return null;
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+            out.writeByte(FILES);
+            writeBytes(out, App.VERSION.getBytes(StandardCharsets.UTF_8));
+            out.writeByte(target.ordinal());
+            out.writeByte(optimizations.flags());
+            out.writeInt(optimizations.peepholeRules());
+            out.writeInt(sources.size());
+            for (Path source : sources)
+                writeBytes(out, source.toAbsolutePath().toString().getBytes(StandardCharsets.UTF_8));
+            out.flush();
+
+            DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+            int failures = in.readInt();
+            String diagnostics = new String(readBytes(in), StandardCharsets.UTF_8);
+            return new Reply(failures, null, diagnostics, new String(readBytes(in), StandardCharsets.UTF_8));
+        }
+    }
+
+    // Compiles an inline source in the daemon and returns its XML.
+    // Returns null when no daemon is listening on socket.
+    public static Reply compile(Path socket, byte[] source) throws IOException {
+        return compile(socket, source, Target.XML);
+    }
+
+    public static Reply compile(Path socket, byte[] source, Target target) throws IOException {
+        return compile(socket, source, target, Optimizations.none());
+    }
+
+    public static Reply compile(Path socket, byte[] source, Target target, Optimizations optimizations)
+            throws IOException {
+        try (SocketChannel channel = connect(socket)) {
+            if (channel == null)
+                return null;
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+            out.writeByte(SOURCE);
+            writeBytes(out, App.VERSION.getBytes(StandardCharsets.UTF_8));
+            out.writeByte(target.ordinal());
+            out.writeByte(optimizations.flags());
+            out.writeInt(optimizations.peepholeRules());
+            writeBytes(out, source);
+            out.flush();
+
+            DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+            int failures = in.readInt();
+            byte[] output = readBytes(in);
+            String diagnostics = new String(readBytes(in), StandardCharsets.UTF_8);
+            return new Reply(failures, output, diagnostics, new String(readBytes(in), StandardCharsets.UTF_8));
+        }
+    }
+
+    // Returns false when no daemon is listening on socket.
+    public static boolean stop(Path socket) throws IOException {
+        try (SocketChannel channel = connect(socket)) {
+            if (channel == null)
+                return false;
+            DataOutputStream out = new DataOutputStream(Channels.newOutputStream(channel));
+            out.writeByte(STOP);
+            writeBytes(out, App.VERSION.getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            new DataInputStream(Channels.newInputStream(channel)).readInt();
+            return true;
+        }
+    }
+
+    public static boolean isRunning(Path socket) throws IOException {
+        try (SocketChannel channel = connect(socket)) {
+            return channel != null;
+        }
+    }
+
+    private static SocketChannel connect(Path socket) {
+        try {
+            return SocketChannel.open(UnixDomainSocketAddress.of(socket));
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    // The daemon's replies are trusted, a client reads them whole.
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        return readBytes(in, Integer.MAX_VALUE);
+    }
+
+    private static byte[] readBytes(DataInputStream in, int max) throws IOException {
+        byte[] bytes = new byte[readLength(in, max)];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    // A length or count, checked before anything is allocated for it.
+    private static int readLength(DataInputStream in, int max) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > max)
+            throw new ProtocolException("length " + length + " outside 0.." + max);
+        return length;
+    }
+
+    private static final String WARMUP_SOURCE = """
+            class Warmup {
+               field int x, y;
+               static Array data;
+
+               constructor Warmup new(int Ax, int Ay) {
+                  let x = Ax;
+                  let y = Ay;
+                  return this;
+               }
+
+               method int sum(int n) {
+                  var int i, total;
+                  let i = 0;
+                  let total = 0;
+                  while (i < n) {
+                     if ((i > x) & (~(i = y))) {
+                        let total = total + (i * 2) - data[i];
+                     } else {
+                        let data[i] = -total;
+                     }
+                     let i = i + 1;
+                  }
+                  do Output.printString("sum");
+                  return total;
+               }
+            }
+            """;
+}
@@ -0,0 +1,103 @@
+package br.ufma.ecp;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.IntConsumer;
+
+import br.ufma.ecp.SymbolTable.Kind;
+import br.ufma.ecp.ast.Ast;
+import br.ufma.ecp.ast.NodeKind;
+import br.ufma.ecp.token.TokenStream;
+import br.ufma.ecp.token.TokenType;
+
+// The symbols of the class a generator is walking: its declarations and
+// those of each subroutine, defined from the Ast into a SymbolTable, and
+// the names looked up there. CodeGenerator, ClassGenerator and AsmGenerator
+// each own one. An undefined variable is reported as a Diagnostic, and the
+// generator compiles it as 0.
+final class Declarations {
+
+    private final Ast ast;
+    private final TokenStream tokens;
+    private final SymbolTable symbols;
+    private final List<Diagnostic> diagnostics = new ArrayList<>();
+
+    Declarations(Ast ast) {
+        this.ast = ast;
+        this.tokens = ast.tokens();
+        this.symbols = new SymbolTable(tokens);
+    }
+
+    SymbolTable symbols() {
+        return symbols;
+    }
+
+    // Undefined variables found so far, in source order.
+    List<Diagnostic> diagnostics() {
+        return diagnostics;
+    }
+
+    // ('static' | 'field') type varName (',' varName)* ';'
+    // Passes the token of each name to defined once it is defined.
+    void defineClassVars(int dec, IntConsumer defined) {
+        int node = ast.firstChild(dec);
+        Kind kind = ast.type(node) == TokenType.STATIC ? Kind.STATIC : Kind.FIELD;
+        defineNames(dec, ast.nextSibling(dec, node), kind, defined);
+    }
+
+    void defineClassVars(int dec) {
+        defineClassVars(dec, name -> { });
+    }
+
+    // ('constructor' | 'function' | 'method') type name '(' parameterList ')' subroutineBody
+    // Starts the scope of the subroutine, defines its parameters and local
+    // variables and returns its statements.
+    int defineSubroutine(int dec) {
+        int node = ast.firstChild(dec);
+        symbols.startSubroutine(ast.type(node) == TokenType.METHOD);
+        node = ast.nextSibling(dec, ast.nextSibling(dec, node)); // name
+        int parameters = ast.nextSibling(dec, ast.nextSibling(dec, node));
+        int body = ast.nextSibling(dec, ast.nextSibling(dec, parameters));
+
+        // type name (',' type name)*
+        for (int p = ast.firstChild(parameters); p >= 0; p = ast.nextSibling(parameters, p)) {
+            if (ast.type(p) == TokenType.COMMA)
+                continue;
+            int type = ast.token(p);
+            p = ast.nextSibling(parameters, p);
+            symbols.define(ast.token(p), type, Kind.ARG);
+        }
+
+        // '{' varDec* statements '}'
+        int statements = -1;
+        for (node = ast.firstChild(body); node >= 0; node = ast.nextSibling(body, node)) {
+            if (ast.kind(node) == NodeKind.VAR_DEC)
+                defineNames(node, ast.nextSibling(node, ast.firstChild(node)), Kind.VAR, name -> { });
+            else if (ast.kind(node) == NodeKind.STATEMENTS)
+                statements = node;
+        }
+        return statements;
+    }
+
+    // Defines every identifier after the type leaf, up to the ';'.
+    private void defineNames(int dec, int typeNode, Kind kind, IntConsumer defined) {
+        int type = ast.token(typeNode);
+        for (int node = ast.nextSibling(dec, typeNode); node >= 0; node = ast.nextSibling(dec, node)) {
+            if (ast.type(node) != TokenType.IDENT)
+                continue;
+            symbols.define(ast.token(node), type, kind);
+            defined.accept(ast.token(node));
+        }
+    }
+
+    // The variable named by token, or -1 after reporting it as undefined.
+    int resolve(int token) {
+        int symbol = symbols.resolve(token);
+        if (symbol < 0) {
+            String found = "'" + tokens.text(token) + "'";
+            diagnostics.add(new Diagnostic(tokens.line(token), tokens.column(token), null, found,
+                    "Undefined variable"));
+        }
+        return symbol;
+    }
+}
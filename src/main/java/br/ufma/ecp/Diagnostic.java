@@ -0,0 +1,29 @@
+package br.ufma.ecp;
+
+// A compile error at a source position. expected is null for lexical errors.
+public class Diagnostic implements Comparable<Diagnostic> {
+
+    public final int line;
+    public final int column;
+    public final String expected;
+    public final String found;
+    public final String message;
+
+    public Diagnostic(int line, int column, String expected, String found, String message) {
+        this.line = line;
+        this.column = column;
+        this.expected = expected;
+        this.found = found;
+        this.message = message;
+    }
+
+    @Override
+    public int compareTo(Diagnostic other) {
+        return line != other.line ? Integer.compare(line, other.line) : Integer.compare(column, other.column);
+    }
+
+    @Override
+    public String toString() {
+        return "[line " + line + ", column " + column + "] Error" + (found == null ? "" : " at " + found) + ": " + message;
+    }
+}
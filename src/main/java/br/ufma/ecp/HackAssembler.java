@@ -0,0 +1,135 @@
+package br.ufma.ecp;
+
+import java.util.HashMap;
+import java.util.Map;
+
+// Hack assembly to machine code, as the nand2tetris assembler does: a first
+// pass binds the labels to ROM addresses, the second encodes the
+// instructions and gives every other symbol a RAM address from 16 on, in
+// order of first use. Only the canonical comp mnemonics are accepted (D+M,
+// not M+D). A bad line is an IllegalArgumentException with its number.
+public class HackAssembler {
+
+    public static final int ROM_SIZE = 32768;
+
+    private static final Map<String, Integer> COMP = new HashMap<>();
+    private static final Map<String, Integer> DEST = new HashMap<>();
+    private static final Map<String, Integer> JUMP = new HashMap<>();
+
+    static {
+        String[] comps = { "0", "101010", "1", "111111", "-1", "111010", "D", "001100", "A", "110000",
+                "!D", "001101", "!A", "110001", "-D", "001111", "-A", "110011", "D+1", "011111",
+                "A+1", "110111", "D-1", "001110", "A-1", "110010", "D+A", "000010", "D-A", "010011",
+                "A-D", "000111", "D&A", "000000", "D|A", "010101" };
+        for (int k = 0; k < comps.length; k += 2) {
+            int bits = Integer.parseInt(comps[k + 1], 2);
+            COMP.put(comps[k], bits);
+            if (comps[k].contains("A")) // the same with M, the a bit set
+                COMP.put(comps[k].replace('A', 'M'), bits | 0b1000000);
+        }
+        String[] dests = { "M", "D", "MD", "A", "AM", "AD", "AMD" };
+        for (int k = 0; k < dests.length; k++)
+            DEST.put(dests[k], k + 1);
+        String[] jumps = { "JGT", "JEQ", "JGE", "JLT", "JNE", "JLE", "JMP" };
+        for (int k = 0; k < jumps.length; k++)
+            JUMP.put(jumps[k], k + 1);
+    }
+
+    private final Map<String, Integer> symbols = new HashMap<>();
+    private final short[] rom = new short[ROM_SIZE];
+    private int size;
+
+    public HackAssembler(CharSequence asm) {
+        for (int k = 0; k < 16; k++)
+            symbols.put("R" + k, k);
+        symbols.put("SP", 0);
+        symbols.put("LCL", 1);
+        symbols.put("ARG", 2);
+        symbols.put("THIS", 3);
+        symbols.put("THAT", 4);
+        symbols.put("SCREEN", 16384);
+        symbols.put("KBD", 24576);
+
+        String[] lines = asm.toString().split("\n");
+        int address = 0;
+        for (int n = 0; n < lines.length; n++) {
+            String line = strip(lines[n]);
+            if (line.isEmpty())
+                continue;
+            if (line.startsWith("(")) {
+                String label = line.substring(1, line.length() - 1);
+                if (!line.endsWith(")") || symbols.putIfAbsent(label, address) != null)
+                    throw error(n, "bad or repeated label " + line);
+            } else {
+                address++;
+            }
+        }
+        if (address > ROM_SIZE)
+            throw new IllegalArgumentException(address + " instructions do not fit in the ROM");
+
+        int variable = 16;
+        for (int n = 0; n < lines.length; n++) {
+            String line = strip(lines[n]);
+            if (line.isEmpty() || line.startsWith("("))
+                continue;
+            if (line.startsWith("@")) {
+                String value = line.substring(1);
+                int a;
+                if (!value.isEmpty() && Character.isDigit(value.charAt(0))) {
+                    a = Integer.parseInt(value);
+                    if (a >= ROM_SIZE)
+                        throw error(n, "constant out of range " + line);
+                } else {
+                    Integer bound = symbols.get(value);
+                    if (bound == null) {
+                        bound = variable++;
+                        symbols.put(value, bound);
+                    }
+                    a = bound;
+                }
+                rom[size++] = (short) a;
+            } else {
+                rom[size++] = (short) encode(line, n);
+            }
+        }
+    }
+
+    // dest=comp;jump, dest and jump optional
+    private static int encode(String line, int n) {
+        int equals = line.indexOf('=');
+        int semicolon = line.indexOf(';');
+        String comp = line.substring(equals + 1, semicolon >= 0 ? semicolon : line.length());
+        Integer c = COMP.get(comp);
+        Integer d = equals >= 0 ? DEST.get(line.substring(0, equals)) : Integer.valueOf(0);
+        Integer j = semicolon >= 0 ? JUMP.get(line.substring(semicolon + 1)) : Integer.valueOf(0);
+        if (c == null || d == null || j == null)
+            throw error(n, "bad instruction " + line);
+        return 0b111 << 13 | c << 6 | d << 3 | j;
+    }
+
+    private static String strip(String line) {
+        int comment = line.indexOf("//");
+        if (comment >= 0)
+            line = line.substring(0, comment);
+        return line.replace(" ", "").replace("\t", "").replace("\r", "");
+    }
+
+    private static IllegalArgumentException error(int n, String message) {
+        return new IllegalArgumentException("line " + (n + 1) + ": " + message);
+    }
+
+    // The machine code, size() words of it.
+    public short[] rom() {
+        return rom;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // The ROM address of a label, or -1.
+    public int label(String name) {
+        Integer address = symbols.get(name);
+        return address != null ? address : -1;
+    }
+}
@@ -0,0 +1,176 @@
+package br.ufma.ecp;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+// The Hack CPU running a ROM from HackAssembler, one instruction per cycle,
+// with a 32K-word RAM. A write to OUTPUT prints its value as a character
+// (128 as a newline), so a program can print without the screen; the OS in
+// src/test/resources/OS prints that way.
+//
+// The RAM from PROFILE on, past the keyboard where the Hack platform has
+// no memory, holds the profile regions of a program compiled with
+// -profile (see AsmGenerator), four words each: the entries, counted by
+// the program, and the cycles, counted here, both 32-bit, low word first.
+// A write to the cycles word of a region makes it the current one, and
+// from then on every cycle is counted in it; the counts reach the RAM when
+// run() returns.
+//
+//   java -cp target/jackcompiler-1.0-SNAPSHOT.jar br.ufma.ecp.HackEmulator Main.asm [ram dump]
+public class HackEmulator {
+
+    public static final int OUTPUT = 24577;
+    public static final int PROFILE = 24584;
+    // the words of a profile region
+    public static final int ENTRIES = 0, CYCLES = 2, REGION_SIZE = 4;
+
+    private final short[] rom;
+    private final int size;
+    private final short[] ram = new short[32768];
+    private final StringBuilder output = new StringBuilder();
+    private long cycles;
+    // cycles per profile region, once the program selects one
+    private long[] profile;
+    private int region = -1;
+
+    public HackEmulator(HackAssembler program) {
+        this.rom = program.rom();
+        this.size = program.size();
+    }
+
+    // Runs from address 0 until the program jumps to stop, usually
+    // Sys.halt, and returns the cycles it took. More than limit cycles, or
+    // running off the ROM, is an IllegalStateException.
+    public long run(int stop, long limit) {
+        int pc = 0, a = 0, d = 0;
+        short[] rom = this.rom, ram = this.ram;
+        long[] profile = this.profile;
+        int region = this.region;
+        long cycles = 0;
+        while (pc != stop) {
+            if (pc >= size || cycles == limit) {
+                this.region = region;
+                this.cycles += cycles;
+                saveProfile();
+                throw new IllegalStateException(cycles == limit ? "no halt after " + limit + " cycles"
+                        : "ran off the ROM at " + pc);
+            }
+            cycles++;
+            if (region >= 0)
+                profile[region]++;
+            int instruction = rom[pc++];
+            if (instruction >= 0) { // @value
+                a = instruction;
+                continue;
+            }
+            int y = (instruction & 0x1000) != 0 ? ram[a & 0x7FFF] : a;
+            int out = compute(instruction >> 6 & 0x3F, d, y);
+            if ((instruction & 0x8) != 0) {
+                int address = a & 0x7FFF;
+                if (address >= PROFILE && (address - PROFILE) % REGION_SIZE == CYCLES) {
+                    if (profile == null)
+                        this.profile = profile = new long[(ram.length - PROFILE) / REGION_SIZE];
+                    region = (address - PROFILE) / REGION_SIZE;
+                } else {
+                    ram[address] = (short) out;
+                    if (address == OUTPUT)
+                        output.append(out == 128 ? '\n' : (char) out);
+                }
+            }
+            if ((instruction & 0x20) != 0)
+                a = out;
+            if ((instruction & 0x10) != 0)
+                d = out;
+            if (jumps(instruction & 7, out))
+                pc = a & 0x7FFF;
+        }
+        this.region = region;
+        this.cycles += cycles;
+        saveProfile();
+        return cycles;
+    }
+
+    private void saveProfile() {
+        if (profile == null)
+            return;
+        for (int k = 0; k < profile.length; k++) {
+            if (profile[k] == 0)
+                continue;
+            int address = PROFILE + k * REGION_SIZE + CYCLES;
+            ram[address] = (short) profile[k];
+            ram[address + 1] = (short) (profile[k] >>> 16);
+        }
+    }
+
+    // the ALU: zx nx zy ny f no, 16 bits kept sign extended
+    private static int compute(int c, int x, int y) {
+        if ((c & 0x20) != 0)
+            x = 0;
+        if ((c & 0x10) != 0)
+            x = ~x;
+        if ((c & 0x08) != 0)
+            y = 0;
+        if ((c & 0x04) != 0)
+            y = ~y;
+        int out = (c & 0x02) != 0 ? x + y : x & y;
+        if ((c & 0x01) != 0)
+            out = ~out;
+        return (short) out;
+    }
+
+    private static boolean jumps(int j, int out) {
+        return (j & 4) != 0 && out < 0 || (j & 2) != 0 && out == 0 || (j & 1) != 0 && out > 0;
+    }
+
+    public int ram(int address) {
+        return ram[address];
+    }
+
+    // The whole RAM, one signed decimal word per line.
+    public void dump(Path file) throws IOException {
+        try (BufferedWriter out = Files.newBufferedWriter(file, StandardCharsets.US_ASCII)) {
+            for (short word : ram) {
+                out.write(Integer.toString(word));
+                out.write('\n');
+            }
+        }
+    }
+
+    // what the program printed so far
+    public String output() {
+        return output.toString();
+    }
+
+    // every cycle run() took so far
+    public long cycles() {
+        return cycles;
+    }
+
+    // Runs the program to Sys.halt, printing its output, and writes the RAM
+    // dump if a file is given.
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1 || args.length > 2) {
+            System.err.println("usage: HackEmulator <program.asm> [ram dump]");
+            System.exit(2);
+        }
+        HackAssembler program = new HackAssembler(Files.readString(Paths.get(args[0]), StandardCharsets.ISO_8859_1));
+        int halt = program.label("Sys.halt");
+        if (halt < 0) {
+            System.err.println("no Sys.halt in " + args[0]);
+            System.exit(1);
+        }
+        HackEmulator emulator = new HackEmulator(program);
+        try {
+            emulator.run(halt, Long.MAX_VALUE);
+        } finally {
+            System.out.print(emulator.output());
+            System.err.printf("%d cycles%n", emulator.cycles());
+            if (args.length > 1)
+                emulator.dump(Paths.get(args[1]));
+        }
+    }
+}
@@ -0,0 +1,232 @@
+package br.ufma.ecp;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+import br.ufma.ecp.ast.Ast;
+import br.ufma.ecp.ast.NodeKind;
+import br.ufma.ecp.token.TokenStream;
+import br.ufma.ecp.token.TokenType;
+
+// Keeps the tokens and the parse tree of a source being edited, for editor
+// integration. An edit re-lexes from the last token before it until the
+// new tokens line up with the old ones again, and re-parses only the class
+// member (classVarDec or subroutineDec) holding the changed tokens. The
+// tokens, the tree and the diagnostics are always the same as a full
+// parse of the edited source gives.
+//
+// The Parser decides only on token types, so an edit that keeps the types
+// (renaming, changing a constant) needs no re-parse at all. The bytes, the
+// tokens and the tree are edited in place, so a keystroke allocates little
+// more than the re-parsed member. Anything the splice cannot prove equal
+// falls back to a full parse: a source with errors, an edit spanning
+// several members or the class header, or a re-parsed member that no longer
+// ends where it did.
+public class IncrementalParser {
+
+    // the source has room to grow, only [0, length) is in use
+    private byte[] source;
+    private int length;
+    private TokenStream tokens;
+    private Ast ast;
+    private List<Diagnostic> diagnostics;
+
+    // old tokens [damageFrom, damageTo) were replaced by relexed new ones
+    // starting at damageFrom
+    private int damageFrom;
+    private int damageTo;
+    private int relexed;
+    private boolean typesKept;
+
+    private int reparsedNodes;
+    private boolean fullParse;
+
+    public IncrementalParser(byte[] source) {
+        this.source = source.clone();
+        length = source.length;
+        parseAll();
+    }
+
+    // Replaces removed bytes at offset by inserted. The tokens and the tree
+    // are updated in place.
+    public void edit(int offset, int removed, byte[] inserted) {
+        if (offset < 0 || removed < 0 || offset + removed > length)
+            throw new IndexOutOfBoundsException("edit [" + offset + ", " + (offset + removed)
+                    + ") out of a source of " + length + " bytes");
+
+        // the lexer resumes after the last token that ends before the edit,
+        // with a byte to spare for its lookahead; found before the bytes change
+        boolean incremental = diagnostics.isEmpty();
+        int last = -1;
+        if (incremental) {
+            last = lastStartingBefore(tokens, offset);
+            while (last >= 0 && tokens.end(last) >= offset)
+                last--;
+        }
+        int resume = last < 0 ? 0 : tokens.end(last);
+
+        int newLength = length - removed + inserted.length;
+        if (newLength > source.length)
+            source = Arrays.copyOf(source, Math.max(newLength, source.length * 2));
+        System.arraycopy(source, offset + removed, source, offset + inserted.length, length - offset - removed);
+        System.arraycopy(inserted, 0, source, offset, inserted.length);
+        length = newLength;
+
+        if (!incremental || !relex(last, resume, offset, removed, inserted.length) || !reparse())
+            parseAll();
+    }
+
+    private void parseAll() {
+        Parser parser = new Parser(source());
+        parser.parse();
+        ast = parser.ast();
+        tokens = ast.tokens();
+        diagnostics = parser.diagnostics();
+        relexed = tokens.size();
+        reparsedNodes = ast.size();
+        fullParse = true;
+    }
+
+    // Lexes the edited source from the end of token last until a new token
+    // begins where an old one began past the edit; from there on both
+    // lexings agree, so only the tokens in between replace old ones. Returns
+    // false if the lexer reported an error.
+    private boolean relex(int last, int resume, int offset, int removed, int inserted) {
+        ByteBuffer input = ByteBuffer.wrap(source, 0, length);
+        Scanner scanner = last < 0
+                ? new Scanner(input)
+                : new Scanner(input, resume, tokens.line(last));
+        TokenStream damaged = new TokenStream(input, 16);
+
+        int shift = inserted - removed;
+        int editEnd = offset + inserted;
+        int next = last + 1; // first old token that may line up
+        for (;;) {
+            TokenType type = scanner.scanInto(damaged);
+            int t = damaged.size() - 1;
+            int begin = damaged.begin(t);
+            if (begin >= editEnd) {
+                while (tokens.begin(next) + shift < begin)
+                    next++;
+                if (tokens.begin(next) + shift == begin) {
+                    damageFrom = last + 1;
+                    damageTo = next;
+                    relexed = t;
+                    break;
+                }
+            }
+            if (type == TokenType.EOF)
+                return false; // a NUL byte in the inserted text ends the input early
+        }
+        if (!scanner.diagnostics().isEmpty())
+            return false;
+
+        typesKept = relexed == damageTo - damageFrom;
+        for (int i = 0; typesKept && i < relexed; i++)
+            typesKept = damaged.type(i) == tokens.type(damageFrom + i);
+
+        int lineShift = damaged.line(relexed) - tokens.line(damageTo);
+        tokens.splice(input, damageFrom, damageTo, damaged, relexed, shift, lineShift);
+        return true;
+    }
+
+    private static int lastStartingBefore(TokenStream tokens, int offset) {
+        int low = 0;
+        int high = tokens.size() - 1;
+        int found = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (tokens.begin(mid) < offset) {
+                found = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return found;
+    }
+
+    // Brings the tree over to the relexed tokens. Returns false when only a
+    // full parse can tell what the tree is.
+    private boolean reparse() {
+        fullParse = false;
+        reparsedNodes = 0;
+        if (typesKept)
+            return true;
+
+        int member = enclosingMember();
+        if (member < 0)
+            return false;
+        int tokenShift = relexed - (damageTo - damageFrom);
+        int first = ast.token(member + 1);
+        int last = ast.token(ast.end(member) - 1) + tokenShift;
+
+        // roughly 1.5 nodes per token, see Ast(TokenStream)
+        Ast subtree = new Ast(tokens, 2 * (last - first + 1));
+        Parser parser = new Parser(tokens, subtree);
+        int end = parser.parseClassMember(first, ast.kind(member));
+        if (!parser.diagnostics().isEmpty() || end != last)
+            return false;
+
+        ast.replace(member, subtree, tokenShift);
+        reparsedNodes = subtree.size();
+        return true;
+    }
+
+    // The class member whose tokens hold every damaged one, or -1. An
+    // insertion that removed no token goes before token damageFrom.
+    private int enclosingMember() {
+        int lastDamaged = Math.max(damageFrom, damageTo - 1);
+        for (int child = ast.firstChild(0); child >= 0; child = ast.nextSibling(0, child)) {
+            NodeKind kind = ast.kind(child);
+            if (kind != NodeKind.CLASS_VAR_DEC && kind != NodeKind.SUBROUTINE_DEC)
+                continue;
+            int first = ast.token(child + 1);
+            int last = ast.token(ast.end(child) - 1);
+            if (damageFrom >= first && lastDamaged <= last)
+                return child;
+            if (first > damageFrom)
+                break;
+        }
+        return -1;
+    }
+
+    // a copy of the current source
+    public byte[] source() {
+        return Arrays.copyOf(source, length);
+    }
+
+    public TokenStream tokens() {
+        return tokens;
+    }
+
+    public Ast ast() {
+        return ast;
+    }
+
+    // Same as Parser.diagnostics() on the current source.
+    public List<Diagnostic> diagnostics() {
+        return diagnostics;
+    }
+
+    public String XMLOutput() {
+        XmlEmitter out = new XmlEmitter();
+        out.emit(ast);
+        return out.toString();
+    }
+
+    // Work done by the last edit: tokens lexed, tree nodes built, and
+    // whether it had to parse the whole source again.
+    public int relexedTokens() {
+        return relexed;
+    }
+
+    public int reparsedNodes() {
+        return reparsedNodes;
+    }
+
+    public boolean wasFullParse() {
+        return fullParse;
+    }
+}
@@ -0,0 +1,255 @@
+package br.ufma.ecp;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Whole-program inlining of small leaf subroutines in the VM code. A
+// function or method is inlined when its body is straight-line code of at
+// most maxSize commands ending in its only return: no calls (so it cannot
+// recurse), no labels, no locals. The call is replaced by the body, with
+// the arguments popped into temp 2..7 (temp 0 and 1 are scratch space for
+// CodeGenerator, and never live across a call) and, for a method, the
+// object in pointer 1, so its fields become that i and the caller's this
+// is left alone. A method that already uses that, or a body with static
+// variables called from another class, is not inlined.
+//
+// Every inlined call site saves a frame (the return address, LCL, ARG,
+// THIS and THAT pushed and restored) each time it runs; the report counts
+// the sites, as an estimate of the frames saved per pass through them.
+public class Inliner {
+
+    public static final int DEFAULT_SIZE = 8;
+
+    private static final int FIRST_TEMP = 2;
+    private static final int LAST_TEMP = 7;
+
+    private static final byte[] POP_POINTER_1 = VMWriter.bytes("pop pointer 1\n");
+
+    // A subroutine small enough to inline: its body with the arguments in
+    // temps and the fields through that.
+    private static class Candidate {
+        final String className;
+        final boolean method;
+        final int arguments; // highest argument used + 1
+        final boolean usesStatic;
+        final byte[] body;
+        boolean inlined;
+
+        Candidate(String className, boolean method, int arguments, boolean usesStatic, byte[] body) {
+            this.className = className;
+            this.method = method;
+            this.arguments = arguments;
+            this.usesStatic = usesStatic;
+            this.body = body;
+        }
+    }
+
+    private final int maxSize;
+    private final Map<String, Candidate> candidates = new HashMap<>();
+    private int sitesInlined;
+    private int subroutinesInlined;
+
+    public Inliner(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    // Returns the code of each class with the calls to small subroutines
+    // inlined. The writers must have recorded their links; the new ones do
+    // too, for the TreeShaker.
+    public List<VMWriter> inline(List<VMWriter> units) {
+        for (VMWriter vm : units) {
+            for (int f = 0; f < vm.functionCount(); f++) {
+                int from = vm.functionOffset(f);
+                int to = f + 1 < vm.functionCount() ? vm.functionOffset(f + 1) : vm.size();
+                Candidate candidate = candidate(vm.text(from, to));
+                if (candidate != null)
+                    candidates.put(vm.nameAt(from), candidate);
+            }
+        }
+
+        List<VMWriter> inlined = new ArrayList<>(units.size());
+        for (VMWriter vm : units)
+            inlined.add(rewrite(vm));
+        return inlined;
+    }
+
+    public int maxSize() {
+        return maxSize;
+    }
+
+    // subroutines small enough to inline, whether called or not
+    public int candidates() {
+        return candidates.size();
+    }
+
+    public int sitesInlined() {
+        return sitesInlined;
+    }
+
+    public int subroutinesInlined() {
+        return subroutinesInlined;
+    }
+
+    // one frame per inlined call site
+    public int framesSaved() {
+        return sitesInlined;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("inlining: %d call site(s) of %d subroutine(s) inlined (%d of at most %d command(s)),"
+                + " an estimated %d frame(s) saved", sitesInlined(), subroutinesInlined(), candidates(), maxSize,
+                framesSaved());
+    }
+
+    private VMWriter rewrite(VMWriter vm) {
+        VMWriter out = new VMWriter();
+        out.recordLinks(true);
+        if (vm.functionCount() == 0) {
+            out.copy(vm, 0, vm.size());
+            return out;
+        }
+        String name = vm.nameAt(vm.functionOffset(0));
+        String className = name.substring(0, name.indexOf('.'));
+
+        int pos = 0;
+        int call = 0;
+        for (int f = 0; f < vm.functionCount(); f++) {
+            int from = vm.functionOffset(f);
+            int to = f + 1 < vm.functionCount() ? vm.functionOffset(f + 1) : vm.size();
+            out.copy(vm, pos, from);
+            pos = from;
+            out.markFunction();
+            for (; call < vm.callCount() && vm.callOffset(call) < to; call++) {
+                int offset = vm.callOffset(call);
+                out.copy(vm, pos, offset);
+                pos = offset;
+                int lineEnd = vm.lineEnd(offset);
+                // call Class.name nArgs
+                String line = vm.text(offset, lineEnd - 1);
+                Candidate candidate = candidates.get(vm.nameAt(offset));
+                int nArgs = Integer.parseInt(line.substring(line.lastIndexOf(' ') + 1));
+                if (!inlinable(candidate, className, nArgs)) {
+                    out.markCall();
+                    continue;
+                }
+
+                // the arguments were pushed in order, the last one is on top
+                int first = candidate.method ? 1 : 0;
+                for (int i = nArgs - 1; i >= first; i--)
+                    out.writePop(VMWriter.Segment.TEMP, FIRST_TEMP + i - first);
+                if (candidate.method)
+                    out.writeText(POP_POINTER_1);
+                out.writeText(candidate.body);
+                pos = lineEnd;
+
+                sitesInlined++;
+                if (!candidate.inlined) {
+                    candidate.inlined = true;
+                    subroutinesInlined++;
+                }
+            }
+        }
+        out.copy(vm, pos, vm.size());
+        return out;
+    }
+
+    private static boolean inlinable(Candidate candidate, String caller, int nArgs) {
+        if (candidate == null || nArgs < candidate.arguments)
+            return false;
+        if (candidate.usesStatic && !candidate.className.equals(caller))
+            return false; // statics belong to the file they are compiled in
+        int temps = candidate.method ? nArgs - 1 : nArgs;
+        return (!candidate.method || nArgs >= 1) && temps <= LAST_TEMP - FIRST_TEMP + 1;
+    }
+
+    // The subroutine in code, from its function command to the next, as a
+    // Candidate, or null if it cannot or should not be inlined.
+    private Candidate candidate(String code) {
+        String[] lines = code.split("\n");
+        String[] header = lines[0].split(" "); // function Class.name nLocals
+        if (!header[2].equals("0") || !lines[lines.length - 1].equals("return"))
+            return null;
+        // CodeGenerator starts every method this way, and nothing else
+        boolean method = lines.length > 2 && lines[1].equals("push argument 0") && lines[2].equals("pop pointer 0");
+        int start = method ? 3 : 1;
+        int end = lines.length - 1;
+        if (end - start > maxSize)
+            return null;
+
+        StringBuilder body = new StringBuilder();
+        int arguments = method ? 1 : 0;
+        boolean usesStatic = false;
+        for (int l = start; l < end; l++) {
+            String[] command = lines[l].split(" ");
+            if (command.length == 1) {
+                if (!isArithmetic(command[0]))
+                    return null; // return
+                body.append(lines[l]).append('\n');
+                continue;
+            }
+            if (!command[0].equals("push") && !command[0].equals("pop"))
+                return null; // call, label, goto, if-goto
+            String segment = command[1];
+            int index = Integer.parseInt(command[2]);
+            switch (segment) {
+                case "constant":
+                    break;
+                case "static":
+                    usesStatic = true;
+                    break;
+                case "argument":
+                    arguments = Math.max(arguments, index + 1);
+                    if (method && index == 0) {
+                        if (!command[0].equals("push"))
+                            return null;
+                        segment = "pointer";
+                        index = 1;
+                    } else {
+                        segment = "temp";
+                        index = FIRST_TEMP + index - (method ? 1 : 0);
+                        if (index > LAST_TEMP)
+                            return null;
+                    }
+                    break;
+                case "this":
+                    if (!method)
+                        return null;
+                    segment = "that";
+                    break;
+                case "that":
+                    if (method)
+                        return null;
+                    break;
+                case "pointer":
+                    if (method) {
+                        if (index != 0 || !command[0].equals("push"))
+                            return null; // this is pointer 1 now
+                        index = 1;
+                    }
+                    break;
+                case "temp":
+                    if (index >= FIRST_TEMP)
+                        return null;
+                    break;
+                default: // local
+                    return null;
+            }
+            body.append(command[0]).append(' ').append(segment).append(' ').append(index).append('\n');
+        }
+
+        String name = header[1];
+        return new Candidate(name.substring(0, name.indexOf('.')), method, arguments, usesStatic,
+                VMWriter.bytes(body.toString()));
+    }
+
+    private static boolean isArithmetic(String command) {
+        for (VMWriter.Command c : VMWriter.Command.values()) {
+            if (c.name().equalsIgnoreCase(command))
+                return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,146 @@
+package br.ufma.ecp;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+
+// Which optimizations CodeGenerator applies, and what they saved. One
+// instance is shared by every file of a build, from any thread, so the
+// counters add up to a report for the whole run.
+public class Optimizations {
+
+    // constant folding and strength reduction of * and /
+    public static final int FOLD = 1;
+    // string literals built once per class, see CodeGenerator
+    public static final int POOL_STRINGS = 2;
+    // the Peephole pass over the VM code of each class
+    public static final int PEEPHOLE = 4;
+
+    private final int flags;
+    public final boolean fold;
+    public final boolean poolStrings;
+    // null when off
+    public final Peephole peephole;
+    private final int peepholeRules;
+
+    final LongAdder operationsFolded = new LongAdder();
+    final LongAdder multipliesReduced = new LongAdder();
+    final LongAdder dividesReduced = new LongAdder();
+    final LongAdder callsRemoved = new LongAdder();
+
+    final LongAdder stringsPooled = new LongAdder();
+    final LongAdder stringUses = new LongAdder();
+    final LongAdder stringBytesSaved = new LongAdder();
+
+    // class name -> instructions and estimated cycles before and after
+    private final Map<String, Peephole.Result> peepholeResults = new ConcurrentSkipListMap<>();
+
+    // flags is FOLD, POOL_STRINGS, PEEPHOLE or any of them together;
+    // PEEPHOLE turns on every built-in rule
+    public Optimizations(int flags) {
+        this(flags, (flags & PEEPHOLE) != 0 ? Peephole.allRules() : 0);
+    }
+
+    // peepholeRules is a mask of Peephole.Builtin rules, see
+    // Peephole.parseRules(); PEEPHOLE is set when it is not 0
+    public Optimizations(int flags, int peepholeRules) {
+        this.flags = peepholeRules != 0 ? flags | PEEPHOLE : flags & ~PEEPHOLE;
+        this.fold = (flags & FOLD) != 0;
+        this.poolStrings = (flags & POOL_STRINGS) != 0;
+        this.peepholeRules = peepholeRules;
+        this.peephole = peepholeRules != 0 ? Peephole.of(peepholeRules) : null;
+    }
+
+    public static Optimizations none() {
+        return new Optimizations(0);
+    }
+
+    // also the byte sent in the daemon protocol
+    public int flags() {
+        return flags;
+    }
+
+    // also sent in the daemon protocol
+    public int peepholeRules() {
+        return peepholeRules;
+    }
+
+    public boolean any() {
+        return flags != 0;
+    }
+
+    void peepholeDone(String className, Peephole.Result result) {
+        peepholeResults.put(className, result);
+    }
+
+    // per class, in name order
+    public Map<String, Peephole.Result> peepholeResults() {
+        return peepholeResults;
+    }
+
+    public long operationsFolded() {
+        return operationsFolded.sum();
+    }
+
+    public long multipliesReduced() {
+        return multipliesReduced.sum();
+    }
+
+    public long dividesReduced() {
+        return dividesReduced.sum();
+    }
+
+    // calls to Math.multiply and Math.divide the output no longer makes
+    public long callsRemoved() {
+        return callsRemoved.sum();
+    }
+
+    // distinct literals per class, summed over the classes
+    public long stringsPooled() {
+        return stringsPooled.sum();
+    }
+
+    // uses of the pooled literals, each one a push once the string is built
+    public long stringUses() {
+        return stringUses.sum();
+    }
+
+    // bytes of VM code saved over building the strings at every use
+    public long stringBytesSaved() {
+        return stringBytesSaved.sum();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder report = new StringBuilder("optimizations:");
+        if (fold)
+            report.append(String.format(" %d operation(s) folded, %d multiplication(s) and %d division(s) reduced,"
+                    + " %d runtime call(s) removed;", operationsFolded(), multipliesReduced(), dividesReduced(),
+                    callsRemoved()));
+        if (poolStrings)
+            report.append(String.format(" %d string literal(s) pooled for %d use(s), %d byte(s) saved;",
+                    stringsPooled(), stringUses(), stringBytesSaved()));
+        if (peephole != null) {
+            long before = 0, after = 0, cyclesBefore = 0, cyclesAfter = 0;
+            for (Peephole.Result result : peepholeResults.values()) {
+                before += result.instructionsBefore;
+                after += result.instructionsAfter;
+                cyclesBefore += result.cyclesBefore;
+                cyclesAfter += result.cyclesAfter;
+            }
+            report.append(String.format(" peephole %d -> %d instruction(s), about %d cycle(s) saved;", before, after,
+                    cyclesBefore - cyclesAfter));
+        }
+        if (!any())
+            report.append(" none;");
+        report.setLength(report.length() - 1);
+        if (peephole != null) {
+            for (Map.Entry<String, Peephole.Result> e : peepholeResults.entrySet()) {
+                Peephole.Result result = e.getValue();
+                report.append(String.format("%n  %s: %d -> %d instruction(s), about %d cycle(s) saved", e.getKey(),
+                        result.instructionsBefore, result.instructionsAfter, result.cyclesBefore - result.cyclesAfter));
+            }
+        }
+        return report.toString();
+    }
+}
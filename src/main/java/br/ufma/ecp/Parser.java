@@ -1,74 +1,284 @@
 package br.ufma.ecp;
 
-import java.util.Arrays;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.ref.Cleaner;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import static br.ufma.ecp.token.TokenType.*;
 
+import br.ufma.ecp.ast.Ast;
+import br.ufma.ecp.ast.NodeKind;
+import br.ufma.ecp.metrics.Events;
+import br.ufma.ecp.metrics.Metrics;
 import br.ufma.ecp.token.Token;
+import br.ufma.ecp.token.TokenRing;
+import br.ufma.ecp.token.TokenStream;
 import br.ufma.ecp.token.TokenType;
 
 public class Parser {
 
     private static class ParseError extends RuntimeException {
-    }
+        private static final long serialVersionUID = 1L;
 
-    private Scanner scan;
-    private Token currentToken;
-    private Token peekToken;
+        ParseError(String message) {
+            super(message);
+        }
+    }
 
-    private StringBuilder xmlOutput = new StringBuilder();
+    // current valid statements
+    private static final EnumSet<TokenType> STATEMENTS = EnumSet.of(WHILE, IF, LET, DO, RETURN);
+
+    private static final EnumSet<TokenType> CLASS_MEMBERS =
+            EnumSet.of(STATIC, FIELD, CONSTRUCTOR, FUNCTION, METHOD);
+
+    private static final EnumSet<TokenType> OPERATORS =
+            EnumSet.of(PLUS, MINUS, ASTERISK, SLASH, LT, GT, EQ, NOT, AND, OR);
+
+    // scanner threads of pipelined parsers, kept for the next file
+    private static final ExecutorService SCANNERS = Executors.newCachedThreadPool(task -> {
+        Thread thread = new Thread(task, "jack-scanner");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private static final int RING_CAPACITY = 4096;
+    // closes the rings of pipelined parsers dropped before parse() ended
+    private static final Cleaner ABANDONED = Cleaner.create();
+
+    // tokens are consumed by index, no Token object is created while parsing
+    private TokenStream tokens;
+    private int currentToken = -1;
+    private int peekToken = -1;
+    // while a pipelined parser has not received EOF: the tokens still to
+    // come and the scanner whose diagnostics come with them
+    private TokenRing ring;
+    private Scanner scanner;
+
+    // parse tree, the XML output is written by walking it
+    private final Ast ast;
+    private final XmlEmitter xmlOutput;
+
+    // lexical and syntax errors; a syntax error unwinds to the enclosing
+    // statement or class member, which skips ahead and goes on parsing
+    private final List<Diagnostic> diagnostics = new ArrayList<>();
+    private int lastErrorToken = -1;
 
     public Parser (byte[] input) {
-        scan = new Scanner(input);
+        this(new Scanner(input), new XmlEmitter());
+    }
+
+    // Streams the XML to out while parsing instead of keeping it for XMLOutput().
+    // parse() flushes out when it is done.
+    public Parser (byte[] input, Writer out) {
+        this(new Scanner(input), new XmlEmitter(out));
+    }
+
+    public Parser (byte[] input, OutputStream out) {
+        this(input, new OutputStreamWriter(out, StandardCharsets.UTF_8));
+    }
+
+    // Parses a memory-mapped source file, see Scanner(Path).
+    public Parser (Path file) throws IOException {
+        this(new Scanner(file), new XmlEmitter());
+    }
+
+    public Parser (Path file, Writer out) throws IOException {
+        this(new Scanner(file), new XmlEmitter(out));
+    }
+
+    public Parser (ByteBuffer input) {
+        this(new Scanner(input), new XmlEmitter());
+    }
+
+    public Parser (ByteBuffer input, Writer out) {
+        this(new Scanner(input), new XmlEmitter(out));
+    }
+
+    // Parses input while a scanner thread lexes ahead, handing the tokens
+    // over through a TokenRing; the result is the same as Parser(input).
+    // Can only pay off for large files with a core to spare, see
+    // PipelineBenchmark. parse() is what lets the scanner thread finish: a
+    // parser dropped without it keeps that thread waiting on the full ring
+    // until the garbage collector finds the parser and closes the ring.
+    public static Parser pipelined(ByteBuffer input) {
+        return new Parser(new Scanner(input), new XmlEmitter(), new TokenRing(RING_CAPACITY));
+    }
+
+    public static Parser pipelined(ByteBuffer input, Writer out) {
+        return new Parser(new Scanner(input), new XmlEmitter(out), new TokenRing(RING_CAPACITY));
+    }
+
+    // Parses tokens as they are into ast, for IncrementalParser.
+    Parser (TokenStream tokens, Ast ast) {
+        this.tokens = tokens;
+        this.ast = ast;
+        xmlOutput = new XmlEmitter();
+    }
+
+    private Parser (Scanner scan, XmlEmitter out) {
+        tokens = scan.tokenize();
+        diagnostics.addAll(scan.diagnostics());
+        ast = new Ast(tokens);
+        xmlOutput = out;
+        nextToken();
+    }
+
+    private Parser (Scanner scan, XmlEmitter out, TokenRing ring) {
+        ByteBuffer source = scan.source();
+        tokens = new TokenStream(source);
+        // the Ast(tokens) estimate, from the bytes
+        ast = new Ast(tokens, source.limit() / 2);
+        xmlOutput = out;
+        this.ring = ring;
+        scanner = scan;
+        String file = Metrics.file();
+        ABANDONED.register(this, ring::close);
+        SCANNERS.execute(() -> {
+            Metrics.setFile(file);
+            try {
+                scan.tokenizeInto(ring);
+            } finally {
+                Metrics.setFile(null);
+            }
+        });
         nextToken();
     }
 
     private void nextToken() {
         currentToken = peekToken;
-        peekToken = scan.nextToken();
+        // the token after the peeked one is looked at too
+        while (ring != null && peekToken + 2 >= tokens.size())
+            receive();
+        if (peekToken < tokens.size() - 1) // stays on EOF
+            peekToken++;
+    }
+
+    // Takes the tokens the scanner thread has ready. With EOF its
+    // diagnostics go first, as the ones of Scanner.tokenize() do.
+    private void receive() {
+        ring.drainTo(tokens);
+        if (tokens.type(tokens.size() - 1) == EOF) {
+            diagnostics.addAll(0, scanner.diagnostics());
+            ring = null;
+            scanner = null;
+        }
     }
 
+    // Never throws on bad input, see diagnostics().
     void parse() {
-        parseClass();
+        Events.Parse event = new Events.Parse();
+        event.begin();
+        long begin = Metrics.start();
+        try {
+            try {
+                parseClass();
+            } catch (ParseError e) {
+                ast.closeTo(0);
+            }
+            // the tokens after the class, and their lexical errors
+            while (ring != null)
+                receive();
+        } finally {
+            if (ring != null) // failed, the scanner thread can stop
+                ring.close();
+        }
+        Metrics.record(Metrics.Phase.PARSE, begin);
+        if (event.shouldCommit()) {
+            event.file = Metrics.file();
+            event.bytes = tokens.source().limit();
+            event.tokens = tokens.size();
+            event.commit();
+        }
+        // in memory the XML is only written when XMLOutput() asks for it
+        if (xmlOutput.isStreaming()) {
+            Events.Emit emit = new Events.Emit();
+            emit.begin();
+            begin = Metrics.start();
+            xmlOutput.emit(ast);
+            xmlOutput.flush();
+            Metrics.record(Metrics.Phase.EMIT, begin);
+            if (emit.shouldCommit()) {
+                emit.file = Metrics.file();
+                emit.target = "xml";
+                emit.commit();
+            }
+        }
     }
 
     void parseClass() {
-        printNonTerminal("class");
+        beginNonTerminal(NodeKind.CLASS);
         expectPeek(CLASS);
         expectPeek(IDENT);
         expectPeek(LBRACE);
 
         while (peekTokenIs(STATIC) || peekTokenIs(FIELD)) {
-            parseClassVarDec();
+            int depth = ast.depth();
+            try {
+                parseClassVarDec();
+            } catch (ParseError e) {
+                ast.closeTo(depth);
+                synchronizeClassMember();
+            }
         }
 
         while (peekTokenIs(FUNCTION) || peekTokenIs(CONSTRUCTOR) || peekTokenIs(METHOD)) {
-            parseSubroutineDec();
+            int depth = ast.depth();
+            try {
+                parseSubroutineDec();
+            } catch (ParseError e) {
+                ast.closeTo(depth);
+                synchronizeClassMember();
+            }
         }
 
         expectPeek(RBRACE);
 
-        printNonTerminal("/class");
+        endNonTerminal();
+    }
+
+    // Parses the class member of the given kind that starts at token first,
+    // on its own. Returns the index of its last token.
+    int parseClassMember(int first, NodeKind kind) {
+        peekToken = first;
+        currentToken = first - 1;
+        try {
+            if (kind == NodeKind.CLASS_VAR_DEC)
+                parseClassVarDec();
+            else
+                parseSubroutineDec();
+        } catch (ParseError e) {
+            ast.closeTo(0);
+        }
+        return currentToken;
     }
 
     // // Expression Parsing
 
     // Will parse an expression
     void parseExpression() {
-        printNonTerminal("expression");
+        beginNonTerminal(NodeKind.EXPRESSION);
         parseTerm(); // an expression is given in the shape of: expr => term (op term)*
-        while (isOperator(peekToken.lexeme)) {
-            expectPeek(peekToken.type);
+        while (isOperator(tokens.type(peekToken))) {
+            expectPeek(tokens.type(peekToken));
             parseTerm();
         }
-        printNonTerminal("/expression");
+        endNonTerminal();
     }
 
     // Since one expression is defined by terms, we have to parse terms accordingly to the syntax
     void parseTerm() {
-        printNonTerminal("term");
-        switch (peekToken.type) {
+        beginNonTerminal(NodeKind.TERM);
+        switch (tokens.type(peekToken)) {
             case NUMBER:
                 expectPeek(NUMBER);
                 break;
@@ -84,11 +294,14 @@ public class Parser {
                 expectPeek(THIS);
                 break;
             case IDENT:
-                expectPeek(IDENT);
-                if (peekTokenIs(LPAREN) || peekTokenIs(DOT)) {
-                    expectPeek(DOT);
+                // an IDENT is never the EOF, so the token after it exists
+                TokenType next = tokens.type(peekToken + 1);
+                if (next == LPAREN || next == DOT) {
                     parseSubroutineCall();
-                } else if (peekTokenIs(LBRACKET)) {
+                    break;
+                }
+                expectPeek(IDENT);
+                if (peekTokenIs(LBRACKET)) {
                     expectPeek(LBRACKET);
                     parseExpression();
                     expectPeek(RBRACKET);
@@ -105,9 +318,9 @@ public class Parser {
                 parseTerm();
                 break;
             default:
-                throw error(peekToken,  "term expected");
+                throw error(peekToken, "a term");
         }
-        printNonTerminal("/term");
+        endNonTerminal();
     }
 
     // In order to parse terms we have to parse Subroutine calls:
@@ -128,7 +341,7 @@ public class Parser {
 
     // In order to parse subroutine calls we have to parse expression lists:
    int parseExpressionList() {
-        printNonTerminal("expressionList");
+        beginNonTerminal(NodeKind.EXPRESSION_LIST);
         var nArgs = 0;
 
         if (!peekTokenIs(RPAREN)) { // verifies if next token isn't an RPAREN
@@ -142,7 +355,7 @@ public class Parser {
             nArgs++;
         }
 
-        printNonTerminal("/expressionList");
+        endNonTerminal();
 
         return nArgs;
     }
@@ -151,7 +364,7 @@ public class Parser {
 
     // Functions to mannage statement parsing
     void parseStatement() {
-        switch (peekToken.type) { // will match any possible value for an statement
+        switch (tokens.type(peekToken)) { // will match any possible value for an statement
             case LET:
                 parseLet();
                 break;
@@ -168,30 +381,29 @@ public class Parser {
                 parseDo();
                 break;
             default:
-                throw error(peekToken, "Expected an statement");
+                throw error(peekToken, "a statement");
         }
     }
 
     //  Will parse statements as long the peekToken is an valid statement
     void parseStatements() {
-        printNonTerminal("statements");
-
-        List<TokenType> validStatements = Arrays.asList( // current valid statements
-                                            TokenType.WHILE,
-                                            TokenType.IF,
-                                            TokenType.LET,
-                                            TokenType.DO,
-                                            TokenType.RETURN);
-
-        while (validStatements.contains(peekToken.type)) {
-            parseStatement();
+        beginNonTerminal(NodeKind.STATEMENTS);
+
+        while (STATEMENTS.contains(tokens.type(peekToken))) {
+            int depth = ast.depth();
+            try {
+                parseStatement();
+            } catch (ParseError e) {
+                ast.closeTo(depth);
+                synchronize();
+            }
         }
-        printNonTerminal("/statements");
+        endNonTerminal();
     }
 
     // parsing an LET statement
     void parseLet() {
-        printNonTerminal("letStatement"); // LET => LET IDENT ([] || = EXP SEMICOLON)
+        beginNonTerminal(NodeKind.LET_STATEMENT); // LET => LET IDENT ([] || = EXP SEMICOLON)
 
         expectPeek(LET);
         expectPeek(IDENT);
@@ -205,13 +417,13 @@ public class Parser {
         parseExpression();
         expectPeek(SEMICOLON);
 
-        printNonTerminal("/letStatement");
+        endNonTerminal();
     }
 
     // parsing While
 
     void parseWhile() {
-        printNonTerminal("whileStatement");
+        beginNonTerminal(NodeKind.WHILE_STATEMENT);
     
         expectPeek(WHILE);
         expectPeek(LPAREN);
@@ -222,13 +434,13 @@ public class Parser {
         parseStatements();
     
         expectPeek(RBRACE);
-        printNonTerminal("/whileStatement");
+        endNonTerminal();
     }
 
     // Parsing If
 
     void parseIf() {
-        printNonTerminal("ifStatement");
+        beginNonTerminal(NodeKind.IF_STATEMENT);
     
         expectPeek(IF);
         expectPeek(LPAREN);
@@ -245,13 +457,13 @@ public class Parser {
             parseStatements();
             expectPeek(RBRACE);
         }
-        printNonTerminal("/ifStatement");
+        endNonTerminal();
     }
 
     // Parsing Return
 
     void parseReturn() {
-        printNonTerminal("returnStatement");
+        beginNonTerminal(NodeKind.RETURN_STATEMENT);
         expectPeek(RETURN);
         if (peekTokenIs(TokenType.SEMICOLON)) {
             expectPeek(TokenType.SEMICOLON);
@@ -259,17 +471,17 @@ public class Parser {
             parseExpression();
             expectPeek(TokenType.SEMICOLON);
         }
-        printNonTerminal("/returnStatement");
+        endNonTerminal();
     }
 
     //Parsing Do
 
     void parseDo() {
-        printNonTerminal("doStatement");
+        beginNonTerminal(NodeKind.DO_STATEMENT);
         expectPeek(DO);
         parseSubroutineCall();
         expectPeek(SEMICOLON);
-        printNonTerminal("/doStatement");
+        endNonTerminal();
     }
 
     //Parsing VarDec
@@ -277,7 +489,7 @@ public class Parser {
     // 'var' type varName ( ',' varName)* ';'
 
     void parseVarDec() {
-        printNonTerminal("varDec");
+        beginNonTerminal(NodeKind.VAR_DEC);
         expectPeek(VAR);
 
         // 'int' | 'char' | 'boolean' | className
@@ -291,7 +503,7 @@ public class Parser {
         }
 
         expectPeek(SEMICOLON);
-        printNonTerminal("/varDec");
+        endNonTerminal();
     }
 
     //Parsing Class VarDec
@@ -300,53 +512,59 @@ public class Parser {
     // classVarDec → ( 'static' | 'field' ) type varName ( ',' varName)* ';'
 
     void parseClassVarDec() {
-        printNonTerminal("classVarDec");
+        beginNonTerminal(NodeKind.CLASS_VAR_DEC);
         expectPeek(FIELD, STATIC);
 
         // 'int' | 'char' | 'boolean' | className
         expectPeek(INT, CHAR, BOOLEAN, IDENT);
-        String type = currentToken.value();
 
         expectPeek(IDENT);
-        String name = currentToken.value();
 
         while (peekTokenIs(COMMA)) {
             expectPeek(COMMA);
             expectPeek(IDENT);
-            name = currentToken.value();
         }
 
         expectPeek(SEMICOLON);
-        printNonTerminal("/classVarDec");
+        endNonTerminal();
     }
 
     //Parsing SubroutineDec
 
     void parseSubroutineDec() {
-        printNonTerminal("subroutineDec");
-
+        Events.ParseSubroutine event = new Events.ParseSubroutine();
+        event.begin();
+        long begin = Metrics.start();
+        int first = peekToken;
+        beginNonTerminal(NodeKind.SUBROUTINE_DEC);
 
+        // names and types stay in the Ast for the CodeGenerator
         expectPeek(CONSTRUCTOR, FUNCTION, METHOD);
-        var subroutineType = currentToken.type;
 
         // 'int' | 'char' | 'boolean' | className
         expectPeek(VOID, INT, CHAR, BOOLEAN, IDENT);
         expectPeek(IDENT);
 
-        var functionName = "." + currentToken.value();
-
         expectPeek(LPAREN);
         parseParameterList();
         expectPeek(RPAREN);
-        parseSubroutineBody(functionName, subroutineType);
-
-        printNonTerminal("/subroutineDec");
+        parseSubroutineBody();
+
+        endNonTerminal();
+        // a subroutine with a syntax error is not timed
+        Metrics.record(Metrics.Phase.PARSE_SUBROUTINE, begin);
+        if (event.shouldCommit()) {
+            event.file = Metrics.file();
+            event.name = tokens.text(first + 2);
+            event.tokens = currentToken - first + 1;
+            event.commit();
+        }
     }
     
     //Parsing ParameterList
 
     void parseParameterList() {
-        printNonTerminal("parameterList");
+        beginNonTerminal(NodeKind.PARAMETER_LIST);
     
         if (!peekTokenIs(RPAREN)) // verifica se tem pelo menos uma expressao
         {
@@ -362,86 +580,175 @@ public class Parser {
             }
         }
     
-        printNonTerminal("/parameterList");
+        endNonTerminal();
     }
 
     //Parsing SubroutineBody
 
-    void parseSubroutineBody(String functionName, TokenType subroutineType) {
-        printNonTerminal("subroutineBody");
+    void parseSubroutineBody() {
+        beginNonTerminal(NodeKind.SUBROUTINE_BODY);
         expectPeek(LBRACE);
         while (peekTokenIs(VAR)) {
-            parseVarDec();
+            int depth = ast.depth();
+            try {
+                parseVarDec();
+            } catch (ParseError e) {
+                ast.closeTo(depth);
+                synchronize();
+            }
         }
     
         parseStatements();
         expectPeek(RBRACE);
-        printNonTerminal("/subroutineBody");
+        endNonTerminal();
     }
 
     // // Utility Functions
 
     public String XMLOutput() {
+        if (xmlOutput.isStreaming())
+            throw new IllegalStateException("XML output was streamed to a Writer");
+        xmlOutput.emit(ast);
         return xmlOutput.toString();
     }
 
-    // Formats and appends non terminal tokens to the XMLOutput
-    private void printNonTerminal(String nterminal) {
-        xmlOutput.append(String.format("<%s>\r\n", nterminal));
+    public Ast ast() {
+        return ast;
+    }
+
+    // Every error found so far, in source order. Empty when the input is valid.
+    public List<Diagnostic> diagnostics() {
+        Collections.sort(diagnostics);
+        return diagnostics;
+    }
+
+    // Opens a non terminal node in the AST
+    private void beginNonTerminal(NodeKind kind) {
+        ast.open(kind);
+    }
+
+    // Closes the innermost non terminal. When streaming, the XML of what was
+    // parsed so far goes out right away.
+    private void endNonTerminal() {
+        ast.close();
+        if (xmlOutput.isStreaming())
+            xmlOutput.emit(ast);
     }
 
     // Used to verify the next token to be parsed
     boolean peekTokenIs(TokenType type) {
-        return peekToken.type == type;
+        return tokens.type(peekToken) == type;
     }
 
     // Used to verify the type of current token that's being parsed
     boolean currentTokenIs(TokenType type) {
-        return currentToken.type == type;
+        return tokens.type(currentToken) == type;
     }
 
-    boolean isOperator(String operator) {
-        return operator != "" && "+-*/<>=~&|".contains(operator);
+    boolean isOperator(TokenType type) {
+        return OPERATORS.contains(type);
     }
 
     // Verifies if the peekToken is the one expected
     private void expectPeek(TokenType... types) {
         for (TokenType type : types) {
-            if (peekToken.type == type) {
+            if (tokens.type(peekToken) == type) {
                 expectPeek(type);
                 return;
             }
         }
-        // throw new Error("Syntax error");
-        throw error(peekToken, "Expected a statement");
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < types.length; i++) {
+            if (i > 0)
+                expected.append(i == types.length - 1 ? " or " : ", ");
+            expected.append(describe(types[i]));
+        }
+        throw error(peekToken, expected.toString());
     }
 
     private void expectPeek(TokenType type) {
-        if (peekToken.type == type) {
+        if (tokens.type(peekToken) == type) {
             nextToken();
-            xmlOutput.append(String.format("%s\r\n", currentToken.toString()));
+            ast.leaf(currentToken);
         } else {
-            // throw new Error("Syntax error - expected " + type + " found " +
-            // peekToken.type);
-            throw error(peekToken, "Expected " + type.value);
+            throw error(peekToken, describe(type));
         }
     }
 
-    // Error Functions
+    // // Error Recovery
+
+    // Skips to the start of the next statement: past a ';', or up to a '}' or
+    // a keyword that starts a statement or a class member. Blocks are skipped
+    // whole.
+    private void synchronize() {
+        while (!peekTokenIs(EOF)) {
+            TokenType type = tokens.type(peekToken);
+            if (type == SEMICOLON) {
+                nextToken();
+                return;
+            }
+            if (type == RBRACE || STATEMENTS.contains(type) || CLASS_MEMBERS.contains(type))
+                return;
+            if (type == LBRACE)
+                skipBlock();
+            else
+                nextToken();
+        }
+    }
 
-    private static void report(int line, String where, String message) {
-        System.err.println(
-            "[line " + line + "] Error" + where + ": " + message);
+    private void skipBlock() {
+        int depth = 0;
+        do {
+            if (peekTokenIs(LBRACE))
+                depth++;
+            else if (peekTokenIs(RBRACE))
+                depth--;
+            nextToken();
+        } while (depth > 0 && !peekTokenIs(EOF));
     }
 
-    private ParseError error(Token token, String message) {
-        if (token.type == TokenType.EOF) {
-            System.out.println("eof error: "+token);
-            report(token.line, " at end", message);
-        } else {
-            System.out.println("other error: "+ token + peekToken.value());
-            report(token.line, " at '" + token.value() + "'", message);
+    // Skips to the next class member. If there is none, stops on the last
+    // '}', which should close the class.
+    private void synchronizeClassMember() {
+        int lastBrace = -1;
+        while (!peekTokenIs(EOF) && !CLASS_MEMBERS.contains(tokens.type(peekToken))) {
+            if (peekTokenIs(RBRACE))
+                lastBrace = peekToken;
+            nextToken();
+        }
+        if (peekTokenIs(EOF) && lastBrace >= 0) {
+            peekToken = lastBrace;
+            currentToken = lastBrace - 1;
+        }
+    }
+
+    // Error Functions
+
+    private static String describe(TokenType type) {
+        if (type.value != null)
+            return "'" + type.value + "'";
+        switch (type) {
+            case IDENT:
+                return "an identifier";
+            case NUMBER:
+                return "an integer constant";
+            case STRING:
+                return "a string constant";
+            default:
+                return type.toString();
         }
-        return new ParseError();
+    }
+
+    // Records the error at token index and returns the exception that unwinds
+    // to the nearest recovery point. A second error on the same token is
+    // not recorded, it comes from the recovery itself.
+    private ParseError error(int index, String expected) {
+        Token token = tokens.token(index);
+        String found = token.type == TokenType.EOF ? "end" : "'" + token.lexeme() + "'";
+        Diagnostic diagnostic = new Diagnostic(token.line, tokens.column(index), expected, found, "Expected " + expected);
+        if (index != lastErrorToken)
+            diagnostics.add(diagnostic);
+        lastErrorToken = index;
+        return new ParseError(diagnostic.toString());
     }
 }
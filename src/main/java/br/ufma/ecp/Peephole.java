@@ -0,0 +1,300 @@
+package br.ufma.ecp;
+
+import static br.ufma.ecp.VMCode.ADD;
+import static br.ufma.ecp.VMCode.AND;
+import static br.ufma.ecp.VMCode.CALL;
+import static br.ufma.ecp.VMCode.EQ;
+import static br.ufma.ecp.VMCode.FUNCTION;
+import static br.ufma.ecp.VMCode.GOTO;
+import static br.ufma.ecp.VMCode.IF_GOTO;
+import static br.ufma.ecp.VMCode.LABEL;
+import static br.ufma.ecp.VMCode.NEG;
+import static br.ufma.ecp.VMCode.NOT;
+import static br.ufma.ecp.VMCode.OR;
+import static br.ufma.ecp.VMCode.POP;
+import static br.ufma.ecp.VMCode.PUSH;
+import static br.ufma.ecp.VMCode.RETURN;
+import static br.ufma.ecp.VMCode.SUB;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import br.ufma.ecp.VMWriter.Segment;
+
+// Peephole optimization of the VM code of a class. The code is decoded
+// into a VMCode and every rule is tried at every instruction, pass after
+// pass, until none applies; then it is written back to the VMWriter. A rule
+// matches a few instructions from where it is tried and rewrites them in
+// place, turning dropped ones into NOPs, which VMCode.next() skips.
+//
+// The built-in rules are a Rule enum so the CLI can pick them by name
+// (-peephole rule,rule or all); any other Rule can be given to the
+// constructor. Each rule has to keep what the code computes: the stack,
+// every segment that is read later and where control goes.
+public class Peephole {
+
+    public interface Rule {
+        String name();
+
+        // Rewrites the code at i, the first instruction that is not a NOP,
+        // if it matches. Returns whether it did.
+        boolean apply(VMCode code, int i);
+    }
+
+    public enum Builtin implements Rule {
+        // push s i; pop s i: the value is put back where it was
+        PUSH_POP("push-pop") {
+            @Override
+            public boolean apply(VMCode code, int i) {
+                int j = code.after(i);
+                if (code.opcode(i) != PUSH || j == code.size() || code.opcode(j) != POP
+                        || code.operand(i) != code.operand(j) || code.index(i) != code.index(j))
+                    return false;
+                code.remove(i);
+                code.remove(j);
+                return true;
+            }
+        },
+        // pop temp k; push temp k, when temp k is written again before it is
+        // read: the value just stays on the stack
+        TEMP_ROUND_TRIP("temp-round-trip") {
+            @Override
+            public boolean apply(VMCode code, int i) {
+                int j = code.after(i);
+                if (code.opcode(i) != POP || code.segment(i) != Segment.TEMP || j == code.size()
+                        || !code.is(j, PUSH, Segment.TEMP, code.index(i)) || !tempDead(code, j, code.index(i)))
+                    return false;
+                code.remove(i);
+                code.remove(j);
+                return true;
+            }
+        },
+        // not; not and neg; neg
+        DOUBLE_NEGATION("double-negation") {
+            @Override
+            public boolean apply(VMCode code, int i) {
+                int j = code.after(i);
+                if ((code.opcode(i) != NOT && code.opcode(i) != NEG) || j == code.size()
+                        || code.opcode(j) != code.opcode(i))
+                    return false;
+                code.remove(i);
+                code.remove(j);
+                return true;
+            }
+        },
+        // x + 0, x - 0, x | 0 and x & true
+        IDENTITY("identity") {
+            @Override
+            public boolean apply(VMCode code, int i) {
+                if (!code.is(i, PUSH, Segment.CONST, 0))
+                    return false;
+                int j = code.after(i);
+                if (j == code.size())
+                    return false;
+                int op = code.opcode(j);
+                if (op == ADD || op == SUB || op == OR) {
+                    code.remove(i);
+                    code.remove(j);
+                    return true;
+                }
+                int k = code.after(j);
+                if (op == NOT && k < code.size() && code.opcode(k) == AND) {
+                    code.remove(i);
+                    code.remove(j);
+                    code.remove(k);
+                    return true;
+                }
+                return false;
+            }
+        },
+        // if-goto on false falls through, on true (push constant 0; not) it
+        // always jumps
+        CONSTANT_BRANCH("constant-branch") {
+            @Override
+            public boolean apply(VMCode code, int i) {
+                if (!code.is(i, PUSH, Segment.CONST, 0))
+                    return false;
+                int j = code.after(i);
+                if (j < code.size() && code.opcode(j) == IF_GOTO) {
+                    code.remove(i);
+                    code.remove(j);
+                    return true;
+                }
+                int k = j < code.size() ? code.after(j) : j;
+                if (j < code.size() && code.opcode(j) == NOT && k < code.size() && code.opcode(k) == IF_GOTO) {
+                    code.remove(i);
+                    code.remove(j);
+                    code.set(k, GOTO, code.operand(k), 0);
+                    return true;
+                }
+                return false;
+            }
+        },
+        // push constant 0; eq; not; if-goto L is if-goto L: x = 0 is false
+        // exactly when x is not 0
+        ZERO_TEST("zero-test") {
+            @Override
+            public boolean apply(VMCode code, int i) {
+                if (!code.is(i, PUSH, Segment.CONST, 0))
+                    return false;
+                int j = code.after(i);
+                int k = j < code.size() ? code.after(j) : j;
+                int l = k < code.size() ? code.after(k) : k;
+                if (l == code.size() || code.opcode(j) != EQ || code.opcode(k) != NOT || code.opcode(l) != IF_GOTO)
+                    return false;
+                code.remove(i);
+                code.remove(j);
+                code.remove(k);
+                return true;
+            }
+        },
+        // goto L when only labels come before label L
+        GOTO_NEXT("goto-next") {
+            @Override
+            public boolean apply(VMCode code, int i) {
+                if (code.opcode(i) != GOTO)
+                    return false;
+                for (int j = code.after(i); j < code.size() && code.opcode(j) == LABEL; j = code.after(j)) {
+                    if (code.operand(j) == code.operand(i)) {
+                        code.remove(i);
+                        return true;
+                    }
+                }
+                return false;
+            }
+        },
+        // code after a goto or return that no label leads to
+        UNREACHABLE("unreachable") {
+            @Override
+            public boolean apply(VMCode code, int i) {
+                if (code.opcode(i) != GOTO && code.opcode(i) != RETURN)
+                    return false;
+                boolean removed = false;
+                for (int j = code.after(i); j < code.size(); j = code.after(j)) {
+                    if (code.opcode(j) == LABEL || code.opcode(j) == FUNCTION)
+                        break;
+                    code.remove(j);
+                    removed = true;
+                }
+                return removed;
+            }
+        },
+        // labels no goto or if-goto names
+        DEAD_LABEL("dead-label") {
+            @Override
+            public boolean apply(VMCode code, int i) {
+                if (code.opcode(i) != LABEL || code.references(i) > 0)
+                    return false;
+                code.remove(i);
+                return true;
+            }
+        };
+
+        public final String ruleName;
+
+        private Builtin(String ruleName) {
+            this.ruleName = ruleName;
+        }
+
+        // the built-in rule called name, as on the command line
+        public static Builtin named(String name) {
+            for (Builtin rule : values()) {
+                if (rule.ruleName.equals(name))
+                    return rule;
+            }
+            throw new IllegalArgumentException("no peephole rule " + name);
+        }
+    }
+
+    // Whether temp k, pushed at instruction i, is written before anything
+    // after i could read it. Stops at a jump, label or call.
+    static boolean tempDead(VMCode code, int i, int k) {
+        for (int j = code.after(i); j < code.size(); j = code.after(j)) {
+            int op = code.opcode(j);
+            if (code.is(j, POP, Segment.TEMP, k))
+                return true;
+            if (code.is(j, PUSH, Segment.TEMP, k) || op == LABEL || op == GOTO || op == IF_GOTO || op == CALL
+                    || op == RETURN || op == FUNCTION)
+                return false;
+        }
+        return false;
+    }
+
+    // the bits of the built-in rules in a mask, for the daemon protocol
+    public static int mask(List<Builtin> rules) {
+        int mask = 0;
+        for (Builtin rule : rules)
+            mask |= 1 << rule.ordinal();
+        return mask;
+    }
+
+    public static int allRules() {
+        return (1 << Builtin.values().length) - 1;
+    }
+
+    // Parses "all" or rule names separated by commas into a mask.
+    public static int parseRules(String names) {
+        if (names.equals("all"))
+            return allRules();
+        List<Builtin> rules = new ArrayList<>();
+        for (String name : names.split(","))
+            rules.add(Builtin.named(name));
+        return mask(rules);
+    }
+
+    public static Peephole of(int mask) {
+        List<Rule> rules = new ArrayList<>();
+        for (Builtin rule : Builtin.values()) {
+            if ((mask & 1 << rule.ordinal()) != 0)
+                rules.add(rule);
+        }
+        return new Peephole(rules);
+    }
+
+    private static final int MAX_PASSES = 16;
+
+    private final List<Rule> rules;
+
+    public Peephole(List<Rule> rules) {
+        this.rules = List.copyOf(rules);
+    }
+
+    public List<Rule> rules() {
+        return rules;
+    }
+
+    // Optimizes the code in vm, all of one class, in place. Returns the
+    // instruction counts and estimated cycles before and after.
+    public Result optimize(VMWriter vm) {
+        VMCode code = VMCode.decode(vm);
+        Result result = new Result(code.count(), code.cycles());
+        for (int pass = 0; pass < MAX_PASSES; pass++) {
+            boolean changed = false;
+            for (int i = code.next(0); i < code.size(); i = code.after(i)) {
+                for (Rule rule : rules) {
+                    if (code.opcode(i) != VMCode.NOP && rule.apply(code, i))
+                        changed = true;
+                }
+            }
+            code.compact();
+            if (!changed)
+                break;
+        }
+        code.writeTo(vm);
+        result.instructionsAfter = code.count();
+        result.cyclesAfter = code.cycles();
+        return result;
+    }
+
+    public static class Result {
+        public final int instructionsBefore;
+        public final long cyclesBefore;
+        public int instructionsAfter;
+        public long cyclesAfter;
+
+        Result(int instructions, long cycles) {
+            this.instructionsBefore = instructions;
+            this.cyclesBefore = cycles;
+        }
+    }
+}
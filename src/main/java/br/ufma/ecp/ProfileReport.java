@@ -0,0 +1,66 @@
+package br.ufma.ecp;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+// The hot subroutines (and loops, with -profile-loops) of a profiled run:
+// reads the map App writes next to Main.asm with -profile and a RAM dump
+// from HackEmulator, and prints the regions by the cycles spent in them,
+// with their share of all the counted cycles and the cycles per entry.
+//
+//   java -cp target/jackcompiler-1.0-SNAPSHOT.jar br.ufma.ecp.ProfileReport Main.profile ram.txt [top]
+public class ProfileReport {
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2 || args.length > 3) {
+            System.err.println("usage: ProfileReport <map> <ram dump> [top]");
+            System.exit(2);
+        }
+        List<String> map = Files.readAllLines(Paths.get(args[0]), StandardCharsets.UTF_8);
+        List<String> lines = Files.readAllLines(Paths.get(args[1]), StandardCharsets.US_ASCII);
+        int[] ram = new int[lines.size()];
+        for (int k = 0; k < ram.length; k++)
+            ram[k] = Integer.parseInt(lines.get(k).trim());
+        System.out.print(report(map, ram, args.length > 2 ? Integer.parseInt(args[2]) : Integer.MAX_VALUE));
+    }
+
+    // The top regions of map, "address name" lines, by cycles in ram.
+    public static String report(List<String> map, int[] ram, int top) {
+        List<long[]> counts = new ArrayList<>(); // entries, cycles, index in names
+        List<String> names = new ArrayList<>();
+        long total = 0;
+        for (String line : map) {
+            if (line.isBlank())
+                continue;
+            int space = line.indexOf(' ');
+            int address = Integer.parseInt(line.substring(0, space));
+            long entries = word32(ram, address + HackEmulator.ENTRIES);
+            long cycles = word32(ram, address + HackEmulator.CYCLES);
+            counts.add(new long[] { entries, cycles, names.size() });
+            names.add(line.substring(space + 1));
+            total += cycles;
+        }
+        counts.sort((x, y) -> Long.compare(y[1], x[1]));
+
+        StringBuilder report = new StringBuilder(String.format("%-40s %12s %14s %7s %14s%n",
+                "region", "entries", "cycles", "%", "cycles/entry"));
+        for (int k = 0; k < counts.size() && k < top; k++) {
+            long[] c = counts.get(k);
+            if (c[0] == 0 && c[1] == 0)
+                break;
+            report.append(String.format("%-40s %12d %14d %7.2f %14.1f%n", names.get((int) c[2]), c[0], c[1],
+                    total > 0 ? 100.0 * c[1] / total : 0, c[0] > 0 ? (double) c[1] / c[0] : 0));
+        }
+        report.append(String.format("%-40s %12s %14d%n", "total", "", total));
+        return report.toString();
+    }
+
+    // low word first
+    private static long word32(int[] ram, int address) {
+        return (ram[address] & 0xFFFFL) | (ram[address + 1] & 0xFFFFL) << 16;
+    }
+}
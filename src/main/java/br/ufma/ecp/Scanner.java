@@ -2,95 +2,195 @@ package br.ufma.ecp;
 
 import static br.ufma.ecp.token.TokenType.*;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
-import java.util.HashMap;
-import java.util.Map;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
 
+import br.ufma.ecp.metrics.Events;
+import br.ufma.ecp.metrics.Metrics;
 import br.ufma.ecp.token.Token;
+import br.ufma.ecp.token.TokenRing;
+import br.ufma.ecp.token.TokenStream;
 import br.ufma.ecp.token.TokenType;
 
 public class Scanner {
 
-    private byte[] input;
+    // Whitespace, comments, identifiers and numbers are skipped 8 bytes at a
+    // time, SWAR style: each byte of a little-endian word is classified at
+    // once and the first one that ends the run is found with
+    // numberOfTrailingZeros. The last bytes of the input, where no whole
+    // word is left, go through the byte-at-a-time loops, which are also the
+    // whole scanner with -Djack.scanner.swar=false.
+    static final boolean SWAR = !"false".equals(System.getProperty("jack.scanner.swar"));
+
+    static final int MAX_CONSTANT = 32767;
+
+    private static final long ONES = 0x0101010101010101L;
+    private static final long HIGHS = 0x8080808080808080L;
+    private static final long LOWS = 0x7F7F7F7F7F7F7F7FL;
+
+    // heap bytes or a read-only mapping of the source file, read by absolute index
+    private ByteBuffer input;
+    private boolean swar = SWAR;
     private int current;
     private int start;
+    private int length;
     private int line = 1;
 
-private static final Map<String, TokenType> keywords;
-
-    static {
-        keywords = new HashMap<>();
-        keywords.put("method", TokenType.METHOD);
-        keywords.put("while", TokenType.WHILE);
-        keywords.put("if", TokenType.IF);
-        keywords.put("class", TokenType.CLASS);
-        keywords.put("constructor", TokenType.CONSTRUCTOR);
-        keywords.put("function", TokenType.FUNCTION);
-        keywords.put("field", TokenType.FIELD);
-        keywords.put("static", TokenType.STATIC);
-        keywords.put("var", TokenType.VAR);
-        keywords.put("int", TokenType.INT);
-        keywords.put("char", TokenType.CHAR);
-        keywords.put("boolean", TokenType.BOOLEAN);
-        keywords.put("void", TokenType.VOID);
-        keywords.put("true", TokenType.TRUE);
-        keywords.put("false", TokenType.FALSE);
-        keywords.put("null", TokenType.NULL);
-        keywords.put("this", TokenType.THIS);
-        keywords.put("let", TokenType.LET);
-        keywords.put("do", TokenType.DO);
-        keywords.put("else", TokenType.ELSE);
-        keywords.put("return", TokenType.RETURN);
-    }
+    // lexical errors, the scanner never stops on them
+    private final List<Diagnostic> diagnostics = new ArrayList<>();
 
     public Scanner(byte[] input) {
-        this.input = input;
+        this(ByteBuffer.wrap(input));
+    }
+
+    public Scanner(ByteBuffer input) {
+        // little-endian so that the first byte of a word is its lowest
+        this.input = input.slice().order(ByteOrder.LITTLE_ENDIAN);
         current = 0;
         start = 0;
     }
 
+    // Resumes lexing at position, after a token that ended on line. Used by
+    // IncrementalParser to re-lex only the bytes around an edit.
+    Scanner(ByteBuffer input, int position, int line) {
+        this(input);
+        current = position;
+        this.line = line;
+    }
+
+    // Lexes the file straight from the page cache through a read-only mapping,
+    // without copying it onto the heap. The mapping outlives the channel.
+    public Scanner(Path file) throws IOException {
+        this(map(file));
+    }
+
+    // Turns the word-at-a-time loops off, for comparing with them.
+    void useSwar(boolean on) {
+        swar = on;
+    }
+
+    public List<Diagnostic> diagnostics() {
+        return diagnostics;
+    }
+
+    private int column(int offset) {
+        int column = 1;
+        while (offset - column >= 0 && input.get(offset - column) != '\n')
+            column++;
+        return column;
+    }
+
+    static ByteBuffer map(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
     private void skipBlockComments() {
-        boolean endComment = false;
-        advance();
-        while (!endComment) {
-            advance();
+        int commentLine = line;
+        current += 2; // "/*"
+        for (;;) {
+            if (swar)
+                skipToStar();
             char ch = peek();
-
+            if (ch == 0) { // eof, lexical error
+                diagnostics.add(new Diagnostic(commentLine, column(start), null, "'/*'", "Unterminated comment"));
+                return;
+            }
+            advance();
             if (ch == '\n')
                 line++;
-
-            if (ch == 0) { // eof, lexical error
-                System.exit(1);
+            else if (ch == '*' && peek() == '/') {
+                advance();
+                return;
             }
+        }
+    }
 
-            if (ch == '*') {
-                for (ch = peek(); ch == '*'; advance(), ch = peek())
-                    ;
-                if (ch == '/') {
-                    endComment = true;
-                    advance();
-                }
+    // Moves to the next '*' or NUL byte of a block comment, counting lines.
+    private void skipToStar() {
+        for (int last = input.limit() - 8; current <= last; current += 8) {
+            long word = input.getLong(current);
+            long newlines = equal(word, '\n');
+            long stop = equal(word, '*') | zeros(word);
+            if (stop != 0) {
+                line += Long.bitCount(newlines & before(stop));
+                current += Long.numberOfTrailingZeros(stop) >>> 3;
+                return;
             }
-
+            line += Long.bitCount(newlines);
         }
     }
 
+    // stops on the newline, skipWhitespace() counts it
     private void skipLineComments() {
+        if (swar) {
+            for (int last = input.limit() - 8; current <= last; current += 8) {
+                long word = input.getLong(current);
+                long stop = equal(word, '\n') | zeros(word);
+                if (stop != 0) {
+                    current += Long.numberOfTrailingZeros(stop) >>> 3;
+                    return;
+                }
+            }
+        }
         for (char ch = peek(); ch != '\n' && ch != 0; advance(), ch = peek())
-            if (ch == '\n')
-                line++;
+            ;
+    }
+
+    // 0x80 in every byte of word that is 0, and nowhere else: unlike the
+    // usual (x - ONES) & ~x & HIGHS, no borrow runs into the next byte.
+    private static long zeros(long word) {
+        return ~(((word & LOWS) + LOWS) | word | LOWS);
+    }
+
+    private static long equal(long word, int c) {
+        return zeros(word ^ ONES * c);
+    }
+
+    // 0x80 in every byte of word in [lo, hi], both ASCII
+    private static long inRange(long word, int lo, int hi) {
+        long low = word & LOWS;
+        return ((low | HIGHS) - ONES * lo) & ((ONES * hi | HIGHS) - low) & ~word & HIGHS;
+    }
+
+    // the bits of the bytes before the first one marked in stop
+    private static long before(long stop) {
+        return (stop & -stop) - 1;
     }
 
     private char peekNext() {
         int next = current + 1;
-        if (next < input.length) {
-            return (char) input[next];
+        if (next < input.limit()) {
+            return (char) input.get(next);
         } else {
             return 0;
         }
     }
 
     private void skipWhitespace() {
+        // most tokens follow another one or a single space
+        if (swar && peek() <= ' ' && peekNext() <= ' ') {
+            for (int last = input.limit() - 8; current <= last; current += 8) {
+                long word = input.getLong(current);
+                long newlines = equal(word, '\n');
+                long blanks = newlines | equal(word, ' ') | equal(word, '\t') | equal(word, '\r');
+                if (blanks != HIGHS) {
+                    long stop = ~blanks & HIGHS;
+                    line += Long.bitCount(newlines & before(stop));
+                    current += Long.numberOfTrailingZeros(stop) >>> 3;
+                    return;
+                }
+                line += Long.bitCount(newlines);
+            }
+        }
         char ch = peek();
         while (ch == ' ' || ch == '\r' || ch == '\t' || ch == '\n') {
 
@@ -102,127 +202,297 @@ private static final Map<String, TokenType> keywords;
         }
     }
 
+    // The next token as a view over the input, its lexeme is only decoded
+    // when asked for.
     public Token nextToken() {
+        TokenType type = scan();
+        return new Token(type, input, start, length, line);
+    }
 
-        skipWhitespace();
+    // Lexes the rest of the input into parallel arrays, ending with EOF.
+    // No Token or String is allocated per lexeme.
+    public TokenStream tokenize() {
+        Events.Scan event = new Events.Scan();
+        event.begin();
+        long begin = Metrics.start();
+        int from = current;
+        TokenStream tokens = new TokenStream(input);
+        while (scanInto(tokens) != EOF)
+            ;
+        scanned(event, begin, current - from, tokens.size());
+        return tokens;
+    }
 
-        start = current;
-        char ch = peek();
+    // Lexes the rest of the input into ring, for a Parser taking the tokens
+    // on another thread, until EOF or until the parser closes the ring. A
+    // failure is handed over to the parser through the ring.
+    void tokenizeInto(TokenRing ring) {
+        Events.Scan event = new Events.Scan();
+        event.begin();
+        long begin = Metrics.start();
+        int from = current;
+        int count = 0;
+        try {
+            TokenType type;
+            do {
+                type = scan();
+                count++;
+            } while (ring.put(type, start, length, line) && type != EOF);
+        } catch (RuntimeException | Error e) {
+            ring.fail(e);
+            return;
+        }
+        scanned(event, begin, current - from, count);
+    }
 
-        if (Character.isDigit(ch)) {
-            return number();
+    private static void scanned(Events.Scan event, long begin, int bytes, int tokens) {
+        Metrics.scanned(begin, bytes, tokens);
+        if (event.shouldCommit()) {
+            event.file = Metrics.file();
+            event.bytes = bytes;
+            event.tokens = tokens;
+            event.commit();
         }
+    }
+
+    // the bytes being lexed, token starts are indexes into it
+    ByteBuffer source() {
+        return input;
+    }
+
+    // Lexes one more token onto the end of tokens.
+    TokenType scanInto(TokenStream tokens) {
+        TokenType type = scan();
+        tokens.add(type, start, length, line);
+        return type;
+    }
+
+    // Recognizes the next token and leaves its lexeme in input[start, start + length).
+    private TokenType scan() {
+        for (;;) {
+            skipWhitespace();
+
+            start = current;
+            char ch = peek();
+
+            if (Character.isDigit(ch)) {
+                return number();
+            }
 
-        if (isAlpha(ch)) {
-            return identifier();
+            if (isAlpha(ch)) {
+                return identifier();
+            }
+
+            if (ch == '/' && peekNext() == '/') {
+                skipLineComments();
+            } else if (ch == '/' && peekNext() == '*') {
+                skipBlockComments();
+            } else {
+                return symbol(ch);
+            }
         }
+    }
+
+    private TokenType symbol(char ch) {
+        if (ch == '"')
+            return string();
 
+        length = 1;
         switch (ch) {
-            case '"':
-                return string();
             case '/':
-                if (peekNext() == '/') {
-                    skipLineComments();
-                    return nextToken();
-                } else if (peekNext() == '*') {
-                    skipBlockComments();
-                    return nextToken();
-                } else {
-                    advance();
-                    return new Token(TokenType.SLASH, "/", line);
-                }
+                advance();
+                return TokenType.SLASH;
             case '+':
                 advance();
-                return new Token(TokenType.PLUS, "+", line);
+                return TokenType.PLUS;
             case '-':
                 advance();
-                return new Token(TokenType.MINUS, "-", line);
+                return TokenType.MINUS;
             case '*':
                 advance();
-                return new Token(TokenType.ASTERISK, "*", line);
+                return TokenType.ASTERISK;
             case '.':
                 advance();
-                return new Token(TokenType.DOT, ".", line);
+                return TokenType.DOT;
             case '&':
                 advance();
-                return new Token(TokenType.AND, "&", line);
+                return TokenType.AND;
             case '|':
                 advance();
-                return new Token(TokenType.OR, "|", line);
+                return TokenType.OR;
             case '~':
                 advance();
-                return new Token(TokenType.NOT, "~", line);
+                return TokenType.NOT;
             case '>':
                 advance();
-                return new Token(TokenType.GT, ">", line);
+                return TokenType.GT;
             case '<':
                 advance();
-                return new Token(TokenType.LT, "<", line);
+                return TokenType.LT;
             case '=':
                 advance();
-                return new Token(TokenType.EQ, "=", line);
+                return TokenType.EQ;
             case '(':
                 advance();
-                return new Token(TokenType.LPAREN, "(", line);
+                return TokenType.LPAREN;
             case ')':
                 advance();
-                return new Token(TokenType.RPAREN, ")", line);
+                return TokenType.RPAREN;
             case '{':
                 advance();
-                return new Token(TokenType.LBRACE, "{", line);
+                return TokenType.LBRACE;
             case '}':
                 advance();
-                return new Token(TokenType.RBRACE, "}", line);
+                return TokenType.RBRACE;
             case '[':
                 advance();
-                return new Token(TokenType.LBRACKET, "[", line);
+                return TokenType.LBRACKET;
             case ']':
                 advance();
-                return new Token(TokenType.RBRACKET, "]", line);
+                return TokenType.RBRACKET;
             case ';':
                 advance();
-                return new Token(TokenType.SEMICOLON, ";", line);
+                return TokenType.SEMICOLON;
             case ',':
                 advance();
-                return new Token(TokenType.COMMA, ",", line);
+                return TokenType.COMMA;
             case 0:
-                return new Token(EOF, "EOF", line);
+                length = 0;
+                return EOF;
             default:
                 advance();
-                return new Token(ILLEGAL, Character.toString(ch), line);
+                return ILLEGAL;
         }
     }
 
-    private Token identifier() {
+    private TokenType identifier() {
+        if (swar) {
+            for (int last = input.limit() - 8; current <= last; current += 8) {
+                long word = input.getLong(current);
+                // setting 0x20 makes A-Z a-z, and no other byte a letter
+                long stop = ~(inRange(word | ONES * 0x20, 'a', 'z') | inRange(word, '0', '9') | equal(word, '_'))
+                        & HIGHS;
+                if (stop != 0) {
+                    current += Long.numberOfTrailingZeros(stop) >>> 3;
+                    length = current - start;
+                    return keyword(start, length);
+                }
+            }
+        }
         while (isAlphaNumeric(peek()))
             advance();
 
-        String id = new String(input, start, current - start, StandardCharsets.UTF_8);
-        TokenType type = keywords.get(id);
-        if (type == null)
-            type = IDENT;
-        return new Token(type, id, line);
+        length = current - start;
+        return keyword(start, length);
     }
 
-    private Token number() {
+    // Matches the 21 Jack keywords on the raw bytes, dispatching on the first
+    // byte and comparing the length before any byte, so identifiers never
+    // become a String here.
+    private TokenType keyword(int from, int len) {
+        switch (input.get(from)) {
+            case 'b':
+                if (matches(from, len, "boolean")) return BOOLEAN;
+                break;
+            case 'c':
+                if (matches(from, len, "char")) return CHAR;
+                if (matches(from, len, "class")) return CLASS;
+                if (matches(from, len, "constructor")) return CONSTRUCTOR;
+                break;
+            case 'd':
+                if (matches(from, len, "do")) return DO;
+                break;
+            case 'e':
+                if (matches(from, len, "else")) return ELSE;
+                break;
+            case 'f':
+                if (matches(from, len, "false")) return FALSE;
+                if (matches(from, len, "field")) return FIELD;
+                if (matches(from, len, "function")) return FUNCTION;
+                break;
+            case 'i':
+                if (matches(from, len, "if")) return IF;
+                if (matches(from, len, "int")) return INT;
+                break;
+            case 'l':
+                if (matches(from, len, "let")) return LET;
+                break;
+            case 'm':
+                if (matches(from, len, "method")) return METHOD;
+                break;
+            case 'n':
+                if (matches(from, len, "null")) return NULL;
+                break;
+            case 'r':
+                if (matches(from, len, "return")) return RETURN;
+                break;
+            case 's':
+                if (matches(from, len, "static")) return STATIC;
+                break;
+            case 't':
+                if (matches(from, len, "this")) return THIS;
+                if (matches(from, len, "true")) return TRUE;
+                break;
+            case 'v':
+                if (matches(from, len, "var")) return VAR;
+                if (matches(from, len, "void")) return VOID;
+                break;
+            case 'w':
+                if (matches(from, len, "while")) return WHILE;
+                break;
+        }
+        return IDENT;
+    }
+
+    private boolean matches(int from, int len, String keyword) {
+        if (len != keyword.length())
+            return false;
+        // the first byte was already matched by the switch
+        for (int k = 1; k < len; k++) {
+            if (input.get(from + k) != keyword.charAt(k))
+                return false;
+        }
+        return true;
+    }
+
+    private TokenType number() {
+        if (swar) {
+            for (int last = input.limit() - 8; current <= last; current += 8) {
+                long stop = ~inRange(input.getLong(current), '0', '9') & HIGHS;
+                if (stop != 0) {
+                    current += Long.numberOfTrailingZeros(stop) >>> 3;
+                    return checkRange();
+                }
+            }
+        }
         while (Character.isDigit(peek())) {
             advance();
         }
+        return checkRange();
+    }
 
-        String num = new String(input, start, current - start, StandardCharsets.UTF_8);
-        return new Token(NUMBER, num, line);
+    // Jack integer constants are 0..32767; a larger one is a lexical error,
+    // so no backend ever sees it.
+    private TokenType checkRange() {
+        length = current - start;
+        if (length > 4 && Token.intValue(input, start, length) > MAX_CONSTANT) {
+            byte[] digits = new byte[length];
+            input.get(start, digits);
+            diagnostics.add(new Diagnostic(line, column(start), null,
+                    "'" + new String(digits, StandardCharsets.US_ASCII) + "'", "Integer constant out of range"));
+        }
+        return NUMBER;
     }
 
-    private Token string() {
+    private TokenType string() {
         advance();
         start = current;
         while (peek() != '"' && peek() != 0) {
             advance();
         }
-        String s = new String(input, start, current - start, StandardCharsets.UTF_8);
-        Token token = new Token(TokenType.STRING, s, line);
+        length = current - start;
         advance();
-        return token;
+        return TokenType.STRING;
     }
 
     private void advance() {
@@ -243,8 +513,8 @@ private static final Map<String, TokenType> keywords;
     }
 
     private char peek() {
-        if (current < input.length)
-            return (char) input[current];
+        if (current < input.limit())
+            return (char) input.get(current);
         return 0;
     }
 
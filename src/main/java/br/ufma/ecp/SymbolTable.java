@@ -0,0 +1,182 @@
+package br.ufma.ecp;
+
+import java.util.Arrays;
+
+import br.ufma.ecp.token.TokenStream;
+
+// Symbols of one class, looked up by identifier token. Every distinct
+// identifier gets a small id from an open-addressing table keyed on its
+// source bytes; each scope is then a set of int arrays indexed by that id,
+// so resolving a name hashes its bytes once and reads a few array slots,
+// with no String or map per scope. A scope is emptied by bumping its stamp
+// instead of clearing the arrays.
+//
+// resolve() returns a symbol: the id, with the low bit set when it is in
+// the subroutine scope. kind(), index() and type() read it back.
+public class SymbolTable {
+
+    public enum Kind {
+        STATIC(VMWriter.Segment.STATIC), FIELD(VMWriter.Segment.THIS),
+        ARG(VMWriter.Segment.ARG), VAR(VMWriter.Segment.LOCAL);
+
+        public final VMWriter.Segment segment;
+
+        private Kind(VMWriter.Segment segment) {
+            this.segment = segment;
+        }
+    }
+
+    private static final Kind[] KINDS = Kind.values();
+
+    // Definitions of one scope, indexed by identifier id. An id is defined
+    // when stamp[id] is the current stamp.
+    private static class Scope {
+        int[] stamp = new int[64];
+        int[] kind = new int[64];
+        int[] index = new int[64];
+        int[] type = new int[64];
+        int current = 1;
+
+        boolean has(int id) {
+            return id < stamp.length && stamp[id] == current;
+        }
+
+        void define(int id, Kind kind, int index, int type) {
+            if (id >= stamp.length) {
+                int capacity = Math.max(id + 1, stamp.length * 2);
+                stamp = Arrays.copyOf(stamp, capacity);
+                this.kind = Arrays.copyOf(this.kind, capacity);
+                this.index = Arrays.copyOf(this.index, capacity);
+                this.type = Arrays.copyOf(this.type, capacity);
+            }
+            stamp[id] = current;
+            this.kind[id] = kind.ordinal();
+            this.index[id] = index;
+            this.type[id] = type;
+        }
+    }
+
+    private final TokenStream tokens;
+
+    // identifier interning: slots hold id + 1, 0 when free
+    private int[] slots = new int[256];
+    private int[] hashes = new int[64];
+    private int[] names = new int[64]; // id -> token of its first occurrence
+    private int ids;
+
+    private final Scope classScope = new Scope();
+    private final Scope subroutineScope = new Scope();
+    private final int[] counts = new int[KINDS.length];
+
+    public SymbolTable(TokenStream tokens) {
+        this.tokens = tokens;
+    }
+
+    public void startClass() {
+        classScope.current++;
+        counts[Kind.STATIC.ordinal()] = 0;
+        counts[Kind.FIELD.ordinal()] = 0;
+    }
+
+    // A method gets this as argument 0, so its own arguments start at 1.
+    public void startSubroutine(boolean method) {
+        subroutineScope.current++;
+        counts[Kind.ARG.ordinal()] = method ? 1 : 0;
+        counts[Kind.VAR.ordinal()] = 0;
+    }
+
+    // Defines the identifier at nameToken with the type named by typeToken.
+    public void define(int nameToken, int typeToken, Kind kind) {
+        int id = intern(nameToken);
+        Scope scope = kind == Kind.STATIC || kind == Kind.FIELD ? classScope : subroutineScope;
+        scope.define(id, kind, counts[kind.ordinal()]++, typeToken);
+    }
+
+    // The symbol named by the identifier at token, or -1 if it is not
+    // defined (a class or subroutine name).
+    public int resolve(int token) {
+        int id = find(token);
+        if (id < 0)
+            return -1;
+        if (subroutineScope.has(id))
+            return id << 1 | 1;
+        if (classScope.has(id))
+            return id << 1;
+        return -1;
+    }
+
+    public Kind kind(int symbol) {
+        return KINDS[scope(symbol).kind[symbol >> 1]];
+    }
+
+    public int index(int symbol) {
+        return scope(symbol).index[symbol >> 1];
+    }
+
+    // token of the type the symbol was declared with
+    public int type(int symbol) {
+        return scope(symbol).type[symbol >> 1];
+    }
+
+    public int varCount(Kind kind) {
+        return counts[kind.ordinal()];
+    }
+
+    private Scope scope(int symbol) {
+        return (symbol & 1) != 0 ? subroutineScope : classScope;
+    }
+
+    private int find(int token) {
+        int hash = hash(token);
+        int mask = slots.length - 1;
+        for (int slot = hash & mask; slots[slot] != 0; slot = (slot + 1) & mask) {
+            int id = slots[slot] - 1;
+            if (hashes[id] == hash && tokens.sameText(names[id], token))
+                return id;
+        }
+        return -1;
+    }
+
+    private int intern(int token) {
+        int id = find(token);
+        if (id >= 0)
+            return id;
+        if (ids == names.length) {
+            names = Arrays.copyOf(names, ids * 2);
+            hashes = Arrays.copyOf(hashes, ids * 2);
+        }
+        id = ids++;
+        names[id] = token;
+        hashes[id] = hash(token);
+        if (ids * 2 > slots.length)
+            rehash(slots.length * 2);
+        else
+            insert(id);
+        return id;
+    }
+
+    private void rehash(int capacity) {
+        slots = new int[capacity];
+        for (int id = 0; id < ids; id++)
+            insert(id);
+    }
+
+    private void insert(int id) {
+        int mask = slots.length - 1;
+        int slot = hashes[id] & mask;
+        while (slots[slot] != 0)
+            slot = (slot + 1) & mask;
+        slots[slot] = id + 1;
+    }
+
+    // FNV-1a over the identifier bytes
+    private int hash(int token) {
+        int hash = 0x811c9dc5;
+        int start = tokens.start(token);
+        for (int k = 0; k < tokens.length(token); k++) {
+            hash ^= tokens.source().get(start + k);
+            hash *= 0x01000193;
+        }
+        return hash;
+    }
+}
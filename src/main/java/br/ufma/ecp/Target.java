@@ -0,0 +1,15 @@
+package br.ufma.ecp;
+
+// What App writes for each class, named after the output file extension:
+// the parse tree as XML, VM code for the nand2tetris VM, a JVM class file
+// (see ClassGenerator) or Hack assembly, for a whole program (see
+// AsmGenerator).
+public enum Target {
+    XML(".xml"), VM(".vm"), JVM(".class"), ASM(".asm");
+
+    public final String extension;
+
+    private Target(String extension) {
+        this.extension = extension;
+    }
+}
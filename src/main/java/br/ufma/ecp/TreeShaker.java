@@ -0,0 +1,202 @@
+package br.ufma.ecp;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Whole-program dead code elimination for the VM target. Every class of the
+// program is compiled first, with its VMWriter recording where each
+// function and call command starts; a function's calls are the ones
+// between its function command and the next. The call graph is walked from
+// Main.main, and from Sys.init when the program brings its own OS, and only
+// the functions it reaches are written. A class with nothing reachable
+// gets no .vm file at all.
+//
+// Calls to classes outside the program (the OS) are leaves. Jack has no
+// function values, so every call is a named edge and nothing reachable is
+// dropped.
+public class TreeShaker {
+
+    static final String MAIN = "Main.main";
+    static final String SYS_INIT = "Sys.init";
+
+    // One compiled class: its output file and its VM code.
+    private static class Unit {
+        final Path output;
+        final VMWriter vm;
+        final int first; // id of its first function, the rest follow
+
+        Unit(Path output, VMWriter vm, int first) {
+            this.output = output;
+            this.vm = vm;
+            this.first = first;
+        }
+    }
+
+    private final List<Unit> units = new ArrayList<>();
+    private final Map<String, Integer> ids = new HashMap<>();
+    private final List<String> names = new ArrayList<>();
+    private boolean[] reachable = new boolean[0];
+    private int reached;
+    private long bytes;
+    private long bytesKept;
+    private int classesKept;
+
+    // Adds a compiled class. vm must have recorded its links, and is kept
+    // until write().
+    public void add(Path output, VMWriter vm) {
+        units.add(new Unit(output, vm, names.size()));
+        for (int f = 0; f < vm.functionCount(); f++) {
+            String name = vm.nameAt(vm.functionOffset(f));
+            ids.putIfAbsent(name, names.size());
+            names.add(name);
+        }
+        bytes += vm.size();
+    }
+
+    // Marks what the roots reach. Returns false when the program has no
+    // Main.main.
+    public boolean shake() {
+        Integer main = ids.get(MAIN);
+        if (main == null)
+            return false;
+
+        reachable = new boolean[names.size()];
+        int[] work = new int[names.size()];
+        int pending = 0;
+        work[pending++] = main;
+        reachable[main] = true;
+        Integer sys = ids.get(SYS_INIT);
+        if (sys != null && !reachable[sys]) {
+            work[pending++] = sys;
+            reachable[sys] = true;
+        }
+
+        while (pending > 0) {
+            int function = work[--pending];
+            Unit unit = unitOf(function);
+            VMWriter vm = unit.vm;
+            int f = function - unit.first;
+            int from = vm.functionOffset(f);
+            int to = end(unit, f);
+            // calls are in offset order
+            int call = firstCallAtOrAfter(vm, from);
+            for (; call < vm.callCount() && vm.callOffset(call) < to; call++) {
+                Integer callee = ids.get(vm.nameAt(vm.callOffset(call)));
+                if (callee != null && !reachable[callee]) {
+                    reachable[callee] = true;
+                    work[pending++] = callee;
+                }
+            }
+        }
+
+        reached = 0;
+        for (boolean r : reachable) {
+            if (r)
+                reached++;
+        }
+        return true;
+    }
+
+    // Writes the reachable functions of every class, in their order, and
+    // deletes the output of classes with none.
+    public void write() throws IOException {
+        bytesKept = 0;
+        classesKept = 0;
+        for (Unit unit : units) {
+            VMWriter vm = unit.vm;
+            int kept = 0;
+            for (int f = 0; f < vm.functionCount(); f++) {
+                if (reachable[unit.first + f])
+                    kept++;
+            }
+            if (kept == 0) {
+                Files.deleteIfExists(unit.output);
+                continue;
+            }
+            classesKept++;
+            try (OutputStream out = Files.newOutputStream(unit.output)) {
+                for (int f = 0; f < vm.functionCount(); f++) {
+                    if (!reachable[unit.first + f])
+                        continue;
+                    int from = vm.functionOffset(f);
+                    int to = end(unit, f);
+                    vm.writeTo(out, from, to);
+                    bytesKept += to - from;
+                }
+            }
+        }
+    }
+
+    public boolean isReachable(String function) {
+        Integer id = ids.get(function);
+        return id != null && reachable.length > id && reachable[id];
+    }
+
+    public int functions() {
+        return names.size();
+    }
+
+    public int functionsKept() {
+        return reached;
+    }
+
+    public int classes() {
+        return units.size();
+    }
+
+    public int classesKept() {
+        return classesKept;
+    }
+
+    public long bytes() {
+        return bytes;
+    }
+
+    public long bytesKept() {
+        return bytesKept;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("tree shaking: %d of %d subroutine(s) reachable from %s, %d of %d class(es) and"
+                + " %d of %d byte(s) of VM code kept", functionsKept(), functions(), MAIN, classesKept(), classes(),
+                bytesKept(), bytes());
+    }
+
+    private Unit unitOf(int function) {
+        int low = 0;
+        int high = units.size() - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (units.get(mid).first <= function)
+                low = mid;
+            else
+                high = mid - 1;
+        }
+        return units.get(low);
+    }
+
+    private static int end(Unit unit, int f) {
+        VMWriter vm = unit.vm;
+        return f + 1 < vm.functionCount() ? vm.functionOffset(f + 1) : vm.size();
+    }
+
+    private static int firstCallAtOrAfter(VMWriter vm, int offset) {
+        int low = 0;
+        int high = vm.callCount();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (vm.callOffset(mid) < offset)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        return low;
+    }
+}
@@ -0,0 +1,329 @@
+package br.ufma.ecp;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import br.ufma.ecp.VMWriter.Command;
+import br.ufma.ecp.VMWriter.Segment;
+
+// The VM code of a class as instructions in parallel int arrays (opcode,
+// operand, index), decoded from a VMWriter and written back to it, for
+// rewriting passes such as the Peephole. The operand is the Segment ordinal
+// of a push or pop and a name id for the others; the index is the push/pop
+// index, the argument count of a call and the local count of a function.
+//
+// Labels are local to their function, so a label id stands for the name in
+// one function; goto and if-goto references to each label are counted as
+// instructions change. A removed instruction becomes NOP until compact().
+public class VMCode {
+
+    public static final int NOP = 0;
+    public static final int PUSH = 1;
+    public static final int POP = 2;
+    // ADD + Command.ordinal() for the arithmetic commands
+    public static final int ADD = 3, SUB = 4, NEG = 5, EQ = 6, GT = 7, LT = 8, AND = 9, OR = 10, NOT = 11;
+    public static final int LABEL = 12;
+    public static final int GOTO = 13;
+    public static final int IF_GOTO = 14;
+    public static final int FUNCTION = 15;
+    public static final int CALL = 16;
+    public static final int RETURN = 17;
+
+    private static final Command[] COMMANDS = Command.values();
+    private static final Segment[] SEGMENTS = Segment.values();
+    private static final Map<String, Integer> WORDS = new HashMap<>();
+    private static final Map<String, Segment> SEGMENT_NAMES = new HashMap<>();
+
+    static {
+        WORDS.put("push", PUSH);
+        WORDS.put("pop", POP);
+        for (Command command : COMMANDS)
+            WORDS.put(command.name().toLowerCase(), ADD + command.ordinal());
+        WORDS.put("label", LABEL);
+        WORDS.put("goto", GOTO);
+        WORDS.put("if-goto", IF_GOTO);
+        WORDS.put("function", FUNCTION);
+        WORDS.put("call", CALL);
+        WORDS.put("return", RETURN);
+        String[] names = { "constant", "argument", "local", "static", "this", "that", "pointer", "temp" };
+        for (Segment segment : SEGMENTS)
+            SEGMENT_NAMES.put(names[segment.ordinal()], segment);
+    }
+
+    private int[] opcode = new int[256];
+    private int[] operand = new int[256];
+    private int[] index = new int[256];
+    private int size;
+
+    // names by id; labels also count their references
+    private final List<byte[]> names = new ArrayList<>();
+    private final Map<String, Integer> ids = new HashMap<>();
+    private int[] references = new int[64];
+
+    // Decodes [0, vm.size()) of vm.
+    public static VMCode decode(VMWriter vm) {
+        VMCode code = new VMCode();
+        byte[] bytes = vm.buffer();
+        int end = vm.size();
+        int functions = 0;
+        int p = 0;
+        while (p < end) {
+            int lineEnd = p;
+            while (bytes[lineEnd] != '\n')
+                lineEnd++;
+            int wordEnd = wordEnd(bytes, p, lineEnd);
+            Integer op = WORDS.get(new String(bytes, p, wordEnd - p, StandardCharsets.US_ASCII));
+            if (op == null)
+                throw new IllegalArgumentException("not a VM command: "
+                        + new String(bytes, p, lineEnd - p, StandardCharsets.US_ASCII));
+
+            int arg = 0;
+            int n = 0;
+            if (op != RETURN && (op < ADD || op > NOT)) {
+                int start = wordEnd + 1;
+                int stop = wordEnd(bytes, start, lineEnd);
+                String word = new String(bytes, start, stop - start, StandardCharsets.US_ASCII);
+                if (op == PUSH || op == POP) {
+                    arg = SEGMENT_NAMES.get(word).ordinal();
+                } else {
+                    if (op == FUNCTION)
+                        functions++;
+                    boolean label = op == LABEL || op == GOTO || op == IF_GOTO;
+                    arg = code.intern(label ? functions + " " + word : word, word);
+                }
+                if (stop < lineEnd)
+                    n = parseInt(bytes, stop + 1, lineEnd);
+            }
+            code.add(op, arg, n);
+            p = lineEnd + 1;
+        }
+        return code;
+    }
+
+    private static int wordEnd(byte[] bytes, int from, int lineEnd) {
+        while (from < lineEnd && bytes[from] != ' ')
+            from++;
+        return from;
+    }
+
+    private static int parseInt(byte[] bytes, int from, int to) {
+        int n = 0;
+        for (int k = from; k < to; k++)
+            n = n * 10 + bytes[k] - '0';
+        return n;
+    }
+
+    private int intern(String key, String name) {
+        Integer id = ids.get(key);
+        if (id == null) {
+            id = names.size();
+            ids.put(key, id);
+            names.add(VMWriter.bytes(name));
+            if (id == references.length)
+                references = Arrays.copyOf(references, id * 2);
+        }
+        return id;
+    }
+
+    private void add(int op, int arg, int n) {
+        if (size == opcode.length) {
+            opcode = Arrays.copyOf(opcode, size * 2);
+            operand = Arrays.copyOf(operand, size * 2);
+            index = Arrays.copyOf(index, size * 2);
+        }
+        opcode[size] = op;
+        operand[size] = arg;
+        index[size] = n;
+        size++;
+        if (op == GOTO || op == IF_GOTO)
+            references[arg]++;
+    }
+
+    // Writes the instructions to vm after a reset, so its links are
+    // recorded again.
+    public void writeTo(VMWriter vm) {
+        vm.reset();
+        for (int i = 0; i < size; i++) {
+            int op = opcode[i];
+            switch (op) {
+                case NOP:
+                    break;
+                case PUSH:
+                    vm.writePush(SEGMENTS[operand[i]], index[i]);
+                    break;
+                case POP:
+                    vm.writePop(SEGMENTS[operand[i]], index[i]);
+                    break;
+                case LABEL:
+                    vm.writeLabel(names.get(operand[i]));
+                    break;
+                case GOTO:
+                    vm.writeGoto(names.get(operand[i]));
+                    break;
+                case IF_GOTO:
+                    vm.writeIf(names.get(operand[i]));
+                    break;
+                case FUNCTION:
+                    vm.writeFunction(names.get(operand[i]), index[i]);
+                    break;
+                case CALL:
+                    vm.writeCall(names.get(operand[i]), index[i]);
+                    break;
+                case RETURN:
+                    vm.writeReturn();
+                    break;
+                default:
+                    vm.writeArithmetic(COMMANDS[op - ADD]);
+                    break;
+            }
+        }
+    }
+
+    // Instructions, NOPs included.
+    public int size() {
+        return size;
+    }
+
+    public int opcode(int i) {
+        return opcode[i];
+    }
+
+    public int operand(int i) {
+        return operand[i];
+    }
+
+    public int index(int i) {
+        return index[i];
+    }
+
+    // the segment of a push or pop
+    public Segment segment(int i) {
+        return SEGMENTS[operand[i]];
+    }
+
+    // the name of a label, goto, if-goto, function or call
+    public String name(int i) {
+        return new String(names.get(operand[i]), StandardCharsets.US_ASCII);
+    }
+
+    // goto and if-goto instructions to the label of instruction i
+    public int references(int i) {
+        return references[operand[i]];
+    }
+
+    // The first instruction from i on that is not a NOP, or size().
+    public int next(int i) {
+        while (i < size && opcode[i] == NOP)
+            i++;
+        return i;
+    }
+
+    // The instruction after i that is not a NOP, or size().
+    public int after(int i) {
+        return next(i + 1);
+    }
+
+    public boolean isArithmetic(int i) {
+        return opcode[i] >= ADD && opcode[i] <= NOT;
+    }
+
+    public boolean is(int i, int op, Segment segment, int n) {
+        return i < size && opcode[i] == op && operand[i] == segment.ordinal() && index[i] == n;
+    }
+
+    public void remove(int i) {
+        set(i, NOP, 0, 0);
+    }
+
+    // Replaces instruction i; arg is the label id of a goto or if-goto.
+    public void set(int i, int op, int arg, int n) {
+        if (opcode[i] == GOTO || opcode[i] == IF_GOTO)
+            references[operand[i]]--;
+        opcode[i] = op;
+        operand[i] = arg;
+        index[i] = n;
+        if (op == GOTO || op == IF_GOTO)
+            references[arg]++;
+    }
+
+    // Drops the NOPs.
+    public void compact() {
+        int kept = 0;
+        for (int i = 0; i < size; i++) {
+            if (opcode[i] == NOP)
+                continue;
+            opcode[kept] = opcode[i];
+            operand[kept] = operand[i];
+            index[kept] = index[i];
+            kept++;
+        }
+        size = kept;
+    }
+
+    // Instructions that are not NOPs.
+    public int count() {
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+            if (opcode[i] != NOP)
+                count++;
+        }
+        return count;
+    }
+
+    // Estimated Hack instructions run for instruction i, as a usual VM
+    // translator emits them; a call and a return run their whole frame
+    // save and restore.
+    public int cycles(int i) {
+        switch (opcode[i]) {
+            case NOP:
+            case LABEL:
+                return 0;
+            case PUSH:
+                return operand[i] == Segment.CONST.ordinal() ? 7
+                        : isFixed(operand[i]) ? 8 : 11;
+            case POP:
+                return isFixed(operand[i]) ? 8 : 13;
+            case ADD:
+            case SUB:
+            case AND:
+            case OR:
+                return 5;
+            case NEG:
+            case NOT:
+                return 3;
+            case EQ:
+            case GT:
+            case LT:
+                return 14;
+            case GOTO:
+                return 2;
+            case IF_GOTO:
+                return 6;
+            case FUNCTION:
+                return 1 + 7 * index[i];
+            case CALL:
+                return 48;
+            case RETURN:
+                return 45;
+            default:
+                throw new IllegalStateException("opcode " + opcode[i]);
+        }
+    }
+
+    // the segments at a fixed address: static, pointer and temp
+    private static boolean isFixed(int segment) {
+        return segment == Segment.STATIC.ordinal() || segment == Segment.POINTER.ordinal()
+                || segment == Segment.TEMP.ordinal();
+    }
+
+    public long cycles() {
+        long cycles = 0;
+        for (int i = 0; i < size; i++)
+            cycles += cycles(i);
+        return cycles;
+    }
+}
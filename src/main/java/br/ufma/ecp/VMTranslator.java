@@ -0,0 +1,219 @@
+package br.ufma.ecp;
+
+// VM code to Hack assembly, one command at a time, the textbook way
+// (nand2tetris projects 7 and 8): the stack lives in RAM from 256 on, every
+// command pops its operands and pushes its result, and call and return
+// build and tear down the five-word frame inline. This is the second stage
+// of the usual Jack -> VM -> Hack chain, kept to measure AsmGenerator
+// against. Comparisons subtract, like most VM translators, so they are
+// wrong for operands more than 32767 apart; AsmGenerator does the same.
+public class VMTranslator {
+
+    private final StringBuilder out = new StringBuilder();
+    private String className;
+    private String function = "";
+    private int labels;
+
+    // The bootstrap: SP = 256, call Sys.init.
+    public VMTranslator() {
+        emit("@256", "D=A", "@SP", "M=D");
+        call("Sys.init", 0);
+    }
+
+    // Appends the VM code of a class.
+    public void translate(String className, CharSequence vm) {
+        this.className = className;
+        for (String line : vm.toString().split("\n")) {
+            int comment = line.indexOf("//");
+            if (comment >= 0)
+                line = line.substring(0, comment);
+            line = line.trim();
+            if (line.isEmpty())
+                continue;
+            String[] command = line.split("\\s+");
+            translate(command);
+        }
+    }
+
+    private void translate(String[] command) {
+        switch (command[0]) {
+            case "push":
+                push(command[1], Integer.parseInt(command[2]));
+                break;
+            case "pop":
+                pop(command[1], Integer.parseInt(command[2]));
+                break;
+            case "add":
+                binary("D+M");
+                break;
+            case "sub":
+                binary("M-D");
+                break;
+            case "and":
+                binary("D&M");
+                break;
+            case "or":
+                binary("D|M");
+                break;
+            case "neg":
+                emit("@SP", "A=M-1", "M=-M");
+                break;
+            case "not":
+                emit("@SP", "A=M-1", "M=!M");
+                break;
+            case "eq":
+                compare("JEQ");
+                break;
+            case "gt":
+                compare("JGT");
+                break;
+            case "lt":
+                compare("JLT");
+                break;
+            case "label":
+                out.append('(').append(function).append('$').append(command[1]).append(")\n");
+                break;
+            case "goto":
+                emit("@" + function + "$" + command[1], "0;JMP");
+                break;
+            case "if-goto":
+                emit("@SP", "AM=M-1", "D=M", "@" + function + "$" + command[1], "D;JNE");
+                break;
+            case "function":
+                function = command[1];
+                out.append('(').append(function).append(")\n");
+                for (int k = Integer.parseInt(command[2]); k > 0; k--)
+                    emit("@SP", "A=M", "M=0", "@SP", "M=M+1");
+                break;
+            case "call":
+                call(command[1], Integer.parseInt(command[2]));
+                break;
+            case "return":
+                ret();
+                break;
+            default:
+                throw new IllegalArgumentException("not a VM command: " + String.join(" ", command));
+        }
+    }
+
+    private void push(String segment, int index) {
+        switch (segment) {
+            case "constant":
+                emit("@" + index, "D=A");
+                break;
+            case "local":
+            case "argument":
+            case "this":
+            case "that":
+                emit("@" + index, "D=A", "@" + base(segment), "A=D+M", "D=M");
+                break;
+            default:
+                emit("@" + address(segment, index), "D=M");
+                break;
+        }
+        emit("@SP", "A=M", "M=D", "@SP", "M=M+1");
+    }
+
+    private void pop(String segment, int index) {
+        switch (segment) {
+            case "local":
+            case "argument":
+            case "this":
+            case "that":
+                emit("@" + index, "D=A", "@" + base(segment), "D=D+M", "@R13", "M=D");
+                emit("@SP", "AM=M-1", "D=M", "@R13", "A=M", "M=D");
+                break;
+            default:
+                emit("@SP", "AM=M-1", "D=M", "@" + address(segment, index), "M=D");
+                break;
+        }
+    }
+
+    private static String base(String segment) {
+        switch (segment) {
+            case "local":
+                return "LCL";
+            case "argument":
+                return "ARG";
+            case "this":
+                return "THIS";
+            default:
+                return "THAT";
+        }
+    }
+
+    // static, temp and pointer are fixed addresses
+    private String address(String segment, int index) {
+        switch (segment) {
+            case "static":
+                return className + "." + index;
+            case "temp":
+                return "R" + (5 + index);
+            case "pointer":
+                return index == 0 ? "THIS" : "THAT";
+            default:
+                throw new IllegalArgumentException("not a segment: " + segment);
+        }
+    }
+
+    // y in D, x in M, the result replacing x
+    private void binary(String comp) {
+        emit("@SP", "AM=M-1", "D=M", "A=A-1", "M=" + comp);
+    }
+
+    // x - y, tested by jump; for gt and lt, operands of different signs
+    // give -1 or 1 as x's instead, so the difference never wraps around
+    private void compare(String jump) {
+        String holds = "$CMP" + labels++;
+        if (jump.equals("JEQ")) {
+            emit("@SP", "AM=M-1", "D=M", "A=A-1", "D=M-D");
+        } else {
+            String negative = "$CMP" + labels++;
+            String same = "$CMP" + labels++;
+            String decided = "$CMP" + labels++;
+            emit("@SP", "AM=M-1", "D=M", "@R13", "M=D", "@SP", "A=M-1", "D=M", "@" + negative, "D;JLT");
+            emit("@R13", "D=M", "@" + same, "D;JGE", "D=1", "@" + decided, "0;JMP");
+            out.append('(').append(negative).append(")\n");
+            emit("@R13", "D=M", "@" + same, "D;JLT", "D=-1", "@" + decided, "0;JMP");
+            out.append('(').append(same).append(")\n");
+            emit("@SP", "A=M-1", "D=M", "@R13", "D=D-M");
+            out.append('(').append(decided).append(")\n");
+            emit("@SP", "A=M-1");
+        }
+        emit("M=-1", "@" + holds, "D;" + jump);
+        emit("@SP", "A=M-1", "M=0");
+        out.append('(').append(holds).append(")\n");
+    }
+
+    // push the return address, LCL, ARG, THIS and THAT; ARG = SP - n - 5; LCL = SP
+    private void call(String name, int nArgs) {
+        String returnAddress = "$RET" + labels++;
+        emit("@" + returnAddress, "D=A", "@SP", "A=M", "M=D", "@SP", "M=M+1");
+        for (String pointer : new String[] { "LCL", "ARG", "THIS", "THAT" })
+            emit("@" + pointer, "D=M", "@SP", "A=M", "M=D", "@SP", "M=M+1");
+        emit("@SP", "D=M", "@" + (nArgs + 5), "D=D-A", "@ARG", "M=D");
+        emit("@SP", "D=M", "@LCL", "M=D");
+        emit("@" + name, "0;JMP");
+        out.append('(').append(returnAddress).append(")\n");
+    }
+
+    // the result to ARG[0], SP after it, the caller's pointers back from the frame
+    private void ret() {
+        emit("@LCL", "D=M", "@R13", "M=D", "@5", "A=D-A", "D=M", "@R14", "M=D");
+        emit("@SP", "AM=M-1", "D=M", "@ARG", "A=M", "M=D", "@ARG", "D=M+1", "@SP", "M=D");
+        for (String pointer : new String[] { "THAT", "THIS", "ARG", "LCL" })
+            emit("@R13", "AM=M-1", "D=M", "@" + pointer, "M=D");
+        emit("@R14", "A=M", "0;JMP");
+    }
+
+    private void emit(String... instructions) {
+        for (String instruction : instructions)
+            out.append(instruction).append('\n');
+    }
+
+    // The program so far.
+    @Override
+    public String toString() {
+        return out.toString();
+    }
+}
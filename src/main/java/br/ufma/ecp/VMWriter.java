@@ -0,0 +1,329 @@
+package br.ufma.ecp;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import br.ufma.ecp.token.TokenStream;
+
+// Writes VM commands as text into a growable byte buffer that is kept from
+// class to class: reset() before each one, writeTo() when it is done.
+// Command words are precomputed bytes and names are copied straight from
+// the source bytes of their tokens, so no String is built per command.
+// With recordLinks() it also keeps where each function and call command
+// starts, for the TreeShaker.
+public class VMWriter {
+
+    public enum Segment {
+        CONST("constant"), ARG("argument"), LOCAL("local"), STATIC("static"),
+        THIS("this"), THAT("that"), POINTER("pointer"), TEMP("temp");
+
+        // "push <segment> " and "pop <segment> "
+        final byte[] push;
+        final byte[] pop;
+
+        private Segment(String name) {
+            push = bytes("push " + name + " ");
+            pop = bytes("pop " + name + " ");
+        }
+    }
+
+    public enum Command {
+        ADD, SUB, NEG, EQ, GT, LT, AND, OR, NOT;
+
+        // the whole line
+        final byte[] line = bytes(name().toLowerCase() + "\n");
+    }
+
+    private static final byte[] LABEL = bytes("label ");
+    private static final byte[] GOTO = bytes("goto ");
+    private static final byte[] IF_GOTO = bytes("if-goto ");
+    private static final byte[] CALL = bytes("call ");
+    private static final byte[] FUNCTION = bytes("function ");
+    private static final byte[] RETURN = bytes("return\n");
+
+    private byte[] buffer = new byte[8192];
+    private int size;
+
+    private boolean links;
+    private int[] functions = new int[16];
+    private int functionCount;
+    private int[] calls = new int[64];
+    private int callCount;
+
+    static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    public void reset() {
+        size = 0;
+        functionCount = 0;
+        callCount = 0;
+    }
+
+    public void recordLinks(boolean links) {
+        this.links = links;
+    }
+
+    public int functionCount() {
+        return functionCount;
+    }
+
+    // offset of the i-th function command in the buffer
+    public int functionOffset(int i) {
+        return functions[i];
+    }
+
+    public int callCount() {
+        return callCount;
+    }
+
+    public int callOffset(int i) {
+        return calls[i];
+    }
+
+    // The name after the command at offset, up to the space before its count.
+    public String nameAt(int offset) {
+        int start = offset;
+        while (buffer[start] != ' ')
+            start++;
+        int end = ++start;
+        while (buffer[end] != ' ')
+            end++;
+        return new String(buffer, start, end - start, StandardCharsets.US_ASCII);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void writePush(Segment segment, int index) {
+        append(segment.push);
+        appendInt(index);
+        newLine();
+    }
+
+    public void writePop(Segment segment, int index) {
+        append(segment.pop);
+        appendInt(index);
+        newLine();
+    }
+
+    public void writeArithmetic(Command command) {
+        append(command.line);
+    }
+
+    // Labels are a prefix and a number, as in IF_TRUE0.
+    public void writeLabel(byte[] label, int number) {
+        append(LABEL);
+        append(label);
+        appendInt(number);
+        newLine();
+    }
+
+    public void writeGoto(byte[] label, int number) {
+        append(GOTO);
+        append(label);
+        appendInt(number);
+        newLine();
+    }
+
+    public void writeIf(byte[] label, int number) {
+        append(IF_GOTO);
+        append(label);
+        appendInt(number);
+        newLine();
+    }
+
+    // Labels, calls and functions by their whole name, for code that is
+    // rewritten after it was generated (see VMCode).
+    public void writeLabel(byte[] name) {
+        append(LABEL);
+        append(name);
+        newLine();
+    }
+
+    public void writeGoto(byte[] name) {
+        append(GOTO);
+        append(name);
+        newLine();
+    }
+
+    public void writeIf(byte[] name) {
+        append(IF_GOTO);
+        append(name);
+        newLine();
+    }
+
+    public void writeFunction(byte[] name, int nLocals) {
+        markFunction();
+        append(FUNCTION);
+        append(name);
+        space(nLocals);
+    }
+
+    // Calls an OS subroutine by its full name, as in Math.multiply.
+    public void writeCall(byte[] name, int nArgs) {
+        markCall();
+        append(CALL);
+        append(name);
+        space(nArgs);
+    }
+
+    // Calls classToken.nameToken.
+    public void writeCall(TokenStream tokens, int classToken, int nameToken, int nArgs) {
+        markCall();
+        append(CALL);
+        appendName(tokens, classToken, nameToken);
+        space(nArgs);
+    }
+
+    public void writeFunction(TokenStream tokens, int classToken, int nameToken, int nLocals) {
+        markFunction();
+        append(FUNCTION);
+        appendName(tokens, classToken, nameToken);
+        space(nLocals);
+    }
+
+    // Calls a generated subroutine classToken.<prefix><number>, as in
+    // Main.$string0.
+    public void writeCall(TokenStream tokens, int classToken, byte[] prefix, int number, int nArgs) {
+        markCall();
+        append(CALL);
+        appendGeneratedName(tokens, classToken, prefix, number);
+        space(nArgs);
+    }
+
+    public void writeFunction(TokenStream tokens, int classToken, byte[] prefix, int number, int nLocals) {
+        markFunction();
+        append(FUNCTION);
+        appendGeneratedName(tokens, classToken, prefix, number);
+        space(nLocals);
+    }
+
+    public void writeReturn() {
+        append(RETURN);
+    }
+
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(buffer, 0, size);
+    }
+
+    // Writes bytes [from, to) of the buffer.
+    public void writeTo(OutputStream out, int from, int to) throws IOException {
+        out.write(buffer, from, to - from);
+    }
+
+    // The bytes written so far are [0, size()) of it, until the next write.
+    byte[] buffer() {
+        return buffer;
+    }
+
+    // Offset just past the end of the command at offset.
+    int lineEnd(int offset) {
+        while (buffer[offset] != '\n')
+            offset++;
+        return offset + 1;
+    }
+
+    // Commands [from, to) as text.
+    public String text(int from, int to) {
+        return new String(buffer, from, to - from, StandardCharsets.US_ASCII);
+    }
+
+    // Appends bytes [from, to) of another writer; links inside them are
+    // not recorded, see markFunction() and markCall().
+    void copy(VMWriter source, int from, int to) {
+        ensure(to - from);
+        System.arraycopy(source.buffer, from, buffer, size, to - from);
+        size += to - from;
+    }
+
+    // Appends whole commands, as text.
+    void writeText(byte[] commands) {
+        append(commands);
+    }
+
+    @Override
+    public String toString() {
+        return new String(buffer, 0, size, StandardCharsets.US_ASCII);
+    }
+
+    private void appendName(TokenStream tokens, int classToken, int nameToken) {
+        appendToken(tokens, classToken);
+        ensure(1);
+        buffer[size++] = '.';
+        appendToken(tokens, nameToken);
+    }
+
+    private void appendGeneratedName(TokenStream tokens, int classToken, byte[] prefix, int number) {
+        appendToken(tokens, classToken);
+        ensure(1);
+        buffer[size++] = '.';
+        append(prefix);
+        appendInt(number);
+    }
+
+    private void appendToken(TokenStream tokens, int token) {
+        int length = tokens.length(token);
+        ensure(length);
+        ByteBuffer source = tokens.source();
+        int start = tokens.start(token);
+        for (int k = 0; k < length; k++)
+            buffer[size++] = source.get(start + k);
+    }
+
+    private void space(int n) {
+        ensure(1);
+        buffer[size++] = ' ';
+        appendInt(n);
+        newLine();
+    }
+
+    void markFunction() {
+        if (!links)
+            return;
+        if (functionCount == functions.length)
+            functions = Arrays.copyOf(functions, functionCount * 2);
+        functions[functionCount++] = size;
+    }
+
+    void markCall() {
+        if (!links)
+            return;
+        if (callCount == calls.length)
+            calls = Arrays.copyOf(calls, callCount * 2);
+        calls[callCount++] = size;
+    }
+
+    private void append(byte[] bytes) {
+        ensure(bytes.length);
+        System.arraycopy(bytes, 0, buffer, size, bytes.length);
+        size += bytes.length;
+    }
+
+    // n >= 0, Jack constants are at most 32767
+    private void appendInt(int n) {
+        int digits = 1;
+        for (int v = n; v >= 10; v /= 10)
+            digits++;
+        ensure(digits);
+        for (int p = size + digits - 1; p >= size; p--) {
+            buffer[p] = (byte) ('0' + n % 10);
+            n /= 10;
+        }
+        size += digits;
+    }
+
+    private void newLine() {
+        ensure(1);
+        buffer[size++] = '\n';
+    }
+
+    private void ensure(int extra) {
+        if (size + extra > buffer.length)
+            buffer = Arrays.copyOf(buffer, Math.max(size + extra, buffer.length * 2));
+    }
+}
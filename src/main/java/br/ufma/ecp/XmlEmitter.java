@@ -0,0 +1,108 @@
+package br.ufma.ecp;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.util.Arrays;
+
+import br.ufma.ecp.ast.Ast;
+import br.ufma.ecp.token.TokenStream;
+
+// Buffered, format-free XML writer behind Parser. It walks the Ast in
+// pre-order, incrementally: emit() writes the nodes added since the last
+// call, and the closing tag of every non terminal that was closed since.
+// Without a Writer the whole document stays in memory for
+// Parser.XMLOutput(); with one, the buffer is handed to the Writer every
+// FLUSH_SIZE chars, so memory stays flat however big the class is.
+class XmlEmitter {
+
+    private static final int FLUSH_SIZE = 8192;
+
+    private final StringBuilder buffer;
+    private final Writer out;
+    private final char[] chunk;
+
+    // next node to write, and the written non terminals not closed yet
+    private int next;
+    private int[] open = new int[32];
+    private int depth;
+
+    XmlEmitter() {
+        buffer = new StringBuilder();
+        out = null;
+        chunk = null;
+    }
+
+    XmlEmitter(Writer out) {
+        buffer = new StringBuilder(FLUSH_SIZE * 2);
+        this.out = out;
+        chunk = new char[FLUSH_SIZE * 2];
+    }
+
+    boolean isStreaming() {
+        return out != null;
+    }
+
+    void emit(Ast ast) {
+        TokenStream tokens = ast.tokens();
+        for (; next < ast.size(); next++) {
+            closeUpTo(ast, next);
+            if (ast.isToken(next)) {
+                tokens.appendXml(ast.token(next), buffer);
+            } else {
+                buffer.append(ast.kind(next).xmlOpen);
+                if (depth == open.length)
+                    open = Arrays.copyOf(open, depth * 2);
+                open[depth++] = next;
+            }
+            endLine();
+        }
+        closeUpTo(ast, next);
+    }
+
+    // closes the written non terminals whose subtree ends at or before node
+    private void closeUpTo(Ast ast, int node) {
+        while (depth > 0) {
+            int end = ast.end(open[depth - 1]);
+            if (end == Ast.OPEN || end > node)
+                return;
+            buffer.append(ast.kind(open[--depth]).xmlClose);
+            endLine();
+        }
+    }
+
+    private void endLine() {
+        buffer.append("\r\n");
+        if (out != null && buffer.length() >= FLUSH_SIZE)
+            drain();
+    }
+
+    // Writer.append(CharSequence) would copy the buffer into a new String
+    private void drain() {
+        int length = buffer.length();
+        char[] chars = length <= chunk.length ? chunk : new char[length];
+        buffer.getChars(0, length, chars, 0);
+        try {
+            out.write(chars, 0, length);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        buffer.setLength(0);
+    }
+
+    void flush() {
+        if (out == null)
+            return;
+        drain();
+        try {
+            out.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return buffer.toString();
+    }
+}
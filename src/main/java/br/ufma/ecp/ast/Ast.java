@@ -0,0 +1,166 @@
+package br.ufma.ecp.ast;
+
+import java.util.Arrays;
+
+import br.ufma.ecp.token.TokenStream;
+import br.ufma.ecp.token.TokenType;
+
+// Parse tree stored in an arena of parallel int arrays, in pre-order: node i
+// has kind[i], token[i] (the TokenStream index of a TOKEN leaf, -1 for a non
+// terminal) and end[i], the index just past its subtree. The children of i
+// are therefore i + 1, end[i + 1], ... up to end[i]. A non terminal that is
+// still being parsed has end OPEN.
+public class Ast {
+
+    public static final int OPEN = -1;
+
+    private static final NodeKind[] KINDS = NodeKind.values();
+
+    private final TokenStream tokens;
+    private int[] kind;
+    private int[] token;
+    private int[] end;
+    private int size;
+
+    // non terminals being parsed, innermost last
+    private int[] open = new int[32];
+    private int depth;
+
+    public Ast(TokenStream tokens) {
+        // about 1.5 nodes per token on Jack sources
+        this(tokens, tokens.size() * 2);
+    }
+
+    public Ast(TokenStream tokens, int capacity) {
+        this.tokens = tokens;
+        capacity = Math.max(16, capacity);
+        kind = new int[capacity];
+        token = new int[capacity];
+        end = new int[capacity];
+    }
+
+    // Starts a non terminal; its children are the nodes added until close().
+    public int open(NodeKind kind) {
+        int node = add(kind, -1, OPEN);
+        if (depth == open.length)
+            open = Arrays.copyOf(open, depth * 2);
+        open[depth++] = node;
+        return node;
+    }
+
+    public void close() {
+        end[open[--depth]] = size;
+    }
+
+    // number of non terminals still open
+    public int depth() {
+        return depth;
+    }
+
+    // Closes the open non terminals down to depth, after a syntax error
+    // unwound the parser past them.
+    public void closeTo(int depth) {
+        while (this.depth > depth)
+            close();
+    }
+
+    public int leaf(int tokenIndex) {
+        return add(NodeKind.TOKEN, tokenIndex, size + 1);
+    }
+
+    private int add(NodeKind kind, int tokenIndex, int end) {
+        if (size == this.kind.length) {
+            int capacity = size * 2;
+            this.kind = Arrays.copyOf(this.kind, capacity);
+            this.token = Arrays.copyOf(this.token, capacity);
+            this.end = Arrays.copyOf(this.end, capacity);
+        }
+        this.kind[size] = kind.ordinal();
+        this.token[size] = tokenIndex;
+        this.end[size] = end;
+        return size++;
+    }
+
+    public TokenStream tokens() {
+        return tokens;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public NodeKind kind(int node) {
+        return KINDS[kind[node]];
+    }
+
+    public boolean isToken(int node) {
+        return token[node] >= 0;
+    }
+
+    public int token(int node) {
+        return token[node];
+    }
+
+    public int end(int node) {
+        return end[node];
+    }
+
+    // type of the token of a leaf, null for a non terminal
+    public TokenType type(int node) {
+        return token[node] >= 0 ? tokens.type(token[node]) : null;
+    }
+
+    // first child of node, or -1 if it has none
+    public int firstChild(int node) {
+        return node + 1 < end[node] ? node + 1 : -1;
+    }
+
+    // sibling after child inside parent, or -1 if child is the last one
+    public int nextSibling(int parent, int child) {
+        return end[child] < end[parent] ? end[child] : -1;
+    }
+
+    // Replaces the subtree of node by the whole of subtree, which must be
+    // over the same tokens, and moves the leaves after it tokenShift tokens
+    // further. IncrementalParser splices re-parsed class members this way.
+    public void replace(int node, Ast subtree, int tokenShift) {
+        int oldEnd = end[node];
+        int nodeShift = subtree.size - (oldEnd - node);
+        int newSize = size + nodeShift;
+        if (newSize > kind.length) {
+            int capacity = Math.max(newSize, kind.length * 2);
+            kind = Arrays.copyOf(kind, capacity);
+            token = Arrays.copyOf(token, capacity);
+            end = Arrays.copyOf(end, capacity);
+        }
+
+        // the ancestors of node, found from the root down, grow by nodeShift
+        for (int parent = 0; parent != node; ) {
+            end[parent] += nodeShift;
+            int child = parent + 1;
+            while (end[child] <= node)
+                child = end[child];
+            parent = child;
+        }
+
+        System.arraycopy(kind, oldEnd, kind, oldEnd + nodeShift, size - oldEnd);
+        System.arraycopy(token, oldEnd, token, oldEnd + nodeShift, size - oldEnd);
+        System.arraycopy(end, oldEnd, end, oldEnd + nodeShift, size - oldEnd);
+        for (int i = oldEnd + nodeShift; i < newSize; i++) {
+            if (token[i] >= 0)
+                token[i] += tokenShift;
+            end[i] += nodeShift;
+        }
+
+        System.arraycopy(subtree.kind, 0, kind, node, subtree.size);
+        System.arraycopy(subtree.token, 0, token, node, subtree.size);
+        for (int k = 0; k < subtree.size; k++)
+            end[node + k] = subtree.end[k] + node;
+        size = newSize;
+    }
+
+    // Heap used by the node arrays, for comparing with the XML text.
+    public long memoryBytes() {
+        return 3L * 4 * kind.length;
+    }
+}
@@ -0,0 +1,35 @@
+package br.ufma.ecp.ast;
+
+public enum NodeKind {
+    // non terminals, named after their XML element
+    CLASS("class"),
+    CLASS_VAR_DEC("classVarDec"),
+    SUBROUTINE_DEC("subroutineDec"),
+    PARAMETER_LIST("parameterList"),
+    SUBROUTINE_BODY("subroutineBody"),
+    VAR_DEC("varDec"),
+    STATEMENTS("statements"),
+    LET_STATEMENT("letStatement"),
+    IF_STATEMENT("ifStatement"),
+    WHILE_STATEMENT("whileStatement"),
+    DO_STATEMENT("doStatement"),
+    RETURN_STATEMENT("returnStatement"),
+    EXPRESSION("expression"),
+    TERM("term"),
+    EXPRESSION_LIST("expressionList"),
+
+    // leaf referencing a token of the TokenStream
+    TOKEN(null);
+
+    public final String tag;
+
+    // "<tag>" and "</tag>", precomputed for the XML output
+    public final String xmlOpen;
+    public final String xmlClose;
+
+    private NodeKind(String tag) {
+        this.tag = tag;
+        xmlOpen = tag == null ? null : "<" + tag + ">";
+        xmlClose = tag == null ? null : "</" + tag + ">";
+    }
+}
@@ -0,0 +1,88 @@
+package br.ufma.ecp.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+// JDK Flight Recorder events of the compiler phases, under "Jack Compiler"
+// in JMC. They are recorded with -XX:StartFlightRecording or jcmd JFR.start
+// like any JDK event; when no recording wants them, shouldCommit() is false
+// and the event object never escapes, so the JIT removes it. The fields
+// are only filled in when the event is committed.
+public final class Events {
+
+    private Events() {
+    }
+
+    @Name("br.ufma.ecp.Scan")
+    @Label("Scan")
+    @Category("Jack Compiler")
+    @Description("Scanner.tokenize() of a source file")
+    public static class Scan extends Event {
+        @Label("File")
+        public String file;
+        @Label("Bytes")
+        @DataAmount
+        public long bytes;
+        @Label("Tokens")
+        public int tokens;
+    }
+
+    @Name("br.ufma.ecp.Parse")
+    @Label("Parse Class")
+    @Category("Jack Compiler")
+    @Description("Parser.parseClass() of a source file")
+    public static class Parse extends Event {
+        @Label("File")
+        public String file;
+        @Label("Bytes")
+        @DataAmount
+        public long bytes;
+        @Label("Tokens")
+        public int tokens;
+    }
+
+    @Name("br.ufma.ecp.ParseSubroutine")
+    @Label("Parse Subroutine")
+    @Category("Jack Compiler")
+    @Description("Parser.parseSubroutineDec() of one subroutine")
+    @StackTrace(false) // one per subroutine, the stack is always the same
+    public static class ParseSubroutine extends Event {
+        @Label("File")
+        public String file;
+        @Label("Subroutine")
+        public String name;
+        @Label("Tokens")
+        public int tokens;
+    }
+
+    @Name("br.ufma.ecp.Emit")
+    @Label("Emit")
+    @Category("Jack Compiler")
+    @Description("Building the output of a class: XML, VM code, a class file or Hack assembly")
+    public static class Emit extends Event {
+        @Label("File")
+        public String file;
+        @Label("Target")
+        public String target;
+        @Label("Bytes")
+        @DataAmount
+        public long bytes;
+    }
+
+    @Name("br.ufma.ecp.Write")
+    @Label("Write")
+    @Category("Jack Compiler")
+    @Description("Writing the output of a class to its file")
+    public static class Write extends Event {
+        @Label("File")
+        public String file;
+        @Label("Bytes")
+        @DataAmount
+        public long bytes;
+    }
+}
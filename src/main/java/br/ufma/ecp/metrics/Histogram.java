@@ -0,0 +1,70 @@
+package br.ufma.ecp.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+// Non-negative values in power-of-two buckets, safe to add to from any
+// thread: bucket k counts the values of bit length k. Percentiles are the
+// top of the bucket they fall in, so within a factor of 2 of the truth.
+public final class Histogram {
+
+    private final AtomicLongArray buckets = new AtomicLongArray(64);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator min = new LongAccumulator(Math::min, Long.MAX_VALUE);
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    public void add(long value) {
+        if (value < 0)
+            value = 0;
+        buckets.incrementAndGet(Math.min(63, 64 - Long.numberOfLeadingZeros(value)));
+        count.increment();
+        sum.add(value);
+        min.accumulate(value);
+        max.accumulate(value);
+    }
+
+    public long count() {
+        return count.sum();
+    }
+
+    public long sum() {
+        return sum.sum();
+    }
+
+    public long min() {
+        return count() == 0 ? 0 : min.get();
+    }
+
+    public long max() {
+        return max.get();
+    }
+
+    // the top of the bucket holding the q-th value, q in [0, 1]
+    public long percentile(double q) {
+        long n = count();
+        if (n == 0)
+            return 0;
+        long rank = Math.max(1, (long) Math.ceil(q * n));
+        long seen = 0;
+        for (int k = 0; k < 64; k++) {
+            seen += buckets.get(k);
+            if (seen >= rank)
+                return Math.min(max(), k == 0 ? 0 : k == 63 ? Long.MAX_VALUE : (1L << k) - 1);
+        }
+        return max();
+    }
+
+    // {"count":..,"min":..,"mean":..,"p50":..,"p90":..,"p99":..,"max":..}
+    void appendJson(StringBuilder json) {
+        long n = count();
+        json.append("{\"count\":").append(n)
+                .append(",\"min\":").append(min())
+                .append(",\"mean\":").append(n == 0 ? 0 : sum() / n)
+                .append(",\"p50\":").append(percentile(0.5))
+                .append(",\"p90\":").append(percentile(0.9))
+                .append(",\"p99\":").append(percentile(0.99))
+                .append(",\"max\":").append(max()).append('}');
+    }
+}
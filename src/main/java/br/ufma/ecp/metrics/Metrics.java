@@ -0,0 +1,159 @@
+package br.ufma.ecp.metrics;
+
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+// In-process counters and latency histograms of the compiler phases, for
+// App -metrics. Off unless enable() was called: every hook then costs one
+// volatile read, start() returns 0 and record() returns at once. When on,
+// the compiler threads add to LongAdders and Histograms, so they do not
+// contend, and toJson() is a snapshot of what was added so far.
+//
+// The JFR events in Events carry the same phases file by file; both take
+// the name of the file being compiled from setFile().
+public final class Metrics {
+
+    public enum Phase {
+        SCAN, PARSE, PARSE_SUBROUTINE, EMIT, WRITE
+    }
+
+    private static volatile Metrics current;
+
+    private static final ThreadLocal<String> FILE = new ThreadLocal<>();
+
+    private final long begin = System.nanoTime();
+    private final LongAdder files = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private final LongAdder tokens = new LongAdder();
+    private final LongAdder subroutines = new LongAdder();
+    private final LongAdder outputBytes = new LongAdder();
+    // nanoseconds per phase
+    private final Map<Phase, Histogram> latency = new EnumMap<>(Phase.class);
+    // scanning rate of each file
+    private final Histogram tokensPerSecond = new Histogram();
+    private final Histogram bytesPerSecond = new Histogram();
+
+    private Metrics() {
+        for (Phase phase : Phase.values())
+            latency.put(phase, new Histogram());
+    }
+
+    // Starts counting from now on, in a new registry.
+    public static Metrics enable() {
+        Metrics metrics = new Metrics();
+        current = metrics;
+        return metrics;
+    }
+
+    public static void disable() {
+        current = null;
+    }
+
+    // the registry being counted into, or null when off
+    public static Metrics current() {
+        return current;
+    }
+
+    // The start of a phase for record(), 0 when off.
+    public static long start() {
+        return current == null ? 0 : System.nanoTime();
+    }
+
+    public static void record(Phase phase, long start) {
+        Metrics metrics = current;
+        if (metrics == null || start == 0)
+            return;
+        metrics.latency.get(phase).add(System.nanoTime() - start);
+        if (phase == Phase.PARSE_SUBROUTINE)
+            metrics.subroutines.increment();
+    }
+
+    // A file of the given bytes was scanned into tokens since start.
+    public static void scanned(long start, long bytes, int tokens) {
+        Metrics metrics = current;
+        if (metrics == null || start == 0)
+            return;
+        long nanos = System.nanoTime() - start;
+        metrics.latency.get(Phase.SCAN).add(nanos);
+        metrics.files.increment();
+        metrics.bytes.add(bytes);
+        metrics.tokens.add(tokens);
+        if (nanos > 0) {
+            metrics.tokensPerSecond.add(tokens * 1_000_000_000L / nanos);
+            metrics.bytesPerSecond.add(bytes * 1_000_000_000L / nanos);
+        }
+    }
+
+    // The output of a class, the given bytes, was written since start.
+    public static void written(long start, long bytes) {
+        Metrics metrics = current;
+        if (metrics == null || start == 0)
+            return;
+        metrics.latency.get(Phase.WRITE).add(System.nanoTime() - start);
+        metrics.outputBytes.add(bytes);
+    }
+
+    // The file this thread compiles, for the JFR events; null when done.
+    public static void setFile(String file) {
+        FILE.set(file);
+    }
+
+    public static String file() {
+        return FILE.get();
+    }
+
+    public Histogram latency(Phase phase) {
+        return latency.get(phase);
+    }
+
+    public long files() {
+        return files.sum();
+    }
+
+    public long bytes() {
+        return bytes.sum();
+    }
+
+    public long tokens() {
+        return tokens.sum();
+    }
+
+    public long subroutines() {
+        return subroutines.sum();
+    }
+
+    public long outputBytes() {
+        return outputBytes.sum();
+    }
+
+    // Latencies in nanoseconds, rates per second of scanning.
+    public String toJson() {
+        long scanNanos = latency.get(Phase.SCAN).sum();
+        StringBuilder json = new StringBuilder("{\n");
+        json.append("  \"seconds\": ").append(String.format(Locale.ROOT, "%.6f", (System.nanoTime() - begin) / 1e9))
+                .append(",\n");
+        json.append("  \"files\": ").append(files()).append(",\n");
+        json.append("  \"bytes\": ").append(bytes()).append(",\n");
+        json.append("  \"tokens\": ").append(tokens()).append(",\n");
+        json.append("  \"subroutines\": ").append(subroutines()).append(",\n");
+        json.append("  \"outputBytes\": ").append(outputBytes()).append(",\n");
+        json.append("  \"tokensPerSecond\": ").append(scanNanos == 0 ? 0 : tokens() * 1_000_000_000L / scanNanos)
+                .append(",\n");
+        json.append("  \"bytesPerSecond\": ").append(scanNanos == 0 ? 0 : bytes() * 1_000_000_000L / scanNanos)
+                .append(",\n");
+        json.append("  \"fileTokensPerSecond\": ");
+        tokensPerSecond.appendJson(json);
+        json.append(",\n  \"fileBytesPerSecond\": ");
+        bytesPerSecond.appendJson(json);
+        json.append(",\n  \"latencyNanos\": {");
+        String separator = "\n";
+        for (Phase phase : Phase.values()) {
+            json.append(separator).append("    \"").append(phase.name().toLowerCase(Locale.ROOT)).append("\": ");
+            latency.get(phase).appendJson(json);
+            separator = ",\n";
+        }
+        return json.append("\n  }\n}\n").toString();
+    }
+}
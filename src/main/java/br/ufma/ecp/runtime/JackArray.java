@@ -0,0 +1,19 @@
+package br.ufma.ecp.runtime;
+
+// The Jack OS Array class: an array is a block of RAM. Array.new is
+// create(), new being a Java keyword.
+public final class JackArray {
+
+    private JackArray() {
+    }
+
+    public static int create(int size) {
+        if (size <= 0)
+            return JackSys.error(2);
+        return JackMemory.alloc(size);
+    }
+
+    public static int dispose(int array) {
+        return JackMemory.deAlloc(array);
+    }
+}
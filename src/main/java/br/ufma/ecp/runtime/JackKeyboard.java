@@ -0,0 +1,63 @@
+package br.ufma.ecp.runtime;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+
+// The Jack OS Keyboard class. keyPressed() reads the keyboard word of the
+// RAM, as on the Hack platform, which nothing sets here; the read functions
+// take lines from in, which the terminal echoes, and halt at its end.
+public final class JackKeyboard {
+
+    static final int KBD = 24576;
+
+    public static InputStream in = System.in;
+
+    private JackKeyboard() {
+    }
+
+    public static int init() {
+        return 0;
+    }
+
+    public static int keyPressed() {
+        return JackMemory.RAM[KBD];
+    }
+
+    public static int readChar() {
+        try {
+            int c = in.read();
+            if (c < 0)
+                return JackSys.halt();
+            return c == '\n' ? JackString.newLine() : c;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public static int readLine(int message) {
+        JackOutput.printString(message);
+        JackOutput.out.flush();
+        int line = JackString.create(80);
+        for (int c = readChar(); c != JackString.newLine(); c = readChar()) {
+            if (c == '\r')
+                continue;
+            if (JackString.length(line) == JackMemory.RAM[line]) { // grow it
+                int longer = JackString.create(2 * JackMemory.RAM[line]);
+                for (int j = 0; j < JackString.length(line); j++)
+                    JackString.appendChar(longer, JackString.charAt(line, j));
+                JackString.dispose(line);
+                line = longer;
+            }
+            JackString.appendChar(line, c);
+        }
+        return line;
+    }
+
+    public static int readInt(int message) {
+        int line = readLine(message);
+        int value = JackString.intValue(line);
+        JackString.dispose(line);
+        return value;
+    }
+}
@@ -0,0 +1,71 @@
+package br.ufma.ecp.runtime;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.lang.reflect.InvocationTargetException;
+import java.util.Map;
+
+// Loads the classes ClassGenerator made for a program, from memory, and runs
+// it in this JVM. The runtime classes are loaded again by each JackLoader,
+// so every program gets a RAM and an output of its own, even when several
+// run at once.
+public final class JackLoader extends ClassLoader {
+
+    private static final String RUNTIME = JackLoader.class.getPackageName() + ".Jack";
+
+    private final Map<String, byte[]> classes;
+
+    // classes maps each Jack class name to its class file
+    public JackLoader(Map<String, byte[]> classes) {
+        super(JackLoader.class.getClassLoader());
+        this.classes = classes;
+    }
+
+    @Override
+    protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+        synchronized (getClassLoadingLock(name)) {
+            Class<?> c = findLoadedClass(name);
+            if (c == null && classes.containsKey(name)) {
+                byte[] bytes = classes.get(name);
+                c = defineClass(name, bytes, 0, bytes.length);
+            } else if (c == null && name.startsWith(RUNTIME) && !name.equals(JackLoader.class.getName())) {
+                byte[] bytes = runtimeClass(name);
+                c = defineClass(name, bytes, 0, bytes.length);
+            } else if (c == null) {
+                return super.loadClass(name, resolve);
+            }
+            if (resolve)
+                resolveClass(c);
+            return c;
+        }
+    }
+
+    private byte[] runtimeClass(String name) throws ClassNotFoundException {
+        try (InputStream in = getParent().getResourceAsStream(name.replace('.', '/') + ".class")) {
+            if (in == null)
+                throw new ClassNotFoundException(name);
+            return in.readAllBytes();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Loads and verifies the class, running its static initializer.
+    public Class<?> initialize(String name) throws ClassNotFoundException {
+        return Class.forName(name, true, this);
+    }
+
+    // Runs the Jack main of mainClass with its Output going to out. Returns
+    // the Sys.error() code, 0 when it returned or halted.
+    public int run(String mainClass, PrintStream out) throws Throwable {
+        try {
+            initialize(RUNTIME + "Output").getField("out").set(null, out);
+            return (Integer) initialize(RUNTIME + "Sys").getMethod("run", Class.class).invoke(null,
+                    initialize(mainClass));
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+}
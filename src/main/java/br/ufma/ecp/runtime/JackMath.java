@@ -0,0 +1,41 @@
+package br.ufma.ecp.runtime;
+
+// The Jack OS Math class in 16-bit arithmetic. ClassGenerator multiplies
+// inline; multiply() is here for code that calls it by name.
+public final class JackMath {
+
+    private JackMath() {
+    }
+
+    public static int init() {
+        return 0;
+    }
+
+    public static int abs(int x) {
+        return (short) Math.abs(x);
+    }
+
+    public static int multiply(int x, int y) {
+        return (short) (x * y);
+    }
+
+    public static int divide(int x, int y) {
+        if (y == 0)
+            return JackSys.error(3);
+        return (short) (x / y);
+    }
+
+    public static int min(int x, int y) {
+        return Math.min(x, y);
+    }
+
+    public static int max(int x, int y) {
+        return Math.max(x, y);
+    }
+
+    public static int sqrt(int x) {
+        if (x < 0)
+            return JackSys.error(4);
+        return (int) Math.sqrt(x);
+    }
+}
@@ -0,0 +1,63 @@
+package br.ufma.ecp.runtime;
+
+// The Jack OS Memory class, and the RAM every Jack object and array of a
+// program compiled to JVM classes lives in. Values are 16-bit, kept sign
+// extended in ints; addresses wrap to 15 bits as on the Hack platform.
+// The heap is [2048, 16384), handed out first fit from a free list whose
+// blocks hold their size and the next free block; every block keeps its
+// size in the word before the address alloc() returns.
+public final class JackMemory {
+
+    public static final int[] RAM = new int[32768];
+
+    static final int HEAP = 2048;
+    static final int HEAP_END = 16384;
+
+    private static int freeList = HEAP;
+
+    static {
+        RAM[HEAP] = HEAP_END - HEAP;
+        RAM[HEAP + 1] = 0;
+    }
+
+    private JackMemory() {
+    }
+
+    public static int peek(int address) {
+        return RAM[address & 0x7FFF];
+    }
+
+    public static int poke(int address, int value) {
+        RAM[address & 0x7FFF] = value;
+        return 0;
+    }
+
+    public static int alloc(int size) {
+        if (size < 0)
+            return JackSys.error(5);
+        int need = Math.max(size, 1) + 1; // a class without fields still gets an address
+        for (int block = freeList, previous = 0; block != 0; previous = block, block = RAM[block + 1]) {
+            if (RAM[block] < need)
+                continue;
+            if (RAM[block] - need >= 3) { // the tail of the block
+                RAM[block] -= need;
+                int tail = block + RAM[block];
+                RAM[tail] = need;
+                return tail + 1;
+            }
+            if (previous == 0)
+                freeList = RAM[block + 1];
+            else
+                RAM[previous + 1] = RAM[block + 1];
+            return block + 1;
+        }
+        return JackSys.error(6);
+    }
+
+    public static int deAlloc(int object) {
+        int block = object - 1;
+        RAM[block + 1] = freeList;
+        freeList = block;
+        return 0;
+    }
+}
@@ -0,0 +1,60 @@
+package br.ufma.ecp.runtime;
+
+import java.io.PrintStream;
+
+// The Jack OS Output class as text: characters go to out instead of being
+// drawn on the screen, newLine (128) as a line break and backSpace (129)
+// as '\b'. moveCursor() only checks its arguments.
+public final class JackOutput {
+
+    public static PrintStream out = System.out;
+
+    private JackOutput() {
+    }
+
+    public static int init() {
+        return 0;
+    }
+
+    public static int moveCursor(int i, int j) {
+        if (i < 0 || i > 22 || j < 0 || j > 63)
+            return JackSys.error(20);
+        return 0;
+    }
+
+    public static int printChar(int c) {
+        if (c == JackString.newLine())
+            out.println();
+        else if (c == JackString.backSpace())
+            out.print('\b');
+        else
+            out.print((char) c);
+        return 0;
+    }
+
+    public static int printString(int s) {
+        int length = JackString.length(s);
+        for (int j = 0; j < length; j++)
+            printChar(JackMemory.RAM[s + 2 + j]);
+        return 0;
+    }
+
+    public static int printInt(int i) {
+        out.print(i);
+        return 0;
+    }
+
+    public static int println() {
+        out.println();
+        return 0;
+    }
+
+    public static int backSpace() {
+        out.print('\b');
+        return 0;
+    }
+
+    static void printLiteral(String text) {
+        out.print(text);
+    }
+}
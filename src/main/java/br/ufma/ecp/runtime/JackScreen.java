@@ -0,0 +1,95 @@
+package br.ufma.ecp.runtime;
+
+// The Jack OS Screen class, drawing into the screen memory map of the RAM:
+// 256 rows of 512 pixels, 32 words a row, the leftmost pixel of a word in
+// its lowest bit.
+public final class JackScreen {
+
+    static final int SCREEN = 16384;
+    static final int WIDTH = 512, HEIGHT = 256;
+
+    private static boolean black = true;
+
+    private JackScreen() {
+    }
+
+    public static int init() {
+        return 0;
+    }
+
+    public static int clearScreen() {
+        for (int address = SCREEN; address < SCREEN + HEIGHT * WIDTH / 16; address++)
+            JackMemory.RAM[address] = 0;
+        return 0;
+    }
+
+    public static int setColor(int b) {
+        black = b != 0;
+        return 0;
+    }
+
+    public static int drawPixel(int x, int y) {
+        if (x < 0 || x >= WIDTH || y < 0 || y >= HEIGHT)
+            return JackSys.error(7);
+        pixel(x, y);
+        return 0;
+    }
+
+    private static void pixel(int x, int y) {
+        int address = SCREEN + y * 32 + x / 16;
+        int bit = 1 << (x & 15);
+        JackMemory.RAM[address] = (short) (black ? JackMemory.RAM[address] | bit : JackMemory.RAM[address] & ~bit);
+    }
+
+    // Bresenham, over the whole line.
+    public static int drawLine(int x1, int y1, int x2, int y2) {
+        if (!onScreen(x1, y1) || !onScreen(x2, y2))
+            return JackSys.error(8);
+        int dx = Math.abs(x2 - x1), sx = x1 < x2 ? 1 : -1;
+        int dy = -Math.abs(y2 - y1), sy = y1 < y2 ? 1 : -1;
+        int error = dx + dy;
+        while (true) {
+            pixel(x1, y1);
+            if (x1 == x2 && y1 == y2)
+                return 0;
+            int twice = 2 * error;
+            if (twice >= dy) {
+                error += dy;
+                x1 += sx;
+            }
+            if (twice <= dx) {
+                error += dx;
+                y1 += sy;
+            }
+        }
+    }
+
+    public static int drawRectangle(int x1, int y1, int x2, int y2) {
+        if (!onScreen(x1, y1) || !onScreen(x2, y2) || x1 > x2 || y1 > y2)
+            return JackSys.error(9);
+        for (int y = y1; y <= y2; y++) {
+            for (int x = x1; x <= x2; x++)
+                pixel(x, y);
+        }
+        return 0;
+    }
+
+    public static int drawCircle(int x, int y, int r) {
+        if (!onScreen(x, y))
+            return JackSys.error(12);
+        if (r < 0 || r > 181)
+            return JackSys.error(13);
+        for (int dy = -r; dy <= r; dy++) {
+            int half = (int) Math.sqrt(r * r - dy * dy);
+            for (int dx = -half; dx <= half; dx++) {
+                if (onScreen(x + dx, y + dy))
+                    pixel(x + dx, y + dy);
+            }
+        }
+        return 0;
+    }
+
+    private static boolean onScreen(int x, int y) {
+        return x >= 0 && x < WIDTH && y >= 0 && y < HEIGHT;
+    }
+}
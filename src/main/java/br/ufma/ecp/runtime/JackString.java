@@ -0,0 +1,101 @@
+package br.ufma.ecp.runtime;
+
+// The Jack OS String class. A string is a block of RAM holding its
+// capacity, its length and then its characters. String.new is create(),
+// new being a Java keyword; literal() builds the String of a literal, a new
+// one each time as the VM code does.
+public final class JackString {
+
+    private JackString() {
+    }
+
+    public static int create(int capacity) {
+        if (capacity < 0)
+            return JackSys.error(14);
+        int s = JackMemory.alloc(2 + capacity);
+        JackMemory.RAM[s] = capacity;
+        JackMemory.RAM[s + 1] = 0;
+        return s;
+    }
+
+    public static int literal(String text) {
+        int s = create(text.length());
+        for (int k = 0; k < text.length(); k++)
+            JackMemory.RAM[s + 2 + k] = text.charAt(k);
+        JackMemory.RAM[s + 1] = text.length();
+        return s;
+    }
+
+    public static int dispose(int s) {
+        return JackMemory.deAlloc(s);
+    }
+
+    public static int length(int s) {
+        return JackMemory.RAM[s + 1];
+    }
+
+    public static int charAt(int s, int j) {
+        if (j < 0 || j >= length(s))
+            return JackSys.error(15);
+        return JackMemory.RAM[s + 2 + j];
+    }
+
+    public static int setCharAt(int s, int j, int c) {
+        if (j < 0 || j >= length(s))
+            return JackSys.error(16);
+        JackMemory.RAM[s + 2 + j] = c;
+        return 0;
+    }
+
+    public static int appendChar(int s, int c) {
+        int length = length(s);
+        if (length == JackMemory.RAM[s])
+            return JackSys.error(17);
+        JackMemory.RAM[s + 2 + length] = c;
+        JackMemory.RAM[s + 1] = length + 1;
+        return s;
+    }
+
+    public static int eraseLastChar(int s) {
+        if (length(s) == 0)
+            return JackSys.error(18);
+        JackMemory.RAM[s + 1]--;
+        return 0;
+    }
+
+    // The integer the leading digits spell, after an optional '-'.
+    public static int intValue(int s) {
+        int length = length(s);
+        boolean negative = length > 0 && JackMemory.RAM[s + 2] == '-';
+        int value = 0;
+        for (int j = negative ? 1 : 0; j < length; j++) {
+            int c = JackMemory.RAM[s + 2 + j];
+            if (c < '0' || c > '9')
+                break;
+            value = (short) (value * 10 + c - '0');
+        }
+        return negative ? (short) -value : value;
+    }
+
+    public static int setInt(int s, int value) {
+        String digits = Integer.toString(value);
+        if (digits.length() > JackMemory.RAM[s])
+            return JackSys.error(19);
+        for (int k = 0; k < digits.length(); k++)
+            JackMemory.RAM[s + 2 + k] = digits.charAt(k);
+        JackMemory.RAM[s + 1] = digits.length();
+        return 0;
+    }
+
+    public static int newLine() {
+        return 128;
+    }
+
+    public static int backSpace() {
+        return 129;
+    }
+
+    public static int doubleQuote() {
+        return '"';
+    }
+}
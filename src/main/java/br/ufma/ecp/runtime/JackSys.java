@@ -0,0 +1,62 @@
+package br.ufma.ecp.runtime;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+// The Jack OS Sys class. run() is what the main method ClassGenerator adds
+// to a class with a Jack main calls: it runs Main.main until it returns or
+// the program calls Sys.halt() or Sys.error().
+public final class JackSys {
+
+    // Unwinds a halted program back to run().
+    public static final class Halt extends Error {
+        private static final long serialVersionUID = 1L;
+
+        public final int code;
+
+        Halt(int code) {
+            super(code == 0 ? "halt" : "ERR" + code, null, false, false);
+            this.code = code;
+        }
+    }
+
+    private JackSys() {
+    }
+
+    // Runs the Jack main of the class and returns the Sys.error() code, 0
+    // when it returned or halted.
+    public static int run(Class<?> main) throws Throwable {
+        MethodHandle handle = MethodHandles.publicLookup().findStatic(main, "main", MethodType.methodType(int.class));
+        try {
+            handle.invoke();
+            return 0;
+        } catch (Halt halt) {
+            return halt.code;
+        } finally {
+            JackOutput.out.flush();
+        }
+    }
+
+    public static int halt() {
+        throw new Halt(0);
+    }
+
+    // Prints ERR<code> and halts, as the nand2tetris OS does.
+    public static int error(int code) {
+        JackOutput.printLiteral("ERR" + code);
+        JackOutput.println();
+        throw new Halt(code);
+    }
+
+    public static int wait(int duration) {
+        if (duration < 0)
+            return error(1);
+        try {
+            Thread.sleep(duration);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return 0;
+    }
+}
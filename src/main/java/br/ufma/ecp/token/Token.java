@@ -1,14 +1,57 @@
 package br.ufma.ecp.token;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+// A token as a view over the source bytes: the lexeme is decoded on the
+// first lexeme() and kept, and a NUMBER is read in place by intValue(), so
+// a Token that only has its type looked at costs no String.
 public class Token {
 
     public final TokenType type;
-    public final String lexeme;
     public final int line;
 
+    private final ByteBuffer source;
+    private final int start;
+    private final int length;
+    private String lexeme;
+
     public Token (TokenType type, String lexeme, int line) {
         this.type = type;
         this.lexeme = lexeme;
         this.line = line;
+        source = null;
+        start = 0;
+        length = 0;
+    }
+
+    // Token of type at source[start, start + length), for Scanner and TokenStream.
+    public Token (TokenType type, ByteBuffer source, int start, int length, int line) {
+        this.type = type;
+        this.source = source;
+        this.start = start;
+        this.length = length;
+        this.line = line;
+    }
+
+    public String lexeme () {
+        String text = lexeme;
+        if (text == null)
+            lexeme = text = decode(type, source, start, length);
+        return text;
+    }
+
+    // Value of a NUMBER token, without decoding it; Integer.MAX_VALUE when
+    // it does not fit in an int.
+    public int intValue () {
+        if (source == null) {
+            try {
+                return Integer.parseInt(lexeme);
+            } catch (NumberFormatException e) {
+                return Integer.MAX_VALUE;
+            }
+        }
+        return intValue(source, start, length);
     }
 
     public String value () {
@@ -16,35 +59,37 @@ public class Token {
     }
 
     public String toString() {
-        var type = this.type.toString();
-        String valor = lexeme;
-        if (type.equals("NUMBER"))
-            type =  "integerConstant";
-
-        if (type.equals("STRING"))
-            type =  "stringConstant";
-
-        if (type.equals("IDENT"))
-            type =  "identifier";
-
-        if (TokenType.isSymbol(lexeme.charAt(0)))
-            type = "symbol";
-
-            if (valor.equals(">")) {
-                valor = "&gt;" ;
-            } else if (valor.equals("<")) {
-                valor = "&lt;" ;
-            } else if (valor.equals("\"")) {
-                valor = "&quot;" ;
-            } else if (valor.equals("&")) {
-                valor = "&amp;" ;
-            }
+        if (type.xml != null)
+            return type.xml;
+        return type.xmlOpen + TokenType.escape(lexeme()) + type.xmlClose;
+    }
 
-        if (TokenType.isKeyword(this.type))
-            type = "keyword";
-    
+    // The lexeme of a token of type at source[start, start + length).
+    static String decode(TokenType type, ByteBuffer source, int start, int length) {
+        switch (type) {
+            case EOF:
+                return "EOF";
+            case ILLEGAL:
+                return Character.toString((char) source.get(start));
+            default:
+                if (type.value != null) // keywords and symbols
+                    return type.value;
+                byte[] bytes = new byte[length];
+                source.get(start, bytes);
+                return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
 
-        return "<"+ type +"> " + valor + " </"+ type + ">";
+    // The digits at source[start, start + length), saturated at
+    // Integer.MAX_VALUE instead of wrapping.
+    public static int intValue(ByteBuffer source, int start, int length) {
+        int value = 0;
+        for (int p = start, to = start + length; p < to; p++) {
+            int digit = source.get(p) - '0';
+            if (value > (Integer.MAX_VALUE - digit) / 10)
+                return Integer.MAX_VALUE;
+            value = value * 10 + digit;
+        }
+        return value;
     }
-    
 }
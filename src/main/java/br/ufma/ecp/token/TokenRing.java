@@ -0,0 +1,121 @@
+package br.ufma.ecp.token;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+// Bounded single-producer single-consumer queue of token records, the same
+// type/start/length/line a TokenStream holds, between a scanner thread and
+// the parser. No lock and no object per token: the producer writes a slot
+// and publishes it by moving tail with a release store, the consumer takes
+// every published slot at once into its TokenStream and frees them by
+// moving head. A full ring makes the producer wait, an empty one the
+// consumer; both spin briefly, then yield, then park for a few
+// microseconds, so neither needs the other to wake it.
+public class TokenRing {
+
+    private static final TokenType[] TYPES = TokenType.values();
+    private static final int SPINS = 64;
+    private static final int YIELDS = 16;
+    private static final long PARK_NANOS = 20_000;
+
+    private final int mask;
+    private final int[] type;
+    private final int[] start;
+    private final int[] length;
+    private final int[] line;
+
+    // slots [head, tail) are full; each index is written by one side only
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+    // the other side's index as last read, to touch its cache line less
+    private long producerHead;
+    private long consumerTail;
+
+    private volatile Throwable failure;
+    private volatile boolean closed;
+
+    // capacity is rounded up to a power of 2
+    public TokenRing(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        mask = size - 1;
+        type = new int[size];
+        start = new int[size];
+        length = new int[size];
+        line = new int[size];
+    }
+
+    // Producer: appends a record, waiting while the ring is full. Returns
+    // false, dropping the record, once the consumer has closed the ring.
+    public boolean put(TokenType type, int start, int length, int line) {
+        long t = tail.get();
+        int waits = 0;
+        while (t - producerHead > mask) {
+            producerHead = head.get();
+            if (t - producerHead <= mask)
+                break;
+            if (closed)
+                return false;
+            waits = pause(waits);
+        }
+        int slot = (int) t & mask;
+        this.type[slot] = type.ordinal();
+        this.start[slot] = start;
+        this.length[slot] = length;
+        this.line[slot] = line;
+        tail.lazySet(t + 1);
+        return !closed;
+    }
+
+    // Producer: the scanner failed; the consumer throws e once it has taken
+    // the records before it.
+    public void fail(Throwable e) {
+        failure = e;
+    }
+
+    // Consumer: moves every published record into tokens, waiting for at
+    // least one. Rethrows the producer's failure when there is none left.
+    public int drainTo(TokenStream tokens) {
+        long h = head.get();
+        int waits = 0;
+        while (consumerTail == h) {
+            consumerTail = tail.get();
+            if (consumerTail != h)
+                break;
+            Throwable e = failure;
+            if (e != null && tail.get() == h) {
+                if (e instanceof RuntimeException)
+                    throw (RuntimeException) e;
+                if (e instanceof Error)
+                    throw (Error) e;
+                throw new IllegalStateException(e);
+            }
+            waits = pause(waits);
+        }
+        long t = consumerTail;
+        for (long k = h; k < t; k++) {
+            int slot = (int) k & mask;
+            tokens.add(TYPES[type[slot]], start[slot], length[slot], line[slot]);
+        }
+        head.lazySet(t);
+        return (int) (t - h);
+    }
+
+    // Consumer: no more records are wanted, the producer stops at its next put.
+    public void close() {
+        closed = true;
+    }
+
+    public int capacity() {
+        return mask + 1;
+    }
+
+    private static int pause(int waits) {
+        if (waits < SPINS)
+            Thread.onSpinWait();
+        else if (waits < SPINS + YIELDS)
+            Thread.yield();
+        else
+            LockSupport.parkNanos(PARK_NANOS);
+        return waits + 1;
+    }
+}
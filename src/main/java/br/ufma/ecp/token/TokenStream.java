@@ -0,0 +1,190 @@
+package br.ufma.ecp.token;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+// Struct-of-arrays token buffer filled by Scanner.tokenize(). Token i is
+// described by type[i], start[i], length[i] and line[i] over the original
+// source bytes (heap or mapped), so lexing allocates nothing per lexeme. The last token is
+// always EOF. Token objects are only created on demand by token(i).
+public class TokenStream {
+
+    private static final TokenType[] TYPES = TokenType.values();
+
+    private ByteBuffer source;
+    private int[] type;
+    private int[] start;
+    private int[] length;
+    private int[] line;
+    private int size;
+
+    public TokenStream(ByteBuffer source) {
+        // roughly one token every 4 bytes of Jack source
+        this(source, Math.max(16, source.limit() / 4));
+    }
+
+    public TokenStream(ByteBuffer source, int capacity) {
+        this.source = source;
+        type = new int[capacity];
+        start = new int[capacity];
+        length = new int[capacity];
+        line = new int[capacity];
+    }
+
+    public void add(TokenType type, int start, int length, int line) {
+        if (size == this.type.length)
+            grow();
+        this.type[size] = type.ordinal();
+        this.start[size] = start;
+        this.length[size] = length;
+        this.line[size] = line;
+        size++;
+    }
+
+    // Replaces tokens [from, to) by the first count tokens of replacement,
+    // and moves the tokens after them shift bytes and lineShift lines, after
+    // an edit turned the source into source.
+    public void splice(ByteBuffer source, int from, int to, TokenStream replacement, int count,
+            int shift, int lineShift) {
+        this.source = source;
+        int tail = size - to;
+        int newSize = from + count + tail;
+        while (newSize > type.length)
+            grow();
+        System.arraycopy(type, to, type, from + count, tail);
+        System.arraycopy(start, to, start, from + count, tail);
+        System.arraycopy(length, to, length, from + count, tail);
+        System.arraycopy(line, to, line, from + count, tail);
+
+        System.arraycopy(replacement.type, 0, type, from, count);
+        System.arraycopy(replacement.start, 0, start, from, count);
+        System.arraycopy(replacement.length, 0, length, from, count);
+        System.arraycopy(replacement.line, 0, line, from, count);
+
+        for (int i = from + count; i < newSize; i++) {
+            start[i] += shift;
+            line[i] += lineShift;
+        }
+        size = newSize;
+    }
+
+    private void grow() {
+        int capacity = Math.max(16, type.length * 2);
+        type = Arrays.copyOf(type, capacity);
+        start = Arrays.copyOf(start, capacity);
+        length = Arrays.copyOf(length, capacity);
+        line = Arrays.copyOf(line, capacity);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public ByteBuffer source() {
+        return source;
+    }
+
+    public TokenType type(int i) {
+        return TYPES[type[i]];
+    }
+
+    public int start(int i) {
+        return start[i];
+    }
+
+    public int length(int i) {
+        return length[i];
+    }
+
+    public int line(int i) {
+        return line[i];
+    }
+
+    // Source span of token i, quotes included: [begin(i), end(i)).
+    public int begin(int i) {
+        return type(i) == TokenType.STRING ? start[i] - 1 : start[i];
+    }
+
+    public int end(int i) {
+        int end = start[i] + length[i];
+        if (type(i) == TokenType.STRING && end < source.limit() && source.get(end) == '"')
+            end++; // unless the string runs to the end of the input
+        return end;
+    }
+
+    // 1-based column of token i, found by looking back for the line start.
+    // Only meant for error reporting.
+    public int column(int i) {
+        int p = start[i];
+        if (type(i) == TokenType.STRING)
+            p--; // the opening quote
+        int column = 1;
+        while (p - column >= 0 && source.get(p - column) != '\n')
+            column++;
+        return column;
+    }
+
+    // Decodes the lexeme of token i, with the same text Scanner.nextToken() gives.
+    public String text(int i) {
+        return Token.decode(type(i), source, start[i], length[i]);
+    }
+
+    // Value of the NUMBER token i, read from the digits in place,
+    // Integer.MAX_VALUE if it does not fit.
+    public int intValue(int i) {
+        return Token.intValue(source, start[i], length[i]);
+    }
+
+    // Whether tokens i and j have the same bytes.
+    public boolean sameText(int i, int j) {
+        if (length[i] != length[j])
+            return false;
+        for (int k = 0; k < length[i]; k++) {
+            if (source.get(start[i] + k) != source.get(start[j] + k))
+                return false;
+        }
+        return true;
+    }
+
+    // Token object for callers that need one, a view that decodes nothing yet.
+    public Token token(int i) {
+        return new Token(type(i), source, start[i], length[i], line[i]);
+    }
+
+    // Appends token i as Token.toString() renders it, without creating the Token.
+    public void appendXml(int i, StringBuilder out) {
+        TokenType t = type(i);
+        if (t.xml != null) {
+            out.append(t.xml);
+            return;
+        }
+        out.append(t.xmlOpen);
+        if (t == TokenType.ILLEGAL || t == TokenType.EOF)
+            out.append(TokenType.escape(text(i)));
+        else if (length[i] == 1 && source.get(start[i]) >= 0)
+            appendEscaped((char) source.get(start[i]), out);
+        else
+            appendText(i, out);
+        out.append(t.xmlClose);
+    }
+
+    private static void appendEscaped(char c, StringBuilder out) {
+        if (c == '>' || c == '<' || c == '"' || c == '&')
+            out.append(TokenType.escape(String.valueOf(c)));
+        else
+            out.append(c);
+    }
+
+    private void appendText(int i, StringBuilder out) {
+        int from = start[i];
+        int to = from + length[i];
+        for (int p = from; p < to; p++) {
+            if (source.get(p) < 0) { // non ASCII, decode the whole lexeme
+                out.append(text(i));
+                return;
+            }
+        }
+        for (int p = from; p < to; p++)
+            out.append((char) source.get(p));
+    }
+}
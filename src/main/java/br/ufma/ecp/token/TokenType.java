@@ -1,16 +1,16 @@
 package br.ufma.ecp.token;
 
-import java.util.List;
+import java.util.EnumSet;
 
 public enum TokenType {
     // symbols
-    LPAREN, RPAREN,
-    LBRACE, RBRACE,
-    LBRACKET,RBRACKET,
-    COMMA, SEMICOLON, DOT,
-    PLUS,  MINUS,ASTERISK, SLASH,
-    AND, OR, NOT,
-    LT, GT, EQ,
+    LPAREN("("), RPAREN(")"),
+    LBRACE("{"), RBRACE("}"),
+    LBRACKET("["),RBRACKET("]"),
+    COMMA(","), SEMICOLON(";"), DOT("."),
+    PLUS("+"),  MINUS("-"),ASTERISK("*"), SLASH("/"),
+    AND("&"), OR("|"), NOT("~"),
+    LT("<"), GT(">"), EQ("="),
 
      // Literals.
      NUMBER,
@@ -21,56 +21,79 @@ public enum TokenType {
 
 
      // keywords
-     METHOD, WHILE, IF, CLASS,
-     CONSTRUCTOR, FUNCTION, FIELD,
-     STATIC, VAR, INT, CHAR,
-     BOOLEAN, VOID, TRUE, FALSE,
-     NULL, THIS, LET, DO, ELSE, RETURN,
+     METHOD("method"), WHILE("while"), IF("if"), CLASS("class"),
+     CONSTRUCTOR("constructor"), FUNCTION("function"), FIELD("field"),
+     STATIC("static"), VAR("var"), INT("int"), CHAR("char"),
+     BOOLEAN("boolean"), VOID("void"), TRUE("true"), FALSE("false"),
+     NULL("null"), THIS("this"), LET("let"), DO("do"), ELSE("else"), RETURN("return"),
 
      EOF,
 
      ILLEGAL;
 
+    private static final EnumSet<TokenType> KEYWORDS = EnumSet.range(METHOD, RETURN);
+
+    private static final boolean[] SYMBOLS = new boolean[128];
+
+    static {
+        for (char c : "{}()[].,;+-*/&|<>=~".toCharArray())
+            SYMBOLS[c] = true;
+    }
+
     private TokenType() {
+        this(null);
     }
 
      static public boolean isSymbol (char c) {
-        String symbols = "{}()[].,;+-*/&|<>=~";
-        return symbols.indexOf(c) > -1;
+        return c < SYMBOLS.length && SYMBOLS[c];
     }
 
     private TokenType(String value) {
         this.value = value;
+
+        String tag;
+        if (value == null)
+            tag = name().equals("NUMBER") ? "integerConstant"
+                : name().equals("STRING") ? "stringConstant"
+                : name().equals("IDENT") ? "identifier"
+                : name();
+        else
+            tag = Character.isLetter(value.charAt(0)) ? "keyword" : "symbol";
+
+        xmlOpen = "<" + tag + "> ";
+        xmlClose = " </" + tag + ">";
+        xml = value == null ? null : xmlOpen + escape(value) + xmlClose;
     }
 
-    public String value;
+    // fixed lexeme of symbols and keywords, null for the other types
+    public final String value;
+
+    // XML rendering: xmlOpen + text + xmlClose, and the whole element for
+    // types with a fixed lexeme
+    public final String xmlOpen;
+    public final String xmlClose;
+    public final String xml;
 
     static public boolean isKeyword (TokenType type) {
-        List<TokenType> keywords  = 
-            List.of(
-                TokenType.METHOD,
-                TokenType.WHILE,
-                TokenType.IF,
-                TokenType.CLASS,
-                TokenType.CONSTRUCTOR,
-                TokenType.FUNCTION,
-                TokenType.FIELD,
-                TokenType.STATIC,
-                TokenType.VAR,
-                TokenType.INT,
-                TokenType.CHAR,
-                TokenType.BOOLEAN,
-                TokenType.VOID,
-                TokenType.TRUE,
-                TokenType.FALSE,
-                TokenType.NULL,
-                TokenType.THIS,
-                TokenType.LET,
-                TokenType.DO,
-                TokenType.ELSE,
-                TokenType.RETURN
-            );
-            return keywords.contains(type);
+        return KEYWORDS.contains(type);
+    }
+
+    // Escapes the lexemes that would break the XML output.
+    static public String escape (String lexeme) {
+        if (lexeme.length() != 1)
+            return lexeme;
+        switch (lexeme.charAt(0)) {
+            case '>':
+                return "&gt;";
+            case '<':
+                return "&lt;";
+            case '"':
+                return "&quot;";
+            case '&':
+                return "&amp;";
+            default:
+                return lexeme;
+        }
     }
 
 }
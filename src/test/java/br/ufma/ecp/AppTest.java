@@ -0,0 +1,97 @@
+package br.ufma.ecp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class AppTest extends TestSupport {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testCompileDirectoryInParallel() throws IOException {
+        Path dir = folder.newFolder("Square").toPath();
+        for (String name : new String[] { "Main", "Square", "SquareGame" })
+            Files.copy(Paths.get("src/test/resources/Square/" + name + ".jack"), dir.resolve(name + ".jack"));
+
+        assertEquals(0, App.run(new String[] { "-j", "3", dir.toString() }));
+
+        for (String name : new String[] { "Main", "Square", "SquareGame" }) {
+            var expectedResult = fromFile("Square/" + name + ".xml").replaceAll("  ", "");
+            assertEquals(expectedResult, Files.readString(dir.resolve(name + ".xml")));
+        }
+    }
+
+    @Test
+    public void testCompileToVm() throws IOException {
+        Path dir = folder.newFolder("Square").toPath();
+        for (String name : new String[] { "Main", "Square", "SquareGame" })
+            Files.copy(Paths.get("src/test/resources/Square/" + name + ".jack"), dir.resolve(name + ".jack"));
+
+        assertEquals(0, App.run(new String[] { "-target", "vm", dir.toString() }));
+
+        for (String name : new String[] { "Main", "Square", "SquareGame" }) {
+            assertEquals(fromFile("Square/" + name + ".vm"), Files.readString(dir.resolve(name + ".vm")));
+            assertFalse(Files.exists(dir.resolve(name + ".xml")));
+        }
+        assertEquals(2, App.run(new String[] { "-target", "x86", dir.toString() }));
+
+        // the only constant arithmetic is Main's j / (-2), -2 becomes ~1
+        assertEquals(0, App.run(new String[] { "-target", "vm", "-O", dir.toString() }));
+        assertEquals(fromFile("Square/Main.vm").replace("push constant 2\nneg\n", "push constant 1\nnot\n"),
+                Files.readString(dir.resolve("Main.vm")));
+        for (String name : new String[] { "Square", "SquareGame" })
+            assertEquals(fromFile("Square/" + name + ".vm"), Files.readString(dir.resolve(name + ".vm")));
+    }
+
+    @Test
+    public void testFailedFileLeavesNoOutput() throws IOException {
+        Path source = folder.newFile("Broken.jack").toPath();
+        Files.writeString(source, "class Broken { method }");
+
+        assertEquals(1, App.run(new String[] { source.toString() }));
+        assertFalse(Files.exists(folder.getRoot().toPath().resolve("Broken.xml")));
+    }
+
+    // a big file compiles the same with -pipeline
+    @Test
+    public void testPipeline() throws IOException {
+        StringBuilder big = new StringBuilder("class Big {\n  field int x;\n");
+        for (int k = 0; big.length() < 256 << 10; k++)
+            big.append("  method int f").append(k).append("(int a) { let x = a + ").append(k).append("; return x; }\n");
+        big.append("}\n");
+        Path dir = folder.newFolder("Big").toPath();
+        Files.writeString(dir.resolve("Big.jack"), big);
+
+        for (String target : new String[] { "xml", "vm" }) {
+            assertEquals(0, App.run(new String[] { "-target", target, dir.toString() }));
+            String expected = Files.readString(dir.resolve("Big." + target));
+            assertEquals(0, App.run(new String[] { "-target", target, "-pipeline", dir.toString() }));
+            assertEquals(expected, Files.readString(dir.resolve("Big." + target)));
+        }
+        assertEquals(2, App.run(new String[] { "-pipeline", "-shake", "-target", "vm", dir.toString() }));
+    }
+
+    // an integer constant out of range fails every target before its backend runs
+    @Test
+    public void testIntegerConstantOutOfRange() throws IOException {
+        Path source = folder.newFile("Big.jack").toPath();
+        Files.writeString(source, "class Big { function int f() { return 3000000000 + 40000; } }");
+        for (String target : new String[] { "xml", "vm", "jvm" }) {
+            assertEquals(target, 1, App.run(new String[] { "-target", target, source.toString() }));
+            assertFalse(Files.exists(App.outputFile(source, Target.valueOf(target.toUpperCase()))));
+        }
+        Files.writeString(source, "class Big { function int f() { return 32767; } }");
+        assertEquals(0, App.run(new String[] { "-target", "vm", source.toString() }));
+        assertEquals("function Big.f 0\npush constant 32767\nreturn\n", Files.readString(App.outputFile(source, Target.VM)));
+    }
+}
@@ -0,0 +1,228 @@
+package br.ufma.ecp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+// The programs in src/test/resources/Programs, with the small OS in
+// src/test/resources/OS, compiled straight to Hack assembly and through VM
+// code and VMTranslator, must print the same on the HackEmulator; the
+// straight one in fewer instructions and fewer cycles.
+public class AsmGeneratorTest extends TestSupport {
+
+    private static final Path PROGRAMS = Paths.get("src/test/resources/Programs");
+    private static final Path OS = Paths.get("src/test/resources/OS");
+    private static final long LIMIT = 100_000_000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    static List<Path> sources(Path... dirs) throws IOException {
+        List<Path> sources = new ArrayList<>();
+        for (Path dir : dirs) {
+            try (Stream<Path> files = Files.list(dir)) {
+                sources.addAll(files.filter(f -> f.toString().endsWith(".jack")).sorted()
+                        .collect(Collectors.toList()));
+            }
+        }
+        return sources;
+    }
+
+    private static Parser parse(Path source) throws IOException {
+        Parser parser = new Parser(Files.readAllBytes(source));
+        parser.parse();
+        assertEquals(source.toString(), List.of(), parser.diagnostics());
+        return parser;
+    }
+
+    private static String compileAsm(List<Path> sources) throws IOException {
+        return AsmGenerator.link(generate(sources, 0));
+    }
+
+    static List<AsmGenerator> generate(List<Path> sources, int profile) throws IOException {
+        List<AsmGenerator> classes = new ArrayList<>();
+        for (Path source : sources) {
+            AsmGenerator generator = new AsmGenerator(parse(source).ast(), profile);
+            generator.compileClass();
+            assertEquals(source.toString(), List.of(), generator.diagnostics());
+            classes.add(generator);
+        }
+        return classes;
+    }
+
+    private static String compileVmTranslated(List<Path> sources) throws IOException {
+        VMTranslator translator = new VMTranslator();
+        for (Path source : sources) {
+            VMWriter vm = new VMWriter();
+            new CodeGenerator(parse(source).ast(), vm).compileClass();
+            String name = source.getFileName().toString();
+            translator.translate(name.substring(0, name.length() - ".jack".length()), vm.toString());
+        }
+        return translator.toString();
+    }
+
+    static HackEmulator run(HackAssembler program) {
+        HackEmulator emulator = new HackEmulator(program);
+        emulator.run(program.label("Sys.halt"), LIMIT);
+        return emulator;
+    }
+
+    @Test
+    public void testPrograms() throws Throwable {
+        List<Path> programs;
+        try (Stream<Path> dirs = Files.list(PROGRAMS)) {
+            programs = dirs.sorted().collect(Collectors.toList());
+        }
+        for (Path program : programs) {
+            List<Path> sources = sources(program, OS);
+            String expected = Files.readString(program.resolve("expected.txt"));
+            HackAssembler fused = new HackAssembler(compileAsm(sources));
+            HackAssembler twoStage = new HackAssembler(compileVmTranslated(sources));
+            HackEmulator fusedRun = run(fused);
+            HackEmulator twoStageRun = run(twoStage);
+            assertEquals(program.toString(), expected, fusedRun.output());
+            assertEquals(program.toString(), expected, twoStageRun.output());
+            assertTrue(program + ": " + fused.size() + " instructions", fused.size() < twoStage.size());
+            assertTrue(program + ": " + fusedRun.cycles() + " cycles", fusedRun.cycles() < twoStageRun.cycles());
+        }
+    }
+
+    @Test
+    public void testSysError() throws Throwable {
+        Path dir = folder.newFolder().toPath();
+        Files.writeString(dir.resolve("Main.jack"), """
+                class Main {
+                  function void main() {
+                    do Output.printInt(Main.half(10));
+                    do Output.printInt(Main.half(0));
+                    do Output.printInt(1);
+                    return;
+                  }
+                  function int half(int n) { return n / (n / 2); }
+                }
+                """);
+        assertEquals("2ERR3\n", run(new HackAssembler(compileAsm(sources(dir, OS)))).output());
+    }
+
+    // Every cycle from Sys.init on is counted in some subroutine, the output
+    // is the same and the counters cost little.
+    @Test
+    public void testProfile() throws Throwable {
+        List<Path> sources = sources(PROGRAMS.resolve("Sort"), OS);
+        HackEmulator plain = run(new HackAssembler(compileAsm(sources)));
+        List<AsmGenerator> classes = generate(sources, AsmGenerator.PROFILE);
+        HackEmulator profiled = run(new HackAssembler(AsmGenerator.link(classes)));
+        assertEquals(plain.output(), profiled.output());
+        assertTrue(profiled.cycles() + " cycles", profiled.cycles() < plain.cycles() * 115 / 100);
+
+        long counted = 0;
+        for (String line : AsmGenerator.profileMap(classes).split("\n")) {
+            int address = Integer.parseInt(line.substring(0, line.indexOf(' ')));
+            counted += profiled.ram(address + HackEmulator.CYCLES) & 0xFFFF
+                    | (profiled.ram(address + HackEmulator.CYCLES + 1) & 0xFFFFL) << 16;
+            if (line.endsWith(" Main.main") || line.endsWith(" Sys.init"))
+                assertEquals(line, 1, profiled.ram(address + HackEmulator.ENTRIES));
+        }
+        // all but the bootstrap and $CALL0 before Sys.init
+        assertTrue(counted + " of " + profiled.cycles(), profiled.cycles() - counted < 64);
+    }
+
+    // the argument stays in D from the load to the return
+    @Test
+    public void testStackTopInD() {
+        Parser parser = new Parser("class A { function int f(int x) { return x + 1; } }".getBytes(StandardCharsets.UTF_8));
+        parser.parse();
+        assertEquals("(A.f)\n@ARG\nA=M\nD=M\nD=D+1\n@$RETURN\n0;JMP\n", new AsmGenerator(parser.ast()).compileClass());
+    }
+
+    // an = in a condition is one subtraction and a jump
+    @Test
+    public void testConditionJumpsOnDifference() {
+        Parser parser = new Parser("class A { function void f(int x) { while (~(x = 5)) { let x = x - 1; } return; } }"
+                .getBytes(StandardCharsets.UTF_8));
+        parser.parse();
+        assertEquals("(A.f)\n(A.f$0)\n@ARG\nA=M\nD=M\n@5\nD=D-A\n@A.f$1\nD;JEQ\n"
+                + "@ARG\nA=M\nD=M\nD=D-1\n@ARG\nA=M\nM=D\n@A.f$0\n0;JMP\n(A.f$1)\nD=0\n@$RETURN\n0;JMP\n",
+                new AsmGenerator(parser.ast()).compileClass());
+    }
+
+    @Test
+    public void testUndefinedVariable() {
+        Parser parser = new Parser("class A { function int f() { return x; } }".getBytes(StandardCharsets.UTF_8));
+        parser.parse();
+        AsmGenerator generator = new AsmGenerator(parser.ast());
+        generator.compileClass();
+        assertEquals(1, generator.diagnostics().size());
+        assertEquals("[line 1, column 37] Error at 'x': Undefined variable",
+                generator.diagnostics().get(0).toString());
+    }
+
+    // Add.asm of nand2tetris project 6
+    // < and > hold for operands more than 32767 apart, in conditions and
+    // values, on both paths to Hack
+    @Test
+    public void testComparisonOverflow() throws Throwable {
+        Path dir = folder.newFolder().toPath();
+        Files.writeString(dir.resolve("Main.jack"), """
+                class Main {
+                  function void main() {
+                    var int a, b;
+                    let a = 20000;
+                    let b = -20000;
+                    if (a < b) { do Output.printInt(1); } else { do Output.printInt(0); }
+                    if (b < a) { do Output.printInt(1); } else { do Output.printInt(0); }
+                    if (~(b > a)) { do Output.printInt(1); } else { do Output.printInt(0); }
+                    do Output.printInt(-(a > b));
+                    do Output.printInt(-(b > a));
+                    do Output.printInt(-(a < -20000));
+                    do Output.printInt(-(b < 20000));
+                    do Output.printInt(-(a < a));
+                    do Output.printInt(-(b < -19999));
+                    return;
+                  }
+                }
+                """);
+        List<Path> sources = sources(dir, OS);
+        assertEquals("011100101", run(new HackAssembler(compileAsm(sources))).output());
+        assertEquals("011100101", run(new HackAssembler(compileVmTranslated(sources))).output());
+    }
+
+    @Test
+    public void testAssembler() {
+        HackAssembler program = new HackAssembler("// RAM[0] = 2 + 3\n@2\nD=A\n@3\nD=D+A\n@0\nM=D\n(END)\n@END\n0;JMP\n");
+        String[] expected = { "0000000000000010", "1110110000010000", "0000000000000011", "1110000010010000",
+                "0000000000000000", "1110001100001000", "0000000000000110", "1110101010000111" };
+        assertEquals(expected.length, program.size());
+        for (int k = 0; k < expected.length; k++)
+            assertEquals((short) Integer.parseInt(expected[k], 2), program.rom()[k]);
+        HackEmulator emulator = new HackEmulator(program);
+        assertEquals(6, emulator.run(program.label("END"), 100));
+        assertEquals(5, emulator.ram(0));
+    }
+
+    @Test
+    public void testAppWritesAsm() throws Throwable {
+        Path dir = folder.newFolder("Sort").toPath();
+        Files.copy(PROGRAMS.resolve("Sort/Main.jack"), dir.resolve("Main.jack"));
+        assertEquals(0, App.run(new String[] { "-target", "asm", dir.toString(), OS.toString() }));
+
+        HackAssembler program = new HackAssembler(Files.readString(dir.resolve("Main.asm")));
+        assertEquals(fromFile("Programs/Sort/expected.txt"), run(program).output());
+        // no cache for a whole program, and the OS is part of it
+        assertEquals(2, App.run(new String[] { "-target", "asm", dir.toString(), "-cache", folder.getRoot().toString() }));
+        assertEquals(1, App.run(new String[] { "-target", "asm", PROGRAMS.resolve("List").toString() }));
+    }
+}
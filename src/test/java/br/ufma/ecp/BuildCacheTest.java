@@ -0,0 +1,128 @@
+package br.ufma.ecp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class BuildCacheTest extends TestSupport {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static ByteBuffer bytes(String s) {
+        return ByteBuffer.wrap(s.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testHashMatchesXxHash64() {
+        assertEquals(0xEF46DB3751D8E999L, BuildCache.hash(bytes(""), 0));
+        assertEquals(0x44BC2CF5AD770999L, BuildCache.hash(bytes("abc"), 0));
+        assertEquals(0xFBCEA83C8A378BF1L, BuildCache.hash(bytes("Nobody inspects the spammish repetition"), 0));
+    }
+
+    @Test
+    public void testStoreAndRestore() throws IOException {
+        var cache = new BuildCache(folder.newFolder("cache").toPath(), 1 << 20, "v1");
+        Path output = folder.newFile("Main.xml").toPath();
+        Files.writeString(output, "<class>\r\n</class>\r\n");
+
+        long key = cache.key(bytes("class Main {}"));
+        assertFalse(cache.restore(key, output));
+        cache.store(key, output);
+
+        Files.delete(output);
+        assertTrue(cache.restore(key, output));
+        assertEquals("<class>\r\n</class>\r\n", Files.readString(output));
+        assertEquals(1, cache.hits());
+        assertEquals(1, cache.misses());
+
+        var other = new BuildCache(folder.getRoot().toPath().resolve("cache"), 1 << 20, "v2");
+        assertFalse(other.key(bytes("class Main {}")) == key);
+    }
+
+    @Test
+    public void testCorruptedEntryIsAMiss() throws IOException {
+        Path dir = folder.newFolder("cache").toPath();
+        var cache = new BuildCache(dir, 1 << 20, "v1");
+        Path output = folder.newFile("Main.xml").toPath();
+        Files.writeString(output, "<class>\r\n</class>\r\n");
+
+        long key = cache.key(bytes("class Main {}"));
+        cache.store(key, output);
+
+        try (var entry = new RandomAccessFile(Files.list(dir).findFirst().get().toFile(), "rw")) {
+            entry.seek(entry.length() - 1);
+            entry.write('!');
+        }
+        assertFalse(cache.restore(key, output));
+        assertEquals(1, cache.corrupted());
+        assertEquals(0, Files.list(dir).count());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedIsEvicted() throws IOException {
+        Path dir = folder.newFolder("cache").toPath();
+        var cache = new BuildCache(dir, 250, "v1");
+        Path output = folder.newFile("Main.xml").toPath();
+        Files.writeString(output, "x".repeat(80));
+
+        long first = cache.key(bytes("first"));
+        long second = cache.key(bytes("second"));
+        long third = cache.key(bytes("third"));
+        cache.store(first, output);
+        cache.store(second, output);
+        Files.setLastModifiedTime(dir.resolve(String.format("%016x.out", first)),
+                FileTime.fromMillis(0));
+        cache.store(third, output);
+
+        assertEquals(1, cache.evictions());
+        assertFalse(cache.restore(first, output));
+        assertTrue(cache.restore(second, output));
+        assertTrue(cache.restore(third, output));
+    }
+
+    @Test
+    public void testAppSkipsCachedSources() throws IOException {
+        Path dir = folder.newFolder("Square").toPath();
+        Path cache = folder.getRoot().toPath().resolve("cache");
+        Files.copy(Paths.get("src/test/resources/Square/Square.jack"), dir.resolve("Square.jack"));
+        var args = new String[] { "-cache", cache.toString(), dir.toString() };
+
+        assertEquals(0, App.run(args));
+        Files.delete(dir.resolve("Square.xml"));
+        assertEquals(0, App.run(args));
+
+        var expectedResult = fromFile("Square/Square.xml").replaceAll("  ", "");
+        assertEquals(expectedResult, Files.readString(dir.resolve("Square.xml")));
+    }
+
+    // the cache keys follow the compiler's class files, not a version string
+    @Test
+    public void testBuildIdFollowsClassFiles() throws IOException {
+        Path classes = folder.newFolder("classes").toPath();
+        Files.createDirectories(classes.resolve("a"));
+        Files.write(classes.resolve("a/A.class"), new byte[] { 1, 2, 3 });
+        Files.writeString(classes.resolve("a/notes.txt"), "not code");
+        String id = App.buildId(classes);
+        assertEquals(id, App.buildId(classes));
+        Files.writeString(classes.resolve("a/notes.txt"), "still not code");
+        assertEquals(id, App.buildId(classes));
+        Files.write(classes.resolve("a/A.class"), new byte[] { 1, 2, 4 });
+        assertFalse(id.equals(App.buildId(classes)));
+        assertFalse(App.VERSION.equals("1.0-SNAPSHOT"));
+        assertFalse(App.VERSION.startsWith("unknown-"));
+    }
+}
@@ -0,0 +1,150 @@
+package br.ufma.ecp;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import br.ufma.ecp.runtime.JackLoader;
+
+// The programs in src/test/resources/Programs, each a directory with a Main
+// class and the output it prints, must print the same from their class
+// files and from their VM code.
+public class ClassGeneratorTest extends TestSupport {
+
+    private static final Path PROGRAMS = Paths.get("src/test/resources/Programs");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static List<Path> sources(Path dir) throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(f -> f.toString().endsWith(".jack")).sorted().collect(Collectors.toList());
+        }
+    }
+
+    private static Map<String, byte[]> compile(List<Path> sources) throws IOException {
+        Map<String, byte[]> classes = new HashMap<>();
+        for (Path source : sources) {
+            Parser parser = new Parser(Files.readAllBytes(source));
+            parser.parse();
+            assertEquals(source.toString(), List.of(), parser.diagnostics());
+            ClassGenerator generator = new ClassGenerator(parser.ast());
+            byte[] classFile = generator.compileClass();
+            assertEquals(source.toString(), List.of(), generator.diagnostics());
+            classes.put(generator.className(), classFile);
+        }
+        return classes;
+    }
+
+    private static String run(Map<String, byte[]> classes) throws Throwable {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(0, new JackLoader(classes).run("Main", new PrintStream(out, true, StandardCharsets.UTF_8)));
+        return out.toString(StandardCharsets.UTF_8);
+    }
+
+    private static String runVm(List<Path> sources) throws IOException {
+        VMInterpreter interpreter = new VMInterpreter();
+        for (Path source : sources) {
+            Parser parser = new Parser(Files.readAllBytes(source));
+            parser.parse();
+            VMWriter vm = new VMWriter();
+            new CodeGenerator(parser.ast(), vm).compileClass();
+            interpreter.load(vm.toString());
+        }
+        interpreter.run("Main.main");
+        return interpreter.output();
+    }
+
+    @Test
+    public void testPrograms() throws Throwable {
+        List<Path> programs;
+        try (Stream<Path> dirs = Files.list(PROGRAMS)) {
+            programs = dirs.sorted().collect(Collectors.toList());
+        }
+        assertEquals(4, programs.size());
+        for (Path program : programs) {
+            List<Path> sources = sources(program);
+            String expected = Files.readString(program.resolve("expected.txt"));
+            assertEquals(program.toString(), expected, run(compile(sources)));
+            assertEquals(program.toString(), expected, runVm(sources));
+        }
+    }
+
+    @Test
+    public void testEachLoaderHasItsOwnRuntime() throws Throwable {
+        Map<String, byte[]> classes = compile(sources(PROGRAMS.resolve("List")));
+        String expected = fromFile("Programs/List/expected.txt");
+        // List.created and the heap start over
+        assertEquals(expected, run(classes));
+        assertEquals(expected, run(classes));
+    }
+
+    @Test
+    public void testSquareVerifies() throws Throwable {
+        Map<String, byte[]> classes = compile(sources(Paths.get("src/test/resources/Square")));
+        JackLoader loader = new JackLoader(classes);
+        for (String name : classes.keySet())
+            assertEquals(name, loader.initialize(name).getName());
+        // the JVM entry point next to the Jack one
+        loader.initialize("Main").getMethod("main", String[].class);
+        loader.initialize("Main").getMethod("main");
+    }
+
+    @Test
+    public void testSysError() throws Throwable {
+        Path dir = folder.newFolder().toPath();
+        Files.writeString(dir.resolve("Main.jack"), """
+                class Main {
+                  function void main() {
+                    do Output.printInt(Main.half(10));
+                    do Output.printInt(Main.half(0));
+                    do Output.printInt(1);
+                    return;
+                  }
+                  function int half(int n) { return n / (n / 2); }
+                }
+                """);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        JackLoader loader = new JackLoader(compile(sources(dir)));
+        assertEquals(3, loader.run("Main", new PrintStream(out, true, StandardCharsets.UTF_8)));
+        assertEquals("2ERR3\n", out.toString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testUndefinedVariable() {
+        Parser parser = new Parser("class A { function int f() { return x; } }".getBytes(StandardCharsets.UTF_8));
+        parser.parse();
+        ClassGenerator generator = new ClassGenerator(parser.ast());
+        generator.compileClass();
+        assertEquals(1, generator.diagnostics().size());
+        assertEquals("[line 1, column 37] Error at 'x': Undefined variable",
+                generator.diagnostics().get(0).toString());
+    }
+
+    @Test
+    public void testAppWritesClassFiles() throws Throwable {
+        Path dir = folder.newFolder("Sort").toPath();
+        Files.copy(PROGRAMS.resolve("Sort/Main.jack"), dir.resolve("Main.jack"));
+        assertEquals(0, App.run(new String[] { "-target", "jvm", dir.toString() }));
+
+        byte[] classFile = Files.readAllBytes(dir.resolve("Main.class"));
+        assertEquals(0xCAFEBABE, ByteBuffer.wrap(classFile).getInt());
+        assertEquals(fromFile("Programs/Sort/expected.txt"), run(Map.of("Main", classFile)));
+    }
+}
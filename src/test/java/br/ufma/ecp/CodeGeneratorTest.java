@@ -0,0 +1,374 @@
+package br.ufma.ecp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+public class CodeGeneratorTest extends TestSupport {
+
+  private static String compileExpression(String input) {
+    var parser = new Parser(input.getBytes(StandardCharsets.UTF_8));
+    parser.parseExpression();
+    var vm = new VMWriter();
+    new CodeGenerator(parser.ast(), vm).compileExpression(0);
+    return vm.toString();
+  }
+
+  private static String compileFolded(String input, Optimizations optimizations) {
+    var parser = new Parser(input.getBytes(StandardCharsets.UTF_8));
+    parser.parseExpression();
+    var vm = new VMWriter();
+    new CodeGenerator(parser.ast(), vm, optimizations).compileExpression(0);
+    return vm.toString();
+  }
+
+  private static String compileClass(String input) {
+    return compileClass(input, Optimizations.none());
+  }
+
+  private static String compileClass(String input, Optimizations optimizations) {
+    var parser = new Parser(input.getBytes(StandardCharsets.UTF_8));
+    parser.parse();
+    assertEquals(0, parser.diagnostics().size());
+    var vm = new VMWriter();
+    var generator = new CodeGenerator(parser.ast(), vm, optimizations);
+    generator.compileClass();
+    assertEquals(0, generator.diagnostics().size());
+    return vm.toString();
+  }
+
+  @Test
+  public void testInt() {
+    assertEquals("push constant 10\n", compileExpression("10"));
+  }
+
+  @Test
+  public void testSimpleExpression() {
+    var expected = """
+        push constant 10
+        push constant 30
+        add
+        """;
+    assertEquals(expected, compileExpression("10 + 30"));
+  }
+
+  @Test
+  public void testOperatorsAndUnary() {
+    var expected = """
+        push constant 2
+        push constant 3
+        call Math.multiply 2
+        push constant 4
+        neg
+        call Math.divide 2
+        push constant 0
+        not
+        and
+        """;
+    assertEquals(expected, compileExpression("2 * 3 / -4 & true"));
+  }
+
+  @Test
+  public void testString() {
+    var expected = """
+        push constant 2
+        call String.new 1
+        push constant 79
+        call String.appendChar 2
+        push constant 75
+        call String.appendChar 2
+        """;
+    assertEquals(expected, compileExpression("\"OK\""));
+  }
+
+  @Test
+  public void testClass() {
+    var input = """
+        class Point {
+          field int x, y;
+          static int count;
+
+          constructor Point new(int ax, int ay) {
+            let x = ax;
+            let y = ay;
+            let count = count + 1;
+            return this;
+          }
+
+          method int sum(Array a) {
+            var int i, total;
+            while (i < x) {
+              if (a[i] > 0) { let total = total + a[i]; } else { let a[i] = y; }
+              let i = i + 1;
+            }
+            return total;
+          }
+
+          function void main() {
+            var Point p;
+            let p = Point.new(1, 2);
+            do p.sum(null);
+            do Output.printInt(count);
+            return;
+          }
+        }
+        """;
+    var expected = """
+        function Point.new 0
+        push constant 2
+        call Memory.alloc 1
+        pop pointer 0
+        push argument 0
+        pop this 0
+        push argument 1
+        pop this 1
+        push static 0
+        push constant 1
+        add
+        pop static 0
+        push pointer 0
+        return
+        function Point.sum 2
+        push argument 0
+        pop pointer 0
+        label WHILE_EXP0
+        push local 0
+        push this 0
+        lt
+        not
+        if-goto WHILE_END0
+        push argument 1
+        push local 0
+        add
+        pop pointer 1
+        push that 0
+        push constant 0
+        gt
+        if-goto IF_TRUE0
+        goto IF_FALSE0
+        label IF_TRUE0
+        push local 1
+        push argument 1
+        push local 0
+        add
+        pop pointer 1
+        push that 0
+        add
+        pop local 1
+        goto IF_END0
+        label IF_FALSE0
+        push argument 1
+        push local 0
+        add
+        push this 1
+        pop temp 0
+        pop pointer 1
+        push temp 0
+        pop that 0
+        label IF_END0
+        push local 0
+        push constant 1
+        add
+        pop local 0
+        goto WHILE_EXP0
+        label WHILE_END0
+        push local 1
+        return
+        function Point.main 1
+        push constant 1
+        push constant 2
+        call Point.new 2
+        pop local 0
+        push local 0
+        push constant 0
+        call Point.sum 2
+        pop temp 0
+        push static 0
+        call Output.printInt 1
+        pop temp 0
+        push constant 0
+        return
+        """;
+    assertEquals(expected, compileClass(input));
+  }
+
+  @Test
+  public void testMethodCallInExpression() {
+    var input = """
+        class A {
+          method int f(int n) { return n; }
+          method int g() { return f(f(1)) + 1; }
+        }
+        """;
+    var output = compileClass(input);
+    assertTrue(output, output.contains("""
+        push pointer 0
+        push pointer 0
+        push constant 1
+        call A.f 2
+        call A.f 2
+        push constant 1
+        add
+        """));
+  }
+
+  @Test
+  public void testUndefinedVariable() {
+    var parser = new Parser("class A { function int f() { return x; } }".getBytes(StandardCharsets.UTF_8));
+    parser.parse();
+    var generator = new CodeGenerator(parser.ast(), new VMWriter());
+    generator.compileClass();
+    assertEquals(1, generator.diagnostics().size());
+    assertEquals("[line 1, column 37] Error at 'x': Undefined variable", generator.diagnostics().get(0).toString());
+  }
+
+  @Test
+  public void testSquare() throws IOException {
+    for (String name : new String[] { "Main", "Square", "SquareGame" })
+      assertEquals(fromFile("Square/" + name + ".vm"), compileClass(fromFile("Square/" + name + ".jack")));
+  }
+
+  @Test
+  public void testFoldConstants() {
+    var optimizations = new Optimizations(Optimizations.FOLD);
+    assertEquals("push constant 0\nnot\n", compileFolded("2 * 3 / -4 & true", optimizations));
+    assertEquals("push constant 0\nnot\n", compileFolded("(1 < 2) = ~0", optimizations));
+    // 16-bit arithmetic: 32767 + 1 wraps to -32768, whose ~ is 32767
+    assertEquals("push constant 32767\nnot\n", compileFolded("32767 + 1", optimizations));
+    // left to right, as Jack evaluates it
+    assertEquals("push constant 20\n", compileFolded("2 + 3 * 4", optimizations));
+    // division by zero is left to Math.divide
+    assertEquals("push constant 1\npush constant 0\ncall Math.divide 2\n", compileFolded("1 / 0", optimizations));
+    assertEquals(10, optimizations.operationsFolded()); // unary - and ~ included
+    assertEquals(3, optimizations.callsRemoved());
+  }
+
+  @Test
+  public void testStrengthReduction() {
+    var input = """
+        class A {
+          function int f(int x) {
+            let x = 1 + 1 * x;
+            let x = x * -4;
+            let x = x / 1 + (x * 3);
+            return x * 0;
+          }
+        }
+        """;
+    var expected = """
+        function A.f 0
+        push argument 0
+        pop temp 1
+        push temp 1
+        push temp 1
+        add
+        pop argument 0
+        push argument 0
+        pop temp 1
+        push temp 1
+        push temp 1
+        add
+        pop temp 1
+        push temp 1
+        push temp 1
+        add
+        neg
+        pop argument 0
+        push argument 0
+        push argument 0
+        push constant 3
+        call Math.multiply 2
+        add
+        pop argument 0
+        push argument 0
+        pop temp 1
+        push constant 0
+        return
+        """;
+    var optimizations = new Optimizations(Optimizations.FOLD);
+    assertEquals(expected, compileClass(input, optimizations));
+    assertEquals(2, optimizations.operationsFolded()); // + and the unary -
+    assertEquals(3, optimizations.multipliesReduced());
+    assertEquals(1, optimizations.dividesReduced());
+    assertEquals(4, optimizations.callsRemoved());
+  }
+
+  @Test
+  public void testSquareUnchangedWithoutFolding() throws IOException {
+    var optimizations = Optimizations.none();
+    for (String name : new String[] { "Main", "Square", "SquareGame" })
+      assertEquals(fromFile("Square/" + name + ".vm"), compileClass(fromFile("Square/" + name + ".jack"), optimizations));
+    assertEquals(0, optimizations.callsRemoved());
+  }
+
+  @Test
+  public void testPoolStrings() {
+    var input = """
+        class A {
+          static int n;
+          function void f() {
+            do Output.printString("OK");
+            do Output.printString("OK");
+            do Output.printString("no");
+            return;
+          }
+        }
+        """;
+    var expected = """
+        function A.f 0
+        push static 1
+        if-goto STRING_READY0
+        call A.$string0 0
+        pop static 1
+        label STRING_READY0
+        push static 1
+        call Output.printString 1
+        pop temp 0
+        push static 1
+        if-goto STRING_READY1
+        call A.$string0 0
+        pop static 1
+        label STRING_READY1
+        push static 1
+        call Output.printString 1
+        pop temp 0
+        push static 2
+        if-goto STRING_READY2
+        call A.$string1 0
+        pop static 2
+        label STRING_READY2
+        push static 2
+        call Output.printString 1
+        pop temp 0
+        push constant 0
+        return
+        function A.$string0 0
+        push constant 2
+        call String.new 1
+        push constant 79
+        call String.appendChar 2
+        push constant 75
+        call String.appendChar 2
+        return
+        function A.$string1 0
+        push constant 2
+        call String.new 1
+        push constant 110
+        call String.appendChar 2
+        push constant 111
+        call String.appendChar 2
+        return
+        """;
+    var optimizations = new Optimizations(Optimizations.POOL_STRINGS);
+    var output = compileClass(input, optimizations);
+    assertEquals(expected, output);
+    assertEquals(2, optimizations.stringsPooled());
+    assertEquals(3, optimizations.stringUses());
+    var unpooled = compileClass(input);
+    assertEquals(unpooled.length() - output.length(), optimizations.stringBytesSaved());
+  }
+}
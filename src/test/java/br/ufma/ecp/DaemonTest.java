@@ -0,0 +1,167 @@
+package br.ufma.ecp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class DaemonTest extends TestSupport {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testCompileThroughDaemon() throws Exception {
+        Path socket = folder.getRoot().toPath().resolve("d.sock");
+        Thread daemon = new Thread(() -> {
+            try {
+                new Daemon(socket, 2, null).serve();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        daemon.start();
+        while (!Daemon.isRunning(socket))
+            Thread.sleep(10);
+
+        Path dir = folder.newFolder("Square").toPath();
+        Files.copy(Paths.get("src/test/resources/Square/Square.jack"), dir.resolve("Square.jack"));
+        Files.writeString(dir.resolve("Broken.jack"), "class Broken {");
+
+        var reply = Daemon.compile(socket, List.of(dir.resolve("Square.jack"), dir.resolve("Broken.jack")));
+        assertNotNull(reply);
+        assertEquals(1, reply.failures);
+        assertTrue(reply.diagnostics, reply.diagnostics.contains("Broken.jack"));
+        var expectedResult = fromFile("Square/Square.xml").replaceAll("  ", "");
+        assertEquals(expectedResult, Files.readString(dir.resolve("Square.xml")));
+
+        var inline = Daemon.compile(socket, fromFile("Square/Main.jack").getBytes(StandardCharsets.UTF_8));
+        assertEquals(0, inline.failures);
+        assertEquals(fromFile("Square/Main.xml").replaceAll("  ", ""), new String(inline.output, StandardCharsets.UTF_8));
+
+        var folded = Daemon.compile(socket, "class A { function int f() { return 2 * 8; } }".getBytes(StandardCharsets.UTF_8),
+                Target.VM, new Optimizations(Optimizations.FOLD));
+        assertEquals(0, folded.failures);
+        assertEquals("function A.f 0\npush constant 16\nreturn\n", new String(folded.output, StandardCharsets.UTF_8));
+        assertTrue(folded.report, folded.report.contains("1 runtime call(s) removed"));
+
+        // a bad request gets a failure with the reason, the daemon goes on
+        for (byte op : new byte[] { Daemon.FILES, Daemon.SOURCE }) {
+            int max = op == Daemon.FILES ? Daemon.MAX_FILES : Daemon.MAX_SOURCE;
+            assertEquals("daemon: unknown target 99\n", badRequest(socket, op, 99, 0));
+            assertEquals("daemon: length -1 outside 0.." + max + "\n", badRequest(socket, op, 0, -1));
+            assertEquals("daemon: length " + Integer.MAX_VALUE + " outside 0.." + max + "\n",
+                    badRequest(socket, op, 0, Integer.MAX_VALUE));
+        }
+        assertEquals("daemon: length " + Integer.MAX_VALUE + " outside 0.." + Daemon.MAX_PATH + "\n",
+                badRequest(socket, Daemon.FILES, 0, 1, Integer.MAX_VALUE));
+        assertEquals(0, Daemon.compile(socket, fromFile("Square/Main.jack").getBytes(StandardCharsets.UTF_8)).failures);
+
+        // only .jack files, and no asm: report.txt would have cost repor.xml
+        Path report = dir.resolve("report.txt");
+        Files.writeString(report, "class A { }");
+        Files.writeString(dir.resolve("repor.xml"), "kept");
+        var rejected = Daemon.compile(socket, List.of(report, dir.resolve("Missing.jack"), dir.resolve("Square.jack")));
+        assertEquals(2, rejected.failures);
+        assertEquals("daemon: not a .jack file: " + report + "\ndaemon: not a .jack file: " + dir.resolve("Missing.jack")
+                + "\n", rejected.diagnostics);
+        assertEquals("kept", Files.readString(dir.resolve("repor.xml")));
+        var asm = Daemon.compile(socket, List.of(dir.resolve("Square.jack")), Target.ASM);
+        assertEquals(1, asm.failures);
+        assertTrue(asm.diagnostics, asm.diagnostics.contains("target asm"));
+        assertFalse(Files.exists(dir.resolve("Square.asm")));
+
+        assertTrue(Daemon.stop(socket));
+        daemon.join(10_000);
+        assertFalse(daemon.isAlive());
+        assertFalse(Files.exists(socket));
+    }
+
+    // Sends a request for target whose lengths, the file count and path
+    // length or the source length, are followed by no data, and returns the
+    // diagnostics of its failed reply.
+    private static String badRequest(Path socket, byte op, int target, int... lengths) throws IOException {
+        try (SocketChannel channel = SocketChannel.open(UnixDomainSocketAddress.of(socket))) {
+            DataOutputStream out = new DataOutputStream(Channels.newOutputStream(channel));
+            out.writeByte(op);
+            out.writeInt(App.VERSION.length());
+            out.writeBytes(App.VERSION);
+            out.writeByte(target);
+            out.writeByte(0);
+            out.writeInt(0);
+            for (int length : lengths)
+                out.writeInt(length);
+            out.flush();
+            DataInputStream in = new DataInputStream(Channels.newInputStream(channel));
+            assertEquals(1, in.readInt());
+            if (op == Daemon.SOURCE)
+                assertEquals(0, in.readInt()); // no output
+            byte[] diagnostics = new byte[in.readInt()];
+            in.readFully(diagnostics);
+            return new String(diagnostics, StandardCharsets.UTF_8);
+        }
+    }
+
+    // a daemon of an older build compiles nothing for a rebuilt client,
+    // which compiles in-process instead, but still stops when told
+    @Test
+    public void testClientFallsBackFromOtherBuild() throws Exception {
+        Path socket = folder.getRoot().toPath().resolve("old.sock");
+        Thread daemon = new Thread(() -> {
+            try {
+                new Daemon(socket, 1, null, "old").serve();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        daemon.start();
+        while (!Daemon.isRunning(socket))
+            Thread.sleep(10);
+
+        var reply = Daemon.compile(socket, "class A { }".getBytes(StandardCharsets.UTF_8));
+        assertEquals(Daemon.OTHER_BUILD, reply.failures);
+        assertEquals("daemon: build old, not the client's " + App.VERSION + "\n", reply.diagnostics);
+        assertEquals(0, reply.output.length);
+
+        Path dir = folder.newFolder("Square").toPath();
+        Files.copy(Paths.get("src/test/resources/Square/Main.jack"), dir.resolve("Main.jack"));
+        assertEquals(Daemon.OTHER_BUILD, Daemon.compile(socket, List.of(dir.resolve("Main.jack"))).failures);
+        assertFalse(Files.exists(dir.resolve("Main.xml")));
+        assertEquals(0, App.run(new String[] { "-client", "-socket", socket.toString(), dir.toString() }));
+        assertEquals(fromFile("Square/Main.xml").replaceAll("  ", ""), Files.readString(dir.resolve("Main.xml")));
+
+        assertTrue(Daemon.stop(socket));
+        daemon.join(10_000);
+        assertFalse(daemon.isAlive());
+    }
+
+    @Test
+    public void testClientFallsBackWithoutDaemon() throws IOException {
+        Path socket = folder.getRoot().toPath().resolve("none.sock");
+        assertNull(Daemon.compile(socket, List.of()));
+
+        Path dir = folder.newFolder("Square").toPath();
+        Files.copy(Paths.get("src/test/resources/Square/Main.jack"), dir.resolve("Main.jack"));
+
+        assertEquals(0, App.run(new String[] { "-client", "-socket", socket.toString(), dir.toString() }));
+        assertEquals(fromFile("Square/Main.xml").replaceAll("  ", ""), Files.readString(dir.resolve("Main.xml")));
+    }
+
+}
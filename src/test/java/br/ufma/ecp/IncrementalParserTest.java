@@ -0,0 +1,138 @@
+package br.ufma.ecp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import br.ufma.ecp.ast.Ast;
+import br.ufma.ecp.token.TokenStream;
+
+public class IncrementalParserTest extends TestSupport {
+
+  private static byte[] bytes(String s) {
+    return s.getBytes(StandardCharsets.UTF_8);
+  }
+
+  private static void edit(IncrementalParser parser, String before, String after) {
+    String source = new String(parser.source(), StandardCharsets.UTF_8);
+    int offset = source.indexOf(before);
+    parser.edit(offset, before.length(), bytes(after));
+  }
+
+  private static void assertSameAsFullParse(IncrementalParser incremental) {
+    var parser = new Parser(incremental.source());
+    parser.parse();
+    assertEquals(parser.diagnostics().toString(), incremental.diagnostics().toString());
+
+    TokenStream expected = parser.ast().tokens();
+    TokenStream actual = incremental.tokens();
+    assertEquals(expected.size(), actual.size());
+    for (int i = 0; i < expected.size(); i++) {
+      assertEquals(expected.type(i), actual.type(i));
+      assertEquals(expected.start(i), actual.start(i));
+      assertEquals(expected.length(i), actual.length(i));
+      assertEquals(expected.line(i), actual.line(i));
+    }
+
+    Ast expectedAst = parser.ast();
+    Ast actualAst = incremental.ast();
+    assertEquals(expectedAst.size(), actualAst.size());
+    for (int i = 0; i < expectedAst.size(); i++) {
+      assertEquals(expectedAst.kind(i), actualAst.kind(i));
+      assertEquals(expectedAst.token(i), actualAst.token(i));
+      assertEquals(expectedAst.end(i), actualAst.end(i));
+    }
+    assertEquals(parser.XMLOutput(), incremental.XMLOutput());
+  }
+
+  @Test
+  public void testEditReparsesOnlyTheEnclosingSubroutine() throws IOException {
+    var parser = new IncrementalParser(bytes(fromFile("Square/SquareGame.jack")));
+    int nodes = parser.ast().size();
+
+    edit(parser, "let direction = 0;", "let direction = 0; let direction = direction + 1;");
+    assertFalse(parser.wasFullParse());
+    assertTrue(parser.relexedTokens() < 20);
+    assertTrue(parser.reparsedNodes() < nodes / 4);
+    assertSameAsFullParse(parser);
+
+    edit(parser, "field int direction;", "field int direction, speed;");
+    assertFalse(parser.wasFullParse());
+    assertSameAsFullParse(parser);
+  }
+
+  @Test
+  public void testEditKeepingTokenTypesReusesTheTree() throws IOException {
+    var parser = new IncrementalParser(bytes(fromFile("Square/SquareGame.jack")));
+
+    edit(parser, "direction = 0", "heading = 100");
+    assertFalse(parser.wasFullParse());
+    assertEquals(0, parser.reparsedNodes());
+    assertSameAsFullParse(parser);
+
+    // a comment only moves the tokens after it
+    String source = new String(parser.source(), StandardCharsets.UTF_8);
+    parser.edit(source.indexOf("{") + 1, 0, bytes(" // game state\n"));
+    assertTrue(parser.relexedTokens() <= 1);
+    assertEquals(0, parser.reparsedNodes());
+    assertSameAsFullParse(parser);
+  }
+
+  @Test
+  public void testEditsThatChangeTheStructureParseEverything() throws IOException {
+    var parser = new IncrementalParser(bytes(fromFile("Square/SquareGame.jack")));
+
+    // a new member between two others
+    edit(parser, "   method void dispose()", "   function void f() { return; }\n   method void dispose()");
+    assertTrue(parser.wasFullParse());
+    assertSameAsFullParse(parser);
+
+    // a syntax error
+    edit(parser, "function void f()", "function void f(");
+    assertTrue(parser.wasFullParse());
+    assertEquals(1, parser.diagnostics().size());
+    assertSameAsFullParse(parser);
+
+    // the source had errors, then is valid again
+    edit(parser, "function void f(", "function void f()");
+    assertTrue(parser.wasFullParse());
+    assertEquals(0, parser.diagnostics().size());
+    assertSameAsFullParse(parser);
+  }
+
+  @Test
+  public void testRandomEditsMatchFullParse() throws IOException {
+    String[] fragments = { " ", "\n", "x", "1", ";", "}", "{", "(", "\"", "/*", "*/", "//",
+        "let x = x + 1; ", "do f(); ", "while (x) { } ", "var int k; ", "function void g() { return; } " };
+    var random = new Random(42);
+    var parser = new IncrementalParser(bytes(fromFile("Square/Square.jack")));
+    int incremental = 0;
+
+    for (int round = 0; round < 400; round++) {
+      byte[] source = parser.source();
+      int offset = random.nextInt(source.length + 1);
+      int removed = random.nextInt(3) == 0 ? random.nextInt(Math.min(8, source.length - offset) + 1) : 0;
+      byte[] inserted = bytes(random.nextInt(4) == 0 ? "" : fragments[random.nextInt(fragments.length)]);
+      byte[] removedBytes = Arrays.copyOfRange(source, offset, offset + removed);
+
+      parser.edit(offset, removed, inserted);
+      if (!parser.wasFullParse())
+        incremental++;
+      assertSameAsFullParse(parser);
+
+      // undo the edits that broke the source and half of the others
+      if (!parser.diagnostics().isEmpty() || random.nextBoolean()) {
+        parser.edit(offset, inserted.length, removedBytes);
+        assertSameAsFullParse(parser);
+      }
+    }
+    assertTrue(incremental > 20);
+  }
+}
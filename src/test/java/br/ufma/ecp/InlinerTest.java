@@ -0,0 +1,135 @@
+package br.ufma.ecp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class InlinerTest extends TestSupport {
+
+    private static List<VMWriter> compile(String... classes) {
+        List<VMWriter> units = new ArrayList<>();
+        for (String source : classes) {
+            Parser parser = new Parser(source.getBytes(StandardCharsets.UTF_8));
+            parser.parse();
+            assertEquals(0, parser.diagnostics().size());
+            VMWriter vm = new VMWriter();
+            vm.recordLinks(true);
+            new CodeGenerator(parser.ast(), vm).compileClass();
+            units.add(vm);
+        }
+        return units;
+    }
+
+    private static VMInterpreter load(List<VMWriter> units) {
+        VMInterpreter interpreter = new VMInterpreter();
+        for (VMWriter vm : units)
+            interpreter.load(vm.toString());
+        return interpreter;
+    }
+
+    private static final String POINT = """
+            class Point {
+              field int x, y;
+              static int count;
+              constructor Point new(int ax, int ay) { let x = ax; let y = ay; let count = count + 1; return this; }
+              method int getX() { return x; }
+              method void setY(int v) { let y = v; return; }
+              method int sum(int k) { return x + y + k; }
+              function int count() { return count; }
+              function int twice(int n) { return n + n; }
+              function int fact(int n) { if (n < 2) { return 1; } return n * Point.fact(n - 1); }
+            }
+            """;
+
+    private static final String MAIN = """
+            class Main {
+              field int z;
+              function int main() {
+                var Point p;
+                var int i, total;
+                let p = Point.new(3, 4);
+                while (i < 10) {
+                  do p.setY(i);
+                  let total = total + p.getX() + p.sum(Point.twice(i)) + Point.count();
+                  let i = i + 1;
+                }
+                do Output.printInt(Point.fact(5));
+                return total;
+              }
+            }
+            """;
+
+    @Test
+    public void testInlinedCodeComputesTheSame() {
+        List<VMWriter> units = compile(POINT, MAIN);
+        VMInterpreter plain = load(units);
+        int expected = plain.run("Main.main");
+
+        Inliner inliner = new Inliner(Inliner.DEFAULT_SIZE);
+        List<VMWriter> inlined = inliner.inline(units);
+        VMInterpreter fast = load(inlined);
+        assertEquals(expected, fast.run("Main.main"));
+        assertEquals(plain.output(), fast.output());
+        assertTrue(fast.steps() < plain.steps());
+
+        // count uses a static of Point, fact calls itself, new calls Memory.alloc
+        assertEquals(4, inliner.sitesInlined());
+        assertEquals(4, inliner.subroutinesInlined());
+        assertEquals(5, inliner.candidates());
+        assertEquals(4, inliner.framesSaved());
+        String main = inlined.get(1).toString();
+        assertFalse(main, main.contains("call Point.getX") || main.contains("call Point.twice"));
+        assertTrue(main, main.contains("call Point.count 0") && main.contains("call Point.fact 1"));
+    }
+
+    @Test
+    public void testMethodBodyUsesThat() {
+        String main = new Inliner(Inliner.DEFAULT_SIZE).inline(compile(POINT, MAIN)).get(1).toString();
+        // do p.setY(i): i to temp 2, p to pointer 1, y is that 1
+        assertTrue(main, main.contains("""
+                push local 0
+                push local 1
+                pop temp 2
+                pop pointer 1
+                push temp 2
+                pop that 1
+                push constant 0
+                pop temp 0
+                """));
+    }
+
+    @Test
+    public void testThreshold() {
+        Inliner none = new Inliner(0);
+        List<VMWriter> units = compile(POINT, MAIN);
+        List<VMWriter> inlined = none.inline(units);
+        assertEquals(0, none.sitesInlined());
+        for (int i = 0; i < units.size(); i++)
+            assertEquals(units.get(i).toString(), inlined.get(i).toString());
+
+        // getX is one command, twice three
+        Inliner small = new Inliner(1);
+        small.inline(units);
+        assertEquals(1, small.sitesInlined());
+    }
+
+    @Test
+    public void testSquareStillRuns() throws Exception {
+        List<VMWriter> units = compile(fromFile("Square/Square.jack"), fromFile("Square/SquareGame.jack"));
+        Inliner inliner = new Inliner(Inliner.DEFAULT_SIZE);
+        List<VMWriter> inlined = inliner.inline(units);
+        // the links of the new code are still right
+        for (VMWriter vm : inlined) {
+            for (int f = 0; f < vm.functionCount(); f++)
+                assertTrue(vm.text(vm.functionOffset(f), vm.size()).startsWith("function "));
+            for (int c = 0; c < vm.callCount(); c++)
+                assertTrue(vm.text(vm.callOffset(c), vm.size()).startsWith("call "));
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package br.ufma.ecp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import br.ufma.ecp.metrics.Histogram;
+import br.ufma.ecp.metrics.Metrics;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+// The registry and the JFR events are process-wide, and a daemon of
+// DaemonTest may still be warming up in the background, so the counts are
+// at least those of the test and the events are told apart by file.
+public class MetricsTest extends TestSupport {
+
+    private static final String SOURCE = "class A { function int f(int x) { return x + 1; } method void g() { return; } }";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testCountsPhases() {
+        Metrics metrics = Metrics.enable();
+        try {
+            byte[] input = SOURCE.getBytes(StandardCharsets.UTF_8);
+            Parser parser = new Parser(input);
+            parser.parse();
+            assertTrue(metrics.files() >= 1);
+            assertTrue(metrics.bytes() >= input.length);
+            assertTrue(metrics.tokens() >= 28);
+            assertTrue(metrics.subroutines() >= 2);
+            assertTrue(metrics.latency(Metrics.Phase.SCAN).count() >= 1);
+            assertTrue(metrics.latency(Metrics.Phase.PARSE).count() >= 1);
+            assertTrue(metrics.latency(Metrics.Phase.PARSE_SUBROUTINE).count() >= 2);
+        } finally {
+            Metrics.disable();
+        }
+        // nothing is counted when off
+        new Parser(SOURCE.getBytes(StandardCharsets.UTF_8)).parse();
+        assertNull(Metrics.current());
+        assertEquals(0, Metrics.start());
+    }
+
+    @Test
+    public void testHistogram() {
+        Histogram histogram = new Histogram();
+        for (int k = 1; k <= 100; k++)
+            histogram.add(k);
+        assertEquals(100, histogram.count());
+        assertEquals(5050, histogram.sum());
+        assertEquals(1, histogram.min());
+        assertEquals(100, histogram.max());
+        assertEquals(63, histogram.percentile(0.5)); // 50 is in [32, 64)
+        assertEquals(100, histogram.percentile(0.99));
+    }
+
+    @Test
+    public void testAppWritesJson() throws Throwable {
+        Path dir = folder.newFolder().toPath();
+        Files.copy(Paths.get("src/test/resources/Square/Main.jack"), dir.resolve("Main.jack"));
+        Path json = dir.resolve("metrics.json");
+        assertEquals(0, App.run(new String[] { "-target", "vm", "-metrics", json.toString(), dir.toString() }));
+        String text = Files.readString(json);
+        assertTrue(text, text.startsWith("{\n  \"seconds\": "));
+        assertTrue(text, Long.parseLong(field(text, "outputBytes")) >= Files.size(dir.resolve("Main.vm")));
+        assertTrue(text, Long.parseLong(field(text, "tokensPerSecond")) > 0);
+        for (String phase : List.of("scan", "parse", "parse_subroutine", "emit", "write"))
+            assertTrue(text, text.contains("\"" + phase + "\": {\"count\":"));
+        assertNull(Metrics.current());
+        // the daemon has its own process
+        assertEquals(2, App.run(new String[] { "-metrics", "-", "-client", dir.toString() }));
+    }
+
+    private static String field(String json, String name) {
+        int start = json.indexOf("\"" + name + "\": ") + name.length() + 4;
+        return json.substring(start, json.indexOf(',', start));
+    }
+
+    @Test
+    public void testFlightRecorderEvents() throws Throwable {
+        Path dir = folder.newFolder().toPath();
+        Files.writeString(dir.resolve("A.jack"), SOURCE);
+        Path file = dir.resolve("compile.jfr");
+        try (Recording recording = new Recording()) {
+            for (String event : List.of("Scan", "Parse", "ParseSubroutine", "Emit", "Write"))
+                recording.enable("br.ufma.ecp." + event).withoutThreshold();
+            recording.start();
+            assertEquals(0, App.run(new String[] { "-target", "vm", dir.toString() }));
+            recording.stop();
+            recording.dump(file);
+        }
+        List<String> subroutines = new ArrayList<>();
+        int scans = 0, writes = 0;
+        for (RecordedEvent event : RecordingFile.readAllEvents(file)) {
+            String name = event.getEventType().getName();
+            if (!dir.resolve("A.jack").toString().equals(event.getString("file")))
+                continue;
+            if (name.equals("br.ufma.ecp.Scan")) {
+                scans++;
+                assertEquals(SOURCE.length(), event.getLong("bytes"));
+                assertEquals(28, event.getInt("tokens"));
+            } else if (name.equals("br.ufma.ecp.ParseSubroutine")) {
+                subroutines.add(event.getString("name"));
+            } else if (name.equals("br.ufma.ecp.Write")) {
+                writes++;
+                assertEquals(Files.size(dir.resolve("A.vm")), event.getLong("bytes"));
+            }
+        }
+        assertEquals(1, scans);
+        assertEquals(1, writes);
+        assertEquals(List.of("f", "g"), subroutines);
+    }
+}
@@ -2,11 +2,17 @@ package br.ufma.ecp;
 
 import static org.junit.Assert.assertEquals;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.List;
 
 import org.junit.Test;
 
+import br.ufma.ecp.ast.NodeKind;
 import br.ufma.ecp.token.Token;
 import br.ufma.ecp.token.TokenType;
 
@@ -243,4 +249,166 @@ public class ParserTest extends TestSupport {
     assertEquals(expectedResult, result);
   }
 
-}
\ No newline at end of file
+  @Test
+  public void testParserStreamingOutput() throws IOException {
+    var input = fromFile("Square/Square.jack").getBytes(StandardCharsets.UTF_8);
+
+    var parser = new Parser(input);
+    parser.parse();
+    var expectedResult = parser.XMLOutput();
+
+    var writer = new StringWriter();
+    new Parser(input, writer).parse();
+    assertEquals(expectedResult, writer.toString());
+
+    var mapped = new Parser(Paths.get("src/test/resources/Square/Square.jack"));
+    mapped.parse();
+    assertEquals(expectedResult, mapped.XMLOutput());
+
+    var stream = new ByteArrayOutputStream();
+    new Parser(input, stream).parse();
+    assertEquals(expectedResult, stream.toString(StandardCharsets.UTF_8));
+  }
+
+  // the scanner on its own thread, through a ring far smaller than the file
+  @Test
+  public void testPipelinedParser() throws IOException {
+    var big = new StringBuilder("class Big {\n  field int x;\n");
+    for (int k = 0; k < 2000; k++)
+      big.append("  method int f").append(k).append("(int a) { let x = a + ").append(k).append("; return x * 2; }\n");
+    big.append("}\n");
+    var inputs = List.of(fromFile("Square/Square.jack"), fromFile("Square/SquareGame.jack"), big.toString(),
+        "class Main { field int x y; method void f() { let x = ; } } /* open", "", "class A { } trailing ~ $");
+    for (var text : inputs) {
+      var input = text.getBytes(StandardCharsets.UTF_8);
+      var parser = new Parser(input);
+      parser.parse();
+      var pipelined = Parser.pipelined(ByteBuffer.wrap(input));
+      pipelined.parse();
+      assertEquals(parser.XMLOutput(), pipelined.XMLOutput());
+      assertEquals(parser.diagnostics().toString(), pipelined.diagnostics().toString());
+      assertEquals(parser.ast().tokens().size(), pipelined.ast().tokens().size());
+
+      var writer = new StringWriter();
+      Parser.pipelined(ByteBuffer.wrap(input), writer).parse();
+      assertEquals(parser.XMLOutput(), writer.toString());
+    }
+  }
+
+  // the scanner thread of a pipelined parser that is never parsed stops
+  // once the parser is collected
+  @Test(timeout = 30_000)
+  public void testAbandonedPipelinedParser() throws InterruptedException {
+    var big = new StringBuilder("class Big {\n");
+    for (int k = 0; k < 5000; k++)
+      big.append("  function void f").append(k).append("() { return; }\n");
+    big.append("}\n");
+    Parser.pipelined(ByteBuffer.wrap(big.toString().getBytes(StandardCharsets.UTF_8)));
+    while (scanning()) {
+      System.gc();
+      Thread.sleep(10);
+    }
+  }
+
+  private static boolean scanning() {
+    for (var stack : Thread.getAllStackTraces().values()) {
+      for (var frame : stack) {
+        if (frame.getMethodName().equals("tokenizeInto"))
+          return true;
+      }
+    }
+    return false;
+  }
+
+  @Test
+  public void testParseExpressionAst() {
+    var input = "10+x";
+    var parser = new Parser(input.getBytes(StandardCharsets.UTF_8));
+    parser.parseExpression();
+    var ast = parser.ast();
+
+    // expression(term(10) + term(x))
+    assertEquals(6, ast.size());
+    assertEquals(NodeKind.EXPRESSION, ast.kind(0));
+    assertEquals(6, ast.end(0));
+
+    int term = ast.firstChild(0);
+    assertEquals(NodeKind.TERM, ast.kind(term));
+    assertEquals("10", ast.tokens().text(ast.token(ast.firstChild(term))));
+
+    int plus = ast.nextSibling(0, term);
+    assertEquals(NodeKind.TOKEN, ast.kind(plus));
+    assertEquals(TokenType.PLUS, ast.tokens().type(ast.token(plus)));
+
+    term = ast.nextSibling(0, plus);
+    assertEquals("x", ast.tokens().text(ast.token(ast.firstChild(term))));
+    assertEquals(-1, ast.nextSibling(0, term));
+  }
+
+  @Test
+  public void testParserRecoversFromErrors() {
+    var input = """
+        class Main {
+          field int x y;
+          function void main() {
+            var int a;
+            let a = ;
+            do Output.printInt(a;
+            if (a { let a = 1; }
+            return;
+          }
+          method void f() {
+            let x = 1
+          }
+          method int g() { return 0; }
+        }
+        /* open""";
+    var parser = new Parser(input.getBytes(StandardCharsets.UTF_8));
+    parser.parse();
+
+    var errors = parser.diagnostics();
+    assertEquals(6, errors.size());
+    assertEquals("[line 2, column 15] Error at 'y': Expected ';'", errors.get(0).toString());
+    assertEquals("[line 5, column 13] Error at ';': Expected a term", errors.get(1).toString());
+    assertEquals("[line 6, column 25] Error at ';': Expected ')'", errors.get(2).toString());
+    assertEquals("'{'", errors.get(3).found);
+    assertEquals("')'", errors.get(3).expected);
+    assertEquals(7, errors.get(3).line);
+    assertEquals("[line 12, column 3] Error at '}': Expected ';'", errors.get(4).toString());
+    assertEquals("[line 15, column 1] Error at '/*': Unterminated comment", errors.get(5).toString());
+  }
+
+  @Test
+  public void testValidInputHasNoDiagnostics() throws IOException {
+    var parser = new Parser(fromFile("Square/SquareGame.jack").getBytes(StandardCharsets.UTF_8));
+    parser.parse();
+    assertEquals(0, parser.diagnostics().size());
+  }
+
+  @Test
+  public void testParseTermSubroutineCall() {
+    var input = "f(x)";
+    var parser = new Parser(input.getBytes(StandardCharsets.UTF_8));
+    parser.parseTerm();
+    var expectedResult = """
+        <term>
+        <identifier> f </identifier>
+        <symbol> ( </symbol>
+        <expressionList>
+        <expression>
+        <term>
+        <identifier> x </identifier>
+        </term>
+        </expression>
+        </expressionList>
+        <symbol> ) </symbol>
+        </term>
+        """;
+
+    var result = parser.XMLOutput();
+    expectedResult = expectedResult.replaceAll("  ", "");
+    result = result.replaceAll("\r", "");
+    assertEquals(expectedResult, result);
+  }
+
+}
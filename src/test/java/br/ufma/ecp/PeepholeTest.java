@@ -0,0 +1,146 @@
+package br.ufma.ecp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import org.junit.Test;
+
+public class PeepholeTest extends TestSupport {
+
+    private static VMWriter writer(String code) {
+        VMWriter vm = new VMWriter();
+        vm.writeText(VMWriter.bytes(code));
+        return vm;
+    }
+
+    private static String optimize(String code, Peephole.Rule... rules) {
+        VMWriter vm = writer(code);
+        new Peephole(List.of(rules)).optimize(vm);
+        return vm.toString();
+    }
+
+    private static String compile(String source, Optimizations optimizations) {
+        Parser parser = new Parser(source.getBytes(StandardCharsets.UTF_8));
+        parser.parse();
+        assertEquals(0, parser.diagnostics().size());
+        VMWriter vm = new VMWriter();
+        new CodeGenerator(parser.ast(), vm, optimizations).compileClass();
+        return vm.toString();
+    }
+
+    @Test
+    public void testDecodeWritesTheSameCode() throws Exception {
+        for (String name : new String[] { "Main", "Square", "SquareGame" }) {
+            String code = fromFile("Square/" + name + ".vm");
+            VMWriter vm = writer(code);
+            VMCode.decode(vm).writeTo(vm);
+            assertEquals(code, vm.toString());
+        }
+    }
+
+    @Test
+    public void testRules() {
+        assertEquals("function A.f 0\npush argument 0\nreturn\n", optimize(
+                "function A.f 0\npush argument 0\npush local 1\npop local 1\nnot\nnot\npush constant 0\nadd\nreturn\n",
+                Peephole.Builtin.PUSH_POP, Peephole.Builtin.DOUBLE_NEGATION, Peephole.Builtin.IDENTITY));
+
+        // while (true) { ... } and if (false) { ... }
+        assertEquals("label WHILE_EXP0\ncall A.g 0\npop temp 0\ngoto WHILE_EXP0\nlabel WHILE_END0\n", optimize(
+                "label WHILE_EXP0\npush constant 0\nnot\nnot\nif-goto WHILE_END0\ncall A.g 0\npop temp 0\n"
+                        + "goto WHILE_EXP0\nlabel WHILE_END0\n",
+                Peephole.Builtin.DOUBLE_NEGATION, Peephole.Builtin.CONSTANT_BRANCH));
+        assertEquals("goto IF_TRUE0\n", optimize("push constant 0\nnot\nif-goto IF_TRUE0\n",
+                Peephole.Builtin.CONSTANT_BRANCH));
+
+        assertEquals("push local 0\nif-goto L\n", optimize("push local 0\npush constant 0\neq\nnot\nif-goto L\n",
+                Peephole.Builtin.ZERO_TEST));
+
+        // pop temp 0; push temp 0 stays while temp 0 is read later
+        String roundTrip = "pop temp 0\npush temp 0\npop temp 0\n";
+        assertEquals("pop temp 0\n", optimize(roundTrip, Peephole.Builtin.TEMP_ROUND_TRIP));
+        String live = "pop temp 0\npush temp 0\npush temp 0\nadd\n";
+        assertEquals(live, optimize(live, Peephole.Builtin.TEMP_ROUND_TRIP));
+    }
+
+    @Test
+    public void testControlFlowRules() {
+        var all = Peephole.of(Peephole.allRules());
+        // if (x < 1) { return 1; } return 2;
+        VMWriter vm = writer("""
+                function A.f 0
+                push argument 0
+                push constant 1
+                lt
+                if-goto IF_TRUE0
+                goto IF_FALSE0
+                label IF_TRUE0
+                push constant 1
+                return
+                goto IF_END0
+                label IF_FALSE0
+                label IF_END0
+                push constant 2
+                return
+                """);
+        Peephole.Result result = all.optimize(vm);
+        assertEquals("""
+                function A.f 0
+                push argument 0
+                push constant 1
+                lt
+                if-goto IF_TRUE0
+                goto IF_FALSE0
+                label IF_TRUE0
+                push constant 1
+                return
+                label IF_FALSE0
+                push constant 2
+                return
+                """, vm.toString());
+        assertEquals(14, result.instructionsBefore);
+        assertEquals(12, result.instructionsAfter);
+        assertTrue(result.cyclesAfter < result.cyclesBefore);
+    }
+
+    @Test
+    public void testSameResults() {
+        String source = """
+                class Main {
+                  function int main() {
+                    var int i, total;
+                    while (true) {
+                      if (i > 9) { return total; }
+                      if (~(i = 3)) { let total = total + (i | 0) - 0; } else { let total = total & true; }
+                      if (false) { let total = 1000; }
+                      let i = i + 1;
+                    }
+                    return 0;
+                  }
+                }
+                """;
+        String plain = compile(source, Optimizations.none());
+        Optimizations optimizations = new Optimizations(0, Peephole.allRules());
+        String optimized = compile(source, optimizations);
+
+        VMInterpreter before = new VMInterpreter().load(plain);
+        VMInterpreter after = new VMInterpreter().load(optimized);
+        assertEquals(before.run("Main.main"), after.run("Main.main"));
+        assertTrue(after.steps() < before.steps());
+
+        Peephole.Result result = optimizations.peepholeResults().get("Main");
+        assertEquals(plain.split("\n").length, result.instructionsBefore);
+        assertEquals(optimized.split("\n").length, result.instructionsAfter);
+        assertTrue(optimizations.toString(), optimizations.toString().contains("\n  Main: "));
+    }
+
+    @Test
+    public void testParseRules() {
+        assertEquals(Peephole.allRules(), Peephole.parseRules("all"));
+        int mask = Peephole.parseRules("goto-next,dead-label");
+        assertEquals(List.of(Peephole.Builtin.GOTO_NEXT, Peephole.Builtin.DEAD_LABEL), Peephole.of(mask).rules());
+        assertEquals(2, App.run(new String[] { "-peephole", "no-such-rule", "x.jack" }));
+    }
+}
@@ -0,0 +1,50 @@
+package br.ufma.ecp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ProfileReportTest extends TestSupport {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    // App -profile-loops, a run dumping the RAM, the report from the files
+    @Test
+    public void testReportFromDump() throws Throwable {
+        Path dir = folder.newFolder("Sort").toPath();
+        Files.copy(Paths.get("src/test/resources/Programs/Sort/Main.jack"), dir.resolve("Main.jack"));
+        assertEquals(0, App.run(new String[] { "-target", "asm", "-profile-loops", dir.toString(),
+                "src/test/resources/OS" }));
+
+        HackAssembler program = new HackAssembler(Files.readString(dir.resolve("Main.asm")));
+        HackEmulator emulator = AsmGeneratorTest.run(program);
+        Path dump = dir.resolve("ram.txt");
+        emulator.dump(dump);
+
+        List<String> map = Files.readAllLines(dir.resolve("Main.profile"));
+        assertTrue(map.contains(HackEmulator.PROFILE + " Main.main"));
+        assertTrue(map.stream().anyMatch(line -> line.endsWith(" Math.multiply:while@27")));
+        int[] ram = Files.readAllLines(dump).stream().mapToInt(Integer::parseInt).toArray();
+        String[] report = ProfileReport.report(map, ram, 3).split("\n");
+
+        assertEquals(5, report.length);
+        assertTrue(report[0].startsWith("region "));
+        // the multiplications of the sort's random numbers
+        assertTrue(report[1], report[1].startsWith("Math.multiply:while@27 "));
+        assertTrue(report[4].startsWith("total "));
+    }
+
+    @Test
+    public void testProfileNeedsAsm() {
+        assertEquals(2, App.run(new String[] { "-target", "vm", "-profile", "src/test/resources/OS" }));
+    }
+}
@@ -1,9 +1,18 @@
 package br.ufma.ecp;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import org.junit.Test;
 
@@ -54,4 +63,146 @@ public class ScannerTest extends TestSupport {
         assertEquals(expectedResult, result.toString());
     }
 
+    @Test
+    public void testTokenizeMatchesNextToken() throws IOException {
+        var input = fromFile("Square/Square.jack") + " 42 # \"<\" /";
+
+        var tokens = new Scanner(input.getBytes(StandardCharsets.UTF_8)).tokenize();
+        var scanner = new Scanner(input.getBytes(StandardCharsets.UTF_8));
+
+        var xml = new StringBuilder();
+        int i = 0;
+        for (Token tk = scanner.nextToken(); tk.type != TokenType.EOF; tk = scanner.nextToken(), i++) {
+            assertEquals(tk.type, tokens.type(i));
+            assertEquals(tk.lexeme(), tokens.text(i));
+            assertEquals(tk.line, tokens.line(i));
+
+            xml.setLength(0);
+            tokens.appendXml(i, xml);
+            assertEquals(tk.toString(), xml.toString());
+        }
+        assertEquals(TokenType.EOF, tokens.type(i));
+        assertEquals(i + 1, tokens.size());
+    }
+
+    @Test
+    public void testKeywords() {
+        var input = "class constructor function method field static var int char boolean void "
+                + "true false null this let do if else while return "
+                + "classe clas Class i iff do_ returns thi _this";
+        var expected = new TokenType[] {
+                TokenType.CLASS, TokenType.CONSTRUCTOR, TokenType.FUNCTION, TokenType.METHOD,
+                TokenType.FIELD, TokenType.STATIC, TokenType.VAR, TokenType.INT, TokenType.CHAR,
+                TokenType.BOOLEAN, TokenType.VOID, TokenType.TRUE, TokenType.FALSE, TokenType.NULL,
+                TokenType.THIS, TokenType.LET, TokenType.DO, TokenType.IF, TokenType.ELSE,
+                TokenType.WHILE, TokenType.RETURN };
+
+        var scanner = new Scanner(input.getBytes(StandardCharsets.UTF_8));
+        for (TokenType type : expected) {
+            assertEquals(type, scanner.nextToken().type);
+        }
+        for (Token tk = scanner.nextToken(); tk.type != TokenType.EOF; tk = scanner.nextToken()) {
+            assertEquals(tk.lexeme(), TokenType.IDENT, tk.type);
+        }
+    }
+
+    @Test
+    public void testMappedFileMatchesBytes() throws IOException {
+        var file = Paths.get("src/test/resources/Square/SquareGame.jack");
+
+        var tokens = new Scanner(file).tokenize();
+        var expected = new Scanner(Files.readAllBytes(file)).tokenize();
+
+        assertEquals(expected.size(), tokens.size());
+        for (int i = 0; i < tokens.size(); i++) {
+            assertEquals(expected.token(i).toString(), tokens.token(i).toString());
+            assertEquals(expected.line(i), tokens.line(i));
+        }
+    }
+
+    // The word-at-a-time loops give the same tokens, lines and errors as the
+    // byte-at-a-time ones: on the sources, the benchmark corpus, and random
+    // runs of blanks, comments, names, numbers, non-ASCII and NUL bytes that
+    // put every byte class at every offset of a word.
+    @Test
+    public void testSwarMatchesScalar() throws IOException {
+        var inputs = new ArrayList<byte[]>();
+        for (var dir : List.of("src/test/resources", "src/jmh/resources/corpus")) {
+            try (Stream<Path> files = Files.walk(Paths.get(dir))) {
+                for (var file : files.filter(f -> f.toString().endsWith(".jack")).sorted().collect(Collectors.toList()))
+                    inputs.add(Files.readAllBytes(file));
+            }
+        }
+        String[] pieces = { " ", "    ", "\t", "\n", "\r\n", "// note\n", "//", "/* a\n b */", "/**/", "/* **\n*/",
+                "*", "/", "x", "_a9", "Abc_Z", "@[`{", "let", "0", "1234567890", "\"str\"", "\u00e9", "\0", "{", ";", "/*" };
+        var random = new Random(24);
+        for (int n = 0; n < 2000; n++) {
+            var text = new StringBuilder();
+            for (int k = random.nextInt(40); k > 0; k--)
+                text.append(pieces[random.nextInt(pieces.length)]);
+            inputs.add(text.toString().getBytes(StandardCharsets.UTF_8));
+        }
+
+        for (var input : inputs) {
+            var fast = new Scanner(input);
+            var slow = new Scanner(input);
+            fast.useSwar(true);
+            slow.useSwar(false);
+            var expected = slow.tokenize();
+            var tokens = fast.tokenize();
+            var text = new String(input, StandardCharsets.UTF_8);
+            assertEquals(text, expected.size(), tokens.size());
+            for (int i = 0; i < tokens.size(); i++) {
+                assertEquals(text, expected.type(i), tokens.type(i));
+                assertEquals(text, expected.start(i), tokens.start(i));
+                assertEquals(text, expected.length(i), tokens.length(i));
+                assertEquals(text, expected.line(i), tokens.line(i));
+            }
+            assertEquals(text, slow.diagnostics().toString(), fast.diagnostics().toString());
+        }
+    }
+
+    // a newline right after the stars that do not close a comment still counts
+    @Test
+    public void testBlockCommentLines() {
+        var tokens = new Scanner("/* a **\n b\n**/ x".getBytes(StandardCharsets.UTF_8)).tokenize();
+        assertEquals(TokenType.IDENT, tokens.type(0));
+        assertEquals(3, tokens.line(0));
+    }
+
+    // Tokens are views: the lexeme is decoded once, numbers are read in place
+    @Test
+    public void testTokenViews() {
+        var scanner = new Scanner("let x = 32767; \"ol\u00e1\" while".getBytes(StandardCharsets.UTF_8));
+        var let = scanner.nextToken();
+        assertEquals(TokenType.LET, let.type);
+        assertSame(TokenType.LET.value, let.lexeme());
+        var x = scanner.nextToken();
+        assertSame(x.lexeme(), x.lexeme());
+        assertEquals("x", x.lexeme());
+        scanner.nextToken();
+        assertEquals(32767, scanner.nextToken().intValue());
+        scanner.nextToken();
+        assertEquals("<stringConstant> ol\u00e1 </stringConstant>", scanner.nextToken().toString());
+        assertEquals("while", scanner.nextToken().lexeme());
+        assertEquals("EOF", scanner.nextToken().lexeme());
+        assertEquals(12, new Token(TokenType.NUMBER, "12", 1).intValue());
+    }
+
+    // 32767 is the largest integer constant; the value of a larger one
+    // saturates instead of wrapping around
+    @Test
+    public void testIntegerConstantRange() {
+        var scanner = new Scanner("32767 32768 3000000000 99999999999999999999".getBytes(StandardCharsets.UTF_8));
+        var tokens = scanner.tokenize();
+        assertEquals(32767, tokens.intValue(0));
+        assertEquals(32768, tokens.intValue(1));
+        assertEquals(Integer.MAX_VALUE, tokens.intValue(2));
+        assertEquals(Integer.MAX_VALUE, tokens.token(3).intValue());
+        assertEquals(Integer.MAX_VALUE, new Token(TokenType.NUMBER, "3000000000", 1).intValue());
+        assertEquals(List.of("[line 1, column 7] Error at '32768': Integer constant out of range",
+                "[line 1, column 13] Error at '3000000000': Integer constant out of range",
+                "[line 1, column 24] Error at '99999999999999999999': Integer constant out of range"),
+                scanner.diagnostics().stream().map(Object::toString).collect(Collectors.toList()));
+    }
 }
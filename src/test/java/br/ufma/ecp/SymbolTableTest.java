@@ -0,0 +1,68 @@
+package br.ufma.ecp;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+import br.ufma.ecp.SymbolTable.Kind;
+import br.ufma.ecp.token.TokenStream;
+
+public class SymbolTableTest extends TestSupport {
+
+  // identifiers at token indices 0..5
+  private static TokenStream tokens() {
+    return new Scanner("x int y Point x z".getBytes(StandardCharsets.UTF_8)).tokenize();
+  }
+
+  @Test
+  public void testScopes() {
+    var tokens = tokens();
+    var symbols = new SymbolTable(tokens);
+    symbols.startClass();
+    symbols.define(0, 1, Kind.FIELD);  // field int x
+    symbols.define(2, 3, Kind.STATIC); // static Point y
+    symbols.startSubroutine(true);
+    symbols.define(5, 1, Kind.ARG);    // int z, after this
+
+    int x = symbols.resolve(4);        // the second x
+    assertEquals(Kind.FIELD, symbols.kind(x));
+    assertEquals(0, symbols.index(x));
+    assertEquals(1, symbols.type(x));
+
+    int y = symbols.resolve(2);
+    assertEquals(Kind.STATIC, symbols.kind(y));
+    assertEquals("Point", tokens.text(symbols.type(y)));
+
+    int z = symbols.resolve(5);
+    assertEquals(Kind.ARG, symbols.kind(z));
+    assertEquals(1, symbols.index(z));
+
+    // a local shadows the field, until the next subroutine
+    symbols.define(4, 1, Kind.VAR);
+    assertEquals(Kind.VAR, symbols.kind(symbols.resolve(0)));
+    assertEquals(1, symbols.varCount(Kind.VAR));
+
+    symbols.startSubroutine(false);
+    assertEquals(Kind.FIELD, symbols.kind(symbols.resolve(0)));
+    assertEquals(-1, symbols.resolve(5));
+    assertEquals(-1, symbols.resolve(3)); // a class name
+  }
+
+  @Test
+  public void testManyIdentifiers() {
+    var source = new StringBuilder();
+    for (int i = 0; i < 1000; i++)
+      source.append("v").append(i).append(' ');
+    var tokens = new Scanner(ByteBuffer.wrap(source.toString().getBytes(StandardCharsets.UTF_8))).tokenize();
+    var symbols = new SymbolTable(tokens);
+    symbols.startClass();
+    symbols.startSubroutine(false);
+    for (int i = 0; i < 1000; i++)
+      symbols.define(i, i, Kind.VAR);
+    for (int i = 0; i < 1000; i++)
+      assertEquals(i, symbols.index(symbols.resolve(i)));
+  }
+}
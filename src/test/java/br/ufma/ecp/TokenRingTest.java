@@ -0,0 +1,91 @@
+package br.ufma.ecp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.Test;
+
+import br.ufma.ecp.token.TokenRing;
+import br.ufma.ecp.token.TokenStream;
+import br.ufma.ecp.token.TokenType;
+
+public class TokenRingTest extends TestSupport {
+
+    private static final ByteBuffer NO_SOURCE = ByteBuffer.allocate(0);
+
+    // a ring much smaller than the stream keeps the producer waiting
+    @Test(timeout = 10_000)
+    public void testBackpressureKeepsOrder() {
+        TokenRing ring = new TokenRing(8);
+        assertEquals(8, ring.capacity());
+        int count = 100_000;
+        CompletableFuture<Void> producer = CompletableFuture.runAsync(() -> {
+            for (int k = 0; k < count; k++)
+                ring.put(k == count - 1 ? TokenType.EOF : TokenType.IDENT, k, k & 7, k / 10);
+        });
+        TokenStream tokens = new TokenStream(NO_SOURCE);
+        while (tokens.size() < count) {
+            int taken = ring.drainTo(tokens);
+            assertTrue(taken >= 1 && taken <= ring.capacity());
+        }
+        producer.join();
+        for (int k = 0; k < count; k++) {
+            assertEquals(k, tokens.start(k));
+            assertEquals(k & 7, tokens.length(k));
+            assertEquals(k / 10, tokens.line(k));
+        }
+        assertEquals(TokenType.EOF, tokens.type(count - 1));
+    }
+
+    // the records before the failure arrive, then the failure itself
+    @Test(timeout = 10_000)
+    public void testFailureReachesConsumer() {
+        TokenRing ring = new TokenRing(16);
+        IllegalStateException failure = new IllegalStateException("scanner died");
+        CompletableFuture.runAsync(() -> {
+            ring.put(TokenType.CLASS, 0, 5, 1);
+            ring.put(TokenType.IDENT, 6, 4, 1);
+            ring.fail(failure);
+        });
+        TokenStream tokens = new TokenStream(NO_SOURCE);
+        try {
+            while (true)
+                ring.drainTo(tokens);
+        } catch (IllegalStateException e) {
+            assertSame(failure, e);
+        }
+        assertEquals(2, tokens.size());
+        assertEquals(TokenType.IDENT, tokens.type(1));
+    }
+
+    // a producer waiting on a full ring gives up once the consumer closes it
+    @Test(timeout = 10_000)
+    public void testCloseReleasesProducer() throws Exception {
+        TokenRing ring = new TokenRing(4);
+        CompletableFuture<Integer> producer = CompletableFuture.supplyAsync(() -> {
+            int put = 0;
+            while (ring.put(TokenType.IDENT, put, 1, 1))
+                put++;
+            return put;
+        });
+        TokenStream tokens = new TokenStream(NO_SOURCE);
+        ring.drainTo(tokens);
+        try {
+            producer.get(50, TimeUnit.MILLISECONDS);
+            fail("the producer should wait on the full ring");
+        } catch (TimeoutException expected) {
+        }
+        ring.close();
+        int put = producer.get(5, TimeUnit.SECONDS);
+        assertTrue(put >= ring.capacity());
+        assertFalse(ring.put(TokenType.EOF, 0, 0, 1));
+    }
+}
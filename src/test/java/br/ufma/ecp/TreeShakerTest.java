@@ -0,0 +1,102 @@
+package br.ufma.ecp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TreeShakerTest extends TestSupport {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path program(String... classes) throws IOException {
+        Path dir = folder.newFolder().toPath();
+        for (String source : classes) {
+            String name = source.substring("class ".length(), source.indexOf(' ', "class ".length()));
+            Files.writeString(dir.resolve(name + ".jack"), source);
+        }
+        return dir;
+    }
+
+    private int shake(Path dir, TreeShaker shaker, PrintStream err) throws IOException {
+        ForkJoinPool pool = new ForkJoinPool(2);
+        try {
+            return App.compileProgram(App.findSources(List.of(dir.toString())), Optimizations.none(), null, shaker,
+                    pool, err);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testKeepsOnlyReachable() throws IOException {
+        Path dir = program(
+                "class Main { function void main() { var Util u; let u = Util.new(); do u.used(); return; } }",
+                "class Util {\n"
+                        + "  constructor Util new() { return this; }\n"
+                        + "  method void used() { do helper(); return; }\n"
+                        + "  method void helper() { do Output.printInt(Math.abs(-1)); return; }\n"
+                        + "  method void unused() { do helper(); return; }\n"
+                        + "  function void alsoUnused() { do Dead.f(); return; }\n"
+                        + "}",
+                "class Dead { function void f() { return; } }");
+        Files.writeString(dir.resolve("Dead.vm"), "stale");
+
+        TreeShaker shaker = new TreeShaker();
+        assertEquals(0, shake(dir, shaker, System.err));
+
+        assertTrue(shaker.isReachable("Util.helper"));
+        assertFalse(shaker.isReachable("Util.unused"));
+        assertFalse(shaker.isReachable("Dead.f"));
+        assertEquals(4, shaker.functionsKept());
+        assertEquals(7, shaker.functions());
+        assertEquals(2, shaker.classesKept());
+        assertEquals(3, shaker.classes());
+
+        String util = Files.readString(dir.resolve("Util.vm"));
+        assertTrue(util, util.startsWith("function Util.new 0\n"));
+        assertTrue(util, util.contains("function Util.helper 0\n"));
+        assertFalse(util, util.contains("unused") || util.contains("alsoUnused"));
+        assertFalse(Files.exists(dir.resolve("Dead.vm")));
+        assertEquals(shaker.bytesKept(), Files.size(dir.resolve("Main.vm")) + Files.size(dir.resolve("Util.vm")));
+    }
+
+    @Test
+    public void testSquareIsAllReachable() throws IOException {
+        Path dir = folder.newFolder("Square").toPath();
+        for (String name : new String[] { "Main", "Square", "SquareGame" })
+            Files.copy(Paths.get("src/test/resources/Square/" + name + ".jack"), dir.resolve(name + ".jack"));
+
+        assertEquals(0, App.run(new String[] { "-target", "vm", "-shake", dir.toString() }));
+        // Main.more is never called
+        assertEquals(fromFile("Square/Main.vm").substring(0, fromFile("Square/Main.vm").indexOf("function Main.more")),
+                Files.readString(dir.resolve("Main.vm")));
+        for (String name : new String[] { "Square", "SquareGame" })
+            assertEquals(fromFile("Square/" + name + ".vm"), Files.readString(dir.resolve(name + ".vm")));
+
+        assertEquals(2, App.run(new String[] { "-shake", dir.toString() })); // -target vm only
+    }
+
+    @Test
+    public void testNoMain() throws IOException {
+        Path dir = program("class Util { function void f() { return; } }");
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        assertEquals(1, shake(dir, new TreeShaker(), new PrintStream(err, true, StandardCharsets.UTF_8)));
+        assertEquals("no Main.main in the program", err.toString(StandardCharsets.UTF_8).trim());
+        assertFalse(Files.exists(dir.resolve("Util.vm")));
+    }
+}
@@ -0,0 +1,304 @@
+package br.ufma.ecp;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// A small VM emulator for tests: runs the VM code of a program from a
+// function, with the OS functions our tests call (Math, Memory, Array,
+// String and Output but for moveCursor) built in, over a heap that is never
+// freed. Output goes to output(); Sys.error codes end the run as in the OS.
+class VMInterpreter {
+
+    private static final int SP = 0, LCL = 1, ARG = 2, THIS = 3, THAT = 4;
+    private static final int TEMP = 5, STATIC = 16, STACK = 256, HEAP = 2048;
+
+    private final short[] ram = new short[32768];
+    private final List<String[]> code = new ArrayList<>();
+    private final List<String> classOf = new ArrayList<>(); // for static
+    private final Map<String, Integer> labels = new HashMap<>(); // function$label and function names
+    private final Map<String, Integer> staticBase = new HashMap<>();
+    private final StringBuilder output = new StringBuilder();
+    private int heap = HEAP;
+    private int nextStatic = STATIC;
+    private long steps;
+
+    // Loads the VM code of one class; its statics get their own range.
+    VMInterpreter load(String vm) {
+        String function = null;
+        String className = null;
+        for (String line : vm.split("\n")) {
+            String[] command = line.trim().split(" ");
+            if (command[0].isEmpty())
+                continue;
+            if (command[0].equals("function")) {
+                function = command[1];
+                className = function.substring(0, function.indexOf('.'));
+                labels.put(function, code.size());
+                staticBase.putIfAbsent(className, nextStatic);
+            } else if (command[0].equals("label")) {
+                labels.put(function + "$" + command[1], code.size());
+                continue;
+            }
+            code.add(command);
+            classOf.add(function);
+        }
+        nextStatic += 16;
+        return this;
+    }
+
+    String output() {
+        return output.toString();
+    }
+
+    // commands run so far
+    long steps() {
+        return steps;
+    }
+
+    // Calls function with the arguments and returns its result, 0 if the
+    // program halted.
+    int run(String function, int... arguments) {
+        try {
+            return execute(function, arguments);
+        } catch (Halt halt) {
+            return 0;
+        }
+    }
+
+    private int execute(String function, int... arguments) {
+        ram[SP] = STACK;
+        for (int a : arguments)
+            push(a);
+        int pc = call(function, arguments.length, -1); // returning to -1 ends the run
+        while (pc >= 0) {
+            steps++;
+            String[] c = code.get(pc);
+            String current = classOf.get(pc);
+            pc++;
+            switch (c[0]) {
+                case "push":
+                    push(read(c[1], Integer.parseInt(c[2]), current));
+                    break;
+                case "pop":
+                    write(c[1], Integer.parseInt(c[2]), current, pop());
+                    break;
+                case "add": binary((a, b) -> a + b); break;
+                case "sub": binary((a, b) -> a - b); break;
+                case "and": binary((a, b) -> a & b); break;
+                case "or": binary((a, b) -> a | b); break;
+                case "eq": binary((a, b) -> a == b ? -1 : 0); break;
+                case "gt": binary((a, b) -> a > b ? -1 : 0); break;
+                case "lt": binary((a, b) -> a < b ? -1 : 0); break;
+                case "neg": push(-pop()); break;
+                case "not": push(~pop()); break;
+                case "goto":
+                    pc = labels.get(current + "$" + c[1]);
+                    break;
+                case "if-goto":
+                    if (pop() != 0)
+                        pc = labels.get(current + "$" + c[1]);
+                    break;
+                case "function":
+                    for (int i = 0; i < Integer.parseInt(c[2]); i++)
+                        push(0);
+                    break;
+                case "call":
+                    pc = call(c[1], Integer.parseInt(c[2]), pc);
+                    break;
+                case "return": {
+                    int frame = ram[LCL];
+                    int ret = ram[frame - 5];
+                    ram[ram[ARG]] = (short) pop();
+                    ram[SP] = (short) (ram[ARG] + 1);
+                    ram[THAT] = ram[frame - 1];
+                    ram[THIS] = ram[frame - 2];
+                    ram[ARG] = ram[frame - 3];
+                    ram[LCL] = ram[frame - 4];
+                    pc = ret;
+                    break;
+                }
+                default:
+                    throw new IllegalStateException("unknown command " + String.join(" ", c));
+            }
+        }
+        return pop();
+    }
+
+    private int call(String function, int nArgs, int returnTo) {
+        Integer target = labels.get(function);
+        if (target == null) {
+            int[] args = new int[nArgs];
+            for (int i = nArgs - 1; i >= 0; i--)
+                args[i] = pop();
+            push(os(function, args));
+            return returnTo;
+        }
+        push(returnTo);
+        push(ram[LCL]);
+        push(ram[ARG]);
+        push(ram[THIS]);
+        push(ram[THAT]);
+        ram[ARG] = (short) (ram[SP] - nArgs - 5);
+        ram[LCL] = ram[SP];
+        return target;
+    }
+
+    // Strings are blocks of length, capacity and the characters.
+    private int os(String function, int[] args) {
+        switch (function) {
+            case "Math.multiply":
+                return (short) (args[0] * args[1]);
+            case "Math.divide":
+                if (args[1] == 0)
+                    return error(3);
+                return (short) (args[0] / args[1]);
+            case "Math.abs":
+                return (short) Math.abs(args[0]);
+            case "Math.min":
+                return Math.min(args[0], args[1]);
+            case "Math.max":
+                return Math.max(args[0], args[1]);
+            case "Math.sqrt":
+                return (int) Math.sqrt(args[0]);
+            case "Memory.alloc":
+            case "Array.new": {
+                int block = heap;
+                heap += Math.max(args[0], 1);
+                return block;
+            }
+            case "Memory.deAlloc":
+            case "Array.dispose":
+            case "String.dispose":
+                return 0;
+            case "Memory.peek":
+                return ram[args[0]];
+            case "Memory.poke":
+                ram[args[0]] = (short) args[1];
+                return 0;
+            case "String.new": {
+                int s = heap;
+                heap += args[0] + 2;
+                ram[s] = 0;
+                ram[s + 1] = (short) args[0];
+                return s;
+            }
+            case "String.length":
+                return ram[args[0]];
+            case "String.charAt":
+                return ram[args[0] + 2 + args[1]];
+            case "String.setCharAt":
+                ram[args[0] + 2 + args[1]] = (short) args[2];
+                return 0;
+            case "String.appendChar":
+                if (ram[args[0]] == ram[args[0] + 1])
+                    return error(17);
+                ram[args[0] + 2 + ram[args[0]]] = (short) args[1];
+                ram[args[0]]++;
+                return args[0];
+            case "String.eraseLastChar":
+                ram[args[0]]--;
+                return 0;
+            case "String.intValue": {
+                String text = string(args[0]);
+                int k = text.startsWith("-") ? 1 : 0;
+                int value = 0;
+                for (; k < text.length() && Character.isDigit(text.charAt(k)); k++)
+                    value = (short) (value * 10 + text.charAt(k) - '0');
+                return text.startsWith("-") ? (short) -value : value;
+            }
+            case "String.setInt": {
+                String digits = Integer.toString(args[1]);
+                for (int k = 0; k < digits.length(); k++)
+                    ram[args[0] + 2 + k] = (short) digits.charAt(k);
+                ram[args[0]] = (short) digits.length();
+                return 0;
+            }
+            case "String.newLine":
+                return 128;
+            case "String.backSpace":
+                return 129;
+            case "String.doubleQuote":
+                return '"';
+            case "Output.printInt":
+                output.append(args[0]);
+                return 0;
+            case "Output.printString":
+                output.append(string(args[0]).replace((char) 128, '\n'));
+                return 0;
+            case "Output.printChar":
+                output.append(args[0] == 128 ? '\n' : (char) args[0]);
+                return 0;
+            case "Output.println":
+                output.append('\n');
+                return 0;
+            case "Sys.error":
+                return error(args[0]);
+            case "Sys.halt":
+                throw new Halt();
+            default:
+                throw new IllegalStateException("no function " + function);
+        }
+    }
+
+    private String string(int s) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < ram[s]; i++)
+            text.append((char) ram[s + 2 + i]);
+        return text.toString();
+    }
+
+    // Prints ERR<code> and ends the run, as Sys.error does.
+    private int error(int code) {
+        output.append("ERR").append(code).append('\n');
+        throw new Halt();
+    }
+
+    private static class Halt extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+    }
+
+    private int read(String segment, int index, String function) {
+        if (segment.equals("constant"))
+            return index;
+        return ram[address(segment, index, function)];
+    }
+
+    private void write(String segment, int index, String function, int value) {
+        ram[address(segment, index, function)] = (short) value;
+    }
+
+    private int address(String segment, int index, String function) {
+        switch (segment) {
+            case "argument": return ram[ARG] + index;
+            case "local": return ram[LCL] + index;
+            case "this": return ram[THIS] + index;
+            case "that": return ram[THAT] + index;
+            case "pointer": return THIS + index;
+            case "temp": return TEMP + index;
+            case "static": return staticBase.get(function.substring(0, function.indexOf('.'))) + index;
+            default: throw new IllegalStateException("unknown segment " + segment);
+        }
+    }
+
+    private interface Op {
+        int apply(int a, int b);
+    }
+
+    private void binary(Op op) {
+        int b = pop();
+        int a = pop();
+        push(op.apply(a, b));
+    }
+
+    private void push(int value) {
+        ram[ram[SP]] = (short) value;
+        ram[SP]++;
+    }
+
+    private int pop() {
+        ram[SP]--;
+        return ram[ram[SP]];
+    }
+}